@@ -26,6 +26,9 @@ module net.darmo_creations.bildumilo {
   // Logging
   requires org.slf4j;
 
+  // Diagnostics
+  requires jdk.jfr;
+
   // Config and CLI
   requires ini4j;
   requires com.google.gson;
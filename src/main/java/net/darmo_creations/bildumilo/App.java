@@ -107,7 +107,7 @@ public class App extends Application {
       final DatabaseConnection db;
       try {
         //noinspection resource
-        db = new DatabaseConnection(config.databaseFile());
+        db = new DatabaseConnection(config.databaseFile(), true, config.cacheMediasTags());
       } catch (final DatabaseOperationException e) {
         generateCrashReport(e);
         Platform.runLater(() -> {
@@ -1,5 +1,6 @@
 package net.darmo_creations.bildumilo;
 
+import javafx.application.*;
 import javafx.collections.*;
 import javafx.scene.*;
 import javafx.scene.control.*;
@@ -16,13 +17,19 @@ import org.jetbrains.annotations.*;
 
 import java.io.*;
 import java.nio.file.*;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.*;
 
 import static javafx.scene.control.TabPane.*;
 
 public class AppController implements ResultsView.SearchListener {
   private final DatabaseConnection db;
+  private final AsyncDatabaseConnection asyncDb;
+  private final DatabaseMaintenance maintenance;
+  @Nullable
+  private final DatabaseBackups backups;
 
   /**
    * The stage associated to this controller.
@@ -38,10 +45,13 @@ public class AppController implements ResultsView.SearchListener {
   private final EditTagDialog editTagDialog;
   private final SettingsDialog settingsDialog;
   private final AboutDialog aboutDialog;
+  private final DiagnosticsDialog diagnosticsDialog;
   private final ProgressDialog progressDialog;
+  private final ProgressDialog libraryProgressDialog;
   private final MoveMediaFilesDialog moveMediaFilesDialog;
   private final ImageViewerDialog imageViewerDialog;
   private final ManageSavedQueriesDialog manageSavedQueriesDialog;
+  private final BatchOperationsManager batchOperationsManager;
   private final BatchOperationsDialog batchOperationsDialog;
   private final MergeMediaTagsDialog mergeMediaTagsDialog;
 
@@ -82,8 +92,20 @@ public class AppController implements ResultsView.SearchListener {
     this.stage = Objects.requireNonNull(stage);
     this.config = config;
     this.db = db;
-    this.queriesManager = SavedQueriesManager.load(db);
+    this.asyncDb = new AsyncDatabaseConnection(db);
+    this.maintenance = new DatabaseMaintenance(db, this.asyncDb);
+    final BackupsConfig backupsConfig = config.backups();
+    this.backups = backupsConfig.enabled()
+        ? new DatabaseBackups(
+            db,
+            backupsConfig.resolveDirectory(config.databaseFile()),
+            Duration.ofHours(backupsConfig.interval()),
+            backupsConfig.keptBackups()
+        )
+        : null;
+    this.queriesManager = SavedQueriesManager.load(db, config);
     this.queriesManager.addQueriesUpdateListener(this::updateSavedQueries);
+    this.queriesManager.addResultsUpdateListener(() -> Platform.runLater(this::updateSavedQueries));
 
     final Theme theme = config.theme();
     theme.getAppIcon().ifPresent(icon -> stage.getIcons().add(icon));
@@ -92,19 +114,22 @@ public class AppController implements ResultsView.SearchListener {
     stage.setTitle(App.NAME + (config.isDebug() ? " [DEBUG]" : ""));
     stage.setMaximized(true);
 
-    this.editMediasDialog = new EditMediasDialog(config, db);
+    this.editMediasDialog = new EditMediasDialog(config, db, this.asyncDb);
     this.createTagDialog = new CreateTagDialog(config, db);
     this.createTagTypeDialog = new CreateTagTypeDialog(config, db);
     this.editTagTypeDialog = new EditTagTypeDialog(config, db);
     this.editTagDialog = new EditTagDialog(config, db);
-    this.settingsDialog = new SettingsDialog(config);
+    this.settingsDialog = new SettingsDialog(config, this.asyncDb);
     this.aboutDialog = new AboutDialog(config);
+    this.diagnosticsDialog = new DiagnosticsDialog(config, db);
     this.progressDialog = new ProgressDialog(config, "converting_python_db");
-    this.moveMediaFilesDialog = new MoveMediaFilesDialog(config, db);
+    this.libraryProgressDialog = new ProgressDialog(config, "library_transfer");
+    this.moveMediaFilesDialog = new MoveMediaFilesDialog(config, this.asyncDb);
     this.imageViewerDialog = new ImageViewerDialog(config);
     this.manageSavedQueriesDialog = new ManageSavedQueriesDialog(config, this.queriesManager);
-    this.batchOperationsDialog = new BatchOperationsDialog(config, db, BatchOperationsManager.load(db));
-    this.mergeMediaTagsDialog = new MergeMediaTagsDialog(config, db);
+    this.batchOperationsManager = BatchOperationsManager.load(db);
+    this.batchOperationsDialog = new BatchOperationsDialog(config, db, this.batchOperationsManager);
+    this.mergeMediaTagsDialog = new MergeMediaTagsDialog(config, this.asyncDb);
 
     this.tagsView = new TagsView(config, this.db);
 
@@ -130,8 +155,15 @@ public class AppController implements ResultsView.SearchListener {
 
     stage.setOnCloseRequest(event -> {
       JavaFxUtils.checkNoOngoingTask(config, event, this.progressDialog);
+      if (!event.isConsumed())
+        JavaFxUtils.checkNoOngoingTask(config, event, this.libraryProgressDialog);
       if (!event.isConsumed())
         try {
+          this.maintenance.close();
+          this.queriesManager.close();
+          if (this.backups != null)
+            this.backups.close();
+          this.asyncDb.close();
           this.db.close();
         } catch (final DatabaseOperationException e) {
           Alerts.databaseError(config, e.errorCode());
@@ -166,6 +198,12 @@ public class AppController implements ResultsView.SearchListener {
     importDirectoriesMenuItem.setOnAction(e -> this.onImportDirectories());
     importDirectoriesMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.D, KeyCombination.CONTROL_DOWN));
     this.menuItemStates.put(importDirectoriesMenuItem, importDirectoriesMenuItem.isDisable());
+    final MenuItem exportLibraryMenuItem = new MenuItem(language.translate("menu.file.export_library"));
+    exportLibraryMenuItem.setOnAction(e -> this.onExportLibrary());
+    this.menuItemStates.put(exportLibraryMenuItem, exportLibraryMenuItem.isDisable());
+    final MenuItem importLibraryMenuItem = new MenuItem(language.translate("menu.file.import_library"));
+    importLibraryMenuItem.setOnAction(e -> this.onImportLibrary());
+    this.menuItemStates.put(importLibraryMenuItem, importLibraryMenuItem.isDisable());
     final MenuItem settingsMenuItem = new MenuItem(
         language.translate("menu.file.settings"),
         theme.getIcon(Icon.SETTINGS, Icon.Size.SMALL)
@@ -184,6 +222,9 @@ public class AppController implements ResultsView.SearchListener {
         importFilesMenuItem,
         importDirectoriesMenuItem,
         new SeparatorMenuItem(),
+        exportLibraryMenuItem,
+        importLibraryMenuItem,
+        new SeparatorMenuItem(),
         settingsMenuItem,
         new SeparatorMenuItem(),
         quitMenuItem
@@ -358,7 +399,12 @@ public class AppController implements ResultsView.SearchListener {
     helpMenuItem.setAccelerator(new KeyCodeCombination(KeyCode.H, KeyCombination.CONTROL_DOWN));
     helpMenuItem.setDisable(true); // TEMP until help is done
     this.menuItemStates.put(helpMenuItem, helpMenuItem.isDisable());
-    helpMenu.getItems().addAll(aboutMenuItem, helpMenuItem);
+    final MenuItem diagnosticsMenuItem = new MenuItem(
+        language.translate("menu.help.diagnostics"),
+        theme.getIcon(Icon.DIAGNOSTICS, Icon.Size.SMALL)
+    );
+    diagnosticsMenuItem.setOnAction(e -> this.onDiagnostics());
+    helpMenu.getItems().addAll(aboutMenuItem, helpMenuItem, new SeparatorMenuItem(), diagnosticsMenuItem);
 
     return new MenuBar(fileMenu, editMenu, viewMenu, queriesMenu, toolsMenu, helpMenu);
   }
@@ -496,7 +542,9 @@ public class AppController implements ResultsView.SearchListener {
   }
 
   private void onResultsTabSelectionChanged(@NotNull Tab tab) {
-    this.onMediaSelectionChange(((ResultsView) tab.getContent()).getSelectedMediaFiles());
+    final ResultsView view = (ResultsView) tab.getContent();
+    this.onMediaSelectionChange(view.getSelectedMediaFiles());
+    this.tagsView.setResultsQuery(view.currentQuery().orElse(null));
     this.onResultsTabsUpdate();
   }
 
@@ -516,6 +564,7 @@ public class AppController implements ResultsView.SearchListener {
     view.addSimilarImagesListener(this::onSimilarImages);
     view.addSearchListener(this);
     final Tab tab = new Tab(title, view);
+    tab.setOnClosed(event -> view.dispose());
     this.resultsTabPane.getTabs().add(tab);
     this.resultsTabPane.getSelectionModel().select(tab);
     view.focusSearchBar();
@@ -528,12 +577,6 @@ public class AppController implements ResultsView.SearchListener {
     return (ResultsView) tab.getContent();
   }
 
-  private Stream<ResultsView> getResultsViews() {
-    return this.resultsTabPane.getTabs()
-        .stream()
-        .map(t -> (ResultsView) t.getContent());
-  }
-
   private void loadFiles(final @NotNull List<Path> filesOrDirs) {
     if (filesOrDirs.isEmpty())
       return;
@@ -577,7 +620,6 @@ public class AppController implements ResultsView.SearchListener {
     this.editMediasDialog.setMedias(mediaFiles, true);
     this.editMediasDialog.showAndWait().ifPresent(anyUpdate -> {
       if (anyUpdate) {
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       }
     });
@@ -671,7 +713,6 @@ public class AppController implements ResultsView.SearchListener {
     this.editTagTypeDialog.setTagType(tagType);
     this.editTagTypeDialog.showAndWait().ifPresent(type -> {
       this.tagsView.refresh();
-      this.getResultsViews().forEach(ResultsView::refresh);
     });
   }
 
@@ -692,7 +733,6 @@ public class AppController implements ResultsView.SearchListener {
       return;
     }
     this.tagsView.refresh();
-    this.getResultsViews().forEach(ResultsView::refresh);
   }
 
   private void onCreateTagType() {
@@ -710,7 +750,6 @@ public class AppController implements ResultsView.SearchListener {
     try {
       this.db.updateTags(updates);
       this.tagsView.refresh();
-      this.getResultsViews().forEach(ResultsView::refresh);
     } catch (final DatabaseOperationException e) {
       App.logger().error("Error updating tags", e);
     }
@@ -720,7 +759,6 @@ public class AppController implements ResultsView.SearchListener {
     this.editMediasDialog.setMedias(List.of(mediaFile), false);
     this.editMediasDialog.showAndWait().ifPresent(anyUpdate -> {
       if (anyUpdate) {
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       }
     });
@@ -777,6 +815,7 @@ public class AppController implements ResultsView.SearchListener {
   @Override
   public void onSearchEnd(int resultsCount) {
     this.restoreInteractions();
+    this.tagsView.setResultsQuery(this.getSelectedResultsView().currentQuery().orElse(null));
     final boolean noResults = resultsCount == 0;
     this.slideshowMenuItem.setDisable(noResults);
     this.slideshowButton.setDisable(noResults);
@@ -824,6 +863,59 @@ public class AppController implements ResultsView.SearchListener {
         .ifPresent(value -> this.loadFiles(List.of(value)));
   }
 
+  /**
+   * Export the whole library to a file chosen by the user.
+   */
+  private void onExportLibrary() {
+    final var path = FileChoosers.showLibraryFileSaver(this.config, this.stage);
+    if (path.isEmpty())
+      return;
+    this.disableInteractions();
+    this.libraryProgressDialog.show();
+    this.asyncDb.read(db -> db.exportLibrary(path.get(), this.libraryProgressDialog))
+        .whenCompleteAsync((exported, error) -> {
+          this.libraryProgressDialog.hide();
+          if (error != null) {
+            App.logger().error("Unable to export library", error);
+            Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+          } else if (exported)
+            Alerts.info(this.config, "alert.library_exported.header", "alert.library_exported.content", null,
+                new FormatArg("path", path.get()));
+          this.restoreInteractions();
+        }, Platform::runLater);
+  }
+
+  /**
+   * Import a library file chosen by the user into the current database.
+   */
+  private void onImportLibrary() {
+    final var path = FileChoosers.showLibraryFileChooser(this.config, this.stage);
+    if (path.isEmpty())
+      return;
+    this.disableInteractions();
+    this.libraryProgressDialog.show();
+    // Chunks are committed one by one, do not mix them with other writes
+    this.asyncDb.writeAlone(db -> db.importLibrary(path.get(), this.libraryProgressDialog))
+        .whenCompleteAsync((imported, error) -> {
+          this.libraryProgressDialog.hide();
+          // Some data may have been committed even if an error occurred
+          try {
+            this.queriesManager.reload();
+            this.batchOperationsManager.reload();
+          } catch (final DatabaseOperationException e) {
+            App.logger().error("Unable to reload saved queries and operation batches", e);
+          }
+          this.tagsView.refresh();
+          if (error != null) {
+            App.logger().error("Unable to import library", error);
+            Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+          } else
+            Alerts.info(this.config, "alert.library_imported.header", null, null,
+                new FormatArg("count", imported));
+          this.restoreInteractions();
+        }, Platform::runLater);
+  }
+
   /**
    * Open settings dialog.
    */
@@ -848,7 +940,6 @@ public class AppController implements ResultsView.SearchListener {
     this.editMediasDialog.setMedias(this.selectedMediaFiles, false);
     this.editMediasDialog.showAndWait().ifPresent(anyUpdate -> {
       if (anyUpdate) {
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       }
     });
@@ -858,7 +949,6 @@ public class AppController implements ResultsView.SearchListener {
     this.editTagDialog.setTag(tag);
     this.editTagDialog.showAndWait().ifPresent(t -> {
       this.tagsView.refresh();
-      this.getResultsViews().forEach(ResultsView::refresh);
     });
   }
 
@@ -885,22 +975,41 @@ public class AppController implements ResultsView.SearchListener {
     if (fromDisk.isEmpty())
       return;
 
-    final List<MediaFile> notDeleted = new LinkedList<>();
-    for (final var mediaFile : this.selectedMediaFiles) {
-      try {
-        this.db.deleteMedia(mediaFile, fromDisk.get());
-      } catch (final DatabaseOperationException e) {
-        notDeleted.add(mediaFile);
-      }
-    }
-    if (!notDeleted.isEmpty()) {
-      Alerts.error(this.config, "alert.deletion_error.header", null, null);
-      this.addResultsTab(this.config.language().translate("results_tabs.not_deleted.title"));
-      this.getSelectedResultsView().listMedias(notDeleted);
-    } else {
-      this.getResultsViews().forEach(ResultsView::refresh);
-      this.tagsView.refresh();
-    }
+    this.disableInteractions();
+    // All medias are deleted in a single transaction, files are deleted from the disk afterwards
+    final List<MediaFile> mediaFiles = List.copyOf(this.selectedMediaFiles);
+    this.asyncDb.write(db -> db.deleteMedias(mediaFiles, fromDisk.get()))
+        .whenCompleteAsync((filesDeletion, error) -> {
+          this.restoreInteractions();
+          if (error != null) {
+            Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+            return;
+          }
+          this.tagsView.refresh();
+          filesDeletion.thenAcceptAsync(this::onFilesDeletionErrors, Platform::runLater);
+        }, Platform::runLater);
+  }
+
+  /**
+   * Show the files that could not be deleted from the disk, if any.
+   *
+   * @param errors The errors that occurred for each media whose file could not be deleted.
+   */
+  private void onFilesDeletionErrors(final @NotNull Map<MediaFile, DatabaseOperationException> errors) {
+    if (errors.isEmpty())
+      return;
+    final String files = errors.keySet().stream()
+        .map(mediaFile -> mediaFile.path().toString())
+        .sorted()
+        .collect(Collectors.joining("\n"));
+    Alerts.error(
+        this.config,
+        "alert.deletion_error.header",
+        "alert.deletion_error.content",
+        null,
+        new FormatArg("count", errors.size()),
+        new FormatArg("files", files)
+    );
   }
 
   private void deleteSelectedTags() {
@@ -911,7 +1020,6 @@ public class AppController implements ResultsView.SearchListener {
         null))
       try {
         this.db.deleteTags(new HashSet<>(this.selectedTags));
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       } catch (final DatabaseOperationException e) {
         Alerts.databaseError(this.config, e.errorCode());
@@ -927,7 +1035,6 @@ public class AppController implements ResultsView.SearchListener {
     this.moveMediaFilesDialog.setMedias(this.selectedMediaFiles);
     this.moveMediaFilesDialog.showAndWait().ifPresent(anyUpdate -> {
       if (anyUpdate) {
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       }
     });
@@ -940,8 +1047,9 @@ public class AppController implements ResultsView.SearchListener {
     final MediaFile mediaFile2 = this.selectedMediaFiles.get(1);
     final Set<Tag> mediaTags1, mediaTags2;
     try {
-      mediaTags1 = this.db.getMediaTags(mediaFile1);
-      mediaTags2 = this.db.getMediaTags(mediaFile2);
+      final Map<Integer, int[]> mediasTags = this.db.getMediasTags(List.of(mediaFile1, mediaFile2));
+      mediaTags1 = this.db.getTags(mediasTags.get(mediaFile1.id()));
+      mediaTags2 = this.db.getTags(mediasTags.get(mediaFile2.id()));
     } catch (final DatabaseOperationException e) {
       Alerts.databaseError(this.config, e.errorCode());
       return;
@@ -949,7 +1057,6 @@ public class AppController implements ResultsView.SearchListener {
     this.mergeMediaTagsDialog.setMedias(mediaFile1, mediaTags1, mediaFile2, mediaTags2);
     this.mergeMediaTagsDialog.showAndWait().ifPresent(anyUpdate -> {
       if (anyUpdate) {
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       }
     });
@@ -959,14 +1066,15 @@ public class AppController implements ResultsView.SearchListener {
     this.batchOperationsDialog.setMedias(this.getSelectedResultsView().mediasFiles(), this.selectedMediaFiles);
     this.batchOperationsDialog.showAndWait().ifPresent(anyUpdate -> {
       if (anyUpdate) {
-        this.getResultsViews().forEach(ResultsView::refresh);
         this.tagsView.refresh();
       }
     });
   }
 
   private void onCloseResultsTab() {
-    this.resultsTabPane.getTabs().remove(this.resultsTabPane.getSelectionModel().getSelectedItem());
+    final Tab tab = this.resultsTabPane.getSelectionModel().getSelectedItem();
+    this.resultsTabPane.getTabs().remove(tab);
+    ((ResultsView) tab.getContent()).dispose();
   }
 
   /**
@@ -1022,10 +1130,20 @@ public class AppController implements ResultsView.SearchListener {
     final var path = FileChoosers.showDatabaseFileChooser(this.config, this.stage);
     if (path.isEmpty())
       return;
+    final var recomputeHashes = Alerts.confirmCheckbox(
+        this.config,
+        "alert.convert_python_db.header",
+        "alert.convert_python_db.recompute_hashes.label",
+        null,
+        false
+    );
+    if (recomputeHashes.isEmpty())
+      return;
     this.disableInteractions();
     this.progressDialog.show();
     DatabaseConnection.convertPythonDatabase(
         path.get(),
+        recomputeHashes.get(),
         newPath -> {
           this.progressDialog.hide();
           final boolean proceed = Alerts.confirmation(
@@ -1083,10 +1201,17 @@ public class AppController implements ResultsView.SearchListener {
     final ObservableList<MenuItem> menuItems = this.savedQueriesMenu.getItems();
     menuItems.subList(0, menuItems.size() - 2).clear(); // Remove all items except separator and manage item
     final List<SavedQuery> sortedQueries = this.queriesManager.entries();
+    final Language language = this.config.language();
     for (int i = 0; i < sortedQueries.size(); i++) {
       final SavedQuery savedQuery = sortedQueries.get(i);
-      final MenuItem item = new MenuItem(savedQuery.name());
-      item.setOnAction(event -> this.getSelectedResultsView().searchQuery(savedQuery.query()));
+      final OptionalInt count = this.queriesManager.getResultsCount(savedQuery.name());
+      final String label = count.isEmpty() ? savedQuery.name() : language.translate(
+          "menu.queries.saved_queries.query_with_count",
+          new FormatArg("name", savedQuery.name()),
+          new FormatArg("count", language.formatNumber(count.getAsInt()))
+      );
+      final MenuItem item = new MenuItem(label);
+      item.setOnAction(event -> this.getSelectedResultsView().searchSavedQuery(savedQuery.name()));
       if (i < KEYCODES.length)
         item.setAccelerator(new KeyCodeCombination(KEYCODES[i], KeyCombination.CONTROL_DOWN));
       menuItems.add(menuItems.size() - 2, item);
@@ -1102,6 +1227,13 @@ public class AppController implements ResultsView.SearchListener {
     System.out.println("help");
   }
 
+  /**
+   * Open database diagnostics dialog.
+   */
+  private void onDiagnostics() {
+    this.diagnosticsDialog.showAndWait();
+  }
+
   /**
    * Open about dialog.
    */
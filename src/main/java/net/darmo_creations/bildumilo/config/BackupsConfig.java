@@ -0,0 +1,48 @@
+package net.darmo_creations.bildumilo.config;
+
+import org.jetbrains.annotations.*;
+
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Configuration of the automatic database backups.
+ *
+ * @param enabled     Whether backups are made automatically.
+ * @param directory   The directory where backups are stored. If relative, it is relative to the database file’s
+ *                    directory, see {@link #resolveDirectory(Path)}.
+ * @param interval    The delay between two backups in hours.
+ * @param keptBackups The number of most recent backups to keep. Older ones are deleted.
+ */
+public record BackupsConfig(
+    boolean enabled,
+    @NotNull Path directory,
+    int interval,
+    int keptBackups
+) {
+  public static final int MIN_INTERVAL = 1;
+  public static final int MAX_INTERVAL = 24 * 30;
+  public static final int MIN_KEPT_BACKUPS = 1;
+  public static final int MAX_KEPT_BACKUPS = 100;
+
+  public BackupsConfig {
+    Objects.requireNonNull(directory);
+    if (interval < MIN_INTERVAL || interval > MAX_INTERVAL)
+      throw new IllegalArgumentException("invalid backups interval: " + interval);
+    if (keptBackups < MIN_KEPT_BACKUPS || keptBackups > MAX_KEPT_BACKUPS)
+      throw new IllegalArgumentException("invalid number of kept backups: " + keptBackups);
+  }
+
+  /**
+   * Return the absolute path of the backups directory.
+   * A relative directory is resolved against the directory of the given database file,
+   * so that backups do not depend on the working directory the app was started from.
+   *
+   * @param databaseFile The database file to back up.
+   * @return The absolute path of the directory.
+   */
+  @Contract(pure = true)
+  public Path resolveDirectory(@NotNull Path databaseFile) {
+    return databaseFile.toAbsolutePath().getParent().resolve(this.directory);
+  }
+}
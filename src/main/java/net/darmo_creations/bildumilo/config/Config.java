@@ -30,6 +30,9 @@ public final class Config {
   private static final Map<String, Language> LANGUAGES = new HashMap<>();
   private static final String DEFAULT_DB_FILE = "db.sqlite3";
   private static final int DEFAULT_SLIDESHOW_DELAY = 5; // s
+  private static final String DEFAULT_BACKUPS_DIRECTORY = "backups";
+  private static final int DEFAULT_BACKUPS_INTERVAL = 24; // h
+  private static final int DEFAULT_KEPT_BACKUPS = 5;
   public static final int MIN_SLIDESHOW_DELAY = 2;
   public static final int MAX_SLIDESHOW_DELAY = 30;
 
@@ -39,12 +42,18 @@ public final class Config {
   private static final String LANGUAGE_OPTION = "language";
   private static final String THEME_OPTION = "theme";
   private static final String DB_FILE = "database_file";
+  private static final String CACHE_MEDIAS_TAGS = "cache_medias_tags";
   private static final String QUERIES_SECTION = "Queries";
   private static final String CASE_SENSITIVITE_BY_DEFAULT = "case_sensitive_by_default";
   private static final String QUERY_SYNTAX_HIGHLIGHTING = "syntax_highlighting";
   private static final String SLIDESHOW_SECTION = "Slideshow";
   private static final String SHUFFLE_SLIDESHOW_IMAGES = "shuffle";
   private static final String SLIDESHOW_DELAY = "delay";
+  private static final String BACKUPS_SECTION = "Backups";
+  private static final String BACKUPS_ENABLED = "enabled";
+  private static final String BACKUPS_DIRECTORY = "directory";
+  private static final String BACKUPS_INTERVAL = "interval";
+  private static final String KEPT_BACKUPS = "kept_backups";
 
   /**
    * Load the configuration from the settings file.
@@ -72,6 +81,7 @@ public final class Config {
 
     final String path = StringUtils.stripNullable(ini.get(APP_SECTION, DB_FILE, String.class)).orElse(DEFAULT_DB_FILE);
     final Path databaseFile = Paths.get(path);
+    final boolean cacheMediasTags = Optional.ofNullable(ini.get(APP_SECTION, CACHE_MEDIAS_TAGS, Boolean.class)).orElse(true);
 
     final boolean caseSensitiveDefault = Optional.ofNullable(ini.get(QUERIES_SECTION, CASE_SENSITIVITE_BY_DEFAULT, Boolean.class)).orElse(false);
     final boolean querySH = Optional.ofNullable(ini.get(QUERIES_SECTION, QUERY_SYNTAX_HIGHLIGHTING, Boolean.class)).orElse(false);
@@ -83,15 +93,24 @@ public final class Config {
     else if (delay > MAX_SLIDESHOW_DELAY)
       delay = MAX_SLIDESHOW_DELAY;
 
+    final boolean backupsEnabled = Optional.ofNullable(ini.get(BACKUPS_SECTION, BACKUPS_ENABLED, Boolean.class)).orElse(false);
+    final String backupsDir = StringUtils.stripNullable(ini.get(BACKUPS_SECTION, BACKUPS_DIRECTORY, String.class)).orElse(DEFAULT_BACKUPS_DIRECTORY);
+    int backupsInterval = Optional.ofNullable(ini.get(BACKUPS_SECTION, BACKUPS_INTERVAL, Integer.class)).orElse(DEFAULT_BACKUPS_INTERVAL);
+    backupsInterval = Math.max(BackupsConfig.MIN_INTERVAL, Math.min(BackupsConfig.MAX_INTERVAL, backupsInterval));
+    int keptBackups = Optional.ofNullable(ini.get(BACKUPS_SECTION, KEPT_BACKUPS, Integer.class)).orElse(DEFAULT_KEPT_BACKUPS);
+    keptBackups = Math.max(BackupsConfig.MIN_KEPT_BACKUPS, Math.min(BackupsConfig.MAX_KEPT_BACKUPS, keptBackups));
+
     try {
       return new Config(
           LANGUAGES.get(langCode),
           theme,
           databaseFile,
+          cacheMediasTags,
           caseSensitiveDefault,
           querySH,
           shuffle,
           delay,
+          new BackupsConfig(backupsEnabled, Paths.get(backupsDir), backupsInterval, keptBackups),
           debug
       );
     } catch (final IllegalArgumentException e) {
@@ -157,11 +176,13 @@ public final class Config {
   private final Language language;
   private final Theme theme;
   private final Path databaseFile;
+  private final boolean cacheMediasTags;
   private final boolean debug;
   private final BooleanProperty caseSensitiveQueriesByDefault = new SimpleBooleanProperty(this, "case_sensitive_by_default", false);
   private final BooleanProperty querySyntaxHighlighting = new SimpleBooleanProperty(this, "query_syntax_highlighting", false);
   private final BooleanProperty shuffleSlideshows = new SimpleBooleanProperty(this, "shuffle_slideshows", false);
   private final IntegerProperty slideshowDelay = new SimpleIntegerProperty(this, "slideshow_delay", DEFAULT_SLIDESHOW_DELAY);
+  private final BackupsConfig backups;
 
   /**
    * Create a configuration object.
@@ -169,29 +190,35 @@ public final class Config {
    * @param language                      Language to use.
    * @param theme                         Theme to use.
    * @param databaseFile                  Path to the database file.
+   * @param cacheMediasTags               Whether to keep the tags of all medias in memory.
    * @param caseSensitiveQueriesByDefault Whether pseudo-tag pattern should be treated as case sensitive when no flag is present.
    * @param querySyntaxHighlighting       Whether to perform syntax highlighting in the tag query search bar.
    * @param shuffleSlideshows             Whether slideshow images should be shuffled.
    * @param slideshowDelay                The delay between each image in slideshows in seconds.
+   * @param backups                       The configuration of automatic database backups.
    * @param debug                         Whether to run the app in debug mode.
    */
   public Config(
       @NotNull Language language,
       @NotNull Theme theme,
       @NotNull Path databaseFile,
+      boolean cacheMediasTags,
       boolean caseSensitiveQueriesByDefault,
       boolean querySyntaxHighlighting,
       boolean shuffleSlideshows,
       int slideshowDelay,
+      @NotNull BackupsConfig backups,
       boolean debug
   ) {
     this.language = Objects.requireNonNull(language);
     this.theme = Objects.requireNonNull(theme);
     this.databaseFile = databaseFile.toAbsolutePath();
+    this.cacheMediasTags = cacheMediasTags;
     this.setCaseSensitiveQueriesByDefault(caseSensitiveQueriesByDefault);
     this.setQuerySyntaxHighlightingEnabled(querySyntaxHighlighting);
     this.setShuffleSlideshowsEnabled(shuffleSlideshows);
     this.setSlideshowDelay(slideshowDelay);
+    this.backups = Objects.requireNonNull(backups);
     this.debug = debug;
   }
 
@@ -216,6 +243,14 @@ public final class Config {
     return this.databaseFile;
   }
 
+  /**
+   * Whether the tags of all medias should be kept in memory.
+   * Disabling it reduces memory usage for very large libraries but slows down queries.
+   */
+  public boolean cacheMediasTags() {
+    return this.cacheMediasTags;
+  }
+
   public BooleanProperty caseSensitiveQueriesByDefaultProperty() {
     return this.caseSensitiveQueriesByDefault;
   }
@@ -296,6 +331,13 @@ public final class Config {
     this.slideshowDelay.set(slideshowDelay);
   }
 
+  /**
+   * The configuration of automatic database backups.
+   */
+  public BackupsConfig backups() {
+    return this.backups;
+  }
+
   /**
    * Whether the app is in debug mode.
    */
@@ -315,10 +357,12 @@ public final class Config {
         language,
         this.theme,
         this.databaseFile,
+        this.cacheMediasTags,
         this.caseSensitiveQueriesByDefault.get(),
         this.querySyntaxHighlighting.get(),
         this.shuffleSlideshows.get(),
         this.slideshowDelay.get(),
+        this.backups,
         this.debug
     );
   }
@@ -335,10 +379,12 @@ public final class Config {
         this.language,
         theme,
         this.databaseFile,
+        this.cacheMediasTags,
         this.caseSensitiveQueriesByDefault.get(),
         this.querySyntaxHighlighting.get(),
         this.shuffleSlideshows.get(),
         this.slideshowDelay.get(),
+        this.backups,
         this.debug
     );
   }
@@ -355,10 +401,56 @@ public final class Config {
         this.language,
         this.theme,
         path,
+        this.cacheMediasTags,
+        this.caseSensitiveQueriesByDefault.get(),
+        this.querySyntaxHighlighting.get(),
+        this.shuffleSlideshows.get(),
+        this.slideshowDelay.get(),
+        this.backups,
+        this.debug
+    );
+  }
+
+  /**
+   * Return a copy of this object and replace its medias’ tags caching option by the given one.
+   *
+   * @param cacheMediasTags Whether to keep the tags of all medias in memory.
+   * @return A new configuration object.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Config withCacheMediasTags(boolean cacheMediasTags) {
+    return new Config(
+        this.language,
+        this.theme,
+        this.databaseFile,
+        cacheMediasTags,
+        this.caseSensitiveQueriesByDefault.get(),
+        this.querySyntaxHighlighting.get(),
+        this.shuffleSlideshows.get(),
+        this.slideshowDelay.get(),
+        this.backups,
+        this.debug
+    );
+  }
+
+  /**
+   * Return a copy of this object and replace its backups configuration by the given one.
+   *
+   * @param backups The backups configuration to use.
+   * @return A new configuration object.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Config withBackups(@NotNull BackupsConfig backups) {
+    return new Config(
+        this.language,
+        this.theme,
+        this.databaseFile,
+        this.cacheMediasTags,
         this.caseSensitiveQueriesByDefault.get(),
         this.querySyntaxHighlighting.get(),
         this.shuffleSlideshows.get(),
         this.slideshowDelay.get(),
+        backups,
         this.debug
     );
   }
@@ -373,10 +465,12 @@ public final class Config {
         this.language,
         this.theme,
         this.databaseFile,
+        this.cacheMediasTags,
         this.caseSensitiveQueriesByDefault.get(),
         this.querySyntaxHighlighting.get(),
         this.shuffleSlideshows.get(),
         this.slideshowDelay.get(),
+        this.backups,
         this.debug
     );
   }
@@ -390,10 +484,15 @@ public final class Config {
     ini.put(APP_SECTION, LANGUAGE_OPTION, this.language.code());
     ini.put(APP_SECTION, THEME_OPTION, this.theme.id());
     ini.put(APP_SECTION, DB_FILE, this.databaseFile);
+    ini.put(APP_SECTION, CACHE_MEDIAS_TAGS, this.cacheMediasTags);
     ini.put(QUERIES_SECTION, CASE_SENSITIVITE_BY_DEFAULT, this.caseSensitiveQueriesByDefault.get());
     ini.put(QUERIES_SECTION, QUERY_SYNTAX_HIGHLIGHTING, this.querySyntaxHighlighting.get());
     ini.put(SLIDESHOW_SECTION, SHUFFLE_SLIDESHOW_IMAGES, this.shuffleSlideshows.get());
     ini.put(SLIDESHOW_SECTION, SLIDESHOW_DELAY, this.slideshowDelay.get());
+    ini.put(BACKUPS_SECTION, BACKUPS_ENABLED, this.backups.enabled());
+    ini.put(BACKUPS_SECTION, BACKUPS_DIRECTORY, this.backups.directory());
+    ini.put(BACKUPS_SECTION, BACKUPS_INTERVAL, this.backups.interval());
+    ini.put(BACKUPS_SECTION, KEPT_BACKUPS, this.backups.keptBackups());
     ini.store();
     App.logger().info("Done.");
   }
@@ -404,13 +503,15 @@ public final class Config {
     if (o == null || this.getClass() != o.getClass()) return false;
     final var config = (Config) o;
     return this.debug == config.debug
+           && this.cacheMediasTags == config.cacheMediasTags
            && this.caseSensitiveQueriesByDefault.get() == config.caseSensitiveQueriesByDefault.get()
            && this.querySyntaxHighlighting.get() == config.querySyntaxHighlighting.get()
            && this.shuffleSlideshows.get() == config.shuffleSlideshows.get()
            && this.slideshowDelay.get() == config.slideshowDelay.get()
            && Objects.equals(this.language, config.language)
            && Objects.equals(this.theme, config.theme)
-           && Objects.equals(this.databaseFile, config.databaseFile);
+           && Objects.equals(this.databaseFile, config.databaseFile)
+           && Objects.equals(this.backups, config.backups);
   }
 
   @Override
@@ -419,11 +520,13 @@ public final class Config {
         this.language,
         this.theme,
         this.databaseFile,
+        this.cacheMediasTags,
         this.debug,
         this.caseSensitiveQueriesByDefault.get(),
         this.querySyntaxHighlighting.get(),
         this.shuffleSlideshows.get(),
-        this.slideshowDelay.get()
+        this.slideshowDelay.get(),
+        this.backups
     );
   }
 }
@@ -0,0 +1,296 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+import org.slf4j.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Asynchronous facade of a {@link DatabaseConnection}, whose methods return {@link CompletableFuture}s
+ * instead of blocking the calling thread.
+ * <p>
+ * All writes are serialized through a single writer thread, in submission order.
+ * Adjacent writes that are waiting to be run are coalesced into a single transaction,
+ * up to {@link #MAX_COALESCED_WRITES} at a time, each one inside its own savepoint:
+ * a failing write does not affect the others, but if the transaction itself cannot be committed,
+ * all writes of the batch fail. Writes submitted through {@link #writeAlone(DatabaseCall)} always run
+ * in their own transaction(s). Calls that move or delete files must be submitted this way,
+ * as files cannot be restored if the transaction of their batch is rolled back.
+ * <p>
+ * Reads run on a pool of threads, each one using a connection of the read-only connections pool.
+ * <p>
+ * Futures are completed from the database threads. UI code should handle results with
+ * {@link CompletableFuture#whenCompleteAsync(java.util.function.BiConsumer, Executor)}
+ * and {@code Platform::runLater} as the executor.
+ * <p>
+ * The underlying connection may still be written to directly from other threads:
+ * such writes wait for the current transaction of the writer thread to end, and vice versa.
+ * <p>
+ * Closing this object does not close the underlying connection.
+ */
+public final class AsyncDatabaseConnection implements AutoCloseable {
+  /**
+   * The maximum number of writes coalesced into a single transaction.
+   */
+  public static final int MAX_COALESCED_WRITES = 64;
+
+  private final Logger logger = LoggerFactory.getLogger("Async DB");
+  private final DatabaseConnection db;
+  private final ExecutorService writer;
+  private final ExecutorService readers;
+  private final Deque<PendingWrite<?>> pendingWrites = new ArrayDeque<>();
+
+  /**
+   * Create an asynchronous facade for the given connection.
+   *
+   * @param db The connection to wrap.
+   */
+  public AsyncDatabaseConnection(@NotNull DatabaseConnection db) {
+    this.db = Objects.requireNonNull(db);
+    this.writer = Executors.newSingleThreadExecutor(runnable -> newDaemonThread(runnable, "Database Writer Thread"));
+    final AtomicInteger readersCount = new AtomicInteger();
+    this.readers = Executors.newFixedThreadPool(ConnectionManager.MAX_READERS, runnable ->
+        newDaemonThread(runnable, "Database Reader Thread #" + readersCount.incrementAndGet()));
+  }
+
+  private static Thread newDaemonThread(@NotNull Runnable runnable, @NotNull String name) {
+    final Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Run the given read-only call on a reader thread.
+   *
+   * @param call The call to run. It must not modify the database.
+   * @return A future completed with the call’s result, or with the exception it threw.
+   */
+  public <T> CompletableFuture<T> read(@NotNull DatabaseCall<T> call) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      this.readers.execute(() -> {
+        if (future.isCancelled())
+          return;
+        try {
+          future.complete(call.call(this.db));
+        } catch (final Exception e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Queue the given call on the writer thread. It may share its transaction with adjacent writes.
+   *
+   * @param call The call to run.
+   * @return A future completed with the call’s result, or with the exception it threw.
+   * Cancelling the future before the call has started prevents it from running.
+   */
+  public <T> CompletableFuture<T> write(@NotNull DatabaseCall<T> call) {
+    return this.submitWrite(call, false);
+  }
+
+  /**
+   * Queue the given call on the writer thread. It will not share its transaction(s) with any other write.
+   * Use it for long calls that commit several times, like {@link DatabaseConnection#insertMedias(Collection)}.
+   *
+   * @param call The call to run.
+   * @return A future completed with the call’s result, or with the exception it threw.
+   * Cancelling the future before the call has started prevents it from running.
+   */
+  public <T> CompletableFuture<T> writeAlone(@NotNull DatabaseCall<T> call) {
+    return this.submitWrite(call, true);
+  }
+
+  /**
+   * Asynchronous version of {@link DatabaseConnection#insertMedia(MediaFileUpdate)}.
+   */
+  public CompletableFuture<MediaFile> insertMedia(@NotNull MediaFileUpdate mediaFileUpdate) {
+    return this.write(db -> db.insertMedia(mediaFileUpdate));
+  }
+
+  /**
+   * Asynchronous version of {@link DatabaseConnection#updateMedia(MediaFileUpdate)}.
+   */
+  public CompletableFuture<Void> updateMedia(@NotNull MediaFileUpdate mediaFileUpdate) {
+    return this.write(db -> {
+      db.updateMedia(mediaFileUpdate);
+      return null;
+    });
+  }
+
+  /**
+   * Asynchronous version of {@link DatabaseConnection#moveOrRenameMedia(MediaFile, Path, boolean)}.
+   * It runs in its own transaction, as the file is moved right away.
+   */
+  public CompletableFuture<Boolean> moveOrRenameMedia(
+      @NotNull MediaFile mediaFile,
+      @NotNull Path newPath,
+      boolean overwriteDestination
+  ) {
+    return this.writeAlone(db -> db.moveOrRenameMedia(mediaFile, newPath, overwriteDestination));
+  }
+
+  /**
+   * Asynchronous version of {@link DatabaseConnection#mergeMedias(MediaFile, MediaFile, boolean)}.
+   * It runs in its own transactions, as the source file may be deleted right away.
+   */
+  public CompletableFuture<Void> mergeMedias(
+      @NotNull MediaFile source,
+      @NotNull MediaFile destination,
+      boolean deleteFromDisk
+  ) {
+    return this.writeAlone(db -> {
+      db.mergeMedias(source, destination, deleteFromDisk);
+      return null;
+    });
+  }
+
+  /**
+   * Asynchronous version of {@link DatabaseConnection#deleteMedia(MediaFile, boolean)}.
+   * It runs in its own transaction, as the file may be deleted right away.
+   */
+  public CompletableFuture<Void> deleteMedia(@NotNull MediaFile mediaFile, boolean fromDisk) {
+    return this.writeAlone(db -> {
+      db.deleteMedia(mediaFile, fromDisk);
+      return null;
+    });
+  }
+
+  /**
+   * Return the error code of an exception a future of this class was completed with.
+   *
+   * @param error The exception, possibly wrapped in a {@link CompletionException}.
+   * @return The exception’s error code, or {@link DatabaseErrorCode#UNKNOWN_ERROR} if it has none.
+   */
+  public static DatabaseErrorCode getErrorCode(@NotNull Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null)
+      error = error.getCause();
+    if (error instanceof DatabaseOperationException e)
+      return e.errorCode();
+    if (error instanceof DatabaseOperationRuntimeException e)
+      return e.errorCode();
+    return DatabaseErrorCode.UNKNOWN_ERROR;
+  }
+
+  /**
+   * Stop accepting new calls and wait for all submitted calls to complete.
+   */
+  @Override
+  public void close() {
+    this.writer.shutdown();
+    this.readers.shutdown();
+    try {
+      if (!this.writer.awaitTermination(1, TimeUnit.MINUTES))
+        this.logger.warn("Some writes did not complete in time.");
+      if (!this.readers.awaitTermination(1, TimeUnit.MINUTES))
+        this.logger.warn("Some reads did not complete in time.");
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private <T> CompletableFuture<T> submitWrite(@NotNull DatabaseCall<T> call, boolean alone) {
+    final var write = new PendingWrite<>(call, new CompletableFuture<>(), alone);
+    synchronized (this.pendingWrites) {
+      this.pendingWrites.add(write);
+    }
+    try {
+      // Each submission schedules a run, which may find the write already done by a previous one
+      this.writer.execute(this::runPendingWrites);
+    } catch (final RejectedExecutionException e) {
+      synchronized (this.pendingWrites) {
+        this.pendingWrites.remove(write);
+      }
+      write.future().completeExceptionally(e);
+    }
+    return write.future();
+  }
+
+  /**
+   * Run the next batch of pending writes. Only called from the writer thread.
+   */
+  private void runPendingWrites() {
+    final List<PendingWrite<?>> batch = new ArrayList<>();
+    synchronized (this.pendingWrites) {
+      while (!this.pendingWrites.isEmpty() && batch.size() < MAX_COALESCED_WRITES) {
+        final PendingWrite<?> next = this.pendingWrites.peek();
+        if (next.future().isCancelled()) {
+          this.pendingWrites.poll();
+          continue;
+        }
+        if (next.alone() && !batch.isEmpty())
+          break;
+        batch.add(this.pendingWrites.poll());
+        if (next.alone())
+          break;
+      }
+    }
+    if (batch.isEmpty())
+      return;
+
+    if (batch.size() == 1 && batch.get(0).alone()) {
+      batch.get(0).runAndComplete(this.db);
+      return;
+    }
+
+    final List<Object> results = new ArrayList<>(Collections.nCopies(batch.size(), null));
+    final List<DatabaseConnection.CoalescedWrite> operations = new ArrayList<>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final int index = i;
+      operations.add(() -> results.set(index, batch.get(index).call().call(this.db)));
+    }
+    final List<Exception> errors;
+    try {
+      errors = this.db.runCoalesced(operations);
+    } catch (final DatabaseOperationException | RuntimeException e) {
+      batch.forEach(write -> write.future().completeExceptionally(e));
+      return;
+    }
+    if (batch.size() > 1)
+      this.logger.debug("Coalesced {} writes into a single transaction.", batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      final Exception error = errors.get(i);
+      if (error != null)
+        batch.get(i).future().completeExceptionally(error);
+      else
+        batch.get(i).complete(results.get(i));
+    }
+  }
+
+  /**
+   * A call to a {@link DatabaseConnection}.
+   *
+   * @param <T> The type of the call’s result.
+   */
+  @FunctionalInterface
+  public interface DatabaseCall<T> {
+    T call(@NotNull DatabaseConnection db) throws DatabaseOperationException;
+  }
+
+  private record PendingWrite<T>(
+      @NotNull DatabaseCall<T> call,
+      @NotNull CompletableFuture<T> future,
+      boolean alone
+  ) {
+    void runAndComplete(@NotNull DatabaseConnection db) {
+      try {
+        this.future.complete(this.call.call(db));
+      } catch (final Exception e) {
+        this.future.completeExceptionally(e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    void complete(Object result) {
+      this.future.complete((T) result);
+    }
+  }
+}
@@ -92,6 +92,18 @@ public class BatchOperationsManager {
     this.save();
   }
 
+  /**
+   * Reload the saved operation batches from the database,
+   * e.g. after some have been added by {@link DatabaseConnection#importLibrary}.
+   *
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public void reload() throws DatabaseOperationException {
+    final Map<String, List<Operation>> savedBatches = this.db.getSavedBatchOperations();
+    this.operationBatches.clear();
+    this.operationBatches.putAll(savedBatches);
+  }
+
   private void save() throws DatabaseOperationException {
     this.db.setSavedBatchOperations(this.operationBatches);
   }
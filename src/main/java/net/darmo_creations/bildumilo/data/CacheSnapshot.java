@@ -0,0 +1,116 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A copy of the tag types and tags cached by a {@link DatabaseConnection},
+ * that can be serialized to skip the initialization of the caches when they did not change.
+ * <p>
+ * Tag use counts are not part of snapshots as they are always read from the {@code tag_counts} table.
+ *
+ * @param tagTypes All tag types.
+ * @param tags     All tags. Their types are among {@code tagTypes}.
+ */
+record CacheSnapshot(@NotNull Collection<TagType> tagTypes, @NotNull Collection<Tag> tags) {
+  /**
+   * The version of the binary format. Snapshots with a different version are rejected.
+   */
+  private static final int FORMAT_VERSION = 2;
+
+  CacheSnapshot {
+    Objects.requireNonNull(tagTypes);
+    Objects.requireNonNull(tags);
+  }
+
+  /**
+   * Serialize this snapshot into a compressed binary representation.
+   *
+   * @return The serialized snapshot.
+   */
+  public byte[] serialize() {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final var out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(this.tagTypes.size());
+      for (final TagType tagType : this.tagTypes) {
+        out.writeInt(tagType.id());
+        out.writeUTF(tagType.label());
+        out.writeChar(tagType.symbol());
+        out.writeInt(tagType.color());
+      }
+      out.writeInt(this.tags.size());
+      for (final Tag tag : this.tags) {
+        out.writeInt(tag.id());
+        out.writeUTF(tag.label());
+        out.writeInt(tag.type().map(TagType::id).orElse(-1));
+        out.writeBoolean(tag.definition().isPresent());
+        if (tag.definition().isPresent())
+          writeLongUTF(out, tag.definition().get());
+      }
+    } catch (final IOException e) {
+      // Cannot happen with in-memory streams
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserialize a snapshot produced by {@link #serialize()}.
+   *
+   * @param data The serialized snapshot.
+   * @return The snapshot.
+   * @throws IOException If the data is corrupted or was produced by another version of the format.
+   */
+  public static CacheSnapshot deserialize(final byte @NotNull [] data) throws IOException {
+    try (final var in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+      final int version = in.readInt();
+      if (version != FORMAT_VERSION)
+        throw new IOException("Unsupported cache snapshot version: " + version);
+      final Map<Integer, TagType> tagTypes = new HashMap<>();
+      for (int i = 0, n = in.readInt(); i < n; i++) {
+        final int id = in.readInt();
+        tagTypes.put(id, new TagType(id, in.readUTF(), in.readChar(), in.readInt()));
+      }
+      final List<Tag> tags = new ArrayList<>();
+      for (int i = 0, n = in.readInt(); i < n; i++) {
+        final int id = in.readInt();
+        final String label = in.readUTF();
+        final int typeId = in.readInt();
+        final String definition = in.readBoolean() ? readLongUTF(in) : null;
+        if (typeId != -1 && !tagTypes.containsKey(typeId))
+          throw new IOException("Undefined tag type ID: " + typeId);
+        tags.add(new Tag(id, label, tagTypes.get(typeId), definition));
+      }
+      return new CacheSnapshot(tagTypes.values(), tags);
+    } catch (final IllegalArgumentException e) { // Invalid label or symbol
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Write a string that may be longer than what {@link DataOutputStream#writeUTF(String)} supports.
+   */
+  private static void writeLongUTF(@NotNull DataOutputStream out, @NotNull String s) throws IOException {
+    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a string written by {@link #writeLongUTF(DataOutputStream, String)}.
+   */
+  private static String readLongUTF(@NotNull DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0)
+      throw new IOException("Invalid string length: " + length);
+    final byte[] bytes = in.readNBytes(length);
+    if (bytes.length != length)
+      throw new EOFException();
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,230 @@
+package net.darmo_creations.bildumilo.data;
+
+import net.darmo_creations.bildumilo.query_parser.*;
+import org.jetbrains.annotations.*;
+
+import java.math.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.regex.*;
+
+/**
+ * A pseudo-tag that compares a numeric metadata of medias to a value.
+ * Its argument is a comparison operator followed by a value, e.g. {@code ">1920"}.
+ * If the operator is omitted, {@link Operator#EQ} is assumed.
+ *
+ * @param sqlTemplate    The SQL query template for this pseudo-tag. It should contain two "%s" placeholders,
+ *                       the first one for the operator, the second one for the value.
+ * @param valueParser    A function that parses the value part of the argument.
+ *                       It should return an empty {@link Optional} if the value is invalid.
+ * @param metadataGetter A function that returns the compared metadata value. It may return null.
+ */
+public record ComparisonPseudoTag(
+    @SQLite @NotNull String sqlTemplate,
+    @NotNull Function<String, Optional<Double>> valueParser,
+    @NotNull Function<MediaMetadata, Number> metadataGetter
+) implements PseudoTag {
+  private static final Pattern ARGUMENT_PATTERN = Pattern.compile("^\\s*(<=|>=|!=|<|>|=)?\\s*(.+?)\\s*$");
+  private static final Pattern BYTES_SIZE_PATTERN = Pattern.compile("^(\\d+(?:\\.\\d+)?)\\s*([kmgt]i?)?b?$",
+      Pattern.CASE_INSENSITIVE);
+  private static final Pattern DURATION_PATTERN = Pattern.compile("^(?:(?:(\\d+):)?(\\d+):)?(\\d+(?:\\.\\d+)?)$");
+
+  public ComparisonPseudoTag {
+    Objects.requireNonNull(sqlTemplate);
+    Objects.requireNonNull(valueParser);
+    Objects.requireNonNull(metadataGetter);
+  }
+
+  /**
+   * Parse the given pseudo-tag argument.
+   *
+   * @param argument The argument to parse.
+   * @return The corresponding comparison or an empty {@link Optional} if the argument is invalid.
+   */
+  public Optional<Comparison> parseArgument(@NotNull String argument) {
+    final Matcher matcher = ARGUMENT_PATTERN.matcher(argument);
+    if (!matcher.matches())
+      return Optional.empty();
+    final String op = matcher.group(1);
+    final Operator operator = op != null ? Operator.fromSymbol(op) : Operator.EQ;
+    return this.valueParser.apply(matcher.group(2)).map(value -> new Comparison(operator, value));
+  }
+
+  /**
+   * Build a {@link TagQueryPredicate} for the given comparison.
+   * Medias without metadata never match.
+   *
+   * @param comparison The comparison to test medias against.
+   * @return A new predicate.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public TagQueryPredicate predicate(@NotNull Comparison comparison) {
+    return (mediaFile, tags, db) -> {
+      try {
+        return db.getMediaMetadata(mediaFile)
+            .map(this.metadataGetter)
+            .map(value -> comparison.operator().test(Double.compare(value.doubleValue(), comparison.value())))
+            .orElse(false);
+      } catch (final DatabaseOperationException e) {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Parse a non-negative integer.
+   *
+   * @param s The string to parse.
+   * @return The parsed value.
+   */
+  public static Optional<Double> parseInteger(@NotNull String s) {
+    try {
+      final long value = Long.parseLong(s);
+      return value >= 0 ? Optional.of((double) value) : Optional.empty();
+    } catch (final NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Parse a size in bytes. The value may be followed by a unit among: B, K(i)B, M(i)B, G(i)B, T(i)B.
+   * Units with an "i" are powers of 1024, others are powers of 1000. The "B" may be omitted.
+   * Units are case-insensitive.
+   *
+   * @param s The string to parse, e.g. "1.5MiB".
+   * @return The parsed value in bytes.
+   */
+  public static Optional<Double> parseBytesSize(@NotNull String s) {
+    final Matcher matcher = BYTES_SIZE_PATTERN.matcher(s);
+    if (!matcher.matches())
+      return Optional.empty();
+    double value = Double.parseDouble(matcher.group(1));
+    final String unit = matcher.group(2);
+    if (unit != null) {
+      final int base = unit.length() == 2 ? 1024 : 1000;
+      final int exponent = "kmgt".indexOf(Character.toLowerCase(unit.charAt(0))) + 1;
+      value *= Math.pow(base, exponent);
+    }
+    return Optional.of(value);
+  }
+
+  /**
+   * Parse a duration. The value may either be a number of seconds,
+   * or have the format "[[hours:]minutes:]seconds".
+   *
+   * @param s The string to parse, e.g. "90", "1:30" or "1:00:00".
+   * @return The parsed duration in seconds.
+   */
+  public static Optional<Double> parseDuration(@NotNull String s) {
+    final Matcher matcher = DURATION_PATTERN.matcher(s);
+    if (!matcher.matches())
+      return Optional.empty();
+    final String hours = matcher.group(1);
+    final String minutes = matcher.group(2);
+    double value = Double.parseDouble(matcher.group(3));
+    if (minutes != null)
+      value += Integer.parseInt(minutes) * 60;
+    if (hours != null)
+      value += Integer.parseInt(hours) * 3600;
+    return Optional.of(value);
+  }
+
+  /**
+   * Parse a date or date-time in the system’s default time zone.
+   * The value may have the format "YYYY-MM-DD", "YYYY-MM-DDThh:mm" or "YYYY-MM-DDThh:mm:ss".
+   *
+   * @param s The string to parse, e.g. "2024-01-31" or "2024-01-31T12:00".
+   * @return The parsed date in seconds since the UNIX epoch.
+   */
+  public static Optional<Double> parseDateTime(@NotNull String s) {
+    LocalDateTime dateTime;
+    try {
+      dateTime = LocalDateTime.parse(s);
+    } catch (final DateTimeParseException e) {
+      try {
+        dateTime = LocalDate.parse(s).atStartOfDay();
+      } catch (final DateTimeParseException e1) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of((double) dateTime.atZone(ZoneId.systemDefault()).toEpochSecond());
+  }
+
+  /**
+   * A parsed pseudo-tag argument.
+   *
+   * @param operator The comparison operator.
+   * @param value    The value to compare to.
+   */
+  public record Comparison(@NotNull Operator operator, double value) {
+    public Comparison {
+      Objects.requireNonNull(operator);
+    }
+
+    /**
+     * The value formatted for inclusion in a SQL query.
+     */
+    public String sqlValue() {
+      return BigDecimal.valueOf(this.value).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  /**
+   * Enumeration of all available comparison operators.
+   */
+  public enum Operator {
+    LT("<"),
+    LE("<="),
+    GT(">"),
+    GE(">="),
+    EQ("="),
+    NE("!="),
+    ;
+
+    private final String symbol;
+
+    Operator(@NotNull String symbol) {
+      this.symbol = symbol;
+    }
+
+    /**
+     * This operator’s symbol, identical in queries and SQL.
+     */
+    public String symbol() {
+      return this.symbol;
+    }
+
+    /**
+     * Test whether the given comparison result satisfies this operator.
+     *
+     * @param comparison The result of comparing a value to the reference value.
+     * @return True if the comparison satisfies this operator, false otherwise.
+     */
+    public boolean test(int comparison) {
+      return switch (this) {
+        case LT -> comparison < 0;
+        case LE -> comparison <= 0;
+        case GT -> comparison > 0;
+        case GE -> comparison >= 0;
+        case EQ -> comparison == 0;
+        case NE -> comparison != 0;
+      };
+    }
+
+    /**
+     * Return the operator with the given symbol.
+     *
+     * @param symbol An operator symbol.
+     * @return The corresponding operator.
+     * @throws IllegalArgumentException If no operator has this symbol.
+     */
+    public static Operator fromSymbol(@NotNull String symbol) {
+      for (final Operator operator : values())
+        if (operator.symbol.equals(symbol))
+          return operator;
+      throw new IllegalArgumentException("Invalid operator: " + symbol);
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+import org.sqlite.*;
+
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * This class manages the SQLite connections of a {@link DatabaseConnection}:
+ * a single writer connection, with autocommit disabled, and a pool of read-only connections.
+ * <p>
+ * File databases are switched to WAL journaling so that readers see the last committed state
+ * without waiting for the writer’s current transaction, and the writer is never blocked by readers.
+ * New database files are created with incremental auto-vacuum enabled.
+ * In-memory databases cannot be shared between connections, all reads then go through the writer connection.
+ * <p>
+ * The writer connection is shared by all threads that write to the database. A thread must hold the writer lock
+ * for the whole duration of its transactions, see {@link #lockWriter()}.
+ * <p>
+ * Read connections are opened lazily, up to {@link #MAX_READERS}.
+ * If all of them are in use, callers wait until one is released.
+ * <p>
+ * Each connection has its own {@link StatementCache}, closed along with it. As JDBC statements are not thread-safe,
+ * cached statements may only be used by the thread that currently owns their connection:
+ * the thread that holds the writer lock, or the thread that acquired a read connection.
+ * <p>
+ * If a {@link DatabaseMetrics} object is given, connections are wrapped so that all statements
+ * they execute are recorded into it.
+ */
+final class ConnectionManager implements AutoCloseable {
+  /**
+   * The maximum number of read-only connections.
+   */
+  public static final int MAX_READERS = 4;
+
+  @Nullable
+  private final Path file;
+  private final ConnectionInitializer initializer;
+  @Nullable
+  private final DatabaseMetrics metrics;
+  private final Connection writer;
+  private final ReentrantLock writerLock = new ReentrantLock();
+  private final BlockingQueue<Connection> idleReaders = new LinkedBlockingQueue<>();
+  private final List<Connection> readers = new ArrayList<>();
+  private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+  /**
+   * The thread that currently owns each acquired read connection.
+   */
+  private final Map<Connection, Thread> readerOwners = new ConcurrentHashMap<>();
+  private final StatementCache.Counters statementCacheCounters = new StatementCache.Counters();
+  private boolean closed = false;
+
+  /**
+   * Open the writer connection to the given database file.
+   *
+   * @param file        The database file. If null, the database will be in-memory.
+   * @param initializer A function called on every newly opened connection, e.g. to inject custom SQL functions.
+   * @throws SQLException If any database error occurs.
+   */
+  ConnectionManager(Path file, @NotNull ConnectionInitializer initializer) throws SQLException {
+    this(file, initializer, null);
+  }
+
+  /**
+   * Open the writer connection to the given database file.
+   *
+   * @param file        The database file. If null, the database will be in-memory.
+   * @param initializer A function called on every newly opened connection, e.g. to inject custom SQL functions.
+   * @param metrics     An object to record the executed statements into. May be null.
+   * @throws SQLException If any database error occurs.
+   */
+  ConnectionManager(Path file, @NotNull ConnectionInitializer initializer, DatabaseMetrics metrics)
+      throws SQLException {
+    this.file = file;
+    this.initializer = Objects.requireNonNull(initializer);
+    this.metrics = metrics;
+    final boolean newFile = file != null && !Files.exists(file);
+    final SQLiteConfig config = new SQLiteConfig();
+    config.enforceForeignKeys(true);
+    this.writer = this.open(config);
+    if (file != null)
+      try (final var statement = this.writer.createStatement()) {
+        // Can only be enabled before the file is initialized, which switching to WAL does
+        if (newFile)
+          statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+        statement.execute("PRAGMA journal_mode = WAL");
+      }
+    this.writer.setAutoCommit(false);
+  }
+
+  /**
+   * The writer connection. It should be used for all statements that modify the database
+   * and for reads that must see the current transaction’s uncommitted changes.
+   */
+  @Contract(pure = true)
+  public Connection writer() {
+    return this.writer;
+  }
+
+  /**
+   * Lock the writer connection for the current thread, waiting for other threads to release it.
+   * The lock is reentrant, each call must be matched by a call to {@link #unlockWriter()}.
+   * <p>
+   * As the writer connection has a single transaction shared by all threads, a thread that commits
+   * or rolls back would also commit or roll back the changes made by any other thread in the meantime.
+   * Threads must thus hold this lock from their first statement to the end of their transaction.
+   */
+  public void lockWriter() {
+    this.writerLock.lock();
+  }
+
+  /**
+   * Lock the writer connection for the current thread if no thread holds it, including the current one.
+   * Unlike {@link #lockWriter()}, this never returns true in the middle of a transaction.
+   *
+   * @return True if the lock was acquired, false otherwise.
+   * @see #lockWriter()
+   */
+  public boolean tryLockWriter() {
+    return !this.writerLock.isHeldByCurrentThread() && this.writerLock.tryLock();
+  }
+
+  /**
+   * Release the writer connection locked by {@link #lockWriter()} or {@link #tryLockWriter()}.
+   *
+   * @throws IllegalMonitorStateException If the current thread does not hold the lock.
+   */
+  public void unlockWriter() {
+    this.writerLock.unlock();
+  }
+
+  /**
+   * Indicate whether reads are performed on dedicated connections.
+   * This is false for in-memory databases.
+   */
+  @Contract(pure = true)
+  public boolean hasReadPool() {
+    return this.file != null;
+  }
+
+  /**
+   * Borrow a read-only connection. It must be returned with {@link #releaseReader(Connection)}
+   * once it is no longer used.
+   * <p>
+   * Read-only connections are in autocommit mode: each statement reads the last committed state of the database.
+   * <p>
+   * If {@link #hasReadPool()} is false, the writer connection is locked until it is released.
+   *
+   * @return A read-only connection, or the writer connection if {@link #hasReadPool()} is false.
+   * @throws SQLException If no connection could be opened or this manager is closed.
+   */
+  public Connection acquireReader() throws SQLException {
+    final Connection connection = this.takeReader();
+    if (connection != this.writer)
+      this.readerOwners.put(connection, Thread.currentThread());
+    return connection;
+  }
+
+  private Connection takeReader() throws SQLException {
+    if (!this.hasReadPool()) {
+      this.lockWriter();
+      return this.writer;
+    }
+    final Connection idle = this.idleReaders.poll();
+    if (idle != null)
+      return idle;
+    synchronized (this) {
+      if (this.closed)
+        throw new SQLException("Connection manager is closed");
+      if (this.readers.size() < MAX_READERS) {
+        final SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        final Connection reader = this.open(config);
+        this.readers.add(reader);
+        return reader;
+      }
+    }
+    try {
+      return this.idleReaders.take();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a read connection", e);
+    }
+  }
+
+  /**
+   * Open a read-only connection outside of the pool, for long operations that would otherwise
+   * keep a pooled connection from other readers. The connection is neither instrumented nor initialized
+   * and has no statement cache. It must be closed by the caller.
+   *
+   * @return A new read-only connection.
+   * @throws SQLException          If the connection could not be opened or this manager is closed.
+   * @throws IllegalStateException If {@link #hasReadPool()} is false.
+   */
+  public Connection openDedicatedReader() throws SQLException {
+    if (!this.hasReadPool())
+      throw new IllegalStateException("In-memory databases cannot be shared between connections");
+    synchronized (this) {
+      if (this.closed)
+        throw new SQLException("Connection manager is closed");
+    }
+    final SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    return DriverManager.getConnection("jdbc:sqlite:%s".formatted(this.file), config.toProperties());
+  }
+
+  /**
+   * Return a connection obtained from {@link #acquireReader()} to the pool.
+   *
+   * @param connection The connection to return.
+   */
+  public void releaseReader(@NotNull Connection connection) {
+    if (connection != this.writer) {
+      this.readerOwners.remove(connection);
+      this.idleReaders.add(connection);
+    } else
+      this.unlockWriter();
+  }
+
+  /**
+   * Return the cached prepared statement for the given query on the given connection.
+   * The returned statement must not be closed by the caller, nor used once the current thread
+   * has released the connection.
+   *
+   * @param connection A connection managed by this object, owned by the current thread.
+   * @param sql        A constant query.
+   * @return The prepared statement.
+   * @throws SQLException          If any database error occurs.
+   * @throws IllegalStateException If the current thread does not own the connection.
+   */
+  public PreparedStatement prepareCached(@NotNull Connection connection, @SQLite @NotNull String sql)
+      throws SQLException {
+    final StatementCache cache = this.statementCaches.get(connection);
+    if (cache == null)
+      throw new SQLException("Connection is not managed by this object");
+    final boolean owned = connection == this.writer
+        ? this.writerLock.isHeldByCurrentThread()
+        : this.readerOwners.get(connection) == Thread.currentThread();
+    if (!owned)
+      throw new IllegalStateException("Connection is not owned by the current thread");
+    return cache.prepare(sql);
+  }
+
+  /**
+   * Return the cumulated statistics of all prepared statement caches.
+   */
+  public StatementCacheStats statementCacheStats() {
+    return this.statementCacheCounters.snapshot();
+  }
+
+  private Connection open(@NotNull SQLiteConfig config) throws SQLException {
+    final String fileName = this.file == null ? ":memory:" : this.file.toString();
+    final Connection rawConnection = DriverManager.getConnection("jdbc:sqlite:%s".formatted(fileName), config.toProperties());
+    try {
+      // Custom functions can only be registered on the driver’s own connection class
+      this.initializer.initialize(rawConnection);
+    } catch (final SQLException e) {
+      rawConnection.close();
+      throw e;
+    }
+    final Connection connection = this.metrics != null
+        ? InstrumentedConnections.wrap(rawConnection, this.metrics)
+        : rawConnection;
+    this.statementCaches.put(connection, new StatementCache(connection, this.statementCacheCounters));
+    return connection;
+  }
+
+  /**
+   * Close all connections. Read connections that are currently borrowed are closed too.
+   *
+   * @throws SQLException If any database error occurs.
+   */
+  @Override
+  public void close() throws SQLException {
+    final List<Connection> readers;
+    synchronized (this) {
+      this.closed = true;
+      readers = new ArrayList<>(this.readers);
+      this.readers.clear();
+      this.idleReaders.clear();
+    }
+    this.statementCaches.values().forEach(StatementCache::close);
+    this.statementCaches.clear();
+    SQLException exception = null;
+    for (final Connection reader : readers)
+      try {
+        reader.close();
+      } catch (final SQLException e) {
+        exception = e;
+      }
+    this.writer.close();
+    if (exception != null)
+      throw exception;
+  }
+
+  /**
+   * A function called on every connection opened by a {@link ConnectionManager}.
+   */
+  @FunctionalInterface
+  public interface ConnectionInitializer {
+    void initialize(@NotNull Connection connection) throws SQLException;
+  }
+}
@@ -0,0 +1,189 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.intellij.lang.annotations.*;
+import org.jetbrains.annotations.*;
+import org.slf4j.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.time.format.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Makes rotating backups of a database at regular intervals, on a background thread.
+ * <p>
+ * Each backup is first written to a temporary file with {@link DatabaseConnection#backup(Path)},
+ * then checked with {@code PRAGMA quick_check}. Only if the check passes is it renamed after the current time
+ * and are the oldest backups deleted, so that a failed backup never replaces a valid one.
+ * <p>
+ * The first backup is made {@link #FIRST_BACKUP_DELAY} after creation if the most recent one
+ * is older than the interval, otherwise once the interval has elapsed since it.
+ */
+public final class DatabaseBackups implements AutoCloseable {
+  /**
+   * The minimum delay before the first backup, so that it does not slow down the application’s startup.
+   */
+  public static final Duration FIRST_BACKUP_DELAY = Duration.ofMinutes(1);
+
+  private static final String FILE_PREFIX = "backup-";
+  private static final String TEMP_FILE_NAME = FILE_PREFIX + "tmp." + DatabaseConnection.DATABASE_FILE_EXT;
+  private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+  private static final Pattern BACKUP_FILE_PATTERN =
+      Pattern.compile("^" + FILE_PREFIX + "\\d{8}-\\d{6}-\\d{3}\\." + DatabaseConnection.DATABASE_FILE_EXT + "$");
+
+  private final Logger logger = LoggerFactory.getLogger("DB Backups");
+  private final DatabaseConnection db;
+  private final Path directory;
+  private final int keptBackups;
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Create and start a backup scheduler for the given database.
+   *
+   * @param db          The database to back up.
+   * @param directory   The directory to store backups into. It is created if it does not exist.
+   * @param interval    The delay between two backups.
+   * @param keptBackups The number of most recent backups to keep.
+   */
+  public DatabaseBackups(
+      @NotNull DatabaseConnection db,
+      @NotNull Path directory,
+      @NotNull Duration interval,
+      int keptBackups
+  ) {
+    if (keptBackups < 1)
+      throw new IllegalArgumentException("keptBackups must be at least 1");
+    this.db = Objects.requireNonNull(db);
+    this.directory = directory.toAbsolutePath();
+    this.keptBackups = keptBackups;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "Database Backup Thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final long period = interval.toMillis();
+    this.scheduler.scheduleWithFixedDelay(
+        this::onScheduledBackup, this.getFirstBackupDelay(interval).toMillis(), period, TimeUnit.MILLISECONDS);
+  }
+
+  private Duration getFirstBackupDelay(@NotNull Duration interval) {
+    final List<Path> backups;
+    try {
+      backups = this.listBackups();
+    } catch (final IOException e) {
+      this.logger.error("Could not list existing backups", e);
+      return FIRST_BACKUP_DELAY;
+    }
+    if (backups.isEmpty())
+      return FIRST_BACKUP_DELAY;
+    try {
+      final Instant last = Files.getLastModifiedTime(backups.get(backups.size() - 1)).toInstant();
+      final Duration delay = Duration.between(Instant.now(), last.plus(interval));
+      return delay.compareTo(FIRST_BACKUP_DELAY) > 0 ? delay : FIRST_BACKUP_DELAY;
+    } catch (final IOException e) {
+      return FIRST_BACKUP_DELAY;
+    }
+  }
+
+  private void onScheduledBackup() {
+    try {
+      this.backup();
+    } catch (final DatabaseOperationException | IOException e) {
+      this.logger.error("Scheduled database backup failed", e);
+    }
+  }
+
+  /**
+   * Make a backup now, check it then delete the oldest backups.
+   * This method is blocking and should not be called from the UI thread.
+   *
+   * @return The path to the new backup.
+   * @throws DatabaseOperationException If the database could not be copied or the copy is corrupted.
+   * @throws IOException                If any file error occurs.
+   */
+  Path backup() throws DatabaseOperationException, IOException {
+    Files.createDirectories(this.directory);
+    final Path tempFile = this.directory.resolve(TEMP_FILE_NAME);
+    Files.deleteIfExists(tempFile);
+    try {
+      this.db.backup(tempFile);
+      checkIntegrity(tempFile);
+    } catch (final DatabaseOperationException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+    final String name = FILE_PREFIX + LocalDateTime.now().format(TIMESTAMP_FORMAT) + "." + DatabaseConnection.DATABASE_FILE_EXT;
+    final Path file = Files.move(tempFile, this.directory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+    this.logger.info("Database backed up to {}.", file);
+    this.deleteOldBackups();
+    return file;
+  }
+
+  @SQLite
+  private static final String QUICK_CHECK_QUERY = "PRAGMA quick_check";
+
+  /**
+   * Check the integrity of the given database file.
+   *
+   * @param file The file to check.
+   * @throws DatabaseOperationException If the file is corrupted or could not be read.
+   */
+  private static void checkIntegrity(@NotNull Path file) throws DatabaseOperationException {
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:%s".formatted(file));
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(QUICK_CHECK_QUERY)) {
+      // A single "ok" row is returned if no problems were found, one row per problem otherwise
+      if (!resultSet.next() || !"ok".equals(resultSet.getString(1)))
+        throw new DatabaseOperationException(DatabaseErrorCode.SQLITE_CORRUPT);
+    } catch (final SQLException e) {
+      throw new DatabaseOperationException(DatabaseConnection.getErrorCode(e), e);
+    }
+  }
+
+  /**
+   * Delete the oldest backups such that at most {@link #keptBackups} remain.
+   */
+  private void deleteOldBackups() throws IOException {
+    final List<Path> backups = this.listBackups();
+    for (int i = 0; i < backups.size() - this.keptBackups; i++) {
+      Files.delete(backups.get(i));
+      this.logger.info("Deleted old backup {}.", backups.get(i));
+    }
+  }
+
+  /**
+   * List the backups in the backups directory, from oldest to most recent.
+   *
+   * @return The paths of the backup files.
+   * @throws IOException If any file error occurs.
+   */
+  List<Path> listBackups() throws IOException {
+    if (!Files.isDirectory(this.directory))
+      return List.of();
+    try (final var files = Files.list(this.directory)) {
+      return files
+          .filter(path -> BACKUP_FILE_PATTERN.matcher(path.getFileName().toString()).matches())
+          .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+          .toList();
+    }
+  }
+
+  /**
+   * Stop scheduling backups. If a backup is in progress, it is completed without pausing between steps,
+   * and this method waits for it to finish.
+   */
+  @Override
+  public void close() {
+    this.scheduler.shutdownNow();
+    try {
+      if (!this.scheduler.awaitTermination(1, TimeUnit.MINUTES))
+        this.logger.warn("Backup did not complete in time.");
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
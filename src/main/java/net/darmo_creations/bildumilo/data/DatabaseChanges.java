@@ -0,0 +1,226 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+
+/**
+ * The changes committed by a single transaction of a {@link DatabaseConnection}.
+ * <p>
+ * Changes are coalesced: a media that is inserted then updated is only listed as inserted,
+ * a media that is inserted then deleted is not listed at all, and a tag that is added to a media
+ * then removed from it is listed in neither {@link #addedMediaTags()} nor {@link #removedMediaTags()}.
+ * <p>
+ * The tags of deleted medias are not listed in {@link #removedMediaTags()},
+ * and the associations of deleted tags are not listed either.
+ *
+ * @param insertedMedias   The IDs of the inserted medias.
+ * @param updatedMedias    The IDs of the medias whose path, hash or metadata changed.
+ * @param deletedMedias    The IDs of the deleted medias.
+ * @param addedMediaTags   The IDs of the tags added to each media, including inserted ones.
+ * @param removedMediaTags The IDs of the tags removed from each media.
+ * @param insertedTags     The IDs of the inserted tags.
+ * @param updatedTags      The IDs of the tags whose label, type or definition changed.
+ * @param deletedTags      The IDs of the deleted tags.
+ * @param insertedTagTypes The IDs of the inserted tag types.
+ * @param updatedTagTypes  The IDs of the updated tag types.
+ * @param deletedTagTypes  The IDs of the deleted tag types.
+ * @param reloadRequired   Whether some changes are not listed, in which case all data has to be reloaded.
+ */
+public record DatabaseChanges(
+    @NotNull @Unmodifiable Set<Integer> insertedMedias,
+    @NotNull @Unmodifiable Set<Integer> updatedMedias,
+    @NotNull @Unmodifiable Set<Integer> deletedMedias,
+    @NotNull @Unmodifiable Map<Integer, Set<Integer>> addedMediaTags,
+    @NotNull @Unmodifiable Map<Integer, Set<Integer>> removedMediaTags,
+    @NotNull @Unmodifiable Set<Integer> insertedTags,
+    @NotNull @Unmodifiable Set<Integer> updatedTags,
+    @NotNull @Unmodifiable Set<Integer> deletedTags,
+    @NotNull @Unmodifiable Set<Integer> insertedTagTypes,
+    @NotNull @Unmodifiable Set<Integer> updatedTagTypes,
+    @NotNull @Unmodifiable Set<Integer> deletedTagTypes,
+    boolean reloadRequired
+) {
+  public DatabaseChanges {
+    insertedMedias = Set.copyOf(insertedMedias);
+    updatedMedias = Set.copyOf(updatedMedias);
+    deletedMedias = Set.copyOf(deletedMedias);
+    addedMediaTags = copyOf(addedMediaTags);
+    removedMediaTags = copyOf(removedMediaTags);
+    insertedTags = Set.copyOf(insertedTags);
+    updatedTags = Set.copyOf(updatedTags);
+    deletedTags = Set.copyOf(deletedTags);
+    insertedTagTypes = Set.copyOf(insertedTagTypes);
+    updatedTagTypes = Set.copyOf(updatedTagTypes);
+    deletedTagTypes = Set.copyOf(deletedTagTypes);
+  }
+
+  private static Map<Integer, Set<Integer>> copyOf(final @NotNull Map<Integer, Set<Integer>> map) {
+    final Map<Integer, Set<Integer>> copy = new HashMap<>();
+    map.forEach((k, v) -> copy.put(k, Set.copyOf(v)));
+    return Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * Indicate whether no changes are listed and no reload is required.
+   */
+  @Contract(pure = true)
+  public boolean isEmpty() {
+    return !this.reloadRequired
+           && this.insertedMedias.isEmpty() && this.updatedMedias.isEmpty() && this.deletedMedias.isEmpty()
+           && this.addedMediaTags.isEmpty() && this.removedMediaTags.isEmpty()
+           && !this.tagsChanged();
+  }
+
+  /**
+   * Indicate whether any tag or tag type was inserted, updated or deleted.
+   */
+  @Contract(pure = true)
+  public boolean tagsChanged() {
+    return !this.insertedTags.isEmpty() || !this.updatedTags.isEmpty() || !this.deletedTags.isEmpty()
+           || !this.insertedTagTypes.isEmpty() || !this.updatedTagTypes.isEmpty() || !this.deletedTagTypes.isEmpty();
+  }
+
+  /**
+   * The IDs of all medias that were updated or had tags added or removed, excluding inserted and deleted ones.
+   */
+  @Contract(pure = true, value = "-> new")
+  public Set<Integer> changedMedias() {
+    final Set<Integer> ids = new HashSet<>(this.updatedMedias);
+    ids.addAll(this.addedMediaTags.keySet());
+    ids.addAll(this.removedMediaTags.keySet());
+    ids.removeAll(this.insertedMedias);
+    return ids;
+  }
+
+  /**
+   * Accumulates the changes of a transaction. This class is not thread-safe.
+   */
+  static final class Builder {
+    private final Set<Integer> insertedMedias = new HashSet<>();
+    private final Set<Integer> updatedMedias = new HashSet<>();
+    private final Set<Integer> deletedMedias = new HashSet<>();
+    private final Map<Integer, Set<Integer>> addedMediaTags = new HashMap<>();
+    private final Map<Integer, Set<Integer>> removedMediaTags = new HashMap<>();
+    private final Set<Integer> insertedTags = new HashSet<>();
+    private final Set<Integer> updatedTags = new HashSet<>();
+    private final Set<Integer> deletedTags = new HashSet<>();
+    private final Set<Integer> insertedTagTypes = new HashSet<>();
+    private final Set<Integer> updatedTagTypes = new HashSet<>();
+    private final Set<Integer> deletedTagTypes = new HashSet<>();
+    private boolean reloadRequired;
+
+    void mediaInserted(int mediaId) {
+      this.insertedMedias.add(mediaId);
+    }
+
+    void mediaUpdated(int mediaId) {
+      if (!this.insertedMedias.contains(mediaId))
+        this.updatedMedias.add(mediaId);
+    }
+
+    void mediaDeleted(int mediaId) {
+      this.addedMediaTags.remove(mediaId);
+      this.removedMediaTags.remove(mediaId);
+      this.updatedMedias.remove(mediaId);
+      if (!this.insertedMedias.remove(mediaId))
+        this.deletedMedias.add(mediaId);
+    }
+
+    void tagsAdded(int mediaId, final @NotNull Collection<Integer> tagIds) {
+      moveTags(mediaId, tagIds, this.removedMediaTags, this.addedMediaTags);
+    }
+
+    void tagsRemoved(int mediaId, final @NotNull Collection<Integer> tagIds) {
+      moveTags(mediaId, tagIds, this.addedMediaTags, this.removedMediaTags);
+    }
+
+    /**
+     * Add the given tags to the {@code to} set of the given media,
+     * except those that are in its {@code from} set, which are removed from it instead.
+     */
+    private static void moveTags(
+        int mediaId,
+        final @NotNull Collection<Integer> tagIds,
+        final @NotNull Map<Integer, Set<Integer>> from,
+        final @NotNull Map<Integer, Set<Integer>> to
+    ) {
+      final Set<Integer> fromIds = from.get(mediaId);
+      Set<Integer> toIds = null;
+      for (final int tagId : tagIds) {
+        if (fromIds != null && fromIds.remove(tagId))
+          continue;
+        if (toIds == null)
+          toIds = to.computeIfAbsent(mediaId, k -> new HashSet<>());
+        toIds.add(tagId);
+      }
+      if (fromIds != null && fromIds.isEmpty())
+        from.remove(mediaId);
+    }
+
+    void tagInserted(int tagId) {
+      this.insertedTags.add(tagId);
+    }
+
+    void tagUpdated(int tagId) {
+      if (!this.insertedTags.contains(tagId))
+        this.updatedTags.add(tagId);
+    }
+
+    void tagDeleted(int tagId) {
+      this.updatedTags.remove(tagId);
+      if (!this.insertedTags.remove(tagId))
+        this.deletedTags.add(tagId);
+      removeTag(this.addedMediaTags, tagId);
+      removeTag(this.removedMediaTags, tagId);
+    }
+
+    private static void removeTag(final @NotNull Map<Integer, Set<Integer>> mediasTags, int tagId) {
+      mediasTags.values().removeIf(tagIds -> tagIds.remove(tagId) && tagIds.isEmpty());
+    }
+
+    void tagTypeInserted(int tagTypeId) {
+      this.insertedTagTypes.add(tagTypeId);
+    }
+
+    void tagTypeUpdated(int tagTypeId) {
+      if (!this.insertedTagTypes.contains(tagTypeId))
+        this.updatedTagTypes.add(tagTypeId);
+    }
+
+    void tagTypeDeleted(int tagTypeId) {
+      this.updatedTagTypes.remove(tagTypeId);
+      if (!this.insertedTagTypes.remove(tagTypeId))
+        this.deletedTagTypes.add(tagTypeId);
+    }
+
+    void reloadRequired() {
+      this.reloadRequired = true;
+    }
+
+    boolean isEmpty() {
+      return !this.reloadRequired
+             && this.insertedMedias.isEmpty() && this.updatedMedias.isEmpty() && this.deletedMedias.isEmpty()
+             && this.addedMediaTags.isEmpty() && this.removedMediaTags.isEmpty()
+             && this.insertedTags.isEmpty() && this.updatedTags.isEmpty() && this.deletedTags.isEmpty()
+             && this.insertedTagTypes.isEmpty() && this.updatedTagTypes.isEmpty() && this.deletedTagTypes.isEmpty();
+    }
+
+    DatabaseChanges build() {
+      return new DatabaseChanges(
+          this.insertedMedias,
+          this.updatedMedias,
+          this.deletedMedias,
+          this.addedMediaTags,
+          this.removedMediaTags,
+          this.insertedTags,
+          this.updatedTags,
+          this.deletedTags,
+          this.insertedTagTypes,
+          this.updatedTagTypes,
+          this.deletedTagTypes,
+          this.reloadRequired
+      );
+    }
+  }
+}
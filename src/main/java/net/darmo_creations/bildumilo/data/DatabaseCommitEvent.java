@@ -0,0 +1,15 @@
+package net.darmo_creations.bildumilo.data;
+
+import jdk.jfr.*;
+
+/**
+ * A Java Flight Recorder event emitted for each transaction committed by a {@link DatabaseConnection}.
+ */
+@Name("net.darmo_creations.bildumilo.DatabaseCommit")
+@Label("Database Commit")
+@Category({"Bildumilo", "Database"})
+final class DatabaseCommitEvent extends Event {
+  @Label("Operation")
+  @Description("The public method of DatabaseConnection that committed the transaction")
+  String operation;
+}
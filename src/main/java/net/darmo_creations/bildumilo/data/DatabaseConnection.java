@@ -1,5 +1,6 @@
 package net.darmo_creations.bildumilo.data;
 
+import com.google.gson.*;
 import javafx.application.*;
 import javafx.util.*;
 import net.darmo_creations.bildumilo.*;
@@ -18,6 +19,8 @@ import java.lang.reflect.*;
 import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 import java.util.function.Function;
 import java.util.regex.Pattern;
@@ -27,6 +30,11 @@ import java.util.stream.*;
  * This class acts as the access point to an SQLite database file.
  * <p>
  * Instances maintain an internal cache of all tags and tag types.
+ * <p>
+ * Statements that modify the database are executed on a single writer connection.
+ * Methods that only read the database use a pool of read-only connections, see {@link ConnectionManager}.
+ * They may thus be called from other threads while a write transaction is in progress,
+ * and they only see committed changes.
  */
 public final class DatabaseConnection implements AutoCloseable {
   public static final String DATABASE_FILE_EXT = "sqlite3";
@@ -35,200 +43,357 @@ public final class DatabaseConnection implements AutoCloseable {
    * A map of all pseudo-tags that can be used in tag queries.
    */
   @Unmodifiable
-  public static final Map<String, PseudoTag> PSEUDO_TAGS = Map.of(
-      "ext",
-      new PatternPseudoTag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE "REGEX"(SUBSTR(path, "RINSTR"(path, '.') + 1), '%s', '%s')
-              """,
-          (pattern, flags) -> {
-            final Pattern p;
-            try {
-              p = PatternPseudoTag.getPattern(pattern, flags);
-            } catch (final SQLException e) {
-              return (mediaFile, tags, db) -> false;
-            }
-            return (mediaFile, tags, db) -> p.matcher(FileUtils.getExtension(mediaFile.path().getFileName())).matches();
-          },
-          true
-      ),
-
-      "no_file",
-      new BooleanFlag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE NOT "FILE_EXISTS"(path)
-              """,
-          (mediaFile, tags, db) -> {
-            try {
-              return !Files.exists(mediaFile.path());
-            } catch (final SecurityException e) {
-              return true;
-            }
-          }),
-
-      "no_tags",
-      new BooleanFlag(
-          """
-              SELECT i.id, i.path, i.hash
-              FROM images AS i
-              WHERE (
-                SELECT COUNT(*)
-                FROM image_tag AS it
-                WHERE it.image_id = i.id
-              ) = 0
-              """,
-          (mediaFile, tags, db) -> tags.isEmpty()
-      ),
-
-      "no_hash",
-      new BooleanFlag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE NOT "IS_VIDEO"(path) AND hash IS NULL
-              """,
-          (mediaFile, tags, db) -> !mediaFile.isVideo() && mediaFile.hash().isEmpty()
-      ),
-
-      "video",
-      new BooleanFlag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE "IS_VIDEO"(path)
-              """,
-          (mediaFile, tags, db) -> mediaFile.isVideo()
-      ),
-
-      "name",
-      new PatternPseudoTag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE "REGEX"(SUBSTR(path, "RINSTR"(path, '/') + 1), '%s', '%s')
-              """.replace("/", File.separator),
-          (pattern, flags) -> {
-            final Pattern p;
-            try {
-              p = PatternPseudoTag.getPattern(pattern, flags);
-            } catch (final SQLException e) {
-              return (mediaFile, tags, db) -> false;
-            }
-            return (mediaFile, tags, db) -> p.matcher(mediaFile.path().getFileName().toString()).matches();
-          },
-          true
-      ),
-
-      "path",
-      new PatternPseudoTag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE "REGEX"(path, '%s', '%s')
-              """,
-          (pattern, flags) -> {
-            final Pattern p;
-            try {
-              p = PatternPseudoTag.getPattern(pattern, flags);
-            } catch (final SQLException e) {
-              return (mediaFile, tags, db) -> false;
-            }
-            return (mediaFile, tags, db) -> p.matcher(mediaFile.path().toString()).matches();
-          },
-          true
-      ),
-
-      "similar_to",
-      new PatternPseudoTag(
-          """
-              SELECT id, path, hash
-              FROM images
-              WHERE hash IS NOT NULL
-                AND "SIMILAR_HASHES"(hash, (
-                  SELECT hash
+  public static final Map<String, PseudoTag> PSEUDO_TAGS = Map.ofEntries(
+      Map.entry("ext",
+          new PatternPseudoTag(
+              """
+                  SELECT id, path, hash
                   FROM images
-                  WHERE path = '%s'
-                ))
-              """,
-          (pattern, flags) -> (mediaFile, tags, db) -> {
-            if (mediaFile.hash().isEmpty())
-              return false;
-            final Hash hash;
-            try {
-              final Optional<Hash> hashOpt = db.getMedias("""
+                  WHERE "REGEX"(SUBSTR(path, "RINSTR"(path, '.') + 1), '%s', '%s')
+                  """,
+              (pattern, flags) -> {
+                final Pattern p;
+                try {
+                  p = PatternPseudoTag.getPattern(pattern, flags);
+                } catch (final SQLException e) {
+                  return (mediaFile, tags, db) -> false;
+                }
+                return (mediaFile, tags, db) -> p.matcher(FileUtils.getExtension(mediaFile.path().getFileName())).matches();
+              },
+              true
+          )),
+
+      Map.entry("no_file",
+          new BooleanFlag(
+              """
                   SELECT id, path, hash
                   FROM images
-                  WHERE path = '%s'
-                  """).findFirst().flatMap(MediaFile::hash);
-              if (hashOpt.isEmpty())
-                return false;
-              hash = hashOpt.get();
-            } catch (final DatabaseOperationException e) {
-              return false;
-            }
-            return hash.computeSimilarity(mediaFile.hash().get()).hammingDistance() <= Hash.SIM_DIST_THRESHOLD;
-          },
-          false
-      )
+                  WHERE NOT "FILE_EXISTS"(path)
+                  """,
+              (mediaFile, tags, db) -> {
+                try {
+                  return !Files.exists(mediaFile.path());
+                } catch (final SecurityException e) {
+                  return true;
+                }
+              })),
+
+      Map.entry("no_tags",
+          new BooleanFlag(
+              """
+                  SELECT i.id, i.path, i.hash
+                  FROM images AS i
+                  WHERE (
+                    SELECT COUNT(*)
+                    FROM image_tag AS it
+                    WHERE it.image_id = i.id
+                  ) = 0
+                  """,
+              (mediaFile, tags, db) -> tags.isEmpty()
+          )),
+
+      Map.entry("no_hash",
+          new BooleanFlag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE NOT "IS_VIDEO"(path) AND hash IS NULL
+                  """,
+              (mediaFile, tags, db) -> !mediaFile.isVideo() && mediaFile.hash().isEmpty()
+          )),
+
+      Map.entry("video",
+          new BooleanFlag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE "IS_VIDEO"(path)
+                  """,
+              (mediaFile, tags, db) -> mediaFile.isVideo()
+          )),
+
+      Map.entry("name",
+          new PatternPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE "REGEX"(SUBSTR(path, "RINSTR"(path, '/') + 1), '%s', '%s')
+                  """.replace("/", File.separator),
+              (pattern, flags) -> {
+                final Pattern p;
+                try {
+                  p = PatternPseudoTag.getPattern(pattern, flags);
+                } catch (final SQLException e) {
+                  return (mediaFile, tags, db) -> false;
+                }
+                return (mediaFile, tags, db) -> p.matcher(mediaFile.path().getFileName().toString()).matches();
+              },
+              true
+          )),
+
+      Map.entry("path",
+          new PatternPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE "REGEX"(path, '%s', '%s')
+                  """,
+              (pattern, flags) -> {
+                final Pattern p;
+                try {
+                  p = PatternPseudoTag.getPattern(pattern, flags);
+                } catch (final SQLException e) {
+                  return (mediaFile, tags, db) -> false;
+                }
+                return (mediaFile, tags, db) -> p.matcher(mediaFile.path().toString()).matches();
+              },
+              true
+          )),
+
+      Map.entry("similar_to",
+          new PatternPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE hash IS NOT NULL
+                    AND "SIMILAR_HASHES"(hash, (
+                      SELECT hash
+                      FROM images
+                      WHERE path = '%s'
+                    ))
+                  """,
+              (pattern, flags) -> (mediaFile, tags, db) -> {
+                if (mediaFile.hash().isEmpty())
+                  return false;
+                final Hash hash;
+                try {
+                  final Optional<Hash> hashOpt = db.getMediaHash(pattern);
+                  if (hashOpt.isEmpty())
+                    return false;
+                  hash = hashOpt.get();
+                } catch (final DatabaseOperationException e) {
+                  return false;
+                }
+                return hash.computeSimilarity(mediaFile.hash().get()).hammingDistance() <= Hash.SIM_DIST_THRESHOLD;
+              },
+              false
+          )),
+
+      Map.entry("size",
+          new ComparisonPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE size %s %s
+                  """,
+              ComparisonPseudoTag::parseBytesSize,
+              MediaMetadata::size
+          )),
+
+      Map.entry("width",
+          new ComparisonPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE width %s %s
+                  """,
+              ComparisonPseudoTag::parseInteger,
+              MediaMetadata::width
+          )),
+
+      Map.entry("height",
+          new ComparisonPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE height %s %s
+                  """,
+              ComparisonPseudoTag::parseInteger,
+              MediaMetadata::height
+          )),
+
+      Map.entry("duration",
+          new ComparisonPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE duration %s %s
+                  """,
+              ComparisonPseudoTag::parseDuration,
+              MediaMetadata::duration
+          )),
+
+      Map.entry("mtime",
+          new ComparisonPseudoTag(
+              """
+                  SELECT id, path, hash
+                  FROM images
+                  WHERE mtime %s %s
+                  """,
+              ComparisonPseudoTag::parseDateTime,
+              MediaMetadata::lastModified
+          ))
   );
 
   /**
    * The current database schema version.
    */
-  private static final int CURRENT_SCHEMA_VERSION = 0;
+  private static final int CURRENT_SCHEMA_VERSION = 4;
   /**
    * The name of the database setup file.
    */
   private static final String SETUP_FILE_NAME = "setup.sql";
+  /**
+   * The directory containing the schema migration files.
+   * Each file is named after the schema version it migrates to, e.g. "1.sql" migrates version 0 to version 1.
+   */
+  private static final String MIGRATIONS_DIR = "migrations";
+  /**
+   * The number of pages copied per step by {@link #backup(Path)}.
+   */
+  public static final int BACKUP_PAGES_PER_STEP = 256;
+  /**
+   * The pause between two steps of {@link #backup(Path)}, in milliseconds.
+   */
+  private static final int BACKUP_STEP_PAUSE = 10;
+  /**
+   * The delay before retrying a step of {@link #backup(Path)} when the database is locked, in milliseconds.
+   */
+  private static final int BACKUP_BUSY_DELAY = 100;
+  /**
+   * The maximum number of retries of a step of {@link #backup(Path)} when the database is locked.
+   */
+  private static final int BACKUP_BUSY_RETRIES = 50;
+  /**
+   * The number of times {@link #backup(Path)} lets writes restart the copy before holding them back.
+   */
+  public static final int BACKUP_MAX_RESTARTS = 3;
 
   private final Logger logger;
+  private final DatabaseMetrics metrics = new DatabaseMetrics();
+  /**
+   * The custom SQL functions injected into all connections, with their names.
+   */
+  private final Map<InstrumentedFunction, String> instrumentedFunctions = new ConcurrentHashMap<>();
+  private final ConnectionManager connections;
   private final Connection connection;
+  private final boolean useCacheSnapshot;
 
-  private final Map<Integer, TagType> tagTypesCache = new HashMap<>();
-  private final Set<TagType> tagTypesView = new MapValuesSetView<>(this.tagTypesCache);
-  private final Map<Integer, Integer> tagTypesCounts = new HashMap<>();
-  private final Map<Integer, Integer> tagTypesCountsView = Collections.unmodifiableMap(this.tagTypesCounts);
-  private final Map<Integer, Tag> tagsCache = new HashMap<>();
-  private final Set<Tag> tagsView = new MapValuesSetView<>(this.tagsCache);
-  private final Map<Integer, Integer> tagsCounts = new HashMap<>();
-  private final Map<Integer, Integer> tagsCountsView = Collections.unmodifiableMap(this.tagsCounts);
+  private final TagsCache tagsCache = new TagsCache();
+  /**
+   * The threads that delete the files of deleted medias, created on first use by {@link #fileDeleters()}
+   * and shut down by {@link #close()}.
+   */
+  private ExecutorService fileDeleters;
+  /**
+   * The tags of each media, or null if they are not cached.
+   */
+  @Nullable
+  private final MediaTagsIndex mediasTagsIndex;
+  /**
+   * The thread currently running {@link #runCoalesced(List)}, if any.
+   */
+  private volatile Thread coalescingThread;
+  /**
+   * The savepoint that delimits the changes of the operation being run by {@link #runCoalesced(List)}.
+   * Only accessed by {@link #coalescingThread}.
+   */
+  private Savepoint operationSavepoint;
+  /**
+   * The hooks to run once the transaction of {@link #runCoalesced(List)} ends,
+   * registered by {@link #afterTransaction(TransactionHook)}. Only accessed by {@link #coalescingThread}.
+   */
+  private final List<TransactionHook> transactionHooks = new ArrayList<>();
+  /**
+   * The value of {@link System#nanoTime()} when the last write transaction ended.
+   * Maintenance operations are not counted.
+   */
+  private volatile long lastWriteNanos = System.nanoTime();
+  /**
+   * The number of rows changed by batch operations since the last {@code ANALYZE}.
+   */
+  private final AtomicLong batchChangesSinceAnalyze = new AtomicLong();
+  private final List<ChangesListener> changesListeners = new CopyOnWriteArrayList<>();
+  /**
+   * The committed changes that have not been published yet.
+   * Only accessed by the thread that is writing to the database.
+   */
+  private DatabaseChanges.Builder pendingChanges = new DatabaseChanges.Builder();
 
   /**
    * Create a new connection to the given SQLite database file.
+   * The caches are restored from the snapshot saved in the database if it is still up-to-date,
+   * and the tags of all medias are kept in memory.
    *
    * @param file The file containing the database. If it does not exist, it will be created.
    *             If null, the database will be loaded in-memory only.
    * @throws DatabaseOperationException If the file exists but is not a database file or is incompatible.
    */
   public DatabaseConnection(Path file) throws DatabaseOperationException {
-    final String fileName = file == null ? ":memory:" : file.toString();
-    this.logger = LoggerFactory.getLogger("DB (%s)".formatted(fileName));
-    this.logger.info("Connecting to database file at {}", fileName);
-    try {
-      final boolean needToSetup = file == null || !Files.exists(file);
-      final SQLiteConfig sqLiteConfig = new SQLiteConfig();
-      sqLiteConfig.enforceForeignKeys(true);
-      this.connection = DriverManager.getConnection("jdbc:sqlite:%s".formatted(fileName), sqLiteConfig.toProperties());
-      this.injectCustomFunctions();
-      this.connection.setAutoCommit(false);
-      this.logger.info("Foreign keys enabled.");
-      if (needToSetup) // If the DB file does not exist, create it
-        this.setupDatabase();
-      else
-        this.checkSchemaVersion();
-    } catch (final SQLException | IOException | SecurityException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.logger.info("Connection established.");
+    this(file, true);
+  }
+
+  /**
+   * Create a new connection to the given SQLite database file.
+   * The tags of all medias are kept in memory.
+   *
+   * @param file             The file containing the database. If it does not exist, it will be created.
+   *                         If null, the database will be loaded in-memory only.
+   * @param useCacheSnapshot Whether to restore the caches from the snapshot saved in the database,
+   *                         if it is still up-to-date, and to save a new one when this connection is closed.
+   *                         Ignored for in-memory databases.
+   * @throws DatabaseOperationException If the file exists but is not a database file or is incompatible.
+   */
+  public DatabaseConnection(Path file, boolean useCacheSnapshot) throws DatabaseOperationException {
+    this(file, useCacheSnapshot, true);
+  }
 
+  /**
+   * Create a new connection to the given SQLite database file.
+   *
+   * @param file             The file containing the database. If it does not exist, it will be created.
+   *                         If null, the database will be loaded in-memory only.
+   * @param useCacheSnapshot Whether to restore the caches from the snapshot saved in the database,
+   *                         if it is still up-to-date, and to save a new one when this connection is closed.
+   *                         Ignored for in-memory databases.
+   * @param cacheMediasTags  Whether to keep the tags of all medias in memory.
+   *                         Disabling it saves memory for very large libraries
+   *                         at the cost of a query every time the tags of a media are needed.
+   * @throws DatabaseOperationException If the file exists but is not a database file or is incompatible.
+   */
+  public DatabaseConnection(Path file, boolean useCacheSnapshot, boolean cacheMediasTags)
+      throws DatabaseOperationException {
+    final var call = this.metrics.startOperation("<init>");
     try {
-      this.initCaches();
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      this.useCacheSnapshot = useCacheSnapshot && file != null;
+      this.mediasTagsIndex = cacheMediasTags ? new MediaTagsIndex() : null;
+      final String fileName = file == null ? ":memory:" : file.toString();
+      this.logger = LoggerFactory.getLogger("DB (%s)".formatted(fileName));
+      this.logger.info("Connecting to database file at {}", fileName);
+      try {
+        final boolean needToSetup = file == null || !Files.exists(file);
+        this.connections = new ConnectionManager(file, this::injectCustomFunctions, this.metrics);
+        this.connection = this.connections.writer();
+        this.logger.info("Foreign keys enabled.");
+        if (this.connections.hasReadPool())
+          this.logger.info("WAL journaling enabled, reads will use up to {} read-only connections.",
+              ConnectionManager.MAX_READERS);
+        if (needToSetup) // If the DB file does not exist, create it
+          this.setupDatabase();
+        else
+          this.checkSchemaVersion();
+      } catch (final SQLException | IOException | SecurityException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.logger.info("Connection established.");
+
+      try {
+        this.initCaches();
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    } finally {
+      call.close();
     }
   }
 
@@ -238,9 +403,10 @@ public final class DatabaseConnection implements AutoCloseable {
    * Functions are automatically detected by checking every class annotated with {@link SqlFunction} in the
    * {@link net.darmo_creations.bildumilo.data.sql_functions} package.
    *
+   * @param connection The connection to inject the functions into.
    * @throws SQLException If any database error occurs.
    */
-  private void injectCustomFunctions() throws SQLException {
+  private void injectCustomFunctions(@NotNull Connection connection) throws SQLException {
     this.logger.info("Injecting custom SQL functions…");
     // Cannot use reflection to get classes as it does not work in tests
     @SuppressWarnings("unchecked") final Class<? extends org.sqlite.Function>[] functions = new Class[] {
@@ -256,10 +422,16 @@ public final class DatabaseConnection implements AutoCloseable {
       final var annotation = functionClass.getAnnotation(SqlFunction.class);
       this.logger.info("Found SQL function '{}'.", annotation.name());
       try {
+        final org.sqlite.Function function = functionClass.getConstructor().newInstance();
+        if (function instanceof InstrumentedFunction f) {
+          this.instrumentedFunctions.put(f, annotation.name());
+          if (this.metrics.isEnabled())
+            f.setLatencyHistogram(this.metrics.functionHistogram(annotation.name()));
+        }
         org.sqlite.Function.create(
-            this.connection,
+            connection,
             annotation.name(),
-            functionClass.getConstructor().newInstance(),
+            function,
             annotation.nArgs(),
             annotation.flags()
         );
@@ -286,7 +458,7 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws SQLException               If any database error occurs.
    * @throws DatabaseOperationException If the database has an incorrect structure.
    */
-  private void checkSchemaVersion() throws SQLException, DatabaseOperationException {
+  private void checkSchemaVersion() throws SQLException, DatabaseOperationException, IOException {
     // Check if the "images.hash" column is missing
     boolean hashFound = false;
     try (final var statement = this.connection.prepareStatement("PRAGMA TABLE_INFO (images)");
@@ -307,13 +479,43 @@ public final class DatabaseConnection implements AutoCloseable {
         throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.PYTHON_DATABASE));
     }
 
-    final int schemaVersion;
+    final int schemaVersion = this.getSchemaVersion();
+    if (schemaVersion > CURRENT_SCHEMA_VERSION)
+      throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_SCHEMA_VERSION));
+    if (schemaVersion < CURRENT_SCHEMA_VERSION)
+      this.migrateSchema(schemaVersion);
+  }
+
+  /**
+   * Migrate the database’s schema from the given version to {@link #CURRENT_SCHEMA_VERSION}.
+   * <p>
+   * Migrations are applied in order, each one in its own transaction.
+   * If one fails, it is rolled back and the database is left at the previous version.
+   *
+   * @param fromVersion The database’s current schema version.
+   * @throws DatabaseOperationException If a migration file does not set the version it migrates to.
+   */
+  private void migrateSchema(int fromVersion) throws SQLException, IOException, DatabaseOperationException {
+    for (int version = fromVersion + 1; version <= CURRENT_SCHEMA_VERSION; version++) {
+      this.logger.info("Migrating database schema to version {}…", version);
+      this.executeUpdateQuery(this.readResource("/%s/%d.sql".formatted(MIGRATIONS_DIR, version)));
+      final int newVersion = this.getSchemaVersion();
+      if (newVersion != version) {
+        this.logger.error("Migration file {}.sql set the schema version to {}", version, newVersion);
+        throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_SCHEMA_VERSION));
+      }
+    }
+    this.logger.info("Done.");
+  }
+
+  /**
+   * Read the schema version of the database.
+   */
+  private int getSchemaVersion() throws SQLException {
     try (final var statement = this.connection.prepareStatement("PRAGMA USER_VERSION");
          final var resultSet = statement.executeQuery()) {
       resultSet.next();
-      schemaVersion = resultSet.getInt(1);
-      if (schemaVersion > CURRENT_SCHEMA_VERSION)
-        throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_SCHEMA_VERSION));
+      return resultSet.getInt(1);
     }
   }
 
@@ -325,7 +527,7 @@ public final class DatabaseConnection implements AutoCloseable {
   @Contract(pure = true)
   @UnmodifiableView
   public Set<TagType> getAllTagTypes() {
-    return this.tagTypesView;
+    return this.tagsCache.tagTypesView();
   }
 
   /**
@@ -336,7 +538,7 @@ public final class DatabaseConnection implements AutoCloseable {
   @Contract(pure = true)
   @UnmodifiableView
   public Map<Integer, Integer> getAllTagTypesCounts() {
-    return this.tagTypesCountsView;
+    return this.tagsCache.tagTypesCountsView();
   }
 
   @SQLite
@@ -353,37 +555,42 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public void insertTagTypes(final @NotNull Set<TagTypeUpdate> tagTypeUpdates) throws DatabaseOperationException {
-    final List<Pair<Integer, TagTypeUpdate>> generatedIds = new LinkedList<>();
-
-    try (final var statement = this.connection.prepareStatement(INSERT_TAG_TYPES_QUERY, Statement.RETURN_GENERATED_KEYS)) {
-      for (final var tagTypeUpdate : tagTypeUpdates) {
-        statement.setString(1, tagTypeUpdate.label());
-        statement.setString(2, String.valueOf(tagTypeUpdate.symbol()));
-        statement.setInt(3, tagTypeUpdate.color());
-        statement.executeUpdate();
-        final var id = getFirstGeneratedId(statement);
-        if (id.isEmpty())
-          throw this.logThrownError(new SQLException("Query did not generate any key"));
-        generatedIds.add(new Pair<>(id.get(), tagTypeUpdate));
+    this.timedWrite("insertTagTypes", () -> {
+      final List<Pair<Integer, TagTypeUpdate>> generatedIds = new LinkedList<>();
+
+      try (final var statement = this.connection.prepareStatement(INSERT_TAG_TYPES_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+        for (final var tagTypeUpdate : tagTypeUpdates) {
+          statement.setString(1, tagTypeUpdate.label());
+          statement.setString(2, String.valueOf(tagTypeUpdate.symbol()));
+          statement.setInt(3, tagTypeUpdate.color());
+          statement.executeUpdate();
+          final var id = getFirstGeneratedId(statement);
+          if (id.isEmpty())
+            throw this.logThrownError(new SQLException("Query did not generate any key"));
+          generatedIds.add(new Pair<>(id.get(), tagTypeUpdate));
+        }
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.commit();
-
-    // Update caches
-    for (final var entry : generatedIds) {
-      final int id = entry.getKey();
-      final TagTypeUpdate tagTypeUpdate = entry.getValue();
-      this.tagTypesCache.put(id, new TagType(
-          id,
-          tagTypeUpdate.label(),
-          tagTypeUpdate.symbol(),
-          tagTypeUpdate.color()
-      ));
-      this.tagTypesCounts.put(id, 0);
-    }
+      this.commit();
+
+      // Update caches
+      this.tagsCache.update(cache -> {
+        for (final var entry : generatedIds) {
+          final int id = entry.getKey();
+          final TagTypeUpdate tagTypeUpdate = entry.getValue();
+          cache.addTagType(new TagType(
+              id,
+              tagTypeUpdate.label(),
+              tagTypeUpdate.symbol(),
+              tagTypeUpdate.color()
+          ));
+        }
+      });
+      generatedIds.forEach(entry -> this.pendingChanges.tagTypeInserted(entry.getKey()));
+      this.publishChanges();
+    });
   }
 
   @SQLite
@@ -407,34 +614,38 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public void updateTagTypes(final @NotNull Set<TagTypeUpdate> tagTypeUpdates) throws DatabaseOperationException {
-    try (final var statement = this.connection.prepareStatement(UPDATE_TAG_TYPES_QUERY)) {
-      int i = 1;
-      for (final var tagTypeUpdate : tagTypeUpdates) {
-        final int id = tagTypeUpdate.id();
-        statement.setString(1, tagTypeUpdate.label());
-        statement.setString(2, String.valueOf(tagTypeUpdate.symbol()));
-        statement.setInt(3, tagTypeUpdate.color());
-        statement.setInt(4, i++);
-        statement.setInt(5, id);
-        if (statement.executeUpdate() == 0)
-          throw this.logThrownError(new SQLException("No tag type with ID %d".formatted(id)));
-      }
-      try (final var statement1 = this.connection.prepareStatement(RESET_UPDATING_TAG_TYPES_QUERY)) {
-        statement1.executeUpdate();
+    this.timedWrite("updateTagTypes", () -> {
+      try (final var statement = this.connection.prepareStatement(UPDATE_TAG_TYPES_QUERY)) {
+        int i = 1;
+        for (final var tagTypeUpdate : tagTypeUpdates) {
+          final int id = tagTypeUpdate.id();
+          statement.setString(1, tagTypeUpdate.label());
+          statement.setString(2, String.valueOf(tagTypeUpdate.symbol()));
+          statement.setInt(3, tagTypeUpdate.color());
+          statement.setInt(4, i++);
+          statement.setInt(5, id);
+          if (statement.executeUpdate() == 0)
+            throw this.logThrownError(new SQLException("No tag type with ID %d".formatted(id)));
+        }
+        try (final var statement1 = this.connection.prepareStatement(RESET_UPDATING_TAG_TYPES_QUERY)) {
+          statement1.executeUpdate();
+        }
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.commit();
+      this.commit();
 
-    // Update caches
-    for (final var tagTypeUpdate : tagTypeUpdates) {
-      final TagType tagType = this.tagTypesCache.get(tagTypeUpdate.id());
-      tagType.setLabel(tagTypeUpdate.label());
-      tagType.setSymbol(tagTypeUpdate.symbol());
-      tagType.setColor(tagTypeUpdate.color());
-    }
+      // Update caches
+      for (final var tagTypeUpdate : tagTypeUpdates) {
+        final TagType tagType = this.tagsCache.getTagType(tagTypeUpdate.id());
+        tagType.setLabel(tagTypeUpdate.label());
+        tagType.setSymbol(tagTypeUpdate.symbol());
+        tagType.setColor(tagTypeUpdate.color());
+        this.pendingChanges.tagTypeUpdated(tagType.id());
+      }
+      this.publishChanges();
+    });
   }
 
   /**
@@ -445,29 +656,37 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public void deleteTagTypes(final @NotNull Set<TagType> tagTypes) throws DatabaseOperationException {
-    this.deleteObjects(tagTypes, "tag_types");
-    // Update caches
-    for (final var tagType : tagTypes) {
-      this.tagTypesCache.remove(tagType.id());
-      this.tagTypesCounts.remove(tagType.id());
-      for (final var tag : this.tagsCache.values()) {
-        tag.type().ifPresent(currentType -> {
-          if (currentType.id() == tagType.id())
-            tag.setType(null);
-        });
-      }
-    }
+    this.timedWrite("deleteTagTypes", () -> {
+      this.deleteObjects(tagTypes, "tag_types");
+      // Update caches
+      this.tagsCache.update(cache -> {
+        for (final var tagType : tagTypes) {
+          cache.removeTagType(tagType.id());
+          this.pendingChanges.tagTypeDeleted(tagType.id());
+          for (final var tag : cache.tags().values()) {
+            tag.type().ifPresent(currentType -> {
+              if (currentType.id() == tagType.id()) {
+                tag.setType(null);
+                this.pendingChanges.tagUpdated(tag.id());
+              }
+            });
+          }
+        }
+      });
+      this.publishChanges();
+    });
   }
 
   /**
    * A view to the set of all tag defined in the database.
+   * It always reflects the latest state of the cache and may be iterated while another thread updates it.
    *
    * @return A view of the set. This method does not create a new object.
    */
   @Contract(pure = true)
   @UnmodifiableView
   public Set<Tag> getAllTags() {
-    return this.tagsView;
+    return this.tagsCache.tagsView();
   }
 
   /**
@@ -478,7 +697,33 @@ public final class DatabaseConnection implements AutoCloseable {
   @Contract(pure = true)
   @UnmodifiableView
   public Map<Integer, Integer> getAllTagsCounts() {
-    return this.tagsCountsView;
+    return this.tagsCache.tagsCountsView();
+  }
+
+  /**
+   * An immutable snapshot of the use counts of all tags.
+   * Unlike {@link #getAllTagsCounts()}, the returned map does not reflect later changes.
+   * Comparing two snapshots with {@link PersistentIntMap#forEachChangedKey(PersistentIntMap, IntConsumer)}
+   * gives the tags whose count changed in-between.
+   *
+   * @return The current counts. This method does not create a new object.
+   */
+  @Contract(pure = true)
+  @Unmodifiable
+  public PersistentIntMap<Integer> getTagsCountsSnapshot() {
+    return this.tagsCache.state().tagsCounts();
+  }
+
+  /**
+   * The current version of the tags cache. It changes every time a tag is created, updated or deleted,
+   * or whenever a tag’s use count changes. This lets callers know when data derived
+   * from {@link #getAllTags()} or {@link #getAllTagsCounts()} has to be updated.
+   *
+   * @return The cache’s version.
+   */
+  @Contract(pure = true)
+  public int tagsCacheVersion() {
+    return this.tagsCache.state().version();
   }
 
   /**
@@ -489,9 +734,11 @@ public final class DatabaseConnection implements AutoCloseable {
   @Contract(pure = true, value = "-> new")
   @Unmodifiable
   public Map<String, String> getTagDefinitions() {
-    return this.getAllTags().stream()
-        .filter(tag -> tag.definition().isPresent())
-        .collect(Collectors.toMap(Tag::label, tag -> tag.definition().get()));
+    return this.timed("getTagDefinitions", () -> {
+      return this.getAllTags().stream()
+          .filter(tag -> tag.definition().isPresent())
+          .collect(Collectors.toMap(Tag::label, tag -> tag.definition().get()));
+    });
   }
 
   @SQLite
@@ -508,30 +755,32 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public void insertTags(final @NotNull Set<TagUpdate> tagUpdates) throws DatabaseOperationException {
-    final List<Integer> generatedIds;
-    final List<TagUpdate> updates = new ArrayList<>(tagUpdates);
-    try {
-      generatedIds = this.insertTagsNoCommit(updates);
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.commit();
-
-    // Update caches
-    for (int i = 0; i < updates.size(); i++) {
-      final TagUpdate tagUpdate = updates.get(i).withId(generatedIds.get(i));
-      final int id = tagUpdate.id();
-      this.tagsCache.put(id, new Tag(
-          id,
-          tagUpdate.label(),
-          tagUpdate.type().map(tt -> this.tagTypesCache.get(tt.id())).orElse(null),
-          tagUpdate.definition().orElse(null)
-      ));
-      this.tagsCounts.put(id, 0);
-      tagUpdate.type().ifPresent(
-          tagType -> this.tagTypesCounts.put(tagType.id(), this.tagTypesCounts.get(tagType.id()) + 1));
-    }
+    this.timedWrite("insertTags", () -> {
+      final List<Integer> generatedIds;
+      final List<TagUpdate> updates = new ArrayList<>(tagUpdates);
+      try {
+        generatedIds = this.insertTagsNoCommit(updates);
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+
+      // Update caches
+      this.tagsCache.update(cache -> {
+        for (int i = 0; i < updates.size(); i++) {
+          final TagUpdate tagUpdate = updates.get(i).withId(generatedIds.get(i));
+          cache.addTag(new Tag(
+              tagUpdate.id(),
+              tagUpdate.label(),
+              tagUpdate.type().map(tt -> cache.tagTypes().get(tt.id())).orElse(null),
+              tagUpdate.definition().orElse(null)
+          ));
+        }
+      });
+      generatedIds.forEach(this.pendingChanges::tagInserted);
+      this.publishChanges();
+    });
   }
 
   /**
@@ -570,35 +819,39 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public void updateTags(final @NotNull Set<TagUpdate> tagUpdates) throws DatabaseOperationException {
-    try {
-      this.updateTagsNoCommit(new ArrayList<>(tagUpdates));
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    } catch (final DatabaseOperationException e) {
-      this.rollback();
-      throw e;
-    }
-    this.commit();
-
-    // Update caches
-    for (final var tagUpdate : tagUpdates) {
-      final Tag tag = this.tagsCache.get(tagUpdate.id());
-      tag.setDefinition(tagUpdate.definition().orElse(null));
-      tag.setLabel(tagUpdate.label());
-      if (tag.type().isPresent()) {
-        final TagType oldTagType = tag.type().get();
-        this.tagTypesCounts.put(oldTagType.id(), this.tagTypesCounts.get(oldTagType.id()) - 1);
-      }
-      final var typeOpt = tagUpdate.type();
-      if (typeOpt.isPresent()) {
-        final TagType newTagType = typeOpt.get();
-        this.tagTypesCounts.put(newTagType.id(), this.tagTypesCounts.get(newTagType.id()) + 1);
-        tag.setType(newTagType);
-      } else {
-        tag.setType(null);
+    this.timedWrite("updateTags", () -> {
+      try {
+        this.updateTagsNoCommit(new ArrayList<>(tagUpdates));
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      } catch (final DatabaseOperationException e) {
+        this.rollback();
+        throw e;
       }
-    }
+      this.commit();
+
+      // Update caches
+      this.tagsCache.update(cache -> {
+        for (final var tagUpdate : tagUpdates) {
+          final Tag tag = cache.tags().get(tagUpdate.id());
+          tag.setDefinition(tagUpdate.definition().orElse(null));
+          tag.setLabel(tagUpdate.label());
+          if (tag.type().isPresent())
+            cache.addToTagTypeCount(tag.type().get().id(), -1);
+          final var typeOpt = tagUpdate.type();
+          if (typeOpt.isPresent()) {
+            final TagType newTagType = typeOpt.get();
+            cache.addToTagTypeCount(newTagType.id(), 1);
+            tag.setType(newTagType);
+          } else {
+            tag.setType(null);
+          }
+          this.pendingChanges.tagUpdated(tag.id());
+        }
+      });
+      this.publishChanges();
+    });
   }
 
   @SQLite
@@ -664,11 +917,10 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws SQLException If any database error occurs.
    */
   private boolean isTagUsed(final @NotNull TagLike tag) throws SQLException {
-    try (final var statement = this.connection.prepareStatement(SELECT_MEDIAS_FOR_TAG_QUERY)) {
-      statement.setInt(1, tag.id());
-      try (final var resultSet = statement.executeQuery()) {
-        return resultSet.next();
-      }
+    final var statement = this.connections.prepareCached(this.connection, SELECT_MEDIAS_FOR_TAG_QUERY);
+    statement.setInt(1, tag.id());
+    try (final var resultSet = statement.executeQuery()) {
+      return resultSet.next();
     }
   }
 
@@ -680,14 +932,15 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public void deleteTags(final @NotNull Set<Tag> tags) throws DatabaseOperationException {
-    this.deleteObjects(tags, "tags");
-    // Update caches
-    for (final var tagUpdate : tags) {
-      this.tagsCache.remove(tagUpdate.id());
-      this.tagsCounts.remove(tagUpdate.id());
-      tagUpdate.type().ifPresent(
-          tagType -> this.tagTypesCounts.put(tagType.id(), this.tagTypesCounts.get(tagType.id()) - 1));
-    }
+    this.timedWrite("deleteTags", () -> {
+      this.deleteObjects(tags, "tags");
+      // Update caches
+      if (this.mediasTagsIndex != null)
+        this.mediasTagsIndex.removeTags(tags.stream().map(Tag::id).collect(Collectors.toSet()));
+      this.tagsCache.update(cache -> tags.forEach(cache::removeTag));
+      tags.forEach(tag -> this.pendingChanges.tagDeleted(tag.id()));
+      this.publishChanges();
+    });
   }
 
   /**
@@ -728,50 +981,199 @@ public final class DatabaseConnection implements AutoCloseable {
    */
   @Contract(pure = true, value = "_ -> new")
   public Set<MediaFile> queryMedias(@NotNull TagQuery query) throws DatabaseOperationException {
-    final var sql = query.asSQL();
-    if (sql.isEmpty())
-      return Set.of();
-    try {
-      return this.getMedias(sql.get()).collect(Collectors.toSet());
-    } catch (final DatabaseOperationException e) {
-      throw this.logThrownError(new DatabaseOperationException(e.errorCode(), e));
-    }
+    return this.timed("queryMedias", () -> {
+      final var sql = query.asSQL();
+      if (sql.isEmpty())
+        return Set.of();
+      try {
+        return this.read(connection -> {
+          try (final var statement = connection.prepareStatement(sql.get());
+               final var resultSet = statement.executeQuery()) {
+            final Set<MediaFile> mediaFiles = new HashSet<>();
+            while (resultSet.next())
+              mediaFiles.add(newMediaFile(resultSet));
+            return mediaFiles;
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
   }
 
-  @SQLite
-  private static final String SELECT_ALL_MEDIAS_QUERY = """
-      SELECT id, path, hash
-      FROM images
-      """;
+  /**
+   * Fetch the IDs of all medias that match the given tag query.
+   * Unlike {@link #queryMedias(TagQuery)}, no {@link MediaFile} object is built.
+   *
+   * @param query A tag query.
+   * @return The set of the IDs of the medias that match the query.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Set<Integer> queryMediaIds(@NotNull TagQuery query) throws DatabaseOperationException {
+    return this.timed("queryMediaIds", () -> {
+      final var sql = query.asSQL();
+      if (sql.isEmpty())
+        return new HashSet<>();
+      try {
+        return this.read(connection -> {
+          try (final var statement = connection.prepareStatement("SELECT id FROM (%s)".formatted(sql.get()));
+               final var resultSet = statement.executeQuery()) {
+            final Set<Integer> mediaIds = new HashSet<>();
+            while (resultSet.next())
+              mediaIds.add(resultSet.getInt(1));
+            return mediaIds;
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
+  }
 
   /**
-   * Fetch all registered medias.
-   * The returned stream may throw {@link DatabaseOperationRuntimeException}s
-   * when iterating if any database error occurs.
+   * Count the medias that match the given tag query.
+   * Unlike {@link #queryMedias(TagQuery)}, no {@link MediaFile} object is built.
    *
-   * @return An unordered stream of all registered medias.
+   * @param query A tag query.
+   * @return The number of medias that match the query.
    * @throws DatabaseOperationException If any database error occurs.
    */
-  public Stream<MediaFile> getAllMedias() throws DatabaseOperationException {
-    return this.getMedias(SELECT_ALL_MEDIAS_QUERY);
+  @Contract(pure = true)
+  public int countMedias(@NotNull TagQuery query) throws DatabaseOperationException {
+    return this.timed("countMedias", () -> {
+      final var sql = query.asSQL();
+      if (sql.isEmpty())
+        return 0;
+      return this.selectInt("SELECT COUNT(*) FROM (%s)".formatted(sql.get()));
+    });
   }
 
-  private Stream<MediaFile> getMedias(@SQLite @NotNull String query) throws DatabaseOperationException {
-    try {
-      final var statement = this.connection.prepareStatement(query);
-      final var resultSet = statement.executeQuery();
-      final var iterator = new ResultSetIterator<>(statement, resultSet, DatabaseConnection::newMediaFile);
-      return StreamSupport
-          .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
-          .onClose(() -> {
-            try {
-              statement.close();
-              resultSet.close();
-            } catch (final SQLException e) {
+  /**
+   * Check whether at least one media matches the given tag query.
+   * The query stops as soon as a matching media is found.
+   *
+   * @param query A tag query.
+   * @return True if any media matches the query, false otherwise.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true)
+  public boolean anyMedia(@NotNull TagQuery query) throws DatabaseOperationException {
+    return this.timed("anyMedia", () -> {
+      final var sql = query.asSQL();
+      if (sql.isEmpty())
+        return false;
+      return this.selectInt("SELECT EXISTS(%s)".formatted(sql.get())) != 0;
+    });
+  }
+
+  @SQLite
+  private static final String QUERY_TAGS_COUNTS_QUERY = """
+      SELECT it.tag_id, COUNT(*)
+      FROM image_tag AS it
+      WHERE it.image_id IN (SELECT id FROM (%s))
+      GROUP BY it.tag_id
+      """;
+
+  /**
+   * Count, for each tag, how many of the medias that match the given tag query it is attached to.
+   * All counts are computed in a single grouped query over the result set.
+   *
+   * @param query A tag query.
+   * @return A map associating tag IDs to their number of uses among the matching medias.
+   * Tags that are not attached to any matching media are absent.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Map<Integer, Integer> getTagsCountsForQuery(@NotNull TagQuery query) throws DatabaseOperationException {
+    return this.timed("getTagsCountsForQuery", () -> {
+      final Map<Integer, Integer> counts = new HashMap<>();
+      final var sql = query.asSQL();
+      if (sql.isEmpty())
+        return counts;
+      try {
+        this.read(connection -> {
+          try (final var statement = connection.prepareStatement(QUERY_TAGS_COUNTS_QUERY.formatted(sql.get()));
+               final var resultSet = statement.executeQuery()) {
+            while (resultSet.next())
+              counts.put(resultSet.getInt(1), resultSet.getInt(2));
+          }
+          return null;
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      return counts;
+    });
+  }
+
+  /**
+   * Execute the given query and return the integer value in the first column of its first row.
+   *
+   * @param query The query to execute. It must return at least one row.
+   * @return The integer value.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  private int selectInt(@SQLite @NotNull String query) throws DatabaseOperationException {
+    try {
+      return this.read(connection -> {
+        try (final var statement = connection.prepareStatement(query);
+             final var resultSet = statement.executeQuery()) {
+          resultSet.next();
+          return resultSet.getInt(1);
+        }
+      });
+    } catch (final SQLException e) {
+      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+    }
+  }
+
+  @SQLite
+  private static final String SELECT_ALL_MEDIAS_QUERY = """
+      SELECT id, path, hash
+      FROM images
+      """;
+
+  /**
+   * Fetch all registered medias.
+   * The returned stream may throw {@link DatabaseOperationRuntimeException}s
+   * when iterating if any database error occurs.
+   * It holds a read connection and must be closed once it is no longer used.
+   *
+   * @return An unordered stream of all registered medias.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public Stream<MediaFile> getAllMedias() throws DatabaseOperationException {
+    return this.timed("getAllMedias", () -> {
+      return this.getMedias(SELECT_ALL_MEDIAS_QUERY);
+    });
+  }
+
+  private Stream<MediaFile> getMedias(@SQLite @NotNull String query) throws DatabaseOperationException {
+    final Connection connection;
+    try {
+      connection = this.connections.acquireReader();
+    } catch (final SQLException e) {
+      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+    }
+    try {
+      final var statement = connection.prepareStatement(query);
+      final var resultSet = statement.executeQuery();
+      final var iterator = new ResultSetIterator<>(statement, resultSet, DatabaseConnection::newMediaFile);
+      return StreamSupport
+          .stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+          .onClose(() -> {
+            try {
+              statement.close();
+              resultSet.close();
+            } catch (final SQLException e) {
               throw new DatabaseOperationRuntimeException(getErrorCode(e), e);
+            } finally {
+              this.connections.releaseReader(connection);
             }
           });
     } catch (final SQLException e) {
+      this.connections.releaseReader(connection);
       throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
     }
   }
@@ -786,7 +1188,28 @@ public final class DatabaseConnection implements AutoCloseable {
    */
   public boolean mediaMatchesQuery(@NotNull MediaFile mediaFile, @NotNull TagQuery tagQuery)
       throws DatabaseOperationException {
-    return tagQuery.predicate().test(mediaFile, this.getMediaTags(mediaFile), this);
+    return this.timed("mediaMatchesQuery", () -> {
+      return this.mediaMatchesQuery(mediaFile, this.getMediaTags(mediaFile), tagQuery);
+    });
+  }
+
+  /**
+   * Check whether the given media matches the given query, using already fetched tags.
+   *
+   * @param mediaFile The media to check.
+   * @param mediaTags The tags of the media.
+   * @param tagQuery  The query to match the media against.
+   * @return True if the media matches the query, false otherwise.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public boolean mediaMatchesQuery(
+      @NotNull MediaFile mediaFile,
+      final @NotNull Set<Tag> mediaTags,
+      @NotNull TagQuery tagQuery
+  ) throws DatabaseOperationException {
+    return this.timed("mediaMatchesQuery", () -> {
+      return tagQuery.predicate().test(mediaFile, mediaTags, this);
+    });
   }
 
   @SQLite
@@ -806,15 +1229,114 @@ public final class DatabaseConnection implements AutoCloseable {
    */
   @Contract(pure = true, value = "_ -> new")
   public Set<Tag> getMediaTags(@NotNull MediaFile mediaFile) throws DatabaseOperationException {
-    final Set<Tag> tags = new HashSet<>();
-    try (final var statement = this.connection.prepareStatement(SELECT_MEDIA_TAGS_QUERY)) {
-      statement.setInt(1, mediaFile.id());
-      try (final var resultSet = statement.executeQuery()) {
-        while (resultSet.next())
-          tags.add(this.tagsCache.get(resultSet.getInt("id")));
+    return this.timed("getMediaTags", () -> {
+      if (this.mediasTagsIndex != null)
+        return this.getTags(this.mediasTagsIndex.get(mediaFile.id()));
+      final Set<Tag> tags = new HashSet<>();
+      try {
+        this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SELECT_MEDIA_TAGS_QUERY);
+          statement.setInt(1, mediaFile.id());
+          try (final var resultSet = statement.executeQuery()) {
+            while (resultSet.next())
+              tags.add(this.tagsCache.getTag(resultSet.getInt("id")));
+          }
+          return null;
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      return tags;
+    });
+  }
+
+  @SQLite
+  private static final String SELECT_MEDIAS_TAGS_QUERY = """
+      SELECT image_id, tag_id
+      FROM image_tag
+      WHERE image_id IN (SELECT value FROM json_each(?1))
+      ORDER BY image_id, tag_id
+      """;
+
+  /**
+   * Fetch the tags of all the given medias with a single query.
+   * Use {@link #getTags(int[])} to get the corresponding {@link Tag} objects.
+   *
+   * @param medias The medias to fetch the tags of.
+   * @return A map associating the ID of each media to the sorted IDs of its tags.
+   * All tag IDs are present in the tags cache. Medias without any tag are mapped to an empty array.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Map<Integer, int[]> getMediasTags(final @NotNull Collection<? extends MediaLike> medias)
+      throws DatabaseOperationException {
+    return this.timed("getMediasTags", () -> {
+      final Map<Integer, int[]> mediasTags = new HashMap<>();
+      if (this.mediasTagsIndex != null) {
+        final Map<Integer, Tag> tags = this.tagsCache.state().tags();
+        for (final MediaLike media : medias)
+          mediasTags.put(media.id(), Arrays.stream(this.mediasTagsIndex.get(media.id()))
+              .filter(tags::containsKey)
+              .toArray());
+        return mediasTags;
+      }
+      final StringJoiner ids = new StringJoiner(",", "[", "]");
+      for (final MediaLike media : medias) {
+        mediasTags.put(media.id(), new int[0]);
+        ids.add(String.valueOf(media.id()));
+      }
+      if (mediasTags.isEmpty())
+        return mediasTags;
+      try {
+        final Map<Integer, Tag> tags = this.tagsCache.state().tags();
+        this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SELECT_MEDIAS_TAGS_QUERY);
+          statement.setString(1, ids.toString());
+          try (final var resultSet = statement.executeQuery()) {
+            int[] buffer = new int[16];
+            int size = 0;
+            int currentMediaId = -1;
+            while (resultSet.next()) {
+              final int mediaId = resultSet.getInt(1);
+              final int tagId = resultSet.getInt(2);
+              if (mediaId != currentMediaId) {
+                if (size != 0)
+                  mediasTags.put(currentMediaId, Arrays.copyOf(buffer, size));
+                currentMediaId = mediaId;
+                size = 0;
+              }
+              if (!tags.containsKey(tagId))
+                continue;
+              if (size == buffer.length)
+                buffer = Arrays.copyOf(buffer, size * 2);
+              buffer[size++] = tagId;
+            }
+            if (size != 0)
+              mediasTags.put(currentMediaId, Arrays.copyOf(buffer, size));
+          }
+          return null;
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      return mediasTags;
+    });
+  }
+
+  /**
+   * Return the cached tags with the given IDs. Unknown IDs are ignored.
+   *
+   * @param tagIds The IDs of the tags.
+   * @return The set of corresponding tags.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Set<Tag> getTags(final int @NotNull [] tagIds) {
+    final Map<Integer, Tag> cachedTags = this.tagsCache.state().tags();
+    final Set<Tag> tags = new HashSet<>();
+    for (final int tagId : tagIds) {
+      final Tag tag = cachedTags.get(tagId);
+      if (tag != null)
+        tags.add(tag);
     }
     return tags;
   }
@@ -837,11 +1359,39 @@ public final class DatabaseConnection implements AutoCloseable {
    */
   @Contract(pure = true)
   public boolean isFileRegistered(@NotNull Path path) throws DatabaseOperationException {
-    try (final var statement = this.connection.prepareStatement(MEDIAS_WITH_PATH_QUERY)) {
-      statement.setString(1, path.toAbsolutePath().toString());
-      try (final var resultSet = statement.executeQuery()) {
-        return resultSet.next(); // Check if there are any rows
+    return this.timed("isFileRegistered", () -> {
+      try {
+        return this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, MEDIAS_WITH_PATH_QUERY);
+          statement.setString(1, path.toAbsolutePath().toString());
+          try (final var resultSet = statement.executeQuery()) {
+            return resultSet.next(); // Check if there are any rows
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
+    });
+  }
+
+  /**
+   * Fetch the hash of the media with the given path with a single-row read.
+   *
+   * @param path The exact path of the media.
+   * @return The media’s hash, or an empty {@link Optional} if no media has this path or it has no hash.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  private Optional<Hash> getMediaHash(@NotNull String path) throws DatabaseOperationException {
+    try {
+      return this.read(connection -> {
+        final var statement = this.connections.prepareCached(connection, MEDIAS_WITH_PATH_QUERY);
+        statement.setString(1, path);
+        try (final var resultSet = statement.executeQuery()) {
+          if (!resultSet.next() || resultSet.getString("hash") == null)
+            return Optional.empty();
+          return Optional.of(new Hash(resultSet.getLong("hash")));
+        }
+      });
     } catch (final SQLException e) {
       throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
     }
@@ -849,9 +1399,11 @@ public final class DatabaseConnection implements AutoCloseable {
 
   @SQLite
   private static final String MEDIA_ID_EXISTS_QUERY = """
-      SELECT COUNT(*)
-      FROM images
-      WHERE id = ?1
+      SELECT EXISTS(
+        SELECT 1
+        FROM images
+        WHERE id = ?1
+      )
       """;
 
   /**
@@ -862,15 +1414,64 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   public boolean mediaExists(int mediaId) throws DatabaseOperationException {
-    try (final var statement = this.connection.prepareStatement(MEDIA_ID_EXISTS_QUERY)) {
-      statement.setInt(1, mediaId);
-      try (final var resultSet = statement.executeQuery()) {
-        resultSet.next();
-        return resultSet.getInt(1) != 0;
+    return this.timed("mediaExists", () -> {
+      try {
+        return this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, MEDIA_ID_EXISTS_QUERY);
+          statement.setInt(1, mediaId);
+          try (final var resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1) != 0;
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
+    });
+  }
+
+  @SQLite
+  private static final String SELECT_MEDIAS_WITH_IDS_QUERY = """
+      SELECT id, path, hash
+      FROM images
+      WHERE id IN (SELECT value FROM json_each(?1))
+      """;
+
+  /**
+   * Fetch the medias with the given IDs with a single query.
+   *
+   * @param mediaIds The IDs of the medias to fetch.
+   * @return A map associating the ID of each media to the corresponding object.
+   * IDs that do not exist in the database are absent from the map.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public Map<Integer, MediaFile> getMedias(final @NotNull Collection<Integer> mediaIds)
+      throws DatabaseOperationException {
+    return this.timed("getMedias", () -> {
+      final Map<Integer, MediaFile> mediaFiles = new HashMap<>();
+      if (mediaIds.isEmpty())
+        return mediaFiles;
+      final StringJoiner ids = new StringJoiner(",", "[", "]");
+      for (final int mediaId : mediaIds)
+        ids.add(String.valueOf(mediaId));
+      try {
+        this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SELECT_MEDIAS_WITH_IDS_QUERY);
+          statement.setString(1, ids.toString());
+          try (final var resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+              final MediaFile mediaFile = newMediaFile(resultSet);
+              mediaFiles.put(mediaFile.id(), mediaFile);
+            }
+          }
+          return null;
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      return mediaFiles;
+    });
   }
 
   @SQLite
@@ -895,27 +1496,73 @@ public final class DatabaseConnection implements AutoCloseable {
   @Contract(pure = true, value = "_, _ -> new")
   public List<Pair<MediaFile, Float>> getSimilarImages(@NotNull Hash hash, MediaFile exclude)
       throws DatabaseOperationException {
-    final List<Pair<MediaFile, Float>> images = new LinkedList<>();
-    try (final var statement = this.connection.prepareStatement(SELECT_SIMILAR_IMAGES_QUERY)) {
-      statement.setLong(1, hash.bytes());
-      statement.setInt(2, exclude != null ? exclude.id() : -1);
-      try (final var resultSet = statement.executeQuery()) {
-        while (resultSet.next())
-          images.add(new Pair<>(
-              newMediaFile(resultSet),
-              resultSet.getFloat("confidence")
-          ));
+    return this.timed("getSimilarImages", () -> {
+      final List<Pair<MediaFile, Float>> images = new LinkedList<>();
+      try {
+        this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SELECT_SIMILAR_IMAGES_QUERY);
+          statement.setLong(1, hash.bytes());
+          statement.setInt(2, exclude != null ? exclude.id() : -1);
+          try (final var resultSet = statement.executeQuery()) {
+            while (resultSet.next())
+              images.add(new Pair<>(
+                  newMediaFile(resultSet),
+                  resultSet.getFloat("confidence")
+              ));
+          }
+          return null;
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    return images;
+      return images;
+    });
+  }
+
+  @SQLite
+  private static final String SIMILAR_IMAGES_EXIST_QUERY = """
+      SELECT EXISTS(
+        SELECT 1
+        FROM images
+        WHERE id != ?2
+          AND "SIMILAR_HASHES"(hash, ?1) = 1
+      )
+      """;
+
+  /**
+   * Check whether any media has a hash similar to the given one,
+   * according to the {@link Hash#computeSimilarity(Hash)} method.
+   * This is faster than checking whether {@link #getSimilarImages(Hash, MediaFile)} returns an empty list
+   * as the search stops at the first similar media and no confidence index is computed.
+   *
+   * @param hash    The reference hash.
+   * @param exclude A media that should be excluded from the search. May be null.
+   * @return True if at least one media has a hash similar to the argument, false otherwise.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true)
+  public boolean hasSimilarImages(@NotNull Hash hash, MediaFile exclude) throws DatabaseOperationException {
+    return this.timed("hasSimilarImages", () -> {
+      try {
+        return this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SIMILAR_IMAGES_EXIST_QUERY);
+          statement.setLong(1, hash.bytes());
+          statement.setInt(2, exclude != null ? exclude.id() : -1);
+          try (final var resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1) != 0;
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
   }
 
   @SQLite
   private static final String INSERT_MEDIA_QUERY = """
-      INSERT INTO images (path, hash)
-      VALUES (?, ?)
+      INSERT INTO images (path, hash, size, width, height, duration, mtime)
+      VALUES (?, ?, ?, ?, ?, ?, ?)
       """;
   @SQLite
   private static final String MEDIA_WITH_ID_QUERY = """
@@ -926,6 +1573,7 @@ public final class DatabaseConnection implements AutoCloseable {
 
   /**
    * Insert the given media.
+   * Its metadata is read from its file before the database is locked.
    *
    * @param mediaFileUpdate The media to insert.
    * @return The inserted media.
@@ -933,91 +1581,786 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws IllegalArgumentException   If the {@code tagsToRemove} property is not empty.
    */
   public MediaFile insertMedia(@NotNull MediaFileUpdate mediaFileUpdate) throws DatabaseOperationException {
-    if (!mediaFileUpdate.tagsToRemove().isEmpty())
-      throw this.logThrownError(new IllegalArgumentException("Cannot remove tags from a media that is not yet registered"));
-
-    final Pair<Set<Pair<Tag, Boolean>>, Set<Tag>> result;
-    final int newId;
-    try (final var statement = this.connection.prepareStatement(INSERT_MEDIA_QUERY, Statement.RETURN_GENERATED_KEYS)) {
-      statement.setString(1, mediaFileUpdate.path().toString());
-      if (mediaFileUpdate.hash().isPresent())
-        statement.setLong(2, mediaFileUpdate.hash().get().bytes());
-      else
-        statement.setNull(2, Types.INTEGER);
-      statement.executeUpdate();
-      final var id = getFirstGeneratedId(statement);
-      if (id.isEmpty())
-        throw this.logThrownError(new SQLException("Query did not generate any key"));
-      newId = id.get();
-      result = this.updateMediaTagsNoCommit(mediaFileUpdate.withId(newId));
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    } catch (final DatabaseOperationException e) {
-      this.rollback();
-      throw e;
-    }
-    this.commit();
-    this.updateTagsCache(result.getKey(), result.getValue());
+    return this.timed("insertMedia", () -> {
+      return this.insertMedia(mediaFileUpdate, MediaMetadata.readFromFile(mediaFileUpdate.path()).orElse(null));
+    });
+  }
 
-    try (final var statement = this.connection.prepareStatement(MEDIA_WITH_ID_QUERY)) {
-      statement.setInt(1, newId);
-      try (final var resultSet = statement.executeQuery()) {
-        resultSet.next();
-        return newMediaFile(resultSet);
+  /**
+   * Insert the given media with the given metadata.
+   *
+   * @param mediaFileUpdate The media to insert.
+   * @param metadata        The media’s metadata, or null if its file could not be read.
+   * @return The inserted media.
+   * @throws DatabaseOperationException If any data base error occurs.
+   * @throws IllegalArgumentException   If the {@code tagsToRemove} property is not empty.
+   */
+  private MediaFile insertMedia(@NotNull MediaFileUpdate mediaFileUpdate, MediaMetadata metadata)
+      throws DatabaseOperationException {
+    return this.writing(() -> {
+      if (!mediaFileUpdate.tagsToRemove().isEmpty())
+        throw this.logThrownError(new IllegalArgumentException("Cannot remove tags from a media that is not yet registered"));
+
+      final Pair<Set<Pair<Tag, Boolean>>, Set<Tag>> result;
+      final int newId;
+      try (final var statement = this.connection.prepareStatement(INSERT_MEDIA_QUERY, Statement.RETURN_GENERATED_KEYS)) {
+        statement.setString(1, mediaFileUpdate.path().toString());
+        if (mediaFileUpdate.hash().isPresent())
+          statement.setLong(2, mediaFileUpdate.hash().get().bytes());
+        else
+          statement.setNull(2, Types.INTEGER);
+        setMetadata(statement, 3, metadata);
+        statement.executeUpdate();
+        final var id = getFirstGeneratedId(statement);
+        if (id.isEmpty())
+          throw this.logThrownError(new SQLException("Query did not generate any key"));
+        newId = id.get();
+        result = this.updateMediaTagsNoCommit(mediaFileUpdate.withId(newId));
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      } catch (final DatabaseOperationException e) {
+        this.rollback();
+        throw e;
       }
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
+      this.commit();
+      this.updateTagsCache(result.getKey(), result.getValue());
+      this.updateMediasTagsIndex(newId, result.getKey(), result.getValue());
+      this.pendingChanges.mediaInserted(newId);
+      this.recordMediaTagsChanges(newId, result.getKey(), result.getValue());
+      this.publishChanges();
+
+      try (final var statement = this.connection.prepareStatement(MEDIA_WITH_ID_QUERY)) {
+        statement.setInt(1, newId);
+        try (final var resultSet = statement.executeQuery()) {
+          resultSet.next();
+          return newMediaFile(resultSet);
+        }
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
   }
 
-  private static MediaFile newMediaFile(final @NotNull ResultSet resultSet) throws SQLException {
-    final boolean hashIsNull = resultSet.getString("hash") == null;
-    return new MediaFile(
-        resultSet.getInt("id"),
-        Path.of(resultSet.getString("path")),
-        hashIsNull ? null : new Hash(resultSet.getLong("hash"))
-    );
-  }
+  /**
+   * The default number of medias inserted per transaction by {@link #insertMedias(Collection)}.
+   */
+  public static final int INSERT_MEDIAS_CHUNK_SIZE = 500;
 
   @SQLite
-  private static final String UPDATE_MEDIA_QUERY = """
-      UPDATE images
-      SET path = ?1, hash = ?2
-      WHERE id = ?3
+  private static final String INSERT_MEDIA_RETURNING_ID_QUERY = """
+      INSERT INTO images (path, hash, size, width, height, duration, mtime)
+      VALUES (?, ?, ?, ?, ?, ?, ?)
+      RETURNING id
       """;
 
   /**
-   * Update the given media’s hash and tags.
+   * Insert the given medias, committing every {@link #INSERT_MEDIAS_CHUNK_SIZE} medias.
+   *
+   * @param mediaFileUpdates The medias to insert.
+   * @return The inserted medias, in the iteration order of the collection.
+   * @throws DatabaseOperationException If any data base error occurs.
+   * @throws IllegalArgumentException   If the {@code tagsToRemove} property of any media is not empty.
+   * @see #insertMedias(Collection, int, ProgressManager)
+   */
+  public List<MediaFile> insertMedias(final @NotNull Collection<MediaFileUpdate> mediaFileUpdates)
+      throws DatabaseOperationException {
+    return this.timed("insertMedias", () -> {
+      return this.insertMedias(mediaFileUpdates, INSERT_MEDIAS_CHUNK_SIZE, null);
+    });
+  }
+
+  /**
+   * Insert the given medias. Medias are inserted in chunks of {@code chunkSize}, each chunk in its own transaction.
+   * If any error occurs, the current chunk is rolled back but all previous ones remain committed.
    * <p>
-   * <strong>Updating the path will not move or rename the associated file.</strong>
-   * To move or rename a media, see {@link #moveOrRenameMedia(MediaFile, Path, boolean)}.
-   * To merge two medias, see {@link #mergeMedias(MediaFile, MediaFile, boolean)}.
+   * The metadata of all medias is read from their files before the database is locked.
+   * Callers that already read them in a background thread should use
+   * {@link #insertMedias(Collection, List, int, ProgressManager)} instead.
    *
-   * @param mediaFileUpdate The media to update.
+   * @param mediaFileUpdates The medias to insert.
+   * @param chunkSize        The maximum number of medias to insert per transaction.
+   * @param progressManager  An optional object to notify of the progress. If it requests cancellation,
+   *                         the insertion stops after the current chunk.
+   * @return The inserted medias, in the iteration order of the collection.
+   * @throws DatabaseOperationException If any data base error occurs.
+   * @throws IllegalArgumentException   If {@code chunkSize} is not positive
+   *                                    or the {@code tagsToRemove} property of any media is not empty.
+   */
+  public List<MediaFile> insertMedias(
+      final @NotNull Collection<MediaFileUpdate> mediaFileUpdates,
+      int chunkSize,
+      ProgressManager progressManager
+  ) throws DatabaseOperationException {
+    return this.timed("insertMedias", () -> {
+      final List<MediaMetadata> metadata = new ArrayList<>(mediaFileUpdates.size());
+      for (final MediaFileUpdate mediaFileUpdate : mediaFileUpdates)
+        metadata.add(MediaMetadata.readFromFile(mediaFileUpdate.path()).orElse(null));
+      return this.insertMedias(mediaFileUpdates, metadata, chunkSize, progressManager);
+    });
+  }
+
+  /**
+   * Insert the given medias with the given metadata.
+   * Medias are inserted in chunks of {@code chunkSize}, each chunk in its own transaction.
+   * If any error occurs, the current chunk is rolled back but all previous ones remain committed.
+   * <p>
+   * Tag labels are resolved once for the whole collection. Tags that do not exist yet
+   * are created along with the first chunk that references them.
+   *
+   * @param mediaFileUpdates The medias to insert.
+   * @param metadata         The metadata of each media, in the iteration order of {@code mediaFileUpdates}.
+   *                         Elements are null for medias whose file could not be read.
+   * @param chunkSize        The maximum number of medias to insert per transaction.
+   * @param progressManager  An optional object to notify of the progress. If it requests cancellation,
+   *                         the insertion stops after the current chunk.
+   * @return The inserted medias, in the iteration order of the collection.
+   * @throws DatabaseOperationException If any data base error occurs.
+   * @throws IllegalArgumentException   If {@code chunkSize} is not positive, {@code metadata} does not have
+   *                                    as many elements as {@code mediaFileUpdates},
+   *                                    or the {@code tagsToRemove} property of any media is not empty.
+   */
+  public List<MediaFile> insertMedias(
+      final @NotNull Collection<MediaFileUpdate> mediaFileUpdates,
+      final @NotNull List<MediaMetadata> metadata,
+      int chunkSize,
+      ProgressManager progressManager
+  ) throws DatabaseOperationException {
+    return this.timedWrite("insertMedias", () -> {
+      if (chunkSize <= 0)
+        throw this.logThrownError(new IllegalArgumentException("chunkSize must be positive"));
+      if (metadata.size() != mediaFileUpdates.size())
+        throw this.logThrownError(new IllegalArgumentException("metadata and mediaFileUpdates must have the same size"));
+      if (mediaFileUpdates.stream().anyMatch(update -> !update.tagsToRemove().isEmpty()))
+        throw this.logThrownError(new IllegalArgumentException("Cannot remove tags from a media that is not yet registered"));
+
+      // Resolve all labels before touching the database
+      final Map<String, Tag> tagsByLabel = this.getTagsByLabel();
+      final Map<String, TagUpdate> unknownTags = this.checkTagsToAdd(
+          mediaFileUpdates.stream().map(MediaFileUpdate::tagsToAdd).toList(),
+          tagsByLabel
+      );
+
+      final List<MediaFile> insertedMedias = new ArrayList<>(mediaFileUpdates.size());
+      // Only contain the changes of committed chunks
+      final List<Tag> createdTags = new LinkedList<>();
+      final Map<Integer, Integer> addedTagsCounts = new HashMap<>();
+      final int total = mediaFileUpdates.size();
+      try {
+        final Iterator<MediaFileUpdate> iterator = mediaFileUpdates.iterator();
+        final Iterator<MediaMetadata> metadataIterator = metadata.iterator();
+        while (iterator.hasNext()) {
+          if (progressManager != null && progressManager.isCancelled())
+            break;
+          final List<MediaFileUpdate> chunk = new ArrayList<>(chunkSize);
+          final List<MediaMetadata> chunkMetadata = new ArrayList<>(chunkSize);
+          while (iterator.hasNext() && chunk.size() < chunkSize) {
+            chunk.add(iterator.next());
+            chunkMetadata.add(metadataIterator.next());
+          }
+
+          final List<MediaFile> chunkMedias = new ArrayList<>(chunk.size());
+          final Map<Integer, Set<Integer>> chunkMediasTags = new HashMap<>();
+          final List<Tag> chunkCreatedTags = new LinkedList<>();
+          final Map<Integer, Integer> chunkTagsCounts = new HashMap<>();
+          try {
+            // Create the tags that this chunk is the first to reference
+            final List<TagUpdate> toInsert = chunk.stream()
+                .flatMap(update -> update.tagsToAdd().stream())
+                .map(ParsedTag::label)
+                .distinct()
+                .filter(label -> !tagsByLabel.containsKey(label))
+                .map(unknownTags::get)
+                .toList();
+            chunkCreatedTags.addAll(this.createTagsNoCommit(toInsert));
+            final Map<String, Tag> chunkTagsByLabel = new HashMap<>();
+            chunkCreatedTags.forEach(tag -> chunkTagsByLabel.put(tag.label(), tag));
+
+            final var mediaStatement = this.connections.prepareCached(this.connection, INSERT_MEDIA_RETURNING_ID_QUERY);
+            final var tagStatement = this.connections.prepareCached(this.connection, ADD_TAG_TO_MEDIA_QUERY);
+            for (int i = 0; i < chunk.size(); i++) {
+              final MediaFileUpdate mediaFileUpdate = chunk.get(i);
+              mediaStatement.setString(1, mediaFileUpdate.path().toString());
+              if (mediaFileUpdate.hash().isPresent())
+                mediaStatement.setLong(2, mediaFileUpdate.hash().get().bytes());
+              else
+                mediaStatement.setNull(2, Types.INTEGER);
+              setMetadata(mediaStatement, 3, chunkMetadata.get(i));
+              final int mediaId;
+              try (final var resultSet = mediaStatement.executeQuery()) {
+                if (!resultSet.next())
+                  throw this.logThrownError(new SQLException("Query did not generate any key"));
+                mediaId = resultSet.getInt(1);
+              }
+              final Set<Integer> tagIds = new HashSet<>();
+              for (final ParsedTag parsedTag : mediaFileUpdate.tagsToAdd()) {
+                final Tag tag = tagsByLabel.getOrDefault(parsedTag.label(), chunkTagsByLabel.get(parsedTag.label()));
+                if (!tagIds.add(tag.id()))
+                  continue;
+                tagStatement.setInt(1, mediaId);
+                tagStatement.setInt(2, tag.id());
+                tagStatement.addBatch();
+                chunkTagsCounts.merge(tag.id(), 1, Integer::sum);
+              }
+              chunkMedias.add(new MediaFile(mediaId, mediaFileUpdate.path(), mediaFileUpdate.hash().orElse(null)));
+              chunkMediasTags.put(mediaId, tagIds);
+              if (progressManager != null)
+                notifyProgress(progressManager, "progress.inserting_files.saving", total, insertedMedias.size() + chunkMedias.size());
+            }
+            tagStatement.executeBatch();
+          } catch (final SQLException e) {
+            this.rollback();
+            throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+          }
+          this.commit();
+          this.recordBatchChanges(chunkMedias.size());
+
+          insertedMedias.addAll(chunkMedias);
+          if (this.mediasTagsIndex != null)
+            chunkMediasTags.forEach(this.mediasTagsIndex::add);
+          chunkCreatedTags.forEach(tag -> this.pendingChanges.tagInserted(tag.id()));
+          chunkMediasTags.forEach((mediaId, tagIds) -> {
+            this.pendingChanges.mediaInserted(mediaId);
+            this.pendingChanges.tagsAdded(mediaId, tagIds);
+          });
+          createdTags.addAll(chunkCreatedTags);
+          chunkCreatedTags.forEach(tag -> tagsByLabel.put(tag.label(), tag));
+          chunkTagsCounts.forEach((tagId, count) -> addedTagsCounts.merge(tagId, count, Integer::sum));
+        }
+      } finally {
+        // Update caches for all committed chunks at once, even if a later chunk failed
+        if (!insertedMedias.isEmpty())
+          this.updateTagsCache(createdTags, addedTagsCounts);
+        this.publishChanges();
+      }
+      return insertedMedias;
+    });
+  }
+
+  /**
+   * Map all tags of the cache to their label.
+   */
+  private Map<String, Tag> getTagsByLabel() {
+    final Map<String, Tag> tagsByLabel = new HashMap<>();
+    for (final Tag tag : this.tagsCache.state().tags().values())
+      tagsByLabel.put(tag.label(), tag);
+    return tagsByLabel;
+  }
+
+  /**
+   * Check that the given tags can be added to medias and return those that do not exist yet.
+   *
+   * @param tagSets     The sets of tags to add, one per media.
+   * @param tagsByLabel All existing tags, mapped by label.
+   * @return The tags to create, mapped by label. If a label appears in several sets with different types,
+   * the type from the first set is used.
+   * @throws DatabaseOperationException If a tag type does not exist, an existing tag has a definition,
+   *                                    or a set contains the same new label with different types.
+   */
+  private Map<String, TagUpdate> checkTagsToAdd(
+      final @NotNull Collection<Set<ParsedTag>> tagSets,
+      final @NotNull Map<String, Tag> tagsByLabel
+  ) throws DatabaseOperationException {
+    final Map<String, TagUpdate> unknownTags = new LinkedHashMap<>();
+    for (final Set<ParsedTag> tags : tagSets) {
+      final Set<String> newLabels = new HashSet<>();
+      for (final ParsedTag parsedTag : tags) {
+        final Optional<TagType> tagType = parsedTag.tagType();
+        if (tagType.isPresent() && this.tagsCache.getTagType(tagType.get().id()) == null)
+          throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.OBJECT_DOES_NOT_EXIST));
+        final String label = parsedTag.label();
+        final Tag tag = tagsByLabel.get(label);
+        if (tag == null) {
+          // Same label with different types, the tag cannot be created
+          if (!newLabels.add(label))
+            throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.SQLITE_CONSTRAINT_UNIQUE));
+          unknownTags.putIfAbsent(label, new TagUpdate(0, label, tagType.orElse(null), null));
+        } else if (tag.definition().isPresent())
+          throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.BOUND_TAG_HAS_DEFINITION));
+      }
+    }
+    return unknownTags;
+  }
+
+  /**
+   * Insert the given tags and return the corresponding {@link Tag} objects.
+   * This method does not perform any kind of transaction managment,
+   * it is the responsablity of the caller to do so. Caches are not updated.
+   *
+   * @param tagUpdates The list of tags to insert.
+   * @return The created tags, in the same order.
+   * @throws SQLException If any database error occurs.
+   */
+  private List<Tag> createTagsNoCommit(final @NotNull List<TagUpdate> tagUpdates) throws SQLException {
+    final List<Integer> generatedIds = this.insertTagsNoCommit(tagUpdates);
+    final List<Tag> tags = new ArrayList<>(tagUpdates.size());
+    for (int i = 0; i < tagUpdates.size(); i++) {
+      final TagUpdate tagUpdate = tagUpdates.get(i);
+      tags.add(new Tag(
+          generatedIds.get(i),
+          tagUpdate.label(),
+          tagUpdate.type().map(tt -> this.tagsCache.getTagType(tt.id())).orElse(null),
+          tagUpdate.definition().orElse(null)
+      ));
+    }
+    return tags;
+  }
+
+  /**
+   * Add the given newly created tags to the cache and update the counts of the affected tags.
+   *
+   * @param createdTags      The tags that were created, their count is initialized to 0.
+   * @param tagsCountsDeltas The number of medias added to (positive) or removed from (negative) each tag.
+   */
+  private void updateTagsCache(final @NotNull List<Tag> createdTags, final @NotNull Map<Integer, Integer> tagsCountsDeltas) {
+    this.tagsCache.update(cache -> {
+      createdTags.forEach(cache::addTag);
+      tagsCountsDeltas.forEach(cache::addToTagCount);
+    });
+  }
+
+  /**
+   * Bind the values of the given metadata to the 5 parameters of a statement, starting at the given index,
+   * in the following order: size, width, height, duration, mtime.
+   *
+   * @param statement  The statement to set the parameters of.
+   * @param startIndex The index of the first parameter.
+   * @param metadata   The metadata to bind. If null, all parameters are set to NULL.
+   */
+  private static void setMetadata(
+      @NotNull PreparedStatement statement,
+      int startIndex,
+      MediaMetadata metadata
+  ) throws SQLException {
+    if (metadata == null) {
+      for (int i = 0; i < 5; i++)
+        statement.setNull(startIndex + i, i == 3 ? Types.REAL : Types.INTEGER);
+      return;
+    }
+    statement.setLong(startIndex, metadata.size());
+    statement.setObject(startIndex + 1, metadata.width(), Types.INTEGER);
+    statement.setObject(startIndex + 2, metadata.height(), Types.INTEGER);
+    statement.setObject(startIndex + 3, metadata.duration(), Types.REAL);
+    statement.setLong(startIndex + 4, metadata.lastModified());
+  }
+
+  private static MediaFile newMediaFile(final @NotNull ResultSet resultSet) throws SQLException {
+    final boolean hashIsNull = resultSet.getString("hash") == null;
+    return new MediaFile(
+        resultSet.getInt("id"),
+        Path.of(resultSet.getString("path")),
+        hashIsNull ? null : new Hash(resultSet.getLong("hash"))
+    );
+  }
+
+  @SQLite
+  private static final String UPDATE_MEDIA_QUERY = """
+      UPDATE images
+      SET path = ?1, hash = ?2
+      WHERE id = ?3
+      """;
+
+  /**
+   * Update the given media’s hash and tags.
+   * <p>
+   * <strong>Updating the path will not move or rename the associated file.</strong>
+   * To move or rename a media, see {@link #moveOrRenameMedia(MediaFile, Path, boolean)}.
+   * To merge two medias, see {@link #mergeMedias(MediaFile, MediaFile, boolean)}.
+   *
+   * @param mediaFileUpdate The media to update.
    * @throws DatabaseOperationException If any data base error occurs.
    */
   public void updateMedia(@NotNull MediaFileUpdate mediaFileUpdate) throws DatabaseOperationException {
-    this.ensureInDatabase(mediaFileUpdate);
-    final Pair<Set<Pair<Tag, Boolean>>, Set<Tag>> result;
-    try (final var statement = this.connection.prepareStatement(UPDATE_MEDIA_QUERY)) {
-      statement.setString(1, mediaFileUpdate.path().toString());
-      if (mediaFileUpdate.hash().isPresent())
-        statement.setLong(2, mediaFileUpdate.hash().get().bytes());
-      else
-        statement.setNull(2, Types.INTEGER);
-      statement.setInt(3, mediaFileUpdate.id());
-      statement.executeUpdate();
-      result = this.updateMediaTagsNoCommit(mediaFileUpdate);
+    this.timed("updateMedia", () -> {
+      // Fill in the metadata of medias registered before metadata was supported,
+      // the file is read before the database is locked
+      final MediaMetadata metadata = this.getMediaMetadata(mediaFileUpdate).isEmpty()
+          ? MediaMetadata.readFromFile(mediaFileUpdate.path()).orElse(null)
+          : null;
+      this.writing(() -> {
+        this.ensureInDatabase(mediaFileUpdate);
+        final Pair<Set<Pair<Tag, Boolean>>, Set<Tag>> result;
+        try (final var statement = this.connection.prepareStatement(UPDATE_MEDIA_QUERY)) {
+          statement.setString(1, mediaFileUpdate.path().toString());
+          if (mediaFileUpdate.hash().isPresent())
+            statement.setLong(2, mediaFileUpdate.hash().get().bytes());
+          else
+            statement.setNull(2, Types.INTEGER);
+          statement.setInt(3, mediaFileUpdate.id());
+          statement.executeUpdate();
+          if (metadata != null)
+            this.updateMediaMetadataNoCommit(mediaFileUpdate.id(), metadata);
+          result = this.updateMediaTagsNoCommit(mediaFileUpdate);
+        } catch (final SQLException e) {
+          this.rollback();
+          throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+        } catch (final DatabaseOperationException e) {
+          this.rollback();
+          throw e;
+        }
+        this.commit();
+        this.updateTagsCache(result.getKey(), result.getValue());
+        this.updateMediasTagsIndex(mediaFileUpdate.id(), result.getKey(), result.getValue());
+        this.pendingChanges.mediaUpdated(mediaFileUpdate.id());
+        this.recordMediaTagsChanges(mediaFileUpdate.id(), result.getKey(), result.getValue());
+        this.publishChanges();
+      });
+    });
+  }
+
+  @SQLite
+  private static final String CREATE_BULK_MEDIA_IDS_QUERY = """
+      CREATE TEMP TABLE IF NOT EXISTS bulk_media_ids (id INTEGER PRIMARY KEY)
+      """;
+  @SQLite
+  private static final String CLEAR_BULK_MEDIA_IDS_QUERY = """
+      DELETE FROM bulk_media_ids
+      """;
+  @SQLite
+  private static final String INSERT_BULK_MEDIA_ID_QUERY = """
+      INSERT OR IGNORE INTO bulk_media_ids (id)
+      VALUES (?)
+      """;
+  @SQLite
+  private static final String ADD_TAG_TO_BULK_MEDIAS_QUERY = """
+      INSERT OR IGNORE INTO image_tag (image_id, tag_id)
+      SELECT i.id, ?1
+      FROM bulk_media_ids AS b
+      JOIN images AS i ON i.id = b.id
+      RETURNING image_id
+      """;
+  @SQLite
+  private static final String REMOVE_TAG_FROM_BULK_MEDIAS_QUERY = """
+      DELETE FROM image_tag
+      WHERE tag_id = ?1
+        AND image_id IN (SELECT id FROM bulk_media_ids)
+      RETURNING image_id
+      """;
+
+  /**
+   * Add the given tags to all the given medias in a single transaction.
+   * Tags that do not exist yet are created. IDs that do not match any media are ignored.
+   *
+   * @param tags     The tags to add.
+   * @param mediaIds The IDs of the medias to add the tags to.
+   * @return The number of tag/media associations that were created.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public int addTagsToMedias(final @NotNull Set<ParsedTag> tags, final @NotNull Collection<Integer> mediaIds)
+      throws DatabaseOperationException {
+    return this.timed("addTagsToMedias", () -> {
+      return this.bulkUpdateMediasTags(tags, Set.of(), mediaIds, null);
+    });
+  }
+
+  /**
+   * Remove the given tags from all the given medias in a single transaction.
+   * IDs that do not match any media are ignored.
+   *
+   * @param tags     The tags to remove.
+   * @param mediaIds The IDs of the medias to remove the tags from.
+   * @return The number of tag/media associations that were deleted.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public int removeTagsFromMedias(final @NotNull Set<Tag> tags, final @NotNull Collection<Integer> mediaIds)
+      throws DatabaseOperationException {
+    return this.timed("removeTagsFromMedias", () -> {
+      return this.bulkUpdateMediasTags(Set.of(), tags, mediaIds, null);
+    });
+  }
+
+  /**
+   * Add then remove the given tags to/from all the given medias in a single transaction.
+   * Tags that do not exist yet are created. IDs that do not match any media are ignored.
+   *
+   * @param tagsToAdd    The tags to add.
+   * @param tagsToRemove The tags to remove.
+   * @param mediaIds     The IDs of the medias to update.
+   * @return The IDs of the medias that had at least one tag added or removed.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public Set<Integer> updateMediasTags(
+      final @NotNull Set<ParsedTag> tagsToAdd,
+      final @NotNull Set<Tag> tagsToRemove,
+      final @NotNull Collection<Integer> mediaIds
+  ) throws DatabaseOperationException {
+    return this.timedWrite("updateMediasTags", () -> {
+      final Set<Integer> updatedMediaIds = new HashSet<>();
+      this.bulkUpdateMediasTags(tagsToAdd, tagsToRemove, mediaIds, updatedMediaIds);
+      return updatedMediaIds;
+    });
+  }
+
+  /**
+   * Add then remove the given tags to/from all the given medias in a single transaction.
+   * The media IDs are stored in a temporary table so that each tag is added or removed by a single statement.
+   *
+   * @param tagsToAdd       The tags to add.
+   * @param tagsToRemove    The tags to remove.
+   * @param mediaIds        The IDs of the medias to update.
+   * @param updatedMediaIds If not null, the IDs of the medias that had a tag added or removed are added to it.
+   * @return The number of tag/media associations that were created or deleted.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  private int bulkUpdateMediasTags(
+      final @NotNull Set<ParsedTag> tagsToAdd,
+      final @NotNull Set<Tag> tagsToRemove,
+      final @NotNull Collection<Integer> mediaIds,
+      final Set<Integer> updatedMediaIds
+  ) throws DatabaseOperationException {
+    return this.writing(() -> {
+      final Map<String, Tag> tagsByLabel = this.getTagsByLabel();
+      final Map<String, TagUpdate> unknownTags = this.checkTagsToAdd(List.of(tagsToAdd), tagsByLabel);
+      for (final Tag tag : tagsToRemove)
+        this.ensureInDatabase(tag);
+      if (mediaIds.isEmpty() || tagsToAdd.isEmpty() && tagsToRemove.isEmpty())
+        return 0;
+
+      final List<Tag> createdTags;
+      final Map<Integer, Integer> tagsCountsDeltas = new HashMap<>();
+      final Map<Integer, List<Integer>> addedTags = new HashMap<>();
+      final Map<Integer, List<Integer>> removedTags = new HashMap<>();
+      int changes = 0;
+      try {
+        this.connections.prepareCached(this.connection, CREATE_BULK_MEDIA_IDS_QUERY).executeUpdate();
+        this.connections.prepareCached(this.connection, CLEAR_BULK_MEDIA_IDS_QUERY).executeUpdate();
+        final var idStatement = this.connections.prepareCached(this.connection, INSERT_BULK_MEDIA_ID_QUERY);
+        for (final int mediaId : mediaIds) {
+          idStatement.setInt(1, mediaId);
+          idStatement.addBatch();
+        }
+        idStatement.executeBatch();
+
+        createdTags = this.createTagsNoCommit(new ArrayList<>(unknownTags.values()));
+        createdTags.forEach(tag -> tagsByLabel.put(tag.label(), tag));
+        final Set<Integer> tagIdsToAdd = new HashSet<>();
+        for (final ParsedTag parsedTag : tagsToAdd)
+          tagIdsToAdd.add(tagsByLabel.get(parsedTag.label()).id());
+        final Set<Integer> tagIdsToRemove = new HashSet<>();
+        for (final Tag tag : tagsToRemove)
+          tagIdsToRemove.add(tag.id());
+
+        final var addStatement = this.connections.prepareCached(this.connection, ADD_TAG_TO_BULK_MEDIAS_QUERY);
+        for (final int tagId : tagIdsToAdd) {
+          addStatement.setInt(1, tagId);
+          final List<Integer> ids = collectMediaIds(addStatement);
+          addedTags.put(tagId, ids);
+          tagsCountsDeltas.merge(tagId, ids.size(), Integer::sum);
+          changes += ids.size();
+        }
+        final var removeStatement = this.connections.prepareCached(this.connection, REMOVE_TAG_FROM_BULK_MEDIAS_QUERY);
+        for (final int tagId : tagIdsToRemove) {
+          removeStatement.setInt(1, tagId);
+          final List<Integer> ids = collectMediaIds(removeStatement);
+          removedTags.put(tagId, ids);
+          tagsCountsDeltas.merge(tagId, -ids.size(), Integer::sum);
+          changes += ids.size();
+        }
+        this.connections.prepareCached(this.connection, CLEAR_BULK_MEDIA_IDS_QUERY).executeUpdate();
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+      this.recordBatchChanges(changes);
+      this.updateTagsCache(createdTags, tagsCountsDeltas);
+      if (this.mediasTagsIndex != null)
+        this.mediasTagsIndex.update(addedTags, removedTags);
+      if (updatedMediaIds != null) {
+        addedTags.values().forEach(updatedMediaIds::addAll);
+        removedTags.values().forEach(updatedMediaIds::addAll);
+      }
+      createdTags.forEach(tag -> this.pendingChanges.tagInserted(tag.id()));
+      addedTags.forEach((tagId, ids) -> ids.forEach(id -> this.pendingChanges.tagsAdded(id, List.of(tagId))));
+      removedTags.forEach((tagId, ids) -> ids.forEach(id -> this.pendingChanges.tagsRemoved(id, List.of(tagId))));
+      this.publishChanges();
+      return changes;
+    });
+  }
+
+  /**
+   * Execute a statement that returns media IDs.
+   *
+   * @param statement The statement to execute.
+   * @return The returned IDs.
+   * @throws SQLException If any database error occurs.
+   */
+  private static List<Integer> collectMediaIds(@NotNull PreparedStatement statement) throws SQLException {
+    final List<Integer> mediaIds = new ArrayList<>();
+    try (final var resultSet = statement.executeQuery()) {
+      while (resultSet.next())
+        mediaIds.add(resultSet.getInt(1));
+    }
+    return mediaIds;
+  }
+
+  @SQLite
+  private static final String SELECT_MEDIA_METADATA_QUERY = """
+      SELECT size, width, height, duration, mtime
+      FROM images
+      WHERE id = ?1
+      """;
+
+  /**
+   * Fetch the metadata of the given media.
+   *
+   * @param media The media to get the metadata of.
+   * @return The media’s metadata, or an empty {@link Optional} if it is not available.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true)
+  public Optional<MediaMetadata> getMediaMetadata(@NotNull MediaLike media) throws DatabaseOperationException {
+    return this.timed("getMediaMetadata", () -> {
+      try {
+        return this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SELECT_MEDIA_METADATA_QUERY);
+          statement.setInt(1, media.id());
+          try (final var resultSet = statement.executeQuery()) {
+            if (!resultSet.next())
+              return Optional.empty();
+            return Optional.ofNullable(readMetadata(resultSet));
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
+  }
+
+  /**
+   * Read the metadata columns of the current row of the given result set.
+   *
+   * @param resultSet The result set to read from.
+   * @return The metadata, or null if the media has none.
+   * @throws SQLException If any database error occurs.
+   */
+  private static MediaMetadata readMetadata(@NotNull ResultSet resultSet) throws SQLException {
+    final long size = resultSet.getLong("size");
+    if (resultSet.wasNull())
+      return null;
+    final int width = resultSet.getInt("width");
+    final boolean noWidth = resultSet.wasNull();
+    final int height = resultSet.getInt("height");
+    final boolean noHeight = resultSet.wasNull();
+    final double duration = resultSet.getDouble("duration");
+    final boolean noDuration = resultSet.wasNull();
+    return new MediaMetadata(
+        size,
+        noWidth ? null : width,
+        noHeight ? null : height,
+        noDuration ? null : duration,
+        resultSet.getLong("mtime")
+    );
+  }
+
+  @SQLite
+  private static final String UPDATE_MEDIA_METADATA_QUERY = """
+      UPDATE images
+      SET size = ?1, width = ?2, height = ?3, duration = ?4, mtime = ?5
+      WHERE id = ?6
+      """;
+
+  /**
+   * Store the given metadata of a media in the database.
+   * <p>
+   * This method does not perform any commit or rollback.
+   *
+   * @param mediaId  The ID of the media to update the metadata of.
+   * @param metadata The media’s new metadata.
+   * @return True if the media exists, false otherwise.
+   */
+  private boolean updateMediaMetadataNoCommit(int mediaId, @NotNull MediaMetadata metadata) throws SQLException {
+    final var statement = this.connections.prepareCached(this.connection, UPDATE_MEDIA_METADATA_QUERY);
+    setMetadata(statement, 1, metadata);
+    statement.setInt(6, mediaId);
+    return statement.executeUpdate() != 0;
+  }
+
+  /**
+   * Read the metadata of the files of the given medias and store it in the database in a single transaction.
+   * This is useful after the files were edited by another application, or moved to another file system.
+   * <p>
+   * Files are read before the database is locked.
+   * The stored metadata of medias whose file cannot be read is left untouched.
+   *
+   * @param medias The medias to refresh the metadata of.
+   * @return The number of medias whose metadata was updated.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public int refreshMediasMetadata(final @NotNull Collection<? extends MediaLike> medias)
+      throws DatabaseOperationException {
+    return this.timed("refreshMediasMetadata", () -> {
+      final Map<Integer, MediaMetadata> metadata = new HashMap<>();
+      for (final MediaLike media : medias)
+        MediaMetadata.readFromFile(media.path()).ifPresent(m -> metadata.put(media.id(), m));
+      return this.updateMediasMetadata(metadata);
+    });
+  }
+
+  /**
+   * Store the given metadata in the database in a single transaction.
+   * IDs that do not match any media are ignored.
+   *
+   * @param metadata The new metadata of each media, mapped by media ID.
+   * @return The number of medias whose metadata was updated.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  int updateMediasMetadata(final @NotNull Map<Integer, MediaMetadata> metadata) throws DatabaseOperationException {
+    if (metadata.isEmpty())
+      return 0;
+    return this.writing(() -> {
+      final List<Integer> updatedIds = new ArrayList<>();
+      try {
+        for (final var entry : metadata.entrySet())
+          if (this.updateMediaMetadataNoCommit(entry.getKey(), entry.getValue()))
+            updatedIds.add(entry.getKey());
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+      this.recordBatchChanges(updatedIds.size());
+      updatedIds.forEach(this.pendingChanges::mediaUpdated);
+      this.publishChanges();
+      return updatedIds.size();
+    });
+  }
+
+  @SQLite
+  private static final String SELECT_MEDIAS_METADATA_AFTER_QUERY = """
+      SELECT id, path, hash, size, width, height, duration, mtime
+      FROM images
+      WHERE id > ?1
+      ORDER BY id
+      LIMIT ?2
+      """;
+
+  /**
+   * Fetch the stored metadata of the medias whose ID is greater than the given one, in ascending order of ID.
+   *
+   * @param afterId The ID after which to start.
+   * @param limit   The maximum number of medias to return.
+   * @return A map associating each media to its stored metadata, or null if it has none, in ascending order of ID.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract(pure = true)
+  Map<MediaFile, MediaMetadata> getMediasMetadataAfter(int afterId, int limit)
+      throws DatabaseOperationException {
+    try {
+      return this.read(connection -> {
+        final var statement = this.connections.prepareCached(connection, SELECT_MEDIAS_METADATA_AFTER_QUERY);
+        statement.setInt(1, afterId);
+        statement.setInt(2, limit);
+        final Map<MediaFile, MediaMetadata> medias = new LinkedHashMap<>();
+        try (final var resultSet = statement.executeQuery()) {
+          while (resultSet.next())
+            medias.put(newMediaFile(resultSet), readMetadata(resultSet));
+        }
+        return medias;
+      });
     } catch (final SQLException e) {
-      this.rollback();
       throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    } catch (final DatabaseOperationException e) {
-      this.rollback();
-      throw e;
     }
-    this.commit();
-    this.updateTagsCache(result.getKey(), result.getValue());
   }
 
   @SQLite
@@ -1036,37 +2379,43 @@ public final class DatabaseConnection implements AutoCloseable {
    * @param overwriteDestination Indicate whether to overwrite any pre-existing file with the same name as the target.
    * @return True if the file was moved or renamed, false otherwise.
    * @throws DatabaseOperationException If any database or file system error occurs.
+   * @throws IllegalStateException      If called from {@link #runCoalesced(List)}.
    */
   public boolean moveOrRenameMedia(@NotNull MediaFile mediaFile, @NotNull Path newPath, boolean overwriteDestination)
       throws DatabaseOperationException {
-    this.ensureInDatabase(mediaFile);
+    return this.timedWrite("moveOrRenameMedia", () -> {
+      this.ensureNotCoalescing();
+      this.ensureInDatabase(mediaFile);
 
-    if (mediaFile.path().equals(newPath))
-      return false;
-    try {
-      if (!overwriteDestination && Files.exists(mediaFile.path()) && Files.exists(newPath))
-        throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.FILE_ALREADY_EXISTS_ERROR));
-    } catch (final SecurityException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e)));
-    }
+      if (mediaFile.path().equals(newPath))
+        return false;
+      try {
+        if (!overwriteDestination && Files.exists(mediaFile.path()) && Files.exists(newPath))
+          throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.FILE_ALREADY_EXISTS_ERROR));
+      } catch (final SecurityException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e)));
+      }
 
-    try {
-      Files.move(mediaFile.path(), newPath);
-    } catch (final NoSuchFileException ignored) {
-    } catch (final IOException | SecurityException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
+      try {
+        Files.move(mediaFile.path(), newPath);
+      } catch (final NoSuchFileException ignored) {
+      } catch (final IOException | SecurityException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
 
-    try (final var statement = this.connection.prepareStatement(UPDATE_MEDIA_PATH_QUERY)) {
-      statement.setString(1, newPath.toString());
-      statement.setInt(2, mediaFile.id());
-      statement.executeUpdate();
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.commit();
-    return true;
+      try (final var statement = this.connection.prepareStatement(UPDATE_MEDIA_PATH_QUERY)) {
+        statement.setString(1, newPath.toString());
+        statement.setInt(2, mediaFile.id());
+        statement.executeUpdate();
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+      this.pendingChanges.mediaUpdated(mediaFile.id());
+      this.publishChanges();
+      return true;
+    });
   }
 
   /**
@@ -1078,30 +2427,37 @@ public final class DatabaseConnection implements AutoCloseable {
    * @param deleteFromDisk Whether {@code source} should be deleted from the disk.
    * @throws DatabaseOperationException If any database error occurs.
    * @throws IllegalArgumentException   If the two medias have the same ID and/or path.
+   * @throws IllegalStateException      If called from {@link #runCoalesced(List)}.
    */
   public void mergeMedias(@NotNull MediaFile source, @NotNull MediaFile destination, boolean deleteFromDisk)
       throws DatabaseOperationException {
-    this.ensureInDatabase(source);
-    this.ensureInDatabase(destination);
-    if (source.id() == destination.id())
-      throw this.logThrownError(new IllegalArgumentException("Both files have the same ID"));
-    if (source.path().equals(destination.path()))
-      throw this.logThrownError(new IllegalArgumentException("Both files have the same path"));
-
-    final var sourceTags = this.getMediaTags(source).stream()
-        .map(t -> new ParsedTag(t.type(), t.label()))
-        .collect(Collectors.toSet());
-    final Pair<Set<Pair<Tag, Boolean>>, Set<Tag>> result;
-    try {
-      // Add tags of source to destination
-      result = this.updateMediaTagsNoCommit(new MediaFileUpdate(destination.id(), destination.path(), destination.hash(), sourceTags, Set.of()));
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.commit();
-    this.updateTagsCache(result.getKey(), result.getValue());
-    this.deleteMedia(source, deleteFromDisk);
+    this.timedWrite("mergeMedias", () -> {
+      this.ensureNotCoalescing();
+      this.ensureInDatabase(source);
+      this.ensureInDatabase(destination);
+      if (source.id() == destination.id())
+        throw this.logThrownError(new IllegalArgumentException("Both files have the same ID"));
+      if (source.path().equals(destination.path()))
+        throw this.logThrownError(new IllegalArgumentException("Both files have the same path"));
+
+      final var sourceTags = this.getMediaTags(source).stream()
+          .map(t -> new ParsedTag(t.type(), t.label()))
+          .collect(Collectors.toSet());
+      final Pair<Set<Pair<Tag, Boolean>>, Set<Tag>> result;
+      try {
+        // Add tags of source to destination
+        result = this.updateMediaTagsNoCommit(new MediaFileUpdate(destination.id(), destination.path(), destination.hash(), sourceTags, Set.of()));
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+      this.updateTagsCache(result.getKey(), result.getValue());
+      this.updateMediasTagsIndex(destination.id(), result.getKey(), result.getValue());
+      this.recordMediaTagsChanges(destination.id(), result.getKey(), result.getValue());
+      // Published along with the deletion
+      this.deleteMedia(source, deleteFromDisk);
+    });
   }
 
   /**
@@ -1113,25 +2469,61 @@ public final class DatabaseConnection implements AutoCloseable {
    * @param removedTags The set of tags that were removed from a media.
    */
   private void updateTagsCache(final @NotNull Set<Pair<Tag, Boolean>> addedTags, final @NotNull Set<Tag> removedTags) {
-    for (final var addedTag : addedTags) {
-      final Tag tag = addedTag.getKey();
-      final int tagId = tag.id();
-      final boolean inserted = addedTag.getValue();
-      if (inserted) {
-        this.tagsCache.put(tagId, tag);
-        this.tagsCounts.put(tagId, 1);
-        tag.type().ifPresent(
-            tagType -> this.tagTypesCounts.put(tagType.id(), this.tagTypesCounts.get(tagType.id()) + 1));
-      } else
-        this.tagsCounts.put(tagId, this.tagsCounts.get(tagId) + 1);
-    }
-    for (final var removedTag : removedTags)
-      this.tagsCounts.put(removedTag.id(), this.tagsCounts.get(removedTag.id()) - 1);
+    this.tagsCache.update(cache -> {
+      for (final var addedTag : addedTags) {
+        final Tag tag = addedTag.getKey();
+        final boolean inserted = addedTag.getValue();
+        if (inserted)
+          cache.addTag(tag);
+        cache.addToTagCount(tag.id(), 1);
+      }
+      for (final var removedTag : removedTags)
+        cache.addToTagCount(removedTag.id(), -1);
+    });
   }
 
-  @SQLite
-  private static final String SELECT_TAG_FROM_LABEL_QUERY = """
-      SELECT id, type_id, definition
+  /**
+   * Update the cached tags of the given media, if they are cached.
+   *
+   * @param mediaId     The ID of the updated media.
+   * @param addedTags   The set of tags that were added to the media, as returned by
+   *                    {@link #updateMediaTagsNoCommit(MediaFileUpdate)}.
+   * @param removedTags The set of tags that were removed from the media.
+   */
+  private void updateMediasTagsIndex(
+      int mediaId,
+      final @NotNull Set<Pair<Tag, Boolean>> addedTags,
+      final @NotNull Set<Tag> removedTags
+  ) {
+    if (this.mediasTagsIndex == null)
+      return;
+    this.mediasTagsIndex.add(mediaId, addedTags.stream().map(pair -> pair.getKey().id()).toList());
+    this.mediasTagsIndex.remove(mediaId, removedTags.stream().map(Tag::id).toList());
+  }
+
+  /**
+   * Record the changes made to the tags of the given media, without publishing them.
+   *
+   * @param mediaId     The ID of the updated media.
+   * @param addedTags   The set of tags that were added to the media, as returned by
+   *                    {@link #updateMediaTagsNoCommit(MediaFileUpdate)}.
+   * @param removedTags The set of tags that were removed from the media.
+   */
+  private void recordMediaTagsChanges(
+      int mediaId,
+      final @NotNull Set<Pair<Tag, Boolean>> addedTags,
+      final @NotNull Set<Tag> removedTags
+  ) {
+    for (final var addedTag : addedTags)
+      if (addedTag.getValue())
+        this.pendingChanges.tagInserted(addedTag.getKey().id());
+    this.pendingChanges.tagsAdded(mediaId, addedTags.stream().map(pair -> pair.getKey().id()).toList());
+    this.pendingChanges.tagsRemoved(mediaId, removedTags.stream().map(Tag::id).toList());
+  }
+
+  @SQLite
+  private static final String SELECT_TAG_FROM_LABEL_QUERY = """
+      SELECT id, type_id, definition
       FROM tags
       WHERE label = ?
       """;
@@ -1171,7 +2563,7 @@ public final class DatabaseConnection implements AutoCloseable {
           throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.BOUND_TAG_HAS_DEFINITION));
         if (!this.mediaHasTag(mediaFileUpdate.id(), tag.id())) {
           this.addTagToMediaNoCommit(mediaFileUpdate.id(), tag.id());
-          addedTags.add(new Pair<>(this.tagsCache.get(tag.id()), false));
+          addedTags.add(new Pair<>(this.tagsCache.getTag(tag.id()), false));
         }
       } else
         toInsert.add(new TagUpdate(0, tagLabel, tagType.orElse(null), null));
@@ -1180,15 +2572,14 @@ public final class DatabaseConnection implements AutoCloseable {
 
     // Remove tags
     final Set<Tag> removedTags = new HashSet<>();
-    try (final var statement = this.connection.prepareStatement(REMOVE_TAG_FROM_MEDIA_QUERY)) {
-      statement.setInt(1, mediaFileUpdate.id());
-      for (final var toRemove : mediaFileUpdate.tagsToRemove()) {
-        final int tagId = toRemove.id();
-        this.ensureInDatabase(toRemove);
-        statement.setInt(2, tagId);
-        if (statement.executeUpdate() != 0)
-          removedTags.add(toRemove);
-      }
+    final var statement = this.connections.prepareCached(this.connection, REMOVE_TAG_FROM_MEDIA_QUERY);
+    statement.setInt(1, mediaFileUpdate.id());
+    for (final var toRemove : mediaFileUpdate.tagsToRemove()) {
+      final int tagId = toRemove.id();
+      this.ensureInDatabase(toRemove);
+      statement.setInt(2, tagId);
+      if (statement.executeUpdate() != 0)
+        removedTags.add(toRemove);
     }
 
     for (int i = 0, generatedIdsSize = generatedIds.size(); i < generatedIdsSize; i++) {
@@ -1211,445 +2602,1840 @@ public final class DatabaseConnection implements AutoCloseable {
   /**
    * Check whether a media has a specific tag.
    *
-   * @param mediaId The media’s ID.
-   * @param tagId   The tag’s ID.
-   * @return True if the media has the tag, false otherwise.
-   * @throws SQLException If any database error occurs.
+   * @param mediaId The media’s ID.
+   * @param tagId   The tag’s ID.
+   * @return True if the media has the tag, false otherwise.
+   * @throws SQLException If any database error occurs.
+   */
+  private boolean mediaHasTag(int mediaId, int tagId) throws SQLException {
+    final var statement = this.connections.prepareCached(this.connection, SELECT_MEDIA_TAG_QUERY);
+    statement.setInt(1, mediaId);
+    statement.setInt(2, tagId);
+    try (final var resultSet = statement.executeQuery()) {
+      return resultSet.next() && resultSet.getInt(1) != 0;
+    }
+  }
+
+  /**
+   * Return the tag for that has the given label.
+   *
+   * @param label A tag label.
+   * @return An {@link Optional} containing the tag for the label if found, an empty {@link Optional} otherwise.
+   * @throws SQLException If any database error occurs.
+   */
+  private Optional<Tag> getTagForLabel(@NotNull String label) throws SQLException {
+    final var statement = this.connections.prepareCached(this.connection, SELECT_TAG_FROM_LABEL_QUERY);
+    statement.setString(1, label);
+    try (final var resultSet = statement.executeQuery()) {
+      if (resultSet.next()) {
+        final int id = resultSet.getInt("id");
+        final int tagTypeId = resultSet.getInt("type_id");
+        final String definition = resultSet.getString("definition");
+        return Optional.of(new Tag(id, label, this.tagsCache.getTagType(tagTypeId), definition));
+      } else
+        return Optional.empty();
+    }
+  }
+
+  @SQLite
+  private static final String ADD_TAG_TO_MEDIA_QUERY = """
+      INSERT INTO image_tag (image_id, tag_id)
+      VALUES (?, ?)
+      """;
+
+  /**
+   * Add a tag to a media. This method does not perform any kind of transaction managment,
+   * it is the responsablity of the caller to do so.
+   *
+   * @param mediaId The ID of the media to add the tag to.
+   * @param tagId   The ID of the tag to add.
+   * @throws SQLException If any database error occurs.
+   */
+  private void addTagToMediaNoCommit(int mediaId, int tagId) throws SQLException {
+    final var statement = this.connections.prepareCached(this.connection, ADD_TAG_TO_MEDIA_QUERY);
+    statement.setInt(1, mediaId);
+    statement.setInt(2, tagId);
+    statement.executeUpdate();
+  }
+
+  @SQLite
+  private static final String DELETE_MEDIA_QUERY = """
+      DELETE FROM images
+      WHERE id = ?
+      """;
+
+  /**
+   * Delete the given media from the database.
+   * If the file cannot be deleted, the associated database entry will not be deleted.
+   * If the file does not exist, the database entry still gets deleted.
+   *
+   * @param mediaFile The media to delete.
+   * @param fromDisk  If true, the associated files will be deleted from the disk.
+   * @throws DatabaseOperationException If any database or file system error occurs.
+   * @throws IllegalStateException      If called from {@link #runCoalesced(List)}.
+   */
+  public void deleteMedia(final @NotNull MediaFile mediaFile, boolean fromDisk) throws DatabaseOperationException {
+    this.timedWrite("deleteMedia", () -> {
+      this.ensureNotCoalescing();
+      this.ensureInDatabase(mediaFile);
+      if (fromDisk) {
+        try {
+          Files.delete(mediaFile.path());
+        } catch (final NoSuchFileException ignored) {
+        } catch (final IOException | SecurityException e) {
+          throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+        }
+      }
+
+      final Set<Tag> mediaTags = this.getMediaTags(mediaFile);
+      try {
+        final var statement = this.connections.prepareCached(this.connection, DELETE_MEDIA_QUERY);
+        statement.setInt(1, mediaFile.id());
+        statement.executeUpdate();
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+
+      // Update tag counts
+      this.tagsCache.update(cache -> mediaTags.forEach(mediaTag -> cache.addToTagCount(mediaTag.id(), -1)));
+      if (this.mediasTagsIndex != null)
+        this.mediasTagsIndex.removeMedia(mediaFile.id());
+      this.pendingChanges.mediaDeleted(mediaFile.id());
+      this.publishChanges();
+    });
+  }
+
+  /**
+   * The maximum number of threads that delete the files of the medias deleted by
+   * {@link #deleteMedias(Collection, boolean)}.
+   */
+  public static final int MAX_FILE_DELETION_THREADS = 4;
+  /**
+   * The number of seconds after which idle file deletion threads are stopped.
+   */
+  private static final int FILE_DELETION_THREADS_KEEP_ALIVE = 30;
+
+  @SQLite
+  private static final String COUNT_BULK_MEDIAS_TAGS_QUERY = """
+      SELECT it.tag_id, COUNT(*)
+      FROM bulk_media_ids AS b
+      JOIN image_tag AS it ON it.image_id = b.id
+      GROUP BY it.tag_id
+      """;
+  @SQLite
+  private static final String DELETE_BULK_MEDIAS_QUERY = """
+      DELETE FROM images
+      WHERE id IN (SELECT id FROM bulk_media_ids)
+      RETURNING id
+      """;
+
+  /**
+   * Delete all the given medias from the database in a single transaction.
+   * Medias that are not in the database are ignored.
+   * <p>
+   * Unlike {@link #deleteMedia(MediaFile, boolean)}, files are deleted from the disk once the transaction
+   * is committed, by a pool of background threads. If a file cannot be deleted,
+   * its media is still removed from the database. When called from {@link #runCoalesced(List)},
+   * files are only deleted once the enclosing transaction has been committed.
+   *
+   * @param mediaFiles The medias to delete.
+   * @param fromDisk   If true, the associated files will be deleted from the disk.
+   * @return A future that completes once all files have been deleted from the disk,
+   * with a map associating each media whose file could not be deleted to the corresponding error.
+   * Files that do not exist are not reported. If {@code fromDisk} is false, the future is already completed.
+   * If the enclosing transaction is rolled back, no files are deleted and the future is cancelled.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public CompletableFuture<Map<MediaFile, DatabaseOperationException>> deleteMedias(
+      final @NotNull Collection<MediaFile> mediaFiles,
+      boolean fromDisk
+  ) throws DatabaseOperationException {
+    return this.timedWrite("deleteMedias", () -> {
+      if (mediaFiles.isEmpty())
+        return CompletableFuture.completedFuture(Map.of());
+
+      final Map<Integer, Integer> tagsCountsDeltas = new HashMap<>();
+      final Set<Integer> deletedIds = new HashSet<>();
+      try {
+        this.connections.prepareCached(this.connection, CREATE_BULK_MEDIA_IDS_QUERY).executeUpdate();
+        this.connections.prepareCached(this.connection, CLEAR_BULK_MEDIA_IDS_QUERY).executeUpdate();
+        final var idStatement = this.connections.prepareCached(this.connection, INSERT_BULK_MEDIA_ID_QUERY);
+        for (final MediaFile mediaFile : mediaFiles) {
+          idStatement.setInt(1, mediaFile.id());
+          idStatement.addBatch();
+        }
+        idStatement.executeBatch();
+
+        final var countStatement = this.connections.prepareCached(this.connection, COUNT_BULK_MEDIAS_TAGS_QUERY);
+        try (final var resultSet = countStatement.executeQuery()) {
+          while (resultSet.next())
+            tagsCountsDeltas.put(resultSet.getInt(1), -resultSet.getInt(2));
+        }
+        deletedIds.addAll(collectMediaIds(this.connections.prepareCached(this.connection, DELETE_BULK_MEDIAS_QUERY)));
+        this.connections.prepareCached(this.connection, CLEAR_BULK_MEDIA_IDS_QUERY).executeUpdate();
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+      this.recordBatchChanges(deletedIds.size());
+      this.updateTagsCache(List.of(), tagsCountsDeltas);
+      for (final int mediaId : deletedIds) {
+        if (this.mediasTagsIndex != null)
+          this.mediasTagsIndex.removeMedia(mediaId);
+        this.pendingChanges.mediaDeleted(mediaId);
+      }
+      this.publishChanges();
+
+      if (!fromDisk)
+        return CompletableFuture.completedFuture(Map.of());
+      final List<MediaFile> filesToDelete = mediaFiles.stream()
+          .filter(mediaFile -> deletedIds.contains(mediaFile.id()))
+          .toList();
+      final CompletableFuture<Map<MediaFile, DatabaseOperationException>> deletion = new CompletableFuture<>();
+      // Files must not be deleted before the medias are actually removed from the database
+      this.afterTransaction(committed -> {
+        if (committed)
+          this.deleteFiles(filesToDelete).thenAccept(deletion::complete);
+        else
+          deletion.cancel(false);
+      });
+      return deletion;
+    });
+  }
+
+  /**
+   * Delete the files of the given medias from the disk in background threads.
+   *
+   * @param mediaFiles The medias whose file should be deleted.
+   * @return A future that completes once all files have been deleted, with the errors that occurred for each media.
+   */
+  private CompletableFuture<Map<MediaFile, DatabaseOperationException>> deleteFiles(
+      final @NotNull List<MediaFile> mediaFiles
+  ) {
+    if (mediaFiles.isEmpty())
+      return CompletableFuture.completedFuture(Map.of());
+    final ExecutorService deleters = this.fileDeleters();
+    final Map<MediaFile, DatabaseOperationException> errors = new ConcurrentHashMap<>();
+    final CompletableFuture<?>[] deletions = mediaFiles.stream()
+        .map(mediaFile -> CompletableFuture.runAsync(() -> {
+          try {
+            Files.delete(mediaFile.path());
+          } catch (final NoSuchFileException ignored) {
+          } catch (final IOException | SecurityException e) {
+            this.logCaughtError(e);
+            errors.put(mediaFile, new DatabaseOperationException(getErrorCode(e), e));
+          }
+        }, deleters))
+        .toArray(CompletableFuture[]::new);
+    return CompletableFuture.allOf(deletions).thenApply(ignored -> Collections.unmodifiableMap(errors));
+  }
+
+  /**
+   * Return the executor that deletes the files of deleted medias, creating it if needed.
+   * Its threads are stopped when they have been idle for {@link #FILE_DELETION_THREADS_KEEP_ALIVE} seconds.
+   */
+  private synchronized ExecutorService fileDeleters() {
+    if (this.fileDeleters == null) {
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          MAX_FILE_DELETION_THREADS,
+          MAX_FILE_DELETION_THREADS,
+          FILE_DELETION_THREADS_KEEP_ALIVE,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          newDaemonThreadFactory("Media Files Deleter Thread")
+      );
+      executor.allowCoreThreadTimeOut(true);
+      this.fileDeleters = executor;
+    }
+    return this.fileDeleters;
+  }
+
+  /**
+   * Shut down the executor that deletes the files of deleted medias, if it was created.
+   * Already submitted deletions still run.
+   */
+  private synchronized void shutDownFileDeleters() {
+    if (this.fileDeleters != null)
+      this.fileDeleters.shutdown();
+  }
+
+  @SQLite
+  private static final String SELECT_SAVED_QUERIES = """
+      SELECT name, `query`
+      FROM saved_queries
+      ORDER BY `order`
+      """;
+
+  /**
+   * Get an ordered list of all saved queries.
+   *
+   * @return A new list.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract("-> new")
+  public List<SavedQuery> getSavedQueries() throws DatabaseOperationException {
+    return this.timed("getSavedQueries", () -> {
+      try {
+        return this.read(connection -> {
+          try (final var statement = connection.createStatement();
+               final var resultSet = statement.executeQuery(SELECT_SAVED_QUERIES)) {
+            final List<SavedQuery> savedQueries = new LinkedList<>();
+            while (resultSet.next()) {
+              savedQueries.add(new SavedQuery(
+                  resultSet.getString("name"),
+                  resultSet.getString("query")
+              ));
+            }
+            return savedQueries;
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
+  }
+
+  @SQLite
+  private static final String DELETE_SAVED_QUERIES = """
+      -- noinspection SqlWithoutWhere
+      DELETE FROM saved_queries
+      """;
+
+  @SQLite
+  private static final String INSERT_SAVED_QUERY = """
+      INSERT INTO saved_queries (name, `query`, `order`)
+      VALUES (?, ?, ?)
+      """;
+
+  /**
+   * Save a list of queries. All pre-existing saved queries are first deleted.
+   *
+   * @param queries The queries to save.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public void setSavedQueries(final @NotNull List<SavedQuery> queries) throws DatabaseOperationException {
+    this.timedWrite("setSavedQueries", () -> {
+      try (final var clearStatement = this.connection.createStatement();
+           final var statement = this.connection.prepareStatement(INSERT_SAVED_QUERY)) {
+        clearStatement.executeUpdate(DELETE_SAVED_QUERIES);
+        for (int i = 0; i < queries.size(); i++) {
+          final SavedQuery savedQuery = queries.get(i);
+          statement.setString(1, savedQuery.name());
+          statement.setString(2, savedQuery.query());
+          statement.setInt(3, i);
+          statement.executeUpdate();
+        }
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+    });
+  }
+
+  @SQLite
+  private static final String SELECT_BATCHES_QUERY = """
+      SELECT name
+      FROM batch_operations
+      """;
+
+  @SQLite
+  private static final String SELECT_BATCH_OPERATIONS_QUERY = """
+      SELECT type, data, condition_type, condition_data
+      FROM image_operation
+      WHERE batch_name = ?
+      ORDER BY `order`
+      """;
+
+  /**
+   * Get a map of all saved batch operations.
+   *
+   * @return A new map.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Contract("-> new")
+  public Map<String, List<Operation>> getSavedBatchOperations() throws DatabaseOperationException {
+    return this.timed("getSavedBatchOperations", () -> {
+      final Map<String, List<Operation>> savedBatchOperations = new HashMap<>();
+
+      try {
+        this.read(connection -> {
+          try (final var statement = connection.createStatement();
+               final var resultSet = statement.executeQuery(SELECT_BATCHES_QUERY)) {
+            while (resultSet.next()) {
+              final String batchName = resultSet.getString("name");
+              savedBatchOperations.put(batchName, this.queryOperations(connection, batchName));
+            }
+          }
+          return null;
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+
+      return savedBatchOperations;
+    });
+  }
+
+  private List<Operation> queryOperations(@NotNull Connection connection, @NotNull String batchName)
+      throws SQLException {
+    final List<Operation> operations = new LinkedList<>();
+    try (final var operationsStatement = connection.prepareStatement(SELECT_BATCH_OPERATIONS_QUERY)) {
+      operationsStatement.setString(1, batchName);
+      try (final var operationsResultSet = operationsStatement.executeQuery()) {
+        while (operationsResultSet.next())
+          this.parseOperation(operationsResultSet)
+              .ifPresent(operations::add);
+      }
+    }
+    return operations;
+  }
+
+  private Optional<Operation> parseOperation(@NotNull ResultSet resultSet) throws SQLException {
+    final String type = resultSet.getString("type");
+    final String data = resultSet.getString("data");
+    final String condType = resultSet.getString("condition_type");
+    final String condData = resultSet.getString("condition_data");
+
+    final Condition condition;
+    if (condType != null) {
+      //noinspection SwitchStatementWithTooFewBranches
+      condition = switch (condType) {
+        case TagQueryCondition.KEY -> new TagQueryCondition(condData);
+        default -> {
+          this.logger.error("Unsupported condition type: {}", condType);
+          yield null;
+        }
+      };
+    } else
+      condition = null;
+
+    try {
+      return Optional.ofNullable(switch (type) {
+        case DeleteOperation.KEY -> DeleteOperation.deserialize(data, condition);
+        case MoveOperation.KEY -> MoveOperation.deserialize(data, condition);
+        case RecomputeHashOperation.KEY -> new RecomputeHashOperation(condition);
+        case UpdateTagsOperation.KEY -> UpdateTagsOperation.deserialize(data, condition, this);
+        case TransformPathOperation.KEY -> TransformPathOperation.deserialize(data, condition);
+        default -> {
+          this.logger.error("Unsupported operation type: {}", condType);
+          yield null;
+        }
+      });
+    } catch (final IllegalArgumentException e) {
+      this.logger.error("Malformed serialized operation string: {}", data, e);
+      return Optional.empty();
+    }
+  }
+
+  @SQLite
+  private static final String DELETE_SAVED_BATCHES = """
+      -- noinspection SqlWithoutWhere
+      DELETE FROM batch_operations;
+      -- noinspection SqlWithoutWhere
+      DELETE FROM image_operation;
+      """;
+
+  @SQLite
+  private static final String INSERT_SAVED_BATCH = """
+      INSERT INTO batch_operations (name)
+      VALUES (?)
+      """;
+
+  @SQLite
+  private static final String INSERT_BATCH_OPERATIONS = """
+      INSERT INTO image_operation (type, data, condition_type, condition_data, `order`, batch_name)
+      VALUES (?, ?, ?, ?, ?, ?)
+      """;
+
+  /**
+   * Save a map of operation batches. All pre-existing batches are first deleted.
+   *
+   * @param batches The batches to save.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public void setSavedBatchOperations(final @NotNull Map<String, List<? extends Operation>> batches)
+      throws DatabaseOperationException {
+    this.timedWrite("setSavedBatchOperations", () -> {
+      try (final var clearStatement = this.connection.createStatement();
+           final var statement = this.connection.prepareStatement(INSERT_SAVED_BATCH)) {
+        clearStatement.executeUpdate(DELETE_SAVED_BATCHES);
+        for (final var entry : batches.entrySet()) {
+          final String batchName = entry.getKey();
+          statement.setString(1, batchName);
+          statement.executeUpdate();
+          final List<? extends Operation> operations = entry.getValue();
+          try (final var operationsStatement = this.connection.prepareStatement(INSERT_BATCH_OPERATIONS)) {
+            for (int i = 0; i < operations.size(); i++) {
+              final Operation operation = operations.get(i);
+              operationsStatement.setString(1, operation.key());
+              operationsStatement.setString(2, operation.serialize());
+              operationsStatement.setString(3, operation.condition().map(Condition::key).orElse(null));
+              operationsStatement.setString(4, operation.condition().map(Condition::serialize).orElse(null));
+              operationsStatement.setInt(5, i);
+              operationsStatement.setString(6, batchName);
+              operationsStatement.executeUpdate();
+            }
+          }
+        }
+      } catch (final SQLException e) {
+        this.rollback();
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+      this.commit();
+    });
+  }
+
+  /**
+   * The extension of library files written by {@link #exportLibrary(Path, ProgressManager)}.
+   */
+  public static final String LIBRARY_FILE_EXT = "jsonl.gz";
+  /**
+   * Progress is notified every time this number of medias has been exported or imported.
+   */
+  private static final int LIBRARY_PROGRESS_STEP = 1000;
+
+  @SQLite
+  private static final String COUNT_MEDIAS_QUERY = """
+      SELECT COUNT(*)
+      FROM images
+      """;
+
+  @SQLite
+  private static final String EXPORT_TAG_TYPES_QUERY = """
+      SELECT id, label, symbol, color
+      FROM tag_types
+      ORDER BY id
+      """;
+
+  @SQLite
+  private static final String EXPORT_TAGS_QUERY = """
+      SELECT id, label, type_id, definition
+      FROM tags
+      ORDER BY id
+      """;
+
+  @SQLite
+  private static final String EXPORT_BATCH_OPERATIONS_QUERY = """
+      SELECT b.name, o.type, o.data, o.condition_type, o.condition_data
+      FROM batch_operations AS b
+      LEFT JOIN image_operation AS o ON o.batch_name = b.name
+      ORDER BY b.name, o.`order`
+      """;
+
+  @SQLite
+  private static final String EXPORT_MEDIAS_QUERY = """
+      SELECT i.path, i.hash, i.size, i.width, i.height, i.duration, i.mtime, group_concat(it.tag_id) AS tag_ids
+      FROM images AS i
+      LEFT JOIN image_tag AS it ON it.image_id = i.id
+      GROUP BY i.id
+      ORDER BY i.id
+      """;
+
+  /**
+   * Export the tag types, tags, saved queries, batch operations and medias of this database to a library file,
+   * that can be imported into another database with {@link #importLibrary(Path, ProgressManager)}.
+   * <p>
+   * All data is read from the same snapshot of the database and medias are streamed to the file one at a time,
+   * so that memory usage does not depend on the number of medias.
+   * <p>
+   * This method is blocking and should not be called from the UI thread.
+   *
+   * @param file            The file to write to. It is overwritten if it exists,
+   *                        and deleted if the export fails or is cancelled.
+   * @param progressManager An optional object to notify of the progress. If it requests cancellation,
+   *                        the export stops.
+   * @return True if the library was exported, false if the export was cancelled.
+   * @throws DatabaseOperationException If any database or file error occurs.
+   */
+  public boolean exportLibrary(@NotNull Path file, ProgressManager progressManager)
+      throws DatabaseOperationException {
+    return this.timed("exportLibrary", () -> {
+      this.logger.info("Exporting library to {}…", file);
+      boolean exported = false;
+      try (final var writer = new LibraryFile.Writer(file)) {
+        exported = this.read(connection -> {
+          // Read everything from the same snapshot
+          final boolean snapshot = connection != this.connection;
+          if (snapshot)
+            connection.setAutoCommit(false);
+          try {
+            return this.writeLibrary(connection, writer, progressManager);
+          } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+          } finally {
+            if (snapshot)
+              connection.setAutoCommit(true);
+          }
+        });
+      } catch (final SQLException | IOException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      } catch (final UncheckedIOException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e.getCause()), e.getCause()));
+      } finally {
+        if (!exported)
+          deleteConvertedFile(file);
+      }
+      this.logger.info(exported ? "Done." : "Export cancelled.");
+      return exported;
+    });
+  }
+
+  private boolean writeLibrary(
+      @NotNull Connection connection,
+      @NotNull LibraryFile.Writer writer,
+      ProgressManager progressManager
+  ) throws SQLException, IOException {
+    final int total;
+    try (final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(COUNT_MEDIAS_QUERY)) {
+      resultSet.next();
+      total = resultSet.getInt(1);
+    }
+    writer.write(new LibraryFile.Header(LibraryFile.VERSION, total));
+
+    try (final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(EXPORT_TAG_TYPES_QUERY)) {
+      while (resultSet.next())
+        writer.write(new LibraryFile.TagTypeEntry(
+            resultSet.getInt("id"),
+            resultSet.getString("label"),
+            resultSet.getString("symbol").charAt(0),
+            resultSet.getInt("color")
+        ));
+    }
+    try (final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(EXPORT_TAGS_QUERY)) {
+      while (resultSet.next()) {
+        final int typeId = resultSet.getInt("type_id");
+        writer.write(new LibraryFile.TagEntry(
+            resultSet.getInt("id"),
+            resultSet.getString("label"),
+            resultSet.wasNull() ? null : typeId,
+            resultSet.getString("definition")
+        ));
+      }
+    }
+    try (final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(SELECT_SAVED_QUERIES)) {
+      while (resultSet.next())
+        writer.write(new LibraryFile.SavedQueryEntry(
+            new SavedQuery(resultSet.getString("name"), resultSet.getString("query"))));
+    }
+    try (final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(EXPORT_BATCH_OPERATIONS_QUERY)) {
+      String batchName = null;
+      final List<LibraryFile.SerializedOperation> operations = new ArrayList<>();
+      while (resultSet.next()) {
+        final String name = resultSet.getString("name");
+        if (batchName != null && !batchName.equals(name)) {
+          writer.write(new LibraryFile.BatchEntry(batchName, List.copyOf(operations)));
+          operations.clear();
+        }
+        batchName = name;
+        final String type = resultSet.getString("type");
+        if (type != null) // Batch without operations
+          operations.add(new LibraryFile.SerializedOperation(
+              type,
+              resultSet.getString("data"),
+              resultSet.getString("condition_type"),
+              resultSet.getString("condition_data")
+          ));
+      }
+      if (batchName != null)
+        writer.write(new LibraryFile.BatchEntry(batchName, List.copyOf(operations)));
+    }
+
+    try (final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery(EXPORT_MEDIAS_QUERY)) {
+      int counter = 0;
+      if (progressManager != null)
+        notifyProgress(progressManager, "progress.exporting_library", total, counter);
+      while (resultSet.next()) {
+        if (progressManager != null && progressManager.isCancelled())
+          return false;
+        final long hash = resultSet.getLong("hash");
+        final Hash mediaHash = resultSet.wasNull() ? null : new Hash(hash);
+        final long size = resultSet.getLong("size");
+        final MediaMetadata metadata = resultSet.wasNull() ? null : new MediaMetadata(
+            size,
+            (Integer) resultSet.getObject("width"),
+            (Integer) resultSet.getObject("height"),
+            (Double) resultSet.getObject("duration"),
+            resultSet.getLong("mtime")
+        );
+        final String tagIds = resultSet.getString("tag_ids");
+        writer.write(new LibraryFile.MediaEntry(
+            Path.of(resultSet.getString("path")),
+            mediaHash,
+            metadata,
+            tagIds == null ? new int[0] : Arrays.stream(tagIds.split(",")).mapToInt(Integer::parseInt).toArray()
+        ));
+        counter++;
+        if (progressManager != null && (counter % LIBRARY_PROGRESS_STEP == 0 || counter == total))
+          notifyProgress(progressManager, "progress.exporting_library", total, counter);
+      }
+    }
+    return true;
+  }
+
+  @SQLite
+  private static final String IMPORT_MEDIA_QUERY = """
+      INSERT INTO images (path, hash, size, width, height, duration, mtime)
+      VALUES (?, ?, ?, ?, ?, ?, ?)
+      ON CONFLICT (path) DO UPDATE SET path = excluded.path
+      RETURNING id
+      """;
+
+  @SQLite
+  private static final String IMPORT_MEDIA_TAG_QUERY = """
+      INSERT OR IGNORE INTO image_tag (image_id, tag_id)
+      VALUES (?, ?)
+      """;
+
+  /**
+   * Import a library file written by {@link #exportLibrary(Path, ProgressManager)} into this database.
+   * <p>
+   * Imported data is merged with the existing one:
+   * <ul>
+   * <li>tag types and tags are matched by label, missing ones are created;</li>
+   * <li>saved queries and batch operations whose name is already used are skipped;</li>
+   * <li>medias are matched by path, missing ones are created with the exported hash and metadata,
+   * without reading the files, and the imported tags are added to the tags of existing ones.</li>
+   * </ul>
+   * Medias are read from the file one at a time and inserted in chunks of {@link #INSERT_MEDIAS_CHUNK_SIZE},
+   * each chunk in its own transaction. If any error occurs or the import is cancelled,
+   * all previous chunks remain committed.
+   * <p>
+   * This method is blocking and should not be called from the UI thread.
+   *
+   * @param file            The file to import.
+   * @param progressManager An optional object to notify of the progress. If it requests cancellation,
+   *                        the import stops after the current chunk.
+   * @return The number of imported medias.
+   * @throws DatabaseOperationException If the file is not a valid library file, a tag type’s symbol
+   *                                    is already used by another tag type, or any database or file error occurs.
+   */
+  public int importLibrary(@NotNull Path file, ProgressManager progressManager) throws DatabaseOperationException {
+    return this.timedWrite("importLibrary", () -> {
+      this.logger.info("Importing library from {}…", file);
+      int imported = 0;
+      boolean changed = false;
+      try (final var reader = new LibraryFile.Reader(file)) {
+        if (!(reader.next() instanceof LibraryFile.Header header) || header.version() > LibraryFile.VERSION)
+          throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_LIBRARY_FILE));
+        final int total = header.mediasCount();
+        if (progressManager != null)
+          notifyProgress(progressManager, "progress.importing_library", total, 0);
+
+        final List<LibraryFile.TagTypeEntry> tagTypes = new ArrayList<>();
+        final List<LibraryFile.TagEntry> tags = new ArrayList<>();
+        final List<SavedQuery> savedQueries = new ArrayList<>();
+        final List<LibraryFile.BatchEntry> batches = new ArrayList<>();
+        // Set once all entries other than medias have been imported
+        Map<Integer, Integer> tagIds = null;
+        final List<LibraryFile.MediaEntry> chunk = new ArrayList<>(INSERT_MEDIAS_CHUNK_SIZE);
+        LibraryFile.Entry entry;
+        while ((entry = reader.next()) != null) {
+          if (!(entry instanceof LibraryFile.MediaEntry media)) {
+            if (tagIds != null) // Medias must come last
+              throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_LIBRARY_FILE));
+            if (entry instanceof LibraryFile.TagTypeEntry tagType)
+              tagTypes.add(tagType);
+            else if (entry instanceof LibraryFile.TagEntry tag)
+              tags.add(tag);
+            else if (entry instanceof LibraryFile.SavedQueryEntry savedQuery)
+              savedQueries.add(savedQuery.query());
+            else if (entry instanceof LibraryFile.BatchEntry batch)
+              batches.add(batch);
+            else
+              throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_LIBRARY_FILE));
+            continue;
+          }
+          if (tagIds == null) {
+            changed = true;
+            tagIds = this.importLibraryEntries(tagTypes, tags, savedQueries, batches);
+          }
+          chunk.add(media);
+          if (chunk.size() == INSERT_MEDIAS_CHUNK_SIZE) {
+            imported += this.importMedias(chunk, tagIds);
+            chunk.clear();
+            if (progressManager != null) {
+              if (imported % LIBRARY_PROGRESS_STEP < INSERT_MEDIAS_CHUNK_SIZE)
+                notifyProgress(progressManager, "progress.importing_library", total, imported);
+              if (progressManager.isCancelled())
+                break;
+            }
+          }
+        }
+        if (tagIds == null) {
+          changed = true;
+          tagIds = this.importLibraryEntries(tagTypes, tags, savedQueries, batches);
+        }
+        if (!chunk.isEmpty() && (progressManager == null || !progressManager.isCancelled()))
+          imported += this.importMedias(chunk, tagIds);
+        if (progressManager != null)
+          notifyProgress(progressManager, "progress.importing_library", total, imported);
+      } catch (final IOException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      } catch (final JsonParseException e) {
+        throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_LIBRARY_FILE, e));
+      } finally {
+        if (changed) {
+          try {
+            // Imported medias may have been tagged with existing tags, recompute all counts
+            this.reloadCaches();
+          } catch (final SQLException e) {
+            this.logCaughtError(e);
+          }
+          this.pendingChanges.reloadRequired();
+          this.publishChanges();
+        }
+      }
+      this.logger.info("Imported {} media(s).", imported);
+      return imported;
+    });
+  }
+
+  /**
+   * Import all the entries of a library file that are not medias.
+   *
+   * @return A map associating the IDs of the tags in the exported database to their IDs in this one.
+   */
+  private Map<Integer, Integer> importLibraryEntries(
+      final @NotNull List<LibraryFile.TagTypeEntry> tagTypes,
+      final @NotNull List<LibraryFile.TagEntry> tags,
+      final @NotNull List<SavedQuery> savedQueries,
+      final @NotNull List<LibraryFile.BatchEntry> batches
+  ) throws DatabaseOperationException {
+    final Set<TagTypeUpdate> tagTypeUpdates = new HashSet<>();
+    final Set<String> tagTypeLabels = this.tagsCache.tagTypesView().stream()
+        .map(TagType::label)
+        .collect(Collectors.toSet());
+    for (final LibraryFile.TagTypeEntry tagType : tagTypes)
+      if (!tagTypeLabels.contains(tagType.label()))
+        tagTypeUpdates.add(newImportedObject(() ->
+            new TagTypeUpdate(0, tagType.label(), tagType.symbol(), tagType.color())));
+    if (!tagTypeUpdates.isEmpty())
+      this.insertTagTypes(tagTypeUpdates);
+    final Map<String, TagType> tagTypesByLabel = this.tagsCache.tagTypesView().stream()
+        .collect(Collectors.toMap(TagType::label, Function.identity()));
+    final Map<Integer, TagType> importedTagTypes = new HashMap<>();
+    for (final LibraryFile.TagTypeEntry tagType : tagTypes)
+      importedTagTypes.put(tagType.id(), tagTypesByLabel.get(tagType.label()));
+
+    final Set<TagUpdate> tagUpdates = new HashSet<>();
+    final Map<String, Tag> tagsByLabel = this.getTagsByLabel();
+    for (final LibraryFile.TagEntry tag : tags)
+      if (!tagsByLabel.containsKey(tag.label())) {
+        final TagType type = tag.typeId() != null ? importedTagTypes.get(tag.typeId()) : null;
+        tagUpdates.add(newImportedObject(() -> new TagUpdate(0, tag.label(), type, tag.definition())));
+      }
+    if (!tagUpdates.isEmpty()) {
+      this.insertTags(tagUpdates);
+      tagsByLabel.putAll(this.getTagsByLabel());
+    }
+    final Map<Integer, Integer> tagIds = new HashMap<>();
+    for (final LibraryFile.TagEntry tag : tags)
+      tagIds.put(tag.id(), tagsByLabel.get(tag.label()).id());
+
+    final List<SavedQuery> queries = this.getSavedQueries();
+    final Set<String> queryNames = queries.stream().map(SavedQuery::name).collect(Collectors.toSet());
+    final Set<String> queryStrings = queries.stream().map(SavedQuery::query).collect(Collectors.toSet());
+    boolean queriesChanged = false;
+    for (final SavedQuery savedQuery : savedQueries)
+      if (queryNames.add(savedQuery.name()) && queryStrings.add(savedQuery.query())) {
+        queries.add(savedQuery);
+        queriesChanged = true;
+      }
+    if (queriesChanged)
+      this.setSavedQueries(queries);
+
+    if (!batches.isEmpty())
+      this.importBatches(batches);
+
+    return tagIds;
+  }
+
+  /**
+   * Create an object from the data of a library file.
+   *
+   * @throws DatabaseOperationException If the data is not valid.
+   */
+  private <T> T newImportedObject(@NotNull Supplier<T> constructor) throws DatabaseOperationException {
+    try {
+      return constructor.get();
+    } catch (final RuntimeException e) {
+      throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.INVALID_LIBRARY_FILE, e));
+    }
+  }
+
+  /**
+   * Insert the given batches of operations, except those whose name is already used.
+   */
+  private void importBatches(final @NotNull List<LibraryFile.BatchEntry> batches) throws DatabaseOperationException {
+    try (final var namesStatement = this.connection.createStatement();
+         final var batchStatement = this.connection.prepareStatement(INSERT_SAVED_BATCH);
+         final var operationsStatement = this.connection.prepareStatement(INSERT_BATCH_OPERATIONS)) {
+      final Set<String> names = new HashSet<>();
+      try (final var resultSet = namesStatement.executeQuery(SELECT_BATCHES_QUERY)) {
+        while (resultSet.next())
+          names.add(resultSet.getString("name"));
+      }
+      for (final LibraryFile.BatchEntry batch : batches) {
+        if (!names.add(batch.name()))
+          continue;
+        batchStatement.setString(1, batch.name());
+        batchStatement.executeUpdate();
+        final List<LibraryFile.SerializedOperation> operations = batch.operations();
+        for (int i = 0; i < operations.size(); i++) {
+          final LibraryFile.SerializedOperation operation = operations.get(i);
+          operationsStatement.setString(1, operation.type());
+          operationsStatement.setString(2, operation.data());
+          operationsStatement.setString(3, operation.conditionType());
+          operationsStatement.setString(4, operation.conditionData());
+          operationsStatement.setInt(5, i);
+          operationsStatement.setString(6, batch.name());
+          operationsStatement.executeUpdate();
+        }
+      }
+    } catch (final SQLException e) {
+      this.rollback();
+      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+    }
+    this.commit();
+  }
+
+  /**
+   * Insert the given medias in a single transaction, or add their tags to the registered medias with the same path.
+   * Caches are not updated.
+   *
+   * @param medias The medias to import.
+   * @param tagIds A map associating the IDs of the tags in the exported database to their IDs in this one.
+   * @return The number of imported medias.
+   */
+  private int importMedias(
+      final @NotNull List<LibraryFile.MediaEntry> medias,
+      final @NotNull Map<Integer, Integer> tagIds
+  ) throws DatabaseOperationException {
+    try {
+      final var mediaStatement = this.connections.prepareCached(this.connection, IMPORT_MEDIA_QUERY);
+      final var tagStatement = this.connections.prepareCached(this.connection, IMPORT_MEDIA_TAG_QUERY);
+      for (final LibraryFile.MediaEntry media : medias) {
+        mediaStatement.setString(1, media.path().toAbsolutePath().toString());
+        if (media.hash() != null)
+          mediaStatement.setLong(2, media.hash().bytes());
+        else
+          mediaStatement.setNull(2, Types.INTEGER);
+        setMetadata(mediaStatement, 3, media.metadata());
+        final int mediaId;
+        try (final var resultSet = mediaStatement.executeQuery()) {
+          if (!resultSet.next())
+            throw this.logThrownError(new SQLException("Query did not return any ID"));
+          mediaId = resultSet.getInt(1);
+        }
+        for (final int tagId : media.tagIds()) {
+          final Integer id = tagIds.get(tagId);
+          if (id == null) {
+            this.logger.warn("Ignoring unknown tag ID {} of media {}", tagId, media.path());
+            continue;
+          }
+          tagStatement.setInt(1, mediaId);
+          tagStatement.setInt(2, id);
+          tagStatement.addBatch();
+        }
+      }
+      tagStatement.executeBatch();
+    } catch (final SQLException e) {
+      this.rollback();
+      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+    }
+    this.commit();
+    this.recordBatchChanges(medias.size());
+    return medias.size();
+  }
+
+  @SuppressWarnings("SqlResolve")
+  @SQLite
+  private static final String SELECT_OBJECT_BY_ID_QUERY = """
+      SELECT *
+      FROM %s
+      WHERE id = ?
+      """;
+
+  /**
+   * Ensure that the given object exists in the database based on its ID.
+   *
+   * @param element The object to check.
+   * @throws DatabaseOperationException If the object is not in the database or any database error occurs.
+   */
+  private void ensureInDatabase(final @NotNull DatabaseElement element) throws DatabaseOperationException {
+    @Language(value = "sqlite", prefix = "SELECT * FROM ", suffix = " WHERE 1") final String tableName;
+    if (element instanceof TagTypeLike)
+      tableName = "tag_types";
+    else if (element instanceof TagLike)
+      tableName = "tags";
+    else if (element instanceof MediaLike)
+      tableName = "images";
+    else
+      throw this.logThrownError(new IllegalArgumentException("Unsupported type: " + element.getClass().getName()));
+
+    try {
+      final var statement = this.connections.prepareCached(this.connection, SELECT_OBJECT_BY_ID_QUERY.formatted(tableName));
+      statement.setInt(1, element.id());
+      try (final var resultSet = statement.executeQuery()) {
+        if (!resultSet.next())
+          throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.OBJECT_DOES_NOT_EXIST));
+      }
+    } catch (final SQLException e) {
+      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+    }
+  }
+
+  /**
+   * Close this connection, rendering this object unusable.
+   *
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  @Override
+  public void close() throws DatabaseOperationException {
+    this.timedWrite("close", () -> {
+      final StatementCacheStats stats = this.statementCacheStats();
+      this.logger.info("Prepared statements cache: {} hit(s), {} miss(es), {} eviction(s), ~{} ms of preparation saved.",
+          stats.hits(), stats.misses(), stats.evictions(), stats.savedNanos() / 1_000_000);
+      if (this.useCacheSnapshot)
+        this.saveCacheSnapshot();
+      try {
+        this.optimize();
+      } catch (final DatabaseOperationException e) {
+        this.logCaughtError(e);
+      }
+      this.shutDownFileDeleters();
+      try {
+        this.connections.close();
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
+  }
+
+  /**
+   * Return usage statistics of the prepared statements caches of this connection.
+   * <p>
+   * Frequently executed constant queries are prepared once per underlying connection and then reused.
+   *
+   * @return A snapshot of the statistics.
+   */
+  @Contract(pure = true, value = "-> new")
+  public StatementCacheStats statementCacheStats() {
+    return this.connections.statementCacheStats();
+  }
+
+  /**
+   * Return latency statistics of the calls to the public methods of this connection,
+   * with the number of rows their SQL statements read or changed, of the custom SQL functions,
+   * and the slowest recent statements.
+   * <p>
+   * Statements are also reported as {@code net.darmo_creations.bildumilo.DatabaseStatement}
+   * Java Flight Recorder events while a recording is running.
+   *
+   * @return A snapshot of the statistics.
+   */
+  @Contract(pure = true, value = "-> new")
+  public DatabaseMetricsSnapshot metricsSnapshot() {
+    return this.metrics.snapshot();
+  }
+
+  /**
+   * Indicate whether the latency statistics returned by {@link #metricsSnapshot()} are being recorded.
+   */
+  @Contract(pure = true)
+  public boolean isMetricsEnabled() {
+    return this.metrics.isEnabled();
+  }
+
+  /**
+   * Start or stop recording the latency statistics returned by {@link #metricsSnapshot()}.
+   * While disabled, calls, statements and custom SQL functions are not timed,
+   * and the statistics recorded so far are kept.
+   * Flight Recorder events are still emitted while a recording is running.
+   *
+   * @param enabled Whether to record the statistics.
+   */
+  public void setMetricsEnabled(boolean enabled) {
+    this.metrics.setEnabled(enabled);
+    this.instrumentedFunctions.forEach((function, name) ->
+        function.setLatencyHistogram(enabled ? this.metrics.functionHistogram(name) : null));
+  }
+
+  /**
+   * Add a listener that will be notified of the changes made to the medias, tags and tag types.
+   * <p>
+   * Listeners are called on the thread that performed the changes, once they are committed
+   * and the caches are up-to-date. Changes made by operations that are run together by an
+   * {@link AsyncDatabaseConnection} are published once, after their shared transaction is committed.
+   * Listeners should not perform long operations.
+   *
+   * @param listener The listener to add.
+   */
+  public void addChangesListener(@NotNull ChangesListener listener) {
+    this.changesListeners.add(Objects.requireNonNull(listener));
+  }
+
+  /**
+   * Remove a listener added with {@link #addChangesListener(ChangesListener)}.
+   *
+   * @param listener The listener to remove.
+   */
+  public void removeChangesListener(@NotNull ChangesListener listener) {
+    this.changesListeners.remove(listener);
+  }
+
+  @SQLite
+  private static final String SELECT_STORAGE_STATS_QUERY = """
+      SELECT p.page_size, c.page_count, f.freelist_count, v.auto_vacuum
+      FROM pragma_page_size AS p, pragma_page_count AS c, pragma_freelist_count AS f, pragma_auto_vacuum AS v
+      """;
+
+  /**
+   * Return statistics about the storage of the database file.
+   *
+   * @return The statistics.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public DatabaseStorageStats getStorageStats() throws DatabaseOperationException {
+    return this.timed("getStorageStats", () -> {
+      try {
+        return this.read(connection -> {
+          final var statement = this.connections.prepareCached(connection, SELECT_STORAGE_STATS_QUERY);
+          try (final var resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return new DatabaseStorageStats(
+                resultSet.getLong(1),
+                resultSet.getLong(2),
+                resultSet.getLong(3),
+                resultSet.getInt(4) == AUTO_VACUUM_INCREMENTAL
+            );
+          }
+        });
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      }
+    });
+  }
+
+  /**
+   * The value of {@code PRAGMA auto_vacuum} when incremental vacuum is enabled.
+   */
+  private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+  /**
+   * The value of {@link System#nanoTime()} when the last write transaction ended.
+   * Maintenance operations are not counted.
+   */
+  long lastWriteNanos() {
+    return this.lastWriteNanos;
+  }
+
+  /**
+   * The number of rows changed by batch operations since the query planner statistics were last updated.
+   */
+  long batchChangesSinceAnalyze() {
+    return this.batchChangesSinceAnalyze.get();
+  }
+
+  /**
+   * Record rows changed by a batch operation, that may make the query planner statistics stale.
+   */
+  private void recordBatchChanges(long changes) {
+    this.batchChangesSinceAnalyze.addAndGet(changes);
+  }
+
+  /**
+   * Run the given maintenance task with exclusive ownership of the writer connection.
+   * <p>
+   * The task is skipped if any thread, including the current one, holds the writer connection,
+   * as it may be in the middle of a transaction that maintenance queries would commit.
+   * Other threads that try to write while the task runs wait for it to end.
+   *
+   * @param task The task to run.
+   * @return The result of the task, or an empty optional if the writer connection was in use.
+   * @throws DatabaseOperationException If the task throws.
+   */
+  <T> Optional<T> runMaintenance(@NotNull MaintenanceTask<T> task) throws DatabaseOperationException {
+    if (!this.connections.tryLockWriter())
+      return Optional.empty();
+    try {
+      return Optional.of(task.run());
+    } finally {
+      this.connections.unlockWriter();
+    }
+  }
+
+  /**
+   * Update the statistics used by the query planner of the whole database.
+   *
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  void analyze() throws DatabaseOperationException {
+    final long changes = this.batchChangesSinceAnalyze.get();
+    this.logger.info("Analyzing database after {} change(s)…", changes);
+    this.executeMaintenanceQuery("ANALYZE");
+    this.batchChangesSinceAnalyze.addAndGet(-changes);
+    this.logger.info("Done.");
+  }
+
+  /**
+   * Let SQLite update the query planner statistics that it deems out of date.
+   * This is cheap, unlike {@link #analyze()}.
+   *
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  void optimize() throws DatabaseOperationException {
+    this.executeMaintenanceQuery("PRAGMA optimize");
+  }
+
+  /**
+   * Return at most the given number of unused pages to the file system.
+   * Does nothing if incremental vacuum is not enabled on the database.
+   *
+   * @param maxPages The maximum number of pages to free.
+   * @return The number of pages that were freed.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  int incrementalVacuum(int maxPages) throws DatabaseOperationException {
+    final DatabaseStorageStats before = this.getStorageStats();
+    if (!before.incrementalVacuum() || before.freePages() == 0)
+      return 0;
+    this.executeMaintenanceQuery("PRAGMA incremental_vacuum(%d)".formatted(maxPages));
+    final int freed = (int) (before.freePages() - this.getStorageStats().freePages());
+    this.logger.debug("Incremental vacuum freed {} page(s).", freed);
+    return freed;
+  }
+
+  /**
+   * Rebuild the database file to reclaim all unused space and enable incremental vacuum,
+   * so that subsequent space can be reclaimed in small steps by {@link #incrementalVacuum(int)}.
+   * <p>
+   * This may take a long time on large databases and no other operation can be performed meanwhile.
+   *
+   * @throws DatabaseOperationException If any database error occurs.
    */
-  private boolean mediaHasTag(int mediaId, int tagId) throws SQLException {
-    try (final var statement = this.connection.prepareStatement(SELECT_MEDIA_TAG_QUERY)) {
-      statement.setInt(1, mediaId);
-      statement.setInt(2, tagId);
-      try (final var resultSet = statement.executeQuery()) {
-        return resultSet.next() && resultSet.getInt(1) != 0;
+  public void vacuum() throws DatabaseOperationException {
+    this.timedWrite("vacuum", () -> {
+      this.logger.info("Vacuuming database…");
+      try {
+        // VACUUM cannot run inside a transaction
+        this.connection.setAutoCommit(true);
+        try (final var statement = this.connection.createStatement()) {
+          statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+          statement.execute("VACUUM");
+        } finally {
+          this.connection.setAutoCommit(false);
+        }
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    }
+      this.logger.info("Done.");
+    });
   }
 
   /**
-   * Return the tag for that has the given label.
+   * Copy the last committed state of this database to the given file using SQLite’s online backup API.
+   * <p>
+   * Pages are copied {@link #BACKUP_PAGES_PER_STEP} at a time from a dedicated read connection,
+   * so that pooled readers stay available, with a short pause between steps so that writes are never blocked.
+   * If the database is written to during the backup, SQLite restarts the copy from the beginning,
+   * so that the file is always consistent. After {@link #BACKUP_MAX_RESTARTS} restarts,
+   * writes are held back and the remaining pages are copied without pausing, so that the backup always completes.
+   * <p>
+   * This method is blocking and should not be called from the UI thread.
    *
-   * @param label A tag label.
-   * @return An {@link Optional} containing the tag for the label if found, an empty {@link Optional} otherwise.
-   * @throws SQLException If any database error occurs.
+   * @param destination The file to write to. It is overwritten if it exists.
+   * @throws DatabaseOperationException If any database error occurs.
    */
-  private Optional<Tag> getTagForLabel(@NotNull String label) throws SQLException {
-    try (final var statement = this.connection.prepareStatement(SELECT_TAG_FROM_LABEL_QUERY)) {
-      statement.setString(1, label);
-      try (final var resultSet = statement.executeQuery()) {
-        if (resultSet.next()) {
-          final int id = resultSet.getInt("id");
-          final int tagTypeId = resultSet.getInt("type_id");
-          final String definition = resultSet.getString("definition");
-          return Optional.of(new Tag(id, label, this.tagTypesCache.get(tagTypeId), definition));
-        } else
-          return Optional.empty();
+  public void backup(@NotNull Path destination) throws DatabaseOperationException {
+    this.timed("backup", () -> {
+      this.logger.info("Backing up database to {}…", destination);
+      final BackupProgress progress = new BackupProgress();
+      try {
+        final int resultCode;
+        if (this.connections.hasReadPool())
+          try (final var connection = this.connections.openDedicatedReader()) {
+            resultCode = progress.copy(connection, destination);
+          }
+        else // In-memory databases can only be read through the writer, that cannot be written to meanwhile
+          resultCode = this.read(connection -> progress.copy(connection, destination));
+        if (resultCode != SQLiteErrorCode.SQLITE_OK.code)
+          throw new SQLiteException("backup failed", SQLiteErrorCode.getErrorCode(resultCode));
+      } catch (final SQLException e) {
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      } finally {
+        if (progress.writerLocked)
+          this.connections.unlockWriter();
       }
-    }
+      this.logger.info("Done.");
+    });
   }
 
-  @SQLite
-  private static final String ADD_TAG_TO_MEDIA_QUERY = """
-      INSERT INTO image_tag (image_id, tag_id)
-      VALUES (?, ?)
-      """;
-
   /**
-   * Add a tag to a media. This method does not perform any kind of transaction managment,
-   * it is the responsablity of the caller to do so.
-   *
-   * @param mediaId The ID of the media to add the tag to.
-   * @param tagId   The ID of the tag to add.
-   * @throws SQLException If any database error occurs.
+   * Tracks the progress of a {@link #backup(Path)} call to pause between steps and count restarts.
    */
-  private void addTagToMediaNoCommit(int mediaId, int tagId) throws SQLException {
-    try (final var statement1 = this.connection.prepareStatement(ADD_TAG_TO_MEDIA_QUERY)) {
-      statement1.setInt(1, mediaId);
-      statement1.setInt(2, tagId);
-      statement1.executeUpdate();
+  private final class BackupProgress {
+    private int lastRemaining = Integer.MAX_VALUE;
+    private int restarts;
+    /**
+     * Whether this backup holds the writer lock. It must be released once the copy is done.
+     */
+    private boolean writerLocked;
+
+    private int copy(@NotNull Connection connection, @NotNull Path destination) throws SQLException {
+      return connection.unwrap(SQLiteConnection.class).getDatabase().backup(
+          "main",
+          destination.toString(),
+          (remaining, pageCount) -> this.onStep(remaining),
+          BACKUP_BUSY_DELAY,
+          BACKUP_BUSY_RETRIES,
+          BACKUP_PAGES_PER_STEP
+      );
     }
-  }
 
-  @SQLite
-  private static final String DELETE_MEDIA_QUERY = """
-      DELETE FROM images
-      WHERE id = ?
-      """;
+    private void onStep(int remainingPages) {
+      // SQLite restarts the copy from the first page when another connection writes to the database
+      if (remainingPages > this.lastRemaining)
+        this.restarts++;
+      this.lastRemaining = remainingPages;
+      if (remainingPages == 0)
+        return;
+      if (this.restarts >= BACKUP_MAX_RESTARTS && !this.writerLocked) {
+        // Never wait for the lock, its holder may be waiting for a reader
+        this.writerLocked = DatabaseConnection.this.connections.tryLockWriter();
+        if (this.writerLocked)
+          DatabaseConnection.this.logger.info("Backup restarted {} times, holding writes back until it completes.",
+              this.restarts);
+      }
+      if (this.writerLocked)
+        return;
+      try {
+        Thread.sleep(BACKUP_STEP_PAUSE);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 
   /**
-   * Delete the given media from the database.
-   * If the file cannot be deleted, the associated database entry will not be deleted.
-   * If the file does not exist, the database entry still gets deleted.
+   * Execute the given maintenance query in its own transaction.
+   * Maintenance queries do not change the data, so they do not count as writes.
    *
-   * @param mediaFile The media to delete.
-   * @param fromDisk  If true, the associated files will be deleted from the disk.
-   * @throws DatabaseOperationException If any database or file system error occurs.
+   * @param query The query to execute.
+   * @throws DatabaseOperationException If any database error occurs.
    */
-  public void deleteMedia(final @NotNull MediaFile mediaFile, boolean fromDisk) throws DatabaseOperationException {
-    this.ensureInDatabase(mediaFile);
-    if (fromDisk) {
-      try {
-        Files.delete(mediaFile.path());
-      } catch (final NoSuchFileException ignored) {
-      } catch (final IOException | SecurityException e) {
+  private void executeMaintenanceQuery(@SQLite @NotNull String query) throws DatabaseOperationException {
+    this.writing(() -> {
+      try (final var statement = this.connection.createStatement()) {
+        // Unlike execute(), executeUpdate() steps through the whole statement,
+        // which pragmas like incremental_vacuum need to do all their work
+        statement.executeUpdate(query);
+        this.connection.commit();
+      } catch (final SQLException e) {
+        try {
+          this.connection.rollback();
+        } catch (final SQLException ex) {
+          this.logCaughtError(ex);
+        }
         throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
       }
-    }
+    });
+  }
 
-    final Set<Tag> mediaTags = this.getMediaTags(mediaFile);
-    try (final var statement = this.connection.prepareStatement(DELETE_MEDIA_QUERY)) {
-      statement.setInt(1, mediaFile.id());
-      statement.executeUpdate();
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+  /**
+   * Setup the database using the file at {@link #SETUP_FILE_NAME}.
+   */
+  private void setupDatabase() throws SQLException, IOException {
+    this.logger.info("Creating database file…");
+    this.executeUpdateQuery(this.readResource("/" + SETUP_FILE_NAME));
+    this.logger.info("Done.");
+  }
+
+  /**
+   * Read the whole content of the given resource file.
+   *
+   * @param path The path to the resource.
+   * @return The file’s content.
+   * @throws IOException If the file does not exist or could not be read.
+   */
+  private String readResource(@NotNull String path) throws IOException {
+    final var stream = this.getClass().getResourceAsStream(path);
+    if (stream == null)
+      throw this.logThrownError(new IOException("Missing file: %s".formatted(path)));
+    final var content = new StringBuilder();
+    try (final var reader = new BufferedReader(new InputStreamReader(stream))) {
+      for (String line; (line = reader.readLine()) != null; )
+        content.append(line).append('\n');
     }
-    this.commit();
+    return content.toString();
+  }
 
-    // Update tag counts
-    mediaTags.forEach(mediaTag -> this.tagsCounts.put(mediaTag.id(), this.tagsCounts.get(mediaTag.id()) - 1));
+  /**
+   * Initalize the internal tag and tag type caches.
+   */
+  private void initCaches() throws SQLException {
+    if (!this.useCacheSnapshot || !this.loadCacheSnapshot())
+      this.loadCaches();
+    if (this.mediasTagsIndex != null)
+      this.loadMediasTagsIndex();
   }
 
   @SQLite
-  private static final String SELECT_SAVED_QUERIES = """
-      SELECT name, `query`
-      FROM saved_queries
-      ORDER BY `order`
+  private static final String SELECT_TAGS_WITH_COUNTS_QUERY = """
+      SELECT t.id, t.label, t.type_id, t.definition, ifnull(tc.count, 0) AS count
+      FROM tags AS t
+      LEFT JOIN tag_counts AS tc ON tc.tag_id = t.id
       """;
 
   /**
-   * Get an ordered list of all saved queries.
-   *
-   * @return A new list.
-   * @throws DatabaseOperationException If any database error occurs.
+   * Fill the tag and tag type caches from the database.
    */
-  @Contract("-> new")
-  public List<SavedQuery> getSavedQueries() throws DatabaseOperationException {
-    try (final var statement = this.connection.createStatement();
-         final var resultSet = statement.executeQuery(SELECT_SAVED_QUERIES)) {
-      final List<SavedQuery> savedQueries = new LinkedList<>();
+  private void loadCaches() throws SQLException {
+    this.logger.info("Initializing caches…");
+    final Map<Integer, TagType> tagTypes = new HashMap<>();
+    try (final var statement = this.connection.prepareStatement("SELECT id, label, symbol, color FROM tag_types");
+         final var resultSet = statement.executeQuery()) {
       while (resultSet.next()) {
-        savedQueries.add(new SavedQuery(
-            resultSet.getString("name"),
-            resultSet.getString("query")
+        final int id = resultSet.getInt("id");
+        tagTypes.put(id, new TagType(
+            id,
+            resultSet.getString("label"),
+            resultSet.getString("symbol").charAt(0),
+            resultSet.getInt("color")
         ));
       }
-      return savedQueries;
     } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      throw this.logThrownError(e);
     }
+    this.logger.info("Found {} tag type(s)", tagTypes.size());
+
+    // Counts are maintained by triggers, no need to go through the image_tag table
+    final List<Tag> tags = new ArrayList<>();
+    final Map<Integer, Integer> tagsCounts = new HashMap<>();
+    try (final var statement = this.connection.prepareStatement(SELECT_TAGS_WITH_COUNTS_QUERY);
+         final var resultSet = statement.executeQuery()) {
+      while (resultSet.next()) {
+        final int id = resultSet.getInt("id");
+        tags.add(new Tag(
+            id,
+            resultSet.getString("label"),
+            tagTypes.get(resultSet.getInt("type_id")),
+            resultSet.getString("definition")
+        ));
+        tagsCounts.put(id, resultSet.getInt("count"));
+      }
+    } catch (final SQLException e) {
+      throw this.logThrownError(e);
+    }
+    this.logger.info("Found {} tag(s)", tags.size());
+    this.fillTagsCache(tagTypes.values(), tags, tagsCounts);
+    this.logger.info("Done.");
   }
 
-  @SQLite
-  private static final String DELETE_SAVED_QUERIES = """
-      -- noinspection SqlWithoutWhere
-      DELETE FROM saved_queries
-      """;
+  /**
+   * Replace the contents of the tags cache.
+   *
+   * @param tagTypes   All tag types.
+   * @param tags       All tags.
+   * @param tagsCounts The use count of each tag. Missing tags have a count of 0.
+   */
+  private void fillTagsCache(
+      final @NotNull Collection<TagType> tagTypes,
+      final @NotNull Collection<Tag> tags,
+      final @NotNull Map<Integer, Integer> tagsCounts
+  ) {
+    this.tagsCache.update(cache -> {
+      tagTypes.forEach(cache::addTagType);
+      tags.forEach(cache::addTag);
+      tagsCounts.forEach(cache::setTagCount);
+    });
+  }
 
   @SQLite
-  private static final String INSERT_SAVED_QUERY = """
-      INSERT INTO saved_queries (name, `query`, `order`)
-      VALUES (?, ?, ?)
+  private static final String SELECT_ALL_MEDIAS_TAGS_QUERY = """
+      SELECT image_id, tag_id
+      FROM image_tag
+      ORDER BY image_id, tag_id
       """;
 
   /**
-   * Save a list of queries. All pre-existing saved queries are first deleted.
-   *
-   * @param queries The queries to save.
-   * @throws DatabaseOperationException If any database error occurs.
+   * Fill the medias’ tags cache in a single pass over the {@code image_tag} table.
    */
-  public void setSavedQueries(final @NotNull List<SavedQuery> queries) throws DatabaseOperationException {
-    try (final var clearStatement = this.connection.createStatement();
-         final var statement = this.connection.prepareStatement(INSERT_SAVED_QUERY)) {
-      clearStatement.executeUpdate(DELETE_SAVED_QUERIES);
-      for (int i = 0; i < queries.size(); i++) {
-        final SavedQuery savedQuery = queries.get(i);
-        statement.setString(1, savedQuery.name());
-        statement.setString(2, savedQuery.query());
-        statement.setInt(3, i);
-        statement.executeUpdate();
-      }
+  private void loadMediasTagsIndex() throws SQLException {
+    //noinspection DataFlowIssue
+    final MediaTagsIndex index = this.mediasTagsIndex;
+    this.logger.info("Loading medias’ tags…");
+    try (final var statement = this.connection.prepareStatement(SELECT_ALL_MEDIAS_TAGS_QUERY);
+         final var resultSet = statement.executeQuery()) {
+      index.load(resultSet);
     } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      throw this.logThrownError(e);
     }
-    this.commit();
+    this.logger.info("Loaded tags of {} media(s): {} association(s), ~{} KiB.",
+        index.mediasCount(), index.associationsCount(), index.estimatedMemoryBytes() / 1024);
   }
 
   @SQLite
-  private static final String SELECT_BATCHES_QUERY = """
-      SELECT name
-      FROM batch_operations
-      """;
-
-  @SQLite
-  private static final String SELECT_BATCH_OPERATIONS_QUERY = """
-      SELECT type, data, condition_type, condition_data
-      FROM image_operation
-      WHERE batch_name = ?
-      ORDER BY `order`
+  private static final String SELECT_VALID_CACHE_SNAPSHOT_QUERY = """
+      SELECT s.data
+      FROM cache_snapshot AS s, cache_changes AS c
+      WHERE s.counter = c.counter
       """;
 
   /**
-   * Get a map of all saved batch operations.
+   * Fill the caches from the snapshot saved in the database, if no tag nor tag type changed since it was saved.
+   * Tag use counts are read from the {@code tag_counts} table.
    *
-   * @return A new map.
-   * @throws DatabaseOperationException If any database error occurs.
+   * @return True if the caches were restored, false if there is no up-to-date snapshot or it is invalid.
+   * @throws SQLException If any database error occurs.
    */
-  @Contract("-> new")
-  public Map<String, List<Operation>> getSavedBatchOperations() throws DatabaseOperationException {
-    final Map<String, List<Operation>> savedBatchOperations = new HashMap<>();
-
-    try (final var statement = this.connection.createStatement();
-         final var resultSet = statement.executeQuery(SELECT_BATCHES_QUERY)) {
-      while (resultSet.next()) {
-        final String batchName = resultSet.getString("name");
-        savedBatchOperations.put(batchName, this.queryOperations(batchName));
+  private boolean loadCacheSnapshot() throws SQLException {
+    final CacheSnapshot snapshot;
+    try (final var statement = this.connection.prepareStatement(SELECT_VALID_CACHE_SNAPSHOT_QUERY);
+         final var resultSet = statement.executeQuery()) {
+      if (!resultSet.next()) {
+        this.logger.info("No up-to-date cache snapshot found.");
+        return false;
       }
+      snapshot = CacheSnapshot.deserialize(resultSet.getBytes(1));
     } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      throw this.logThrownError(e);
+    } catch (final IOException e) {
+      this.logger.warn("Invalid cache snapshot, ignoring it.", e);
+      return false;
     }
 
-    return savedBatchOperations;
+    this.fillTagsCache(snapshot.tagTypes(), snapshot.tags(), this.loadTagsCounts());
+    this.logger.info("Restored caches from snapshot: {} tag type(s), {} tag(s).",
+        snapshot.tagTypes().size(), snapshot.tags().size());
+    return true;
   }
 
-  private List<Operation> queryOperations(@NotNull String batchName) throws SQLException {
-    final List<Operation> operations = new LinkedList<>();
-    try (final var operationsStatement = this.connection.prepareStatement(SELECT_BATCH_OPERATIONS_QUERY)) {
-      operationsStatement.setString(1, batchName);
-      try (final var operationsResultSet = operationsStatement.executeQuery()) {
-        while (operationsResultSet.next())
-          this.parseOperation(operationsResultSet)
-              .ifPresent(operations::add);
-      }
+  /**
+   * Read the use count of each tag from the {@code tag_counts} table.
+   *
+   * @return The number of medias each tag is associated to.
+   * @throws SQLException If any database error occurs.
+   */
+  private Map<Integer, Integer> loadTagsCounts() throws SQLException {
+    final Map<Integer, Integer> tagsCounts = new HashMap<>();
+    try (final var statement = this.connection.prepareStatement("SELECT tag_id, count FROM tag_counts");
+         final var resultSet = statement.executeQuery()) {
+      while (resultSet.next())
+        tagsCounts.put(resultSet.getInt("tag_id"), resultSet.getInt("count"));
+    } catch (final SQLException e) {
+      throw this.logThrownError(e);
     }
-    return operations;
+    return tagsCounts;
   }
 
-  private Optional<Operation> parseOperation(@NotNull ResultSet resultSet) throws SQLException {
-    final String type = resultSet.getString("type");
-    final String data = resultSet.getString("data");
-    final String condType = resultSet.getString("condition_type");
-    final String condData = resultSet.getString("condition_data");
-
-    final Condition condition;
-    if (condType != null) {
-      //noinspection SwitchStatementWithTooFewBranches
-      condition = switch (condType) {
-        case TagQueryCondition.KEY -> new TagQueryCondition(condData);
-        default -> {
-          this.logger.error("Unsupported condition type: {}", condType);
-          yield null;
-        }
-      };
-    } else
-      condition = null;
+  @SQLite
+  private static final String SAVE_CACHE_SNAPSHOT_QUERY = """
+      INSERT OR REPLACE INTO cache_snapshot (id, counter, data)
+      SELECT 0, counter, ?
+      FROM cache_changes
+      """;
 
+  /**
+   * Save a snapshot of the caches in the database, unless the current one is still up-to-date.
+   * Errors are logged but not thrown as the snapshot is only an optimization.
+   */
+  private void saveCacheSnapshot() {
     try {
-      return Optional.ofNullable(switch (type) {
-        case DeleteOperation.KEY -> DeleteOperation.deserialize(data, condition);
-        case MoveOperation.KEY -> MoveOperation.deserialize(data, condition);
-        case RecomputeHashOperation.KEY -> new RecomputeHashOperation(condition);
-        case UpdateTagsOperation.KEY -> UpdateTagsOperation.deserialize(data, condition, this);
-        case TransformPathOperation.KEY -> TransformPathOperation.deserialize(data, condition);
-        default -> {
-          this.logger.error("Unsupported operation type: {}", condType);
-          yield null;
-        }
-      });
-    } catch (final IllegalArgumentException e) {
-      this.logger.error("Malformed serialized operation string: {}", data, e);
-      return Optional.empty();
+      try (final var statement = this.connection.prepareStatement(SELECT_VALID_CACHE_SNAPSHOT_QUERY);
+           final var resultSet = statement.executeQuery()) {
+        if (resultSet.next())
+          return;
+      }
+      final TagsCache.State state = this.tagsCache.state();
+      final byte[] data = new CacheSnapshot(state.tagTypes().values(), state.tags().values()).serialize();
+      try (final var statement = this.connection.prepareStatement(SAVE_CACHE_SNAPSHOT_QUERY)) {
+        statement.setBytes(1, data);
+        statement.executeUpdate();
+      }
+      this.connection.commit();
+      this.logger.info("Saved cache snapshot ({} bytes).", data.length);
+    } catch (final SQLException e) {
+      this.logCaughtError(e);
+      try {
+        this.connection.rollback();
+      } catch (final SQLException ex) {
+        this.logCaughtError(ex);
+      }
     }
   }
 
-  @SQLite
-  private static final String DELETE_SAVED_BATCHES = """
-      -- noinspection SqlWithoutWhere
-      DELETE FROM batch_operations;
-      -- noinspection SqlWithoutWhere
-      DELETE FROM image_operation;
-      """;
-
-  @SQLite
-  private static final String INSERT_SAVED_BATCH = """
-      INSERT INTO batch_operations (name)
-      VALUES (?)
-      """;
 
-  @SQLite
-  private static final String INSERT_BATCH_OPERATIONS = """
-      INSERT INTO image_operation (type, data, condition_type, condition_data, `order`, batch_name)
-      VALUES (?, ?, ?, ?, ?, ?)
-      """;
+  /**
+   * Execute the given non-{@code SELECT} SQL query in a single transaction.
+   * <p>
+   * If the method throws a {@link SQLException}, the transaction is rollbacked.
+   *
+   * @param query The SQL query to execute, may contain several statements.
+   */
+  private void executeUpdateQuery(@SQLite @NotNull String query) throws SQLException {
+    try (final var statement = this.connection.createStatement()) {
+      statement.executeUpdate(query);
+    } catch (final SQLException e) {
+      this.connection.rollback();
+      throw this.logThrownError(e);
+    }
+    this.connection.commit();
+  }
 
   /**
-   * Save a map of operation batches. All pre-existing batches are first deleted.
+   * Run the given write operations in a single transaction, in order.
+   * <p>
+   * Each operation runs inside its own savepoint: if it fails, only its own changes are discarded
+   * and the next operations still run. While the operations run, reads are performed on the writer connection
+   * so that each operation sees the changes of the previous ones.
+   * <p>
+   * The writer connection stays locked until the transaction ends: other threads that write to the database
+   * in the meantime wait for the whole batch to be committed or rolled back.
    *
-   * @param batches The batches to save.
-   * @throws DatabaseOperationException If any database error occurs.
+   * @param operations The operations to run.
+   * @return For each operation, the exception it threw, or null if it completed normally.
+   * @throws DatabaseOperationException If the transaction could not be committed.
+   *                                    The changes of all operations are then discarded and the caches reloaded.
    */
-  public void setSavedBatchOperations(final @NotNull Map<String, List<? extends Operation>> batches)
+  List<Exception> runCoalesced(final @NotNull List<? extends CoalescedWrite> operations)
       throws DatabaseOperationException {
-    try (final var clearStatement = this.connection.createStatement();
-         final var statement = this.connection.prepareStatement(INSERT_SAVED_BATCH)) {
-      clearStatement.executeUpdate(DELETE_SAVED_BATCHES);
-      for (final var entry : batches.entrySet()) {
-        final String batchName = entry.getKey();
-        statement.setString(1, batchName);
-        statement.executeUpdate();
-        final List<? extends Operation> operations = entry.getValue();
-        try (final var operationsStatement = this.connection.prepareStatement(INSERT_BATCH_OPERATIONS)) {
-          for (int i = 0; i < operations.size(); i++) {
-            final Operation operation = operations.get(i);
-            operationsStatement.setString(1, operation.key());
-            operationsStatement.setString(2, operation.serialize());
-            operationsStatement.setString(3, operation.condition().map(Condition::key).orElse(null));
-            operationsStatement.setString(4, operation.condition().map(Condition::serialize).orElse(null));
-            operationsStatement.setInt(5, i);
-            operationsStatement.setString(6, batchName);
-            operationsStatement.executeUpdate();
+    return this.writing(() -> {
+      final List<Exception> errors = new ArrayList<>(operations.size());
+      this.coalescingThread = Thread.currentThread();
+      try {
+        for (final CoalescedWrite operation : operations) {
+          this.operationSavepoint = this.connection.setSavepoint();
+          Exception error = null;
+          try {
+            operation.run();
+          } catch (final Exception e) {
+            error = e;
+            // Some methods throw without rolling back when nothing was written yet
+            this.connection.rollback(this.operationSavepoint);
           }
+          this.connection.releaseSavepoint(this.operationSavepoint);
+          errors.add(error);
+        }
+        this.connection.commit();
+      } catch (final SQLException e) {
+        // Changes are only recorded once they are in the transaction, which has been discarded
+        this.pendingChanges = new DatabaseChanges.Builder();
+        try {
+          this.connection.rollback();
+          // Caches were updated as if the changes had been committed
+          this.reloadCaches();
+        } catch (final SQLException ex) {
+          this.logCaughtError(ex);
         }
+        this.runTransactionHooks(false);
+        throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      } finally {
+        this.operationSavepoint = null;
+        this.coalescingThread = null;
       }
-    } catch (final SQLException e) {
-      this.rollback();
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
-    this.commit();
+      this.publishChanges();
+      this.runTransactionHooks(true);
+      return errors;
+    });
   }
 
-  @SuppressWarnings("SqlResolve")
-  @SQLite
-  private static final String SELECT_OBJECT_BY_ID_QUERY = """
-      SELECT *
-      FROM %s
-      WHERE id = ?
-      """;
-
   /**
-   * Ensure that the given object exists in the database based on its ID.
+   * Run the given hook once the changes committed by the caller are actually in the database.
+   * This method must be called after {@link #commit()}.
+   * <p>
+   * When called from {@link #runCoalesced(List)}, {@link #commit()} only moves the changes to the enclosing
+   * transaction, where they stay even if the current operation fails afterwards. The hook is then run
+   * once the enclosing transaction has been committed or rolled back.
+   * Otherwise, the hook is run immediately.
    *
-   * @param element The object to check.
-   * @throws DatabaseOperationException If the object is not in the database or any database error occurs.
+   * @param hook The hook to run.
    */
-  private void ensureInDatabase(final @NotNull DatabaseElement element) throws DatabaseOperationException {
-    @Language(value = "sqlite", prefix = "SELECT * FROM ", suffix = " WHERE 1") final String tableName;
-    if (element instanceof TagTypeLike)
-      tableName = "tag_types";
-    else if (element instanceof TagLike)
-      tableName = "tags";
-    else if (element instanceof MediaLike)
-      tableName = "images";
+  private void afterTransaction(@NotNull TransactionHook hook) {
+    if (this.isCoalescing())
+      this.transactionHooks.add(hook);
     else
-      throw this.logThrownError(new IllegalArgumentException("Unsupported type: " + element.getClass().getName()));
+      hook.onTransactionEnd(true);
+  }
 
-    try (final var statement = this.connection.prepareStatement(SELECT_OBJECT_BY_ID_QUERY.formatted(tableName))) {
-      statement.setInt(1, element.id());
-      try (final var resultSet = statement.executeQuery()) {
-        if (!resultSet.next())
-          throw this.logThrownError(new DatabaseOperationException(DatabaseErrorCode.OBJECT_DOES_NOT_EXIST));
+  /**
+   * Run and clear all hooks registered by {@link #afterTransaction(TransactionHook)}.
+   *
+   * @param committed Whether the transaction was committed.
+   */
+  private void runTransactionHooks(boolean committed) {
+    final List<TransactionHook> hooks = List.copyOf(this.transactionHooks);
+    this.transactionHooks.clear();
+    for (final TransactionHook hook : hooks)
+      try {
+        hook.onTransactionEnd(committed);
+      } catch (final RuntimeException e) {
+        this.logCaughtError(e);
       }
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
-    }
   }
 
   /**
-   * Close this connection, rendering this object unusable.
+   * Indicate whether the current thread is running {@link #runCoalesced(List)}.
+   */
+  private boolean isCoalescing() {
+    return Thread.currentThread() == this.coalescingThread;
+  }
+
+  /**
+   * Ensure that the current thread is not running {@link #runCoalesced(List)}.
+   * Operations that move or delete files right away must call this method,
+   * as files cannot be restored if the enclosing transaction is rolled back.
    *
-   * @throws DatabaseOperationException If any database error occurs.
+   * @throws IllegalStateException If the current thread is running {@link #runCoalesced(List)}.
    */
-  @Override
-  public void close() throws DatabaseOperationException {
+  private void ensureNotCoalescing() {
+    if (this.isCoalescing())
+      throw this.logThrownError(new IllegalStateException("Files cannot be modified in a coalesced transaction"));
+  }
+
+  /**
+   * Notify all listeners of the changes recorded in {@link #pendingChanges}, unless the current thread
+   * is running {@link #runCoalesced(List)}, in which case they are published once its transaction is committed.
+   * <p>
+   * This method must be called once the caches have been updated, so that listeners see the new state.
+   */
+  private void publishChanges() {
+    if (this.isCoalescing() || this.pendingChanges.isEmpty())
+      return;
+    final DatabaseChanges changes = this.pendingChanges.build();
+    this.pendingChanges = new DatabaseChanges.Builder();
+    for (final ChangesListener listener : this.changesListeners)
+      try {
+        listener.onChanges(changes);
+      } catch (final RuntimeException e) {
+        this.logCaughtError(e);
+      }
+  }
+
+  /**
+   * Discard the contents of all caches and reload them from the database.
+   */
+  private void reloadCaches() throws SQLException {
+    this.tagsCache.update(TagsCache.Editor::clear);
+    this.loadCaches();
+    if (this.mediasTagsIndex != null)
+      this.loadMediasTagsIndex();
+  }
+
+  /**
+   * Run the body of a public method of this class, timing it under the given name.
+   *
+   * @param name The method’s name.
+   * @param body The method’s body.
+   * @return The body’s result.
+   */
+  private <T, E extends Exception> T timed(@NotNull String name, @NotNull MethodBody<T, E> body) throws E {
+    final var call = this.metrics.startOperation(name);
     try {
-      this.connection.close();
-    } catch (final SQLException e) {
-      throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
+      return body.run();
+    } finally {
+      call.close();
     }
   }
 
   /**
-   * Setup the database using the file at {@link #SETUP_FILE_NAME}.
+   * Run the body of a public method of this class that returns nothing, timing it under the given name.
+   *
+   * @param name The method’s name.
+   * @param body The method’s body.
    */
-  private void setupDatabase() throws SQLException, IOException {
-    this.logger.info("Creating database file…");
-    final var stream = this.getClass().getResourceAsStream("/" + SETUP_FILE_NAME);
-    if (stream == null)
-      throw this.logThrownError(new IOException("Missing file: %s".formatted(SETUP_FILE_NAME)));
-    final var query = new StringBuilder();
-    try (final var reader = new BufferedReader(new InputStreamReader(stream))) {
-      for (String line; (line = reader.readLine()) != null; )
-        query.append(line).append('\n');
-    }
-    this.executeUpdateQuery(query.toString());
-    this.logger.info("Done.");
+  private <E extends Exception> void timed(@NotNull String name, @NotNull VoidMethodBody<E> body) throws E {
+    this.timed(name, () -> {
+      body.run();
+      return null;
+    });
   }
 
   /**
-   * Initalize the internal tag and tag type caches.
+   * Run the body of a public method of this class that writes to the database,
+   * timing it under the given name and holding the writer connection’s lock.
+   *
+   * @param name The method’s name.
+   * @param body The method’s body.
+   * @return The body’s result.
+   * @see #writing(MethodBody)
    */
-  private void initCaches() throws SQLException {
-    this.logger.info("Initializing caches…");
-    try (final var statement = this.connection.prepareStatement("SELECT id, label, symbol, color FROM tag_types");
-         final var resultSet = statement.executeQuery()) {
-      while (resultSet.next()) {
-        final int id = resultSet.getInt("id");
-        this.tagTypesCache.put(id, new TagType(
-            id,
-            resultSet.getString("label"),
-            resultSet.getString("symbol").charAt(0),
-            resultSet.getInt("color")
-        ));
-        this.tagTypesCounts.put(id, 0);
-      }
-    } catch (final SQLException e) {
-      throw this.logThrownError(e);
-    }
-    this.logger.info("Found {} tag type(s)", this.tagTypesCache.size());
+  private <T, E extends Exception> T timedWrite(@NotNull String name, @NotNull MethodBody<T, E> body) throws E {
+    return this.timed(name, () -> this.writing(body));
+  }
 
-    try (final var statement = this.connection.prepareStatement("SELECT id, label, type_id, definition FROM tags");
-         final var resultSet = statement.executeQuery();
-         final var countStatement = this.connection.prepareStatement("SELECT COUNT(*) FROM image_tag WHERE tag_id = ?")) {
-      while (resultSet.next()) {
-        final int id = resultSet.getInt("id");
-        @Nullable final TagType tagType = this.tagTypesCache.get(resultSet.getInt("type_id"));
-        this.tagsCache.put(id, new Tag(
-            id,
-            resultSet.getString("label"),
-            tagType,
-            resultSet.getString("definition")
-        ));
-        countStatement.setInt(1, id);
-        try (final var countResultSet = countStatement.executeQuery()) {
-          countResultSet.next();
-          this.tagsCounts.put(id, countResultSet.getInt(1));
-          if (tagType != null)
-            this.tagTypesCounts.put(tagType.id(), this.tagTypesCounts.get(tagType.id()) + 1);
-        }
-      }
-    } catch (final SQLException e) {
-      throw this.logThrownError(e);
-    }
-    this.logger.info("Found {} tag(s)", this.tagsCache.size());
-    this.logger.info("Done.");
+  /**
+   * Run the body of a public method of this class that writes to the database and returns nothing,
+   * timing it under the given name and holding the writer connection’s lock.
+   *
+   * @param name The method’s name.
+   * @param body The method’s body.
+   * @see #writing(VoidMethodBody)
+   */
+  private <E extends Exception> void timedWrite(@NotNull String name, @NotNull VoidMethodBody<E> body) throws E {
+    this.timed(name, () -> this.writing(body));
   }
 
   /**
-   * Execute the given non-{@code SELECT} SQL query in a single transaction.
+   * Run the given code while holding the writer connection’s lock for the current thread.
    * <p>
-   * If the method throws a {@link SQLException}, the transaction is rollbacked.
+   * All methods that write to the database hold this lock for their whole transaction(s),
+   * so that no other thread can commit or roll back their changes, nor write in the middle of them.
+   * The lock is reentrant: write methods may call each other, and {@link #runCoalesced(List)}
+   * holds it across all the operations of its transaction.
    *
-   * @param query The SQL query to execute, may contain several statements.
+   * @param body The code to run.
+   * @return The code’s result.
    */
-  private void executeUpdateQuery(@SQLite @NotNull String query) throws SQLException {
-    try (final var statement = this.connection.createStatement()) {
-      statement.executeUpdate(query);
-    } catch (final SQLException e) {
-      this.connection.rollback();
-      throw this.logThrownError(e);
+  private <T, E extends Exception> T writing(@NotNull MethodBody<T, E> body) throws E {
+    this.connections.lockWriter();
+    try {
+      return body.run();
+    } finally {
+      this.connections.unlockWriter();
+    }
+  }
+
+  /**
+   * Run the given code while holding the writer connection’s lock for the current thread.
+   *
+   * @param body The code to run.
+   * @see #writing(MethodBody)
+   */
+  private <E extends Exception> void writing(@NotNull VoidMethodBody<E> body) throws E {
+    this.writing(() -> {
+      body.run();
+      return null;
+    });
+  }
+
+  /**
+   * Run the given operation on a connection borrowed from the read-only connections pool.
+   * The connection is returned to the pool once the operation is done.
+   *
+   * @param operation The operation to run. It must close all statements it opens.
+   * @return The operation’s result.
+   * @throws SQLException If any database error occurs.
+   */
+  private <T> T read(@NotNull ReadOperation<T> operation) throws SQLException {
+    if (this.isCoalescing()) // Read the uncommitted changes of the previous operations
+      return operation.run(this.connection);
+    final Connection connection = this.connections.acquireReader();
+    try {
+      return operation.run(connection);
+    } finally {
+      this.connections.releaseReader(connection);
     }
-    this.connection.commit();
   }
 
   /**
@@ -1658,8 +4444,12 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   private void rollback() throws DatabaseOperationException {
+    this.lastWriteNanos = System.nanoTime();
     try {
-      this.connection.rollback();
+      if (this.isCoalescing()) // Only discard the changes of the current operation
+        this.connection.rollback(this.operationSavepoint);
+      else
+        this.connection.rollback();
     } catch (final SQLException e) {
       throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
     }
@@ -1671,8 +4461,13 @@ public final class DatabaseConnection implements AutoCloseable {
    * @throws DatabaseOperationException If any database error occurs.
    */
   private void commit() throws DatabaseOperationException {
+    this.lastWriteNanos = System.nanoTime();
     try {
-      this.connection.commit();
+      if (this.isCoalescing()) { // Keep the changes in the enclosing transaction
+        this.connection.releaseSavepoint(this.operationSavepoint);
+        this.operationSavepoint = this.connection.setSavepoint();
+      } else
+        this.connection.commit();
     } catch (final SQLException e) {
       throw this.logThrownError(new DatabaseOperationException(getErrorCode(e), e));
     }
@@ -1747,8 +4542,13 @@ public final class DatabaseConnection implements AutoCloseable {
    * The original file remains unchanged and the converted database is written to a new file.
    * <p>
    * Callbacks will be called on the JavaFX application thread, except for {@link ProgressManager#isCancelled()}.
+   * <p>
+   * Medias are streamed from the original file, their hashes are computed by a pool of worker threads
+   * and they are inserted in chunks of {@link #INSERT_MEDIAS_CHUNK_SIZE} by a single writer thread.
    *
    * @param file            The path to the file to convert.
+   * @param recomputeHashes Whether to compute the hashes of all medias again.
+   *                        If false, only medias without a hash in the original file are hashed.
    * @param onSuccess       A callback invoked when the file has been converted.
    * @param onCancel        A callback invoked when the conversion is cancelled by the user.
    * @param onError         A callback invoked when any error occurs and the conversion is aborted.
@@ -1757,6 +4557,7 @@ public final class DatabaseConnection implements AutoCloseable {
    */
   public static void convertPythonDatabase(
       final @NotNull Path file,
+      boolean recomputeHashes,
       @NotNull Consumer<Path> onSuccess,
       @NotNull Runnable onCancel,
       @NotNull Consumer<DatabaseOperationException> onError,
@@ -1764,7 +4565,7 @@ public final class DatabaseConnection implements AutoCloseable {
   ) {
     new Thread(() -> {
       try {
-        final Optional<Path> path = convertPythonDb(file, progressManager);
+        final Optional<Path> path = convertPythonDb(file, recomputeHashes, progressManager);
         if (path.isPresent())
           Platform.runLater(() -> onSuccess.accept(path.get()));
         else
@@ -1775,9 +4576,20 @@ public final class DatabaseConnection implements AutoCloseable {
     }, "Python DB Converter Thread").start();
   }
 
-  private static Optional<Path> convertPythonDb(
+  /**
+   * Convert a database file created by the Python app to this app’s format.
+   *
+   * @param file            The path to the file to convert.
+   * @param recomputeHashes Whether to compute the hashes of all medias again.
+   * @param progressManager An optional object to notify of the progress and that indicates
+   *                        whether the process should be cancelled.
+   * @return The path to the converted file, or an empty {@link Optional} if the conversion was cancelled.
+   * @throws DatabaseOperationException If any error occurs.
+   */
+  static Optional<Path> convertPythonDb(
       @NotNull Path file,
-      @NotNull ProgressManager progressManager
+      boolean recomputeHashes,
+      ProgressManager progressManager
   ) throws DatabaseOperationException {
     final Path outputPath = file.toAbsolutePath().getParent().resolve("converted-" + file.getFileName());
 
@@ -1807,7 +4619,7 @@ public final class DatabaseConnection implements AutoCloseable {
       final var tags = db.getAllTags().stream()
           .collect(Collectors.toMap(Tag::label, Function.identity()));
 
-      if (!convertMedias(progressManager, conn, db, tags, oldTagIds)) {
+      if (!convertMedias(progressManager, conn, db, tags, oldTagIds, recomputeHashes)) {
         App.logger().info("Conversion cancelled.");
         deleteConvertedFile(outputPath);
         return Optional.empty();
@@ -1823,7 +4635,7 @@ public final class DatabaseConnection implements AutoCloseable {
   }
 
   private static boolean convertTagTypes(
-      @NotNull ProgressManager progressManager,
+      ProgressManager progressManager,
       @NotNull Connection connection,
       @NotNull DatabaseConnection db,
       @NotNull Map<Integer, String> oldTagTypeIds
@@ -1832,10 +4644,11 @@ public final class DatabaseConnection implements AutoCloseable {
          final var resultSet = statement.executeQuery()) {
       final int total = getTableRowCount("tag_types", connection);
       int counter = 0;
-      notifyProgress(progressManager, "progress.converting_python_db.tag_types", total, counter);
+      if (progressManager != null)
+        notifyProgress(progressManager, "progress.converting_python_db.tag_types", total, counter);
       final Set<TagTypeUpdate> updates = new HashSet<>();
       while (resultSet.next()) {
-        if (progressManager.isCancelled())
+        if (progressManager != null && progressManager.isCancelled())
           return false;
         final int id = resultSet.getInt("id");
         final String label = resultSet.getString("label");
@@ -1844,7 +4657,8 @@ public final class DatabaseConnection implements AutoCloseable {
         updates.add(new TagTypeUpdate(0, label, symbol, color));
         oldTagTypeIds.put(id, label);
         counter++;
-        notifyProgress(progressManager, "progress.converting_python_db.tag_types", total, counter);
+        if (progressManager != null)
+          notifyProgress(progressManager, "progress.converting_python_db.tag_types", total, counter);
       }
       db.insertTagTypes(updates);
     }
@@ -1852,7 +4666,7 @@ public final class DatabaseConnection implements AutoCloseable {
   }
 
   private static boolean convertTags(
-      @NotNull ProgressManager progressManager,
+      ProgressManager progressManager,
       @NotNull Connection connection,
       @NotNull DatabaseConnection db,
       @NotNull Map<Integer, String> oldTagIds,
@@ -1863,10 +4677,11 @@ public final class DatabaseConnection implements AutoCloseable {
          final var resultSet = statement.executeQuery()) {
       final int total = getTableRowCount("tags", connection);
       int counter = 0;
-      notifyProgress(progressManager, "progress.converting_python_db.tags", total, counter);
+      if (progressManager != null)
+        notifyProgress(progressManager, "progress.converting_python_db.tags", total, counter);
       final Set<TagUpdate> updates = new HashSet<>();
       while (resultSet.next()) {
-        if (progressManager.isCancelled())
+        if (progressManager != null && progressManager.isCancelled())
           return false;
         final int id = resultSet.getInt("id");
         final String label = resultSet.getString("label");
@@ -1875,49 +4690,176 @@ public final class DatabaseConnection implements AutoCloseable {
         updates.add(new TagUpdate(0, label, typeId != 0 ? tagTypes.get(oldTagTypeIds.get(typeId)) : null, definition));
         oldTagIds.put(id, label);
         counter++;
-        notifyProgress(progressManager, "progress.converting_python_db.tags", total, counter);
+        if (progressManager != null)
+          notifyProgress(progressManager, "progress.converting_python_db.tags", total, counter);
       }
       db.insertTags(updates);
     }
     return true;
   }
 
+  /**
+   * The maximum number of chunks of medias read from a Python database that may wait to be inserted.
+   * Bounds the memory used by the conversion.
+   */
+  private static final int CONVERT_MEDIAS_PENDING_CHUNKS = 2;
+
+  @SQLite
+  private static final String SELECT_PYTHON_MEDIAS_QUERY = """
+      SELECT i.path, i.hash, group_concat(it.tag_id) AS tag_ids
+      FROM images AS i
+      LEFT JOIN image_tag AS it ON it.image_id = i.id
+      GROUP BY i.id
+      ORDER BY i.id
+      """;
+
+  @SQLite
+  private static final String SELECT_PYTHON_MEDIAS_NO_HASH_QUERY = """
+      SELECT i.path, NULL AS hash, group_concat(it.tag_id) AS tag_ids
+      FROM images AS i
+      LEFT JOIN image_tag AS it ON it.image_id = i.id
+      GROUP BY i.id
+      ORDER BY i.id
+      """;
+
+  /**
+   * Convert the medias of a Python database.
+   * <p>
+   * Medias and their tags are read by the calling thread, their hashes and metadata are computed
+   * by a pool of worker threads, then a writer thread inserts them in chunks of {@link #INSERT_MEDIAS_CHUNK_SIZE}, each in its own transaction.
+   * At most {@link #CONVERT_MEDIAS_PENDING_CHUNKS} chunks wait for the writer,
+   * reading is paused until it catches up.
+   */
   private static boolean convertMedias(
-      @NotNull ProgressManager progressManager,
+      ProgressManager progressManager,
       @NotNull Connection connection,
       @NotNull DatabaseConnection db,
       final @NotNull Map<String, Tag> tags,
-      final @NotNull Map<Integer, String> oldTagIds
+      final @NotNull Map<Integer, String> oldTagIds,
+      boolean recomputeHashes
   ) throws SQLException, DatabaseOperationException {
-    try (final var statement = connection.prepareStatement("SELECT id, path FROM images"); // Ignoring "hash" column as we recompute it
-         final var tagsStatement = connection.prepareStatement("SELECT tag_id FROM image_tag WHERE image_id = ?");
+    final int total = getTableRowCount("images", connection);
+    if (progressManager != null)
+      notifyProgress(progressManager, "progress.converting_python_db.images", total, 0);
+    final String query = hasColumn("images", "hash", connection)
+        ? SELECT_PYTHON_MEDIAS_QUERY
+        : SELECT_PYTHON_MEDIAS_NO_HASH_QUERY;
+    // Keep one core for the reader and writer
+    final ExecutorService hashers = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+        newDaemonThreadFactory("Python DB Hasher Thread")
+    );
+    final ExecutorService writer = Executors.newSingleThreadExecutor(newDaemonThreadFactory("Python DB Writer Thread"));
+    final Deque<Future<?>> pendingChunks = new ArrayDeque<>();
+    final AtomicInteger counter = new AtomicInteger();
+    try (final var statement = connection.prepareStatement(query);
          final var resultSet = statement.executeQuery()) {
-      final int total = getTableRowCount("images", connection);
-      int counter = 0;
-      notifyProgress(progressManager, "progress.converting_python_db.images", total, counter);
+      List<Future<ConvertedMedia>> chunk = new ArrayList<>(INSERT_MEDIAS_CHUNK_SIZE);
       while (resultSet.next()) {
-        if (progressManager.isCancelled())
+        if (progressManager != null && progressManager.isCancelled())
           return false;
-        final int id = resultSet.getInt("id");
-        final Path path = Path.of(resultSet.getString("path"));
-        final Optional<Hash> hash = Hash.computeForFile(path);
-        // Fetch associated tags
+        final Path path = Path.of(resultSet.getString("path")).toAbsolutePath();
+        final long oldHash = resultSet.getLong("hash");
+        final boolean hasOldHash = !resultSet.wasNull();
+        final String tagIds = resultSet.getString("tag_ids");
         final Set<ParsedTag> mediaTags = new HashSet<>();
-        tagsStatement.setInt(1, id);
-        try (final var tagsResultSet = tagsStatement.executeQuery()) {
-          while (tagsResultSet.next()) {
-            if (progressManager.isCancelled())
-              return false;
-            final Tag tag = tags.get(oldTagIds.get(tagsResultSet.getInt("tag_id")));
+        if (tagIds != null)
+          for (final String tagId : tagIds.split(",")) {
+            final Tag tag = tags.get(oldTagIds.get(Integer.parseInt(tagId)));
             mediaTags.add(new ParsedTag(tag.type(), tag.label()));
           }
+        final boolean keepHash = hasOldHash && !recomputeHashes;
+        chunk.add(hashers.submit(() -> new ConvertedMedia(
+            new MediaFileUpdate(0, path, keepHash ? Optional.of(new Hash(oldHash)) : Hash.computeForFile(path), mediaTags, Set.of()),
+            MediaMetadata.readFromFile(path).orElse(null)
+        )));
+        if (chunk.size() == INSERT_MEDIAS_CHUNK_SIZE) {
+          while (pendingChunks.size() >= CONVERT_MEDIAS_PENDING_CHUNKS)
+            awaitConvertedChunk(pendingChunks.poll());
+          pendingChunks.add(submitConvertedChunk(writer, db, chunk, progressManager, total, counter));
+          chunk = new ArrayList<>(INSERT_MEDIAS_CHUNK_SIZE);
         }
-        db.insertMedia(new MediaFileUpdate(0, path.toAbsolutePath(), hash, mediaTags, Set.of()));
-        counter++;
-        notifyProgress(progressManager, "progress.converting_python_db.images", total, counter);
+      }
+      if (!chunk.isEmpty())
+        pendingChunks.add(submitConvertedChunk(writer, db, chunk, progressManager, total, counter));
+      while (!pendingChunks.isEmpty())
+        awaitConvertedChunk(pendingChunks.poll());
+    } finally {
+      hashers.shutdownNow();
+      // The writer must be done with the database before it is closed
+      writer.shutdownNow();
+      try {
+        //noinspection ResultOfMethodCallIgnored
+        writer.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
     }
-    return true;
+    return progressManager == null || !progressManager.isCancelled();
+  }
+
+  /**
+   * A media read from a Python database, with its metadata.
+   *
+   * @param update   The media to insert.
+   * @param metadata The media’s metadata, or null if its file could not be read.
+   */
+  private record ConvertedMedia(@NotNull MediaFileUpdate update, MediaMetadata metadata) {
+  }
+
+  /**
+   * Submit a task to the given writer that waits for the hashes and metadata of the given medias then inserts them.
+   */
+  private static Future<?> submitConvertedChunk(
+      @NotNull ExecutorService writer,
+      @NotNull DatabaseConnection db,
+      final @NotNull List<Future<ConvertedMedia>> chunk,
+      ProgressManager progressManager,
+      int total,
+      @NotNull AtomicInteger counter
+  ) {
+    return writer.submit(() -> {
+      final List<MediaFileUpdate> updates = new ArrayList<>(chunk.size());
+      final List<MediaMetadata> metadata = new ArrayList<>(chunk.size());
+      for (final Future<ConvertedMedia> future : chunk) {
+        final ConvertedMedia media = future.get();
+        updates.add(media.update());
+        metadata.add(media.metadata());
+      }
+      db.insertMedias(updates, metadata, updates.size(), null);
+      final int count = counter.addAndGet(updates.size());
+      if (progressManager != null)
+        notifyProgress(progressManager, "progress.converting_python_db.images", total, count);
+      return null;
+    });
+  }
+
+  /**
+   * Wait for the given chunk to be inserted.
+   *
+   * @throws DatabaseOperationException If the chunk could not be inserted.
+   */
+  private static void awaitConvertedChunk(@NotNull Future<?> chunk) throws DatabaseOperationException {
+    try {
+      chunk.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseOperationException(DatabaseErrorCode.UNKNOWN_ERROR, e);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof DatabaseOperationException ex)
+        throw ex;
+      if (e.getCause() instanceof Exception ex)
+        throw new DatabaseOperationException(getErrorCode(ex), ex);
+      throw new DatabaseOperationException(DatabaseErrorCode.UNKNOWN_ERROR, e.getCause());
+    }
+  }
+
+  private static ThreadFactory newDaemonThreadFactory(@NotNull String name) {
+    return runnable -> {
+      final Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   private static void notifyProgress(
@@ -1948,6 +4890,29 @@ public final class DatabaseConnection implements AutoCloseable {
     }
   }
 
+  /**
+   * Indicate whether the given table has a column with the given name.
+   *
+   * @param tableName  The table’s name.
+   * @param columnName The column’s name.
+   * @param connection A database connection.
+   * @return True if the column exists, false otherwise.
+   * @throws SQLException If any database error occurs.
+   */
+  private static boolean hasColumn(
+      @NotNull String tableName,
+      @NotNull String columnName,
+      @NotNull Connection connection
+  ) throws SQLException {
+    try (final var statement = connection.prepareStatement("SELECT 1 FROM pragma_table_info(?) WHERE name = ?")) {
+      statement.setString(1, tableName);
+      statement.setString(2, columnName);
+      try (final var resultSet = statement.executeQuery()) {
+        return resultSet.next();
+      }
+    }
+  }
+
   /**
    * Delete the given converted database file.
    * <p>
@@ -2015,4 +4980,66 @@ public final class DatabaseConnection implements AutoCloseable {
   private interface RowMapper<T> {
     T apply(ResultSet resultSet) throws SQLException;
   }
+
+  /**
+   * The body of a method of this class, run by {@link #timed(String, MethodBody)}
+   * or {@link #writing(MethodBody)}.
+   */
+  @FunctionalInterface
+  private interface MethodBody<T, E extends Exception> {
+    T run() throws E;
+  }
+
+  /**
+   * The body of a method of this class that returns nothing, run by {@link #timed(String, VoidMethodBody)}
+   * or {@link #writing(VoidMethodBody)}.
+   */
+  @FunctionalInterface
+  private interface VoidMethodBody<E extends Exception> {
+    void run() throws E;
+  }
+
+  /**
+   * A task run by {@link #runMaintenance(MaintenanceTask)}.
+   */
+  @FunctionalInterface
+  interface MaintenanceTask<T> {
+    T run() throws DatabaseOperationException;
+  }
+
+  /**
+   * A hook registered by {@link #afterTransaction(TransactionHook)}.
+   */
+  @FunctionalInterface
+  private interface TransactionHook {
+    void onTransactionEnd(boolean committed);
+  }
+
+  /**
+   * A write operation run by {@link #runCoalesced(List)}.
+   */
+  @FunctionalInterface
+  interface CoalescedWrite {
+    void run() throws Exception;
+  }
+
+  @FunctionalInterface
+  private interface ReadOperation<T> {
+    T run(@NotNull Connection connection) throws SQLException;
+  }
+
+  /**
+   * A listener notified of the changes committed to a {@link DatabaseConnection}.
+   *
+   * @see #addChangesListener(ChangesListener)
+   */
+  @FunctionalInterface
+  public interface ChangesListener {
+    /**
+     * Called after some changes have been committed.
+     *
+     * @param changes The committed changes. Never empty.
+     */
+    void onChanges(@NotNull DatabaseChanges changes);
+  }
 }
@@ -127,6 +127,9 @@ public enum DatabaseErrorCode {
   MISSING_FILE_ERROR,
   MISSING_PERMISSIONS_ERROR,
   FILE_ALREADY_EXISTS_ERROR,
+
+  // Library file errors
+  INVALID_LIBRARY_FILE,
   ;
 
   /**
@@ -0,0 +1,193 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+import org.slf4j.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Performs maintenance tasks on a database while the application is idle,
+ * i.e. when nothing has been written to it for {@link #IDLE_DELAY}:
+ * <ul>
+ * <li>{@code ANALYZE} once batch operations have changed at least {@link #ANALYZE_THRESHOLD} rows,
+ * so that the query planner does not work from stale statistics;</li>
+ * <li>{@code PRAGMA optimize} once per idle period;</li>
+ * <li>incremental vacuum of at most {@link #VACUUM_PAGES_PER_STEP} pages per step,
+ * until all unused pages have been returned to the file system.
+ * Steps are run back-to-back as long as the database stays idle.</li>
+ * <li>a scan of the metadata of all medias, {@link #METADATA_SCAN_BATCH_SIZE} medias per check,
+ * that fills in the metadata of medias registered before it was supported and refreshes that of files
+ * modified since it was read. A new scan starts {@link #METADATA_SCAN_PERIOD} after the previous one ended.</li>
+ * </ul>
+ * <p>
+ * Idleness is checked periodically on a background thread, and tasks are run by the writer thread of an
+ * {@link AsyncDatabaseConnection}, so that they never block the UI thread.
+ * The idle delay only avoids slowing down the application while it is in use: tasks take exclusive ownership
+ * of the writer connection and are skipped until the next check if any thread is in the middle of a transaction.
+ * <p>
+ * Media files are read by the background thread, the database is only locked to store their metadata.
+ * <p>
+ * {@code PRAGMA optimize} is also run when the database connection is closed.
+ */
+public final class DatabaseMaintenance implements AutoCloseable {
+  /**
+   * How long the database must not have been written to before maintenance tasks start.
+   */
+  public static final Duration IDLE_DELAY = Duration.ofMinutes(1);
+  /**
+   * How often idleness is checked.
+   */
+  public static final Duration CHECK_PERIOD = Duration.ofSeconds(15);
+  /**
+   * The maximum number of pages freed per incremental vacuum step.
+   */
+  public static final int VACUUM_PAGES_PER_STEP = 256;
+  /**
+   * The number of rows changed by batch operations above which the whole database is analyzed.
+   */
+  public static final long ANALYZE_THRESHOLD = 1000;
+  /**
+   * The number of medias whose metadata is checked per step of a metadata scan.
+   */
+  public static final int METADATA_SCAN_BATCH_SIZE = 500;
+  /**
+   * How long to wait after a metadata scan has checked all medias before starting a new one.
+   */
+  public static final Duration METADATA_SCAN_PERIOD = Duration.ofHours(1);
+
+  private final Logger logger = LoggerFactory.getLogger("DB Maintenance");
+  private final DatabaseConnection db;
+  private final AsyncDatabaseConnection asyncDb;
+  private final long idleDelayNanos;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicBoolean running = new AtomicBoolean();
+  /**
+   * The time of the last write when {@code PRAGMA optimize} was last run. Only accessed by the writer thread.
+   */
+  private long optimizedAfterWrite;
+  /**
+   * The ID of the last media checked by the current metadata scan, 0 if no scan is in progress.
+   * Only accessed by the scheduler thread.
+   */
+  private int metadataScanAfterId;
+  /**
+   * The value of {@link System#nanoTime()} when the last metadata scan ended, null if no scan has ended yet.
+   * Only accessed by the scheduler thread.
+   */
+  private Long metadataScanEndNanos;
+
+  /**
+   * Create and start a maintenance scheduler for the given database.
+   *
+   * @param db      The database to maintain.
+   * @param asyncDb The asynchronous facade of {@code db}, whose writer thread runs the tasks.
+   */
+  public DatabaseMaintenance(@NotNull DatabaseConnection db, @NotNull AsyncDatabaseConnection asyncDb) {
+    this(db, asyncDb, IDLE_DELAY, CHECK_PERIOD);
+  }
+
+  DatabaseMaintenance(
+      @NotNull DatabaseConnection db,
+      @NotNull AsyncDatabaseConnection asyncDb,
+      @NotNull Duration idleDelay,
+      @NotNull Duration checkPeriod
+  ) {
+    this.db = db;
+    this.asyncDb = asyncDb;
+    this.idleDelayNanos = idleDelay.toNanos();
+    this.optimizedAfterWrite = db.lastWriteNanos();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "Database Maintenance Thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final long period = checkPeriod.toMillis();
+    this.scheduler.scheduleWithFixedDelay(this::onTick, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Submit maintenance tasks if the database is idle and no tasks are already pending.
+   */
+  private void onTick() {
+    if (System.nanoTime() - this.db.lastWriteNanos() < this.idleDelayNanos || !this.running.compareAndSet(false, true))
+      return;
+    if (this.metadataScanEndNanos == null
+        || System.nanoTime() - this.metadataScanEndNanos >= METADATA_SCAN_PERIOD.toNanos())
+      try {
+        this.scanMediasMetadata();
+      } catch (final DatabaseOperationException e) {
+        this.logger.error("Media metadata scan failed", e);
+      }
+    this.asyncDb.writeAlone(db -> this.runIdleTasks()).whenComplete((moreWork, error) -> {
+      this.running.set(false);
+      if (error != null)
+        this.logger.error("Database maintenance failed", error);
+      else if (moreWork)
+        try {
+          // Other writes may have been queued in the meantime, they will run before the next step
+          this.scheduler.execute(this::onTick);
+        } catch (final RejectedExecutionException e) {
+          // Closed
+        }
+    });
+  }
+
+  /**
+   * Run the maintenance tasks that are due, unless the writer connection is in use.
+   * Must be called from the writer thread.
+   *
+   * @return True if there may be unused pages left to free.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  boolean runIdleTasks() throws DatabaseOperationException {
+    return this.db.runMaintenance(() -> {
+      final long lastWrite = this.db.lastWriteNanos();
+      if (this.db.batchChangesSinceAnalyze() >= ANALYZE_THRESHOLD)
+        this.db.analyze();
+      if (lastWrite != this.optimizedAfterWrite) {
+        this.db.optimize();
+        this.optimizedAfterWrite = lastWrite;
+      }
+      return this.db.incrementalVacuum(VACUUM_PAGES_PER_STEP) == VACUUM_PAGES_PER_STEP;
+    }).orElse(false);
+  }
+
+  /**
+   * Run the next step of the current metadata scan, starting a new scan if none is in progress:
+   * check the metadata of the next {@link #METADATA_SCAN_BATCH_SIZE} medias and refresh that of medias
+   * that have none or whose file was modified since it was read.
+   * Must be called from the scheduler thread.
+   *
+   * @return True if the scan has checked all medias.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  boolean scanMediasMetadata() throws DatabaseOperationException {
+    final var medias = this.db.getMediasMetadataAfter(this.metadataScanAfterId, METADATA_SCAN_BATCH_SIZE);
+    final Map<Integer, MediaMetadata> refreshed = new HashMap<>();
+    medias.forEach((mediaFile, metadata) -> {
+      if (metadata == null || !metadata.matchesFile(mediaFile.path()))
+        MediaMetadata.readFromFile(mediaFile.path()).ifPresent(m -> refreshed.put(mediaFile.id(), m));
+      this.metadataScanAfterId = mediaFile.id();
+    });
+    final int count = this.db.updateMediasMetadata(refreshed);
+    if (count != 0)
+      this.logger.info("Refreshed the metadata of {} media(s).", count);
+    if (medias.size() < METADATA_SCAN_BATCH_SIZE) {
+      this.metadataScanAfterId = 0;
+      this.metadataScanEndNanos = System.nanoTime();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Stop scheduling maintenance tasks. Tasks already submitted to the writer thread still run.
+   */
+  @Override
+  public void close() {
+    this.scheduler.shutdownNow();
+  }
+}
@@ -0,0 +1,245 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Collects the latency of the public methods of a {@link DatabaseConnection},
+ * and of the SQL statements and custom SQL functions it executes.
+ * <p>
+ * Each call to a public method is timed once, from its start to its end, whether it executed statements
+ * or was served by the caches, through the {@link Operation} returned by {@link #startOperation(String)}.
+ * The getters that only read the tags cache, like {@link DatabaseConnection#getAllTags()}, are not timed:
+ * they are called for each tag when building suggestions and the timing would cost more than the call itself.
+ * Calls made while another one is being timed on the same thread are part of that one.
+ * Statements add the rows they read or changed to the call that is running on their thread.
+ * Statements executed outside any call are timed individually under {@link #INTERNAL_OPERATION}.
+ * <p>
+ * The {@link #SLOW_STATEMENTS_KEPT} slowest statements of the last {@link #SLOW_STATEMENTS_WINDOW}
+ * are kept with their SQL code.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class DatabaseMetrics {
+  /**
+   * The maximum number of slow statements to keep.
+   */
+  public static final int SLOW_STATEMENTS_KEPT = 20;
+  /**
+   * Slow statements older than this are discarded.
+   */
+  public static final Duration SLOW_STATEMENTS_WINDOW = Duration.ofMinutes(10);
+  /**
+   * The SQL code of slow statements is truncated to this length.
+   */
+  public static final int MAX_SQL_LENGTH = 2000;
+  /**
+   * The name of the operation of statements that were not executed by a public method of {@link DatabaseConnection}.
+   */
+  public static final String INTERNAL_OPERATION = "<internal>";
+
+  /**
+   * The call being timed by each thread.
+   */
+  private final ThreadLocal<Operation> currentOperation = new ThreadLocal<>();
+  private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+  private final Map<String, LatencyHistogram> functions = new ConcurrentHashMap<>();
+  /**
+   * Sorted by decreasing duration. Guarded by itself.
+   */
+  private final List<SlowStatement> slowStatements = new ArrayList<>();
+  /**
+   * Statements faster than this value cannot enter the slow statements list until {@link #slowThresholdExpiry}.
+   */
+  private volatile long slowThresholdNanos;
+  /**
+   * The value of {@link System#nanoTime()} when the oldest slow statement expires.
+   */
+  private volatile long slowThresholdExpiry;
+  private volatile boolean enabled = true;
+
+  /**
+   * Indicate whether calls, statements and functions are being recorded.
+   */
+  boolean isEnabled() {
+    return this.enabled;
+  }
+
+  /**
+   * Start or stop recording calls, statements and functions.
+   * The statistics recorded so far are kept.
+   *
+   * @param enabled Whether to record.
+   */
+  void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Start timing a call to a public method of {@link DatabaseConnection}.
+   * The returned object must be closed by the same thread once the call ends.
+   *
+   * @param name The method’s name, {@code <init>} for constructors.
+   * @return The object to close at the end of the call. It does nothing if this object is disabled
+   * or if the current thread is already in a call.
+   */
+  Operation startOperation(@NotNull String name) {
+    if (!this.enabled || this.currentOperation.get() != null)
+      return Operation.NONE;
+    final Operation operation = new Operation(this, name);
+    this.currentOperation.set(operation);
+    return operation;
+  }
+
+  /**
+   * Return the name of the public method of {@link DatabaseConnection} that is being timed on the current thread.
+   *
+   * @return The method’s name, or {@link #INTERNAL_OPERATION} if the current thread is not in any call.
+   */
+  String currentOperation() {
+    final Operation operation = this.currentOperation.get();
+    return operation != null ? operation.name : INTERNAL_OPERATION;
+  }
+
+  /**
+   * Record the execution of a statement.
+   * Its duration is only recorded as a call if it was executed outside any call.
+   *
+   * @param operation The operation that executed the statement, as returned by {@link #currentOperation()}.
+   * @param sql       The statement’s SQL code.
+   * @param nanos     The time spent executing the statement and reading its results.
+   * @param rows      The number of rows read or changed by the statement.
+   */
+  void recordStatement(@NotNull String operation, @NotNull String sql, long nanos, long rows) {
+    final OperationMetrics metrics = this.operationMetrics(operation);
+    if (operation.equals(INTERNAL_OPERATION))
+      metrics.latency.record(nanos);
+    metrics.rows.add(rows);
+    final long now = System.nanoTime();
+    if (nanos >= this.slowThresholdNanos || now - this.slowThresholdExpiry >= 0)
+      this.recordSlowStatement(operation, sql, nanos, rows, now);
+  }
+
+  private OperationMetrics operationMetrics(@NotNull String operation) {
+    final OperationMetrics metrics = this.operations.get(operation);
+    return metrics != null ? metrics : this.operations.computeIfAbsent(operation, k -> new OperationMetrics());
+  }
+
+  private void recordSlowStatement(@NotNull String operation, @NotNull String sql, long nanos, long rows, long now) {
+    synchronized (this.slowStatements) {
+      this.evictOldSlowStatements(now);
+      if (this.slowStatements.size() == SLOW_STATEMENTS_KEPT
+          && this.slowStatements.get(SLOW_STATEMENTS_KEPT - 1).nanos >= nanos)
+        return;
+      if (sql.length() > MAX_SQL_LENGTH)
+        sql = sql.substring(0, MAX_SQL_LENGTH - 1) + "…";
+      final SlowStatement statement = new SlowStatement(operation, sql, nanos, rows, Instant.now(), now);
+      int i = 0;
+      while (i < this.slowStatements.size() && this.slowStatements.get(i).nanos >= nanos)
+        i++;
+      this.slowStatements.add(i, statement);
+      if (this.slowStatements.size() > SLOW_STATEMENTS_KEPT)
+        this.slowStatements.remove(SLOW_STATEMENTS_KEPT);
+      this.updateSlowThreshold(now);
+    }
+  }
+
+  /**
+   * Remove the slow statements that are older than {@link #SLOW_STATEMENTS_WINDOW}. Must hold the list’s lock.
+   */
+  private void evictOldSlowStatements(long now) {
+    if (this.slowStatements.removeIf(s -> now - s.timeNanos >= SLOW_STATEMENTS_WINDOW.toNanos()))
+      this.updateSlowThreshold(now);
+  }
+
+  private void updateSlowThreshold(long now) {
+    if (this.slowStatements.size() < SLOW_STATEMENTS_KEPT) {
+      this.slowThresholdNanos = 0;
+      this.slowThresholdExpiry = now;
+    } else {
+      this.slowThresholdNanos = this.slowStatements.get(SLOW_STATEMENTS_KEPT - 1).nanos;
+      this.slowThresholdExpiry = this.slowStatements.stream()
+          .mapToLong(s -> s.timeNanos)
+          .min()
+          .orElse(now) + SLOW_STATEMENTS_WINDOW.toNanos();
+    }
+  }
+
+  /**
+   * Return the histogram that records the calls to the given custom SQL function.
+   *
+   * @param name The function’s name.
+   * @return The histogram. The same object is returned for the same name.
+   */
+  LatencyHistogram functionHistogram(@NotNull String name) {
+    return this.functions.computeIfAbsent(name, k -> new LatencyHistogram());
+  }
+
+  /**
+   * Return the current statistics.
+   */
+  DatabaseMetricsSnapshot snapshot() {
+    final List<DatabaseMetricsSnapshot.OperationStats> operations = this.operations.entrySet().stream()
+        .map(e -> new DatabaseMetricsSnapshot.OperationStats(
+            e.getKey(), e.getValue().latency.snapshot(), e.getValue().rows.sum()))
+        .sorted(BY_TOTAL_TIME)
+        .toList();
+    final List<DatabaseMetricsSnapshot.OperationStats> functions = this.functions.entrySet().stream()
+        .map(e -> new DatabaseMetricsSnapshot.OperationStats(e.getKey(), e.getValue().snapshot(), 0))
+        .sorted(BY_TOTAL_TIME)
+        .toList();
+    final List<DatabaseMetricsSnapshot.SlowStatement> slowStatements;
+    synchronized (this.slowStatements) {
+      this.evictOldSlowStatements(System.nanoTime());
+      slowStatements = this.slowStatements.stream()
+          .map(s -> new DatabaseMetricsSnapshot.SlowStatement(s.operation, s.sql, s.nanos, s.rows, s.time))
+          .toList();
+    }
+    return new DatabaseMetricsSnapshot(operations, functions, slowStatements);
+  }
+
+  private static final Comparator<DatabaseMetricsSnapshot.OperationStats> BY_TOTAL_TIME =
+      Comparator.comparingLong((DatabaseMetricsSnapshot.OperationStats s) -> s.latency().totalNanos()).reversed();
+
+  /**
+   * A call to a public method of {@link DatabaseConnection} being timed.
+   */
+  static final class Operation implements AutoCloseable {
+    /**
+     * An object that records nothing.
+     */
+    private static final Operation NONE = new Operation(null, INTERNAL_OPERATION);
+
+    private final DatabaseMetrics metrics;
+    private final String name;
+    private final long start = System.nanoTime();
+
+    private Operation(DatabaseMetrics metrics, @NotNull String name) {
+      this.metrics = metrics;
+      this.name = name;
+    }
+
+    /**
+     * Record the duration of this call.
+     */
+    @Override
+    public void close() {
+      if (this.metrics == null)
+        return;
+      this.metrics.currentOperation.remove();
+      this.metrics.operationMetrics(this.name).latency.record(System.nanoTime() - this.start);
+    }
+  }
+
+  private static final class OperationMetrics {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LongAdder rows = new LongAdder();
+  }
+
+  private record SlowStatement(String operation, String sql, long nanos, long rows, Instant time, long timeNanos) {
+  }
+}
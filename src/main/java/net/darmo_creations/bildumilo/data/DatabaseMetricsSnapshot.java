@@ -0,0 +1,55 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.time.*;
+import java.util.*;
+
+/**
+ * Latency statistics of a {@link DatabaseConnection} at some point in time.
+ *
+ * @param operations        The statistics of the SQL statements executed by each public method
+ *                          of {@link DatabaseConnection}, sorted by decreasing total time.
+ * @param functions         The statistics of the calls to each custom SQL function,
+ *                          sorted by decreasing total time.
+ * @param slowestStatements The slowest recent statements, from slowest to fastest.
+ */
+public record DatabaseMetricsSnapshot(
+    @NotNull @Unmodifiable List<OperationStats> operations,
+    @NotNull @Unmodifiable List<OperationStats> functions,
+    @NotNull @Unmodifiable List<SlowStatement> slowestStatements
+) {
+  public DatabaseMetricsSnapshot {
+    operations = List.copyOf(operations);
+    functions = List.copyOf(functions);
+    slowestStatements = List.copyOf(slowestStatements);
+  }
+
+  /**
+   * Statistics of a single operation.
+   *
+   * @param name    The operation’s name.
+   * @param latency The latency of each execution of the operation.
+   * @param rows    The total number of rows read or changed by the operation.
+   */
+  public record OperationStats(@NotNull String name, @NotNull LatencyHistogram.Snapshot latency, long rows) {
+  }
+
+  /**
+   * A statement that took a long time to execute.
+   *
+   * @param operation     The public method of {@link DatabaseConnection} that executed the statement.
+   * @param sql           The statement’s SQL code, truncated to {@link DatabaseMetrics#MAX_SQL_LENGTH} characters.
+   * @param durationNanos The time spent executing the statement and reading its results.
+   * @param rows          The number of rows read or changed by the statement.
+   * @param time          The time the statement completed.
+   */
+  public record SlowStatement(
+      @NotNull String operation,
+      @NotNull String sql,
+      long durationNanos,
+      long rows,
+      @NotNull Instant time
+  ) {
+  }
+}
@@ -0,0 +1,18 @@
+package net.darmo_creations.bildumilo.data;
+
+import jdk.jfr.*;
+
+/**
+ * A Java Flight Recorder event emitted for each transaction, or savepoint, rolled back by a {@link DatabaseConnection}.
+ */
+@Name("net.darmo_creations.bildumilo.DatabaseRollback")
+@Label("Database Rollback")
+@Category({"Bildumilo", "Database"})
+final class DatabaseRollbackEvent extends Event {
+  @Label("Operation")
+  @Description("The public method of DatabaseConnection that rolled back the transaction")
+  String operation;
+
+  @Label("To Savepoint")
+  boolean toSavepoint;
+}
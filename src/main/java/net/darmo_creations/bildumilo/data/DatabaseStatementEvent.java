@@ -0,0 +1,29 @@
+package net.darmo_creations.bildumilo.data;
+
+import jdk.jfr.*;
+
+/**
+ * A Java Flight Recorder event emitted for each SQL statement executed by a {@link DatabaseConnection}.
+ * It lasts from the statement’s execution until its results have been read.
+ */
+@Name("net.darmo_creations.bildumilo.DatabaseStatement")
+@Label("Database Statement")
+@Category({"Bildumilo", "Database"})
+@Description("Execution of an SQL statement, until its results have been read")
+final class DatabaseStatementEvent extends Event {
+  @Label("Operation")
+  @Description("The public method of DatabaseConnection that executed the statement")
+  String operation;
+
+  @Label("SQL")
+  String sql;
+
+  @Label("Rows")
+  @Description("The number of rows read or changed by the statement")
+  long rows;
+
+  @Label("Execution Time")
+  @Description("The time spent in the database, excluding the processing of rows by the caller")
+  @Timespan
+  long executionTime;
+}
@@ -0,0 +1,33 @@
+package net.darmo_creations.bildumilo.data;
+
+/**
+ * Statistics about the storage of a {@link DatabaseConnection}’s file.
+ *
+ * @param pageSize          The size of a database page, in bytes.
+ * @param pageCount         The total number of pages in the file.
+ * @param freePages         The number of unused pages, left by deleted data.
+ * @param incrementalVacuum Whether unused pages can be reclaimed incrementally.
+ *                          If false, only a full {@code VACUUM} can shrink the file.
+ */
+public record DatabaseStorageStats(long pageSize, long pageCount, long freePages, boolean incrementalVacuum) {
+  /**
+   * The total size of the database file, in bytes.
+   */
+  public long fileSize() {
+    return this.pageSize * this.pageCount;
+  }
+
+  /**
+   * The size of the unused pages, in bytes.
+   */
+  public long freeSize() {
+    return this.pageSize * this.freePages;
+  }
+
+  /**
+   * The ratio of unused pages over all pages, between 0 and 1.
+   */
+  public double freeRatio() {
+    return this.pageCount == 0 ? 0 : (double) this.freePages / this.pageCount;
+  }
+}
@@ -0,0 +1,396 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A {@link Connection} that wraps the statements it creates in {@link InstrumentedStatement}s
+ * and records its commits and rollbacks.
+ *
+ * @see InstrumentedConnections
+ */
+final class InstrumentedConnection implements Connection {
+  private final Connection connection;
+  private final DatabaseMetrics metrics;
+
+  InstrumentedConnection(@NotNull Connection connection, @NotNull DatabaseMetrics metrics) {
+    this.connection = connection;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    return new InstrumentedStatement(this.connection.createStatement(), this, this.metrics);
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+    return new InstrumentedStatement(
+        this.connection.createStatement(resultSetType, resultSetConcurrency), this, this.metrics);
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+      throws SQLException {
+    return new InstrumentedStatement(
+        this.connection.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability),
+        this,
+        this.metrics
+    );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    return new InstrumentedPreparedStatement(this.connection.prepareStatement(sql), sql, this, this.metrics);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    return new InstrumentedPreparedStatement(
+        this.connection.prepareStatement(sql, resultSetType, resultSetConcurrency), sql, this, this.metrics);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(
+      String sql,
+      int resultSetType,
+      int resultSetConcurrency,
+      int resultSetHoldability
+  ) throws SQLException {
+    return new InstrumentedPreparedStatement(
+        this.connection.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+        sql,
+        this,
+        this.metrics
+    );
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    return new InstrumentedPreparedStatement(
+        this.connection.prepareStatement(sql, autoGeneratedKeys), sql, this, this.metrics);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    return new InstrumentedPreparedStatement(
+        this.connection.prepareStatement(sql, columnIndexes), sql, this, this.metrics);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    return new InstrumentedPreparedStatement(
+        this.connection.prepareStatement(sql, columnNames), sql, this, this.metrics);
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    final DatabaseCommitEvent event = new DatabaseCommitEvent();
+    final boolean recorded = this.metrics.isEnabled();
+    if (!recorded && !event.isEnabled()) {
+      this.connection.commit();
+      return;
+    }
+    final String operation = this.metrics.currentOperation();
+    event.begin();
+    final long start = System.nanoTime();
+    try {
+      this.connection.commit();
+    } finally {
+      if (recorded)
+        this.metrics.recordStatement(operation, "COMMIT", System.nanoTime() - start, 0);
+      if (event.shouldCommit()) {
+        event.operation = operation;
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    this.rollback(null);
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException {
+    final DatabaseRollbackEvent event = new DatabaseRollbackEvent();
+    final boolean recorded = this.metrics.isEnabled();
+    if (!recorded && !event.isEnabled()) {
+      this.forwardRollback(savepoint);
+      return;
+    }
+    final String operation = this.metrics.currentOperation();
+    final boolean toSavepoint = savepoint != null;
+    event.begin();
+    final long start = System.nanoTime();
+    try {
+      this.forwardRollback(savepoint);
+    } finally {
+      if (recorded)
+        this.metrics.recordStatement(
+            operation, toSavepoint ? "ROLLBACK TO SAVEPOINT" : "ROLLBACK", System.nanoTime() - start, 0);
+      if (event.shouldCommit()) {
+        event.operation = operation;
+        event.toSavepoint = toSavepoint;
+        event.commit();
+      }
+    }
+  }
+
+  private void forwardRollback(Savepoint savepoint) throws SQLException {
+    if (savepoint != null)
+      this.connection.rollback(savepoint);
+    else
+      this.connection.rollback();
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    return this.connection.prepareCall(sql);
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException {
+    return this.connection.nativeSQL(sql);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    this.connection.setAutoCommit(autoCommit);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    return this.connection.getAutoCommit();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    this.connection.close();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return this.connection.isClosed();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    return this.connection.getMetaData();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    this.connection.setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    return this.connection.isReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    this.connection.setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    return this.connection.getCatalog();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    this.connection.setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    return this.connection.getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return this.connection.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    this.connection.clearWarnings();
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+    return this.connection.prepareCall(sql, resultSetType, resultSetConcurrency);
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    return this.connection.getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    this.connection.setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException {
+    this.connection.setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    return this.connection.getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    return this.connection.setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException {
+    return this.connection.setSavepoint(name);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    this.connection.releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public CallableStatement prepareCall(
+      String sql,
+      int resultSetType,
+      int resultSetConcurrency,
+      int resultSetHoldability
+  ) throws SQLException {
+    return this.connection.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    return this.connection.createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    return this.connection.createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    return this.connection.createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    return this.connection.createSQLXML();
+  }
+
+  @Override
+  public boolean isValid(int timeout) throws SQLException {
+    return this.connection.isValid(timeout);
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    this.connection.setClientInfo(name, value);
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    this.connection.setClientInfo(properties);
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException {
+    return this.connection.getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    return this.connection.getClientInfo();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    return this.connection.createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    return this.connection.createStruct(typeName, attributes);
+  }
+
+  @Override
+  public void setSchema(String schema) throws SQLException {
+    this.connection.setSchema(schema);
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    return this.connection.getSchema();
+  }
+
+  @Override
+  public void abort(Executor executor) throws SQLException {
+    this.connection.abort(executor);
+  }
+
+  @Override
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    this.connection.setNetworkTimeout(executor, milliseconds);
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException {
+    return this.connection.getNetworkTimeout();
+  }
+
+  @Override
+  public void beginRequest() throws SQLException {
+    this.connection.beginRequest();
+  }
+
+  @Override
+  public void endRequest() throws SQLException {
+    this.connection.endRequest();
+  }
+
+  @Override
+  public boolean setShardingKeyIfValid(ShardingKey shardingKey, ShardingKey superShardingKey, int timeout)
+      throws SQLException {
+    return this.connection.setShardingKeyIfValid(shardingKey, superShardingKey, timeout);
+  }
+
+  @Override
+  public boolean setShardingKeyIfValid(ShardingKey shardingKey, int timeout) throws SQLException {
+    return this.connection.setShardingKeyIfValid(shardingKey, timeout);
+  }
+
+  @Override
+  public void setShardingKey(ShardingKey shardingKey, ShardingKey superShardingKey) throws SQLException {
+    this.connection.setShardingKey(shardingKey, superShardingKey);
+  }
+
+  @Override
+  public void setShardingKey(ShardingKey shardingKey) throws SQLException {
+    this.connection.setShardingKey(shardingKey);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return this.connection.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return this.connection.isWrapperFor(iface);
+  }
+}
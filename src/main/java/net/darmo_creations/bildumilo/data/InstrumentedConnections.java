@@ -0,0 +1,121 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.sql.*;
+
+/**
+ * Wraps JDBC connections so that every statement they execute is recorded in a {@link DatabaseMetrics} object
+ * and emits a {@link DatabaseStatementEvent}, and every commit and rollback a {@link DatabaseCommitEvent}
+ * or {@link DatabaseRollbackEvent}.
+ * <p>
+ * The duration of a query covers its execution and the reading of all its rows,
+ * but not the time spent by the caller between two rows.
+ * It is recorded once its result set has been read entirely or closed,
+ * or when its statement is executed again or closed.
+ * <p>
+ * Wrappers are plain delegating classes: only the methods that execute statements, commit or roll back,
+ * and {@link ResultSet#next()} and {@link ResultSet#close()} do more than forwarding the call.
+ * While the metrics object is disabled and no Flight Recorder event is enabled, they only forward calls too.
+ */
+final class InstrumentedConnections {
+  /**
+   * Wrap the given connection.
+   *
+   * @param connection The connection to wrap.
+   * @param metrics    The object to record statements into.
+   * @return A connection that forwards all calls to {@code connection}.
+   */
+  static Connection wrap(@NotNull Connection connection, @NotNull DatabaseMetrics metrics) {
+    return new InstrumentedConnection(connection, metrics);
+  }
+
+  /**
+   * The execution of a single statement.
+   */
+  static final class Execution {
+    private final DatabaseMetrics metrics;
+    private final boolean recorded;
+    private final String operation;
+    private final String sql;
+    private final DatabaseStatementEvent event;
+    private long nanos;
+    private long rows;
+    private boolean finished;
+
+    /**
+     * Start recording the execution of a statement.
+     *
+     * @param metrics The object to record the statement into.
+     * @param sql     The statement’s SQL code.
+     * @return The execution, or null if it would be neither recorded nor reported to the Flight Recorder.
+     */
+    static Execution start(@NotNull DatabaseMetrics metrics, @NotNull String sql) {
+      final DatabaseStatementEvent event = new DatabaseStatementEvent();
+      final boolean recorded = metrics.isEnabled();
+      if (!recorded && !event.isEnabled())
+        return null;
+      return new Execution(metrics, recorded, sql, event);
+    }
+
+    private Execution(
+        @NotNull DatabaseMetrics metrics,
+        boolean recorded,
+        @NotNull String sql,
+        @NotNull DatabaseStatementEvent event
+    ) {
+      this.metrics = metrics;
+      this.recorded = recorded;
+      this.operation = metrics.currentOperation();
+      this.sql = sql;
+      this.event = event;
+      this.event.begin();
+    }
+
+    /**
+     * Call the given action and add its duration to this execution’s.
+     */
+    <T> T time(@NotNull SqlCall<T> call) throws SQLException {
+      final long start = System.nanoTime();
+      try {
+        return call.call();
+      } finally {
+        this.addTime(System.nanoTime() - start);
+      }
+    }
+
+    void addTime(long nanos) {
+      this.nanos += nanos;
+    }
+
+    void addRows(long rows) {
+      this.rows += Math.max(0, rows);
+    }
+
+    /**
+     * Record this execution. Subsequent calls do nothing.
+     */
+    void finish() {
+      if (this.finished)
+        return;
+      this.finished = true;
+      if (this.recorded)
+        this.metrics.recordStatement(this.operation, this.sql, this.nanos, this.rows);
+      if (this.event.shouldCommit()) {
+        this.event.operation = this.operation;
+        this.event.sql = this.sql;
+        this.event.rows = this.rows;
+        this.event.executionTime = this.nanos;
+        this.event.commit();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  interface SqlCall<T> {
+    T call() throws SQLException;
+  }
+
+  private InstrumentedConnections() {
+  }
+}
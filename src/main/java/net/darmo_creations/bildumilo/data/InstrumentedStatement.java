@@ -0,0 +1,391 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.sql.*;
+
+/**
+ * A {@link Statement} that records the statements it executes.
+ * Statements are not thread-safe, neither is this class.
+ *
+ * @see InstrumentedConnections
+ */
+class InstrumentedStatement implements Statement {
+  private final Statement statement;
+  /**
+   * The SQL code of prepared statements, null for plain statements.
+   */
+  final String sql;
+  private final Connection connection;
+  private final DatabaseMetrics metrics;
+  /**
+   * The query whose result set has not been read entirely nor closed yet.
+   */
+  private InstrumentedConnections.Execution pendingQuery;
+
+  InstrumentedStatement(
+      @NotNull Statement statement,
+      @NotNull Connection connection,
+      @NotNull DatabaseMetrics metrics
+  ) {
+    this(statement, null, connection, metrics);
+  }
+
+  InstrumentedStatement(
+      @NotNull Statement statement,
+      String sql,
+      @NotNull Connection connection,
+      @NotNull DatabaseMetrics metrics
+  ) {
+    this.statement = statement;
+    this.sql = sql;
+    this.connection = connection;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Execute a query and wrap its result set so that the rows read from it are recorded.
+   *
+   * @param sql  The query’s SQL code.
+   * @param call The call that executes the query.
+   * @return The query’s result set.
+   */
+  ResultSet timeQuery(@NotNull String sql, @NotNull InstrumentedConnections.SqlCall<ResultSet> call)
+      throws SQLException {
+    this.finishPendingQuery();
+    final var execution = InstrumentedConnections.Execution.start(this.metrics, sql);
+    if (execution == null)
+      return call.call();
+    final ResultSet resultSet;
+    try {
+      resultSet = execution.time(call);
+    } catch (final Throwable e) {
+      execution.finish();
+      throw e;
+    }
+    this.pendingQuery = execution;
+    return new InstrumentedResultSet(resultSet, this, execution);
+  }
+
+  /**
+   * Execute a statement and record the number of rows it changed.
+   *
+   * @param sql  The statement’s SQL code.
+   * @param call The call that executes the statement.
+   * @return The call’s result.
+   */
+  <T> T timeExecution(@NotNull String sql, @NotNull InstrumentedConnections.SqlCall<T> call) throws SQLException {
+    this.finishPendingQuery();
+    final var execution = InstrumentedConnections.Execution.start(this.metrics, sql);
+    if (execution == null)
+      return call.call();
+    try {
+      final T result = execution.time(call);
+      if (result instanceof Number count)
+        execution.addRows(count.longValue());
+      else if (Boolean.FALSE.equals(result)) // execute() without a result set
+        execution.addRows(this.statement.getUpdateCount());
+      else if (result instanceof int[] counts)
+        for (final int count : counts)
+          execution.addRows(count);
+      else if (result instanceof long[] counts)
+        for (final long count : counts)
+          execution.addRows(count);
+      return result;
+    } finally {
+      execution.finish();
+    }
+  }
+
+  private void finishPendingQuery() {
+    if (this.pendingQuery != null) {
+      this.pendingQuery.finish();
+      this.pendingQuery = null;
+    }
+  }
+
+  private String batchSql() {
+    return this.sql != null ? this.sql : "<batch>";
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    return this.timeQuery(sql, () -> this.statement.executeQuery(sql));
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeUpdate(sql));
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeUpdate(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeUpdate(sql, columnIndexes));
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeUpdate(sql, columnNames));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeLargeUpdate(sql));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeLargeUpdate(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeLargeUpdate(sql, columnIndexes));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.executeLargeUpdate(sql, columnNames));
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.execute(sql));
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.execute(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.execute(sql, columnIndexes));
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    return this.timeExecution(sql, () -> this.statement.execute(sql, columnNames));
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    return this.timeExecution(this.batchSql(), this.statement::executeBatch);
+  }
+
+  @Override
+  public long[] executeLargeBatch() throws SQLException {
+    return this.timeExecution(this.batchSql(), this.statement::executeLargeBatch);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    this.finishPendingQuery();
+    this.statement.close();
+  }
+
+  @Override
+  public Connection getConnection() {
+    return this.connection;
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return this.statement.getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    this.statement.setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return this.statement.getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    this.statement.setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    this.statement.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return this.statement.getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    this.statement.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    this.statement.cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return this.statement.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    this.statement.clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    this.statement.setCursorName(name);
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return this.statement.getResultSet();
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return this.statement.getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return this.statement.getMoreResults();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    this.statement.setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return this.statement.getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    this.statement.setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return this.statement.getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return this.statement.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return this.statement.getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    this.statement.addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    this.statement.clearBatch();
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    return this.statement.getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return this.statement.getGeneratedKeys();
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return this.statement.getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return this.statement.isClosed();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    this.statement.setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return this.statement.isPoolable();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    this.statement.closeOnCompletion();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return this.statement.isCloseOnCompletion();
+  }
+
+  @Override
+  public long getLargeUpdateCount() throws SQLException {
+    return this.statement.getLargeUpdateCount();
+  }
+
+  @Override
+  public void setLargeMaxRows(long max) throws SQLException {
+    this.statement.setLargeMaxRows(max);
+  }
+
+  @Override
+  public long getLargeMaxRows() throws SQLException {
+    return this.statement.getLargeMaxRows();
+  }
+
+  @Override
+  public String enquoteLiteral(String val) throws SQLException {
+    return this.statement.enquoteLiteral(val);
+  }
+
+  @Override
+  public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+    return this.statement.enquoteIdentifier(identifier, alwaysQuote);
+  }
+
+  @Override
+  public boolean isSimpleIdentifier(String identifier) throws SQLException {
+    return this.statement.isSimpleIdentifier(identifier);
+  }
+
+  @Override
+  public String enquoteNCharLiteral(String val) throws SQLException {
+    return this.statement.enquoteNCharLiteral(val);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return this.statement.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return this.statement.isWrapperFor(iface);
+  }
+}
@@ -0,0 +1,126 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, with a fixed memory footprint.
+ * <p>
+ * Like HdrHistogram, values are counted in log-linear buckets: each power of two is split into
+ * {@link #SUB_BUCKETS} / 2 buckets of equal width, so that the relative error of any reported value
+ * is below 1 / ({@link #SUB_BUCKETS} / 2), about 6%, whatever its magnitude.
+ * Values below {@link #SUB_BUCKETS} are counted exactly.
+ * <p>
+ * Recording a value only costs a few arithmetic and atomic operations.
+ * Values may be recorded from any thread, concurrently with {@link #snapshot()}.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  /**
+   * The number of exact values, and twice the number of buckets per power of two above them.
+   */
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos The duration in nanoseconds. Negative values are counted as 0.
+   */
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    this.counts.incrementAndGet(bucketIndex(nanos));
+    this.totalNanos.add(nanos);
+    long max = this.maxNanos.get();
+    while (nanos > max && !this.maxNanos.compareAndSet(max, nanos))
+      max = this.maxNanos.get();
+  }
+
+  /**
+   * Return the current statistics of this histogram. Values recorded while the snapshot is taken
+   * may or may not be included.
+   */
+  @Contract(pure = true, value = "-> new")
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = this.counts.get(i);
+      count += counts[i];
+    }
+    return new Snapshot(
+        count,
+        this.totalNanos.sum(),
+        this.maxNanos.get(),
+        valueAtPercentile(counts, count, 50),
+        valueAtPercentile(counts, count, 90),
+        valueAtPercentile(counts, count, 99)
+    );
+  }
+
+  /**
+   * Return the highest value of the bucket that contains the value at the given percentile.
+   */
+  private static long valueAtPercentile(final long @NotNull [] counts, long total, double percentile) {
+    if (total == 0)
+      return 0;
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long count = 0;
+    for (int i = 0; i < counts.length; i++) {
+      count += counts[i];
+      if (count >= rank)
+        return bucketUpperBound(i);
+    }
+    return bucketUpperBound(counts.length - 1);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    // Keep the SUB_BUCKET_BITS most significant bits of the value
+    final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS)
+      return index;
+    final int shift = index / HALF_SUB_BUCKETS - 1;
+    final long subBucket = index - (long) shift * HALF_SUB_BUCKETS;
+    final long upperBound = ((subBucket + 1) << shift) - 1;
+    return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+  }
+
+  /**
+   * The statistics of a {@link LatencyHistogram} at some point in time.
+   *
+   * @param count      The number of recorded values.
+   * @param totalNanos The sum of all recorded values.
+   * @param maxNanos   The highest recorded value.
+   * @param p50Nanos   The median of recorded values.
+   * @param p90Nanos   The 90th percentile of recorded values.
+   * @param p99Nanos   The 99th percentile of recorded values.
+   */
+  public record Snapshot(
+      long count,
+      long totalNanos,
+      long maxNanos,
+      long p50Nanos,
+      long p90Nanos,
+      long p99Nanos
+  ) {
+    /**
+     * The mean of recorded values, or 0 if there are none.
+     */
+    public long meanNanos() {
+      return this.count == 0 ? 0 : this.totalNanos / this.count;
+    }
+  }
+}
@@ -0,0 +1,379 @@
+package net.darmo_creations.bildumilo.data;
+
+import com.google.gson.*;
+import org.jetbrains.annotations.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Reads and writes library files, that hold the content of a database in a portable format.
+ * <p>
+ * A library file is a gzip-compressed JSON Lines file: each line is a JSON object whose {@code kind}
+ * property indicates the type of the entry. The first line is always a {@link Header}, followed by
+ * all {@link TagTypeEntry}, {@link TagEntry}, {@link SavedQueryEntry} and {@link BatchEntry} lines,
+ * then all {@link MediaEntry} lines. Entries reference each other through the IDs they had in the exported database,
+ * so that medias can be read one at a time once all tags are known.
+ */
+final class LibraryFile {
+  /**
+   * The value of the {@code format} property of headers.
+   */
+  static final String FORMAT = "bildumilo-library";
+  /**
+   * The current version of the format.
+   */
+  static final int VERSION = 1;
+
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+  /**
+   * An entry of a library file.
+   */
+  sealed interface Entry permits Header, TagTypeEntry, TagEntry, SavedQueryEntry, BatchEntry, MediaEntry {
+  }
+
+  /**
+   * The first entry of a library file.
+   *
+   * @param version     The version of the file’s format.
+   * @param mediasCount The number of medias in the file.
+   */
+  record Header(int version, int mediasCount) implements Entry {
+  }
+
+  /**
+   * A tag type.
+   *
+   * @param id     The tag type’s ID in the exported database.
+   * @param label  The tag type’s label.
+   * @param symbol The tag type’s symbol.
+   * @param color  The tag type’s color.
+   */
+  record TagTypeEntry(int id, @NotNull String label, char symbol, int color) implements Entry {
+  }
+
+  /**
+   * A tag.
+   *
+   * @param id         The tag’s ID in the exported database.
+   * @param label      The tag’s label.
+   * @param typeId     The ID of the tag’s type in the exported database, or null if it has none.
+   * @param definition The tag’s definition, or null if it has none.
+   */
+  record TagEntry(int id, @NotNull String label, @Nullable Integer typeId, @Nullable String definition)
+      implements Entry {
+  }
+
+  /**
+   * A saved query. Saved queries appear in their saved order.
+   *
+   * @param query The saved query.
+   */
+  record SavedQueryEntry(@NotNull SavedQuery query) implements Entry {
+  }
+
+  /**
+   * A saved batch of operations, in their serialized form.
+   *
+   * @param name       The batch’s name.
+   * @param operations The batch’s operations, in order.
+   */
+  record BatchEntry(@NotNull String name, @NotNull List<SerializedOperation> operations) implements Entry {
+  }
+
+  /**
+   * An operation of a {@link BatchEntry}, as stored in the database.
+   */
+  record SerializedOperation(
+      @NotNull String type,
+      @Nullable String data,
+      @Nullable String conditionType,
+      @Nullable String conditionData
+  ) {
+  }
+
+  /**
+   * A media.
+   *
+   * @param path     The media’s path.
+   * @param hash     The media’s hash, or null if it has none.
+   * @param metadata The media’s metadata, or null if they are unknown.
+   * @param tagIds   The IDs of the media’s tags in the exported database.
+   */
+  record MediaEntry(@NotNull Path path, @Nullable Hash hash, @Nullable MediaMetadata metadata, int @NotNull [] tagIds)
+      implements Entry {
+  }
+
+  /**
+   * Writes entries to a library file.
+   */
+  static final class Writer implements Closeable {
+    private final BufferedWriter writer;
+
+    /**
+     * Create or overwrite the given library file.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file could not be created.
+     */
+    Writer(@NotNull Path file) throws IOException {
+      this.writer = new BufferedWriter(new OutputStreamWriter(
+          new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the given entry on its own line.
+     *
+     * @param entry The entry to write.
+     * @throws IOException If any IO error occurs.
+     */
+    void write(@NotNull Entry entry) throws IOException {
+      GSON.toJson(toJson(entry), this.writer);
+      this.writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.writer.close();
+    }
+  }
+
+  /**
+   * Reads the entries of a library file one at a time.
+   */
+  static final class Reader implements Closeable {
+    private final BufferedReader reader;
+
+    /**
+     * Open the given library file.
+     *
+     * @param file The file to read.
+     * @throws IOException If the file could not be opened or is not gzip-compressed.
+     */
+    Reader(@NotNull Path file) throws IOException {
+      this.reader = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read the next entry.
+     *
+     * @return The entry or null if the end of the file has been reached.
+     * @throws IOException        If any IO error occurs.
+     * @throws JsonParseException If the line is not a valid entry.
+     */
+    @Nullable
+    Entry next() throws IOException {
+      String line;
+      do {
+        line = this.reader.readLine();
+        if (line == null)
+          return null;
+      } while (line.isBlank());
+      final JsonElement element = JsonParser.parseString(line);
+      if (!element.isJsonObject())
+        throw new JsonParseException("Entry is not an object");
+      return fromJson(element.getAsJsonObject());
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.reader.close();
+    }
+  }
+
+  private static JsonObject toJson(@NotNull Entry entry) {
+    final JsonObject json = new JsonObject();
+    if (entry instanceof Header header) {
+      json.addProperty("kind", "header");
+      json.addProperty("format", FORMAT);
+      json.addProperty("version", header.version());
+      json.addProperty("medias", header.mediasCount());
+    } else if (entry instanceof TagTypeEntry tagType) {
+      json.addProperty("kind", "tag_type");
+      json.addProperty("id", tagType.id());
+      json.addProperty("label", tagType.label());
+      json.addProperty("symbol", String.valueOf(tagType.symbol()));
+      json.addProperty("color", tagType.color());
+    } else if (entry instanceof TagEntry tag) {
+      json.addProperty("kind", "tag");
+      json.addProperty("id", tag.id());
+      json.addProperty("label", tag.label());
+      if (tag.typeId() != null)
+        json.addProperty("type_id", tag.typeId());
+      if (tag.definition() != null)
+        json.addProperty("definition", tag.definition());
+    } else if (entry instanceof SavedQueryEntry savedQuery) {
+      json.addProperty("kind", "saved_query");
+      json.addProperty("name", savedQuery.query().name());
+      json.addProperty("query", savedQuery.query().query());
+    } else if (entry instanceof BatchEntry batch) {
+      json.addProperty("kind", "batch");
+      json.addProperty("name", batch.name());
+      final JsonArray operations = new JsonArray();
+      for (final SerializedOperation operation : batch.operations()) {
+        final JsonObject operationJson = new JsonObject();
+        operationJson.addProperty("type", operation.type());
+        if (operation.data() != null)
+          operationJson.addProperty("data", operation.data());
+        if (operation.conditionType() != null)
+          operationJson.addProperty("condition_type", operation.conditionType());
+        if (operation.conditionData() != null)
+          operationJson.addProperty("condition_data", operation.conditionData());
+        operations.add(operationJson);
+      }
+      json.add("operations", operations);
+    } else if (entry instanceof MediaEntry media) {
+      json.addProperty("kind", "media");
+      json.addProperty("path", media.path().toString());
+      if (media.hash() != null)
+        json.addProperty("hash", media.hash().bytes());
+      final MediaMetadata metadata = media.metadata();
+      if (metadata != null) {
+        json.addProperty("size", metadata.size());
+        if (metadata.width() != null)
+          json.addProperty("width", metadata.width());
+        if (metadata.height() != null)
+          json.addProperty("height", metadata.height());
+        if (metadata.duration() != null)
+          json.addProperty("duration", metadata.duration());
+        json.addProperty("mtime", metadata.lastModified());
+      }
+      final JsonArray tagIds = new JsonArray(media.tagIds().length);
+      for (final int tagId : media.tagIds())
+        tagIds.add(tagId);
+      json.add("tags", tagIds);
+    }
+    return json;
+  }
+
+  private static Entry fromJson(@NotNull JsonObject json) {
+    final String kind = getString(json, "kind");
+    return switch (kind) {
+      case "header" -> {
+        if (!FORMAT.equals(getString(json, "format")))
+          throw new JsonParseException("Not a library file");
+        yield new Header(getNumber(json, "version").intValue(), getNumber(json, "medias").intValue());
+      }
+      case "tag_type" -> {
+        final String symbol = getString(json, "symbol");
+        if (symbol.length() != 1)
+          throw new JsonParseException("Invalid tag type symbol: " + symbol);
+        yield new TagTypeEntry(
+            getNumber(json, "id").intValue(),
+            getString(json, "label"),
+            symbol.charAt(0),
+            getNumber(json, "color").intValue()
+        );
+      }
+      case "tag" -> {
+        final Number typeId = getOptionalNumber(json, "type_id");
+        yield new TagEntry(
+            getNumber(json, "id").intValue(),
+            getString(json, "label"),
+            typeId != null ? typeId.intValue() : null,
+            getOptionalString(json, "definition")
+        );
+      }
+      case "saved_query" -> new SavedQueryEntry(new SavedQuery(getString(json, "name"), getString(json, "query")));
+      case "batch" -> {
+        final List<SerializedOperation> operations = new ArrayList<>();
+        for (final JsonElement element : getArray(json, "operations")) {
+          if (!element.isJsonObject())
+            throw new JsonParseException("Operation is not an object");
+          final JsonObject operation = element.getAsJsonObject();
+          operations.add(new SerializedOperation(
+              getString(operation, "type"),
+              getOptionalString(operation, "data"),
+              getOptionalString(operation, "condition_type"),
+              getOptionalString(operation, "condition_data")
+          ));
+        }
+        yield new BatchEntry(getString(json, "name"), operations);
+      }
+      case "media" -> {
+        final Number hash = getOptionalNumber(json, "hash");
+        final Number size = getOptionalNumber(json, "size");
+        final Number mtime = getOptionalNumber(json, "mtime");
+        final MediaMetadata metadata;
+        if (size != null && mtime != null) {
+          final Number width = getOptionalNumber(json, "width");
+          final Number height = getOptionalNumber(json, "height");
+          final Number duration = getOptionalNumber(json, "duration");
+          metadata = new MediaMetadata(
+              size.longValue(),
+              width != null ? width.intValue() : null,
+              height != null ? height.intValue() : null,
+              duration != null ? duration.doubleValue() : null,
+              mtime.longValue()
+          );
+        } else
+          metadata = null;
+        final JsonArray tagsJson = getArray(json, "tags");
+        final int[] tagIds = new int[tagsJson.size()];
+        for (int i = 0; i < tagIds.length; i++)
+          tagIds[i] = getNumber(tagsJson.get(i), "tags").intValue();
+        final Path path;
+        try {
+          path = Path.of(getString(json, "path"));
+        } catch (final InvalidPathException e) {
+          throw new JsonParseException(e);
+        }
+        yield new MediaEntry(path, hash != null ? new Hash(hash.longValue()) : null, metadata, tagIds);
+      }
+      default -> throw new JsonParseException("Unknown entry kind: " + kind);
+    };
+  }
+
+  private static String getString(@NotNull JsonObject json, @NotNull String key) {
+    final String value = getOptionalString(json, key);
+    if (value == null)
+      throw new JsonParseException("Missing property: " + key);
+    return value;
+  }
+
+  @Nullable
+  private static String getOptionalString(@NotNull JsonObject json, @NotNull String key) {
+    final JsonElement element = json.get(key);
+    if (element == null || element.isJsonNull())
+      return null;
+    if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isString())
+      throw new JsonParseException("Property is not a string: " + key);
+    return element.getAsString();
+  }
+
+  private static Number getNumber(@NotNull JsonObject json, @NotNull String key) {
+    final Number value = getOptionalNumber(json, key);
+    if (value == null)
+      throw new JsonParseException("Missing property: " + key);
+    return value;
+  }
+
+  @Nullable
+  private static Number getOptionalNumber(@NotNull JsonObject json, @NotNull String key) {
+    final JsonElement element = json.get(key);
+    if (element == null || element.isJsonNull())
+      return null;
+    return getNumber(element, key);
+  }
+
+  private static Number getNumber(@NotNull JsonElement element, @NotNull String key) {
+    if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isNumber())
+      throw new JsonParseException("Property is not a number: " + key);
+    return element.getAsNumber();
+  }
+
+  private static JsonArray getArray(@NotNull JsonObject json, @NotNull String key) {
+    final JsonElement element = json.get(key);
+    if (element == null || !element.isJsonArray())
+      throw new JsonParseException("Property is not an array: " + key);
+    return element.getAsJsonArray();
+  }
+
+  private LibraryFile() {
+  }
+}
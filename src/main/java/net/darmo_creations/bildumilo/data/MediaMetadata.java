@@ -0,0 +1,103 @@
+package net.darmo_creations.bildumilo.data;
+
+import net.darmo_creations.bildumilo.*;
+import net.darmo_creations.bildumilo.utils.*;
+import org.bytedeco.javacv.*;
+import org.jetbrains.annotations.*;
+
+import javax.imageio.*;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class holds the metadata of a media file that can be used in tag queries.
+ *
+ * @param size         The file’s size in bytes.
+ * @param width        The image/video’s width in pixels. May be null if it could not be determined.
+ * @param height       The image/video’s height in pixels. May be null if it could not be determined.
+ * @param duration     The video’s duration in seconds. Always null for images.
+ * @param lastModified The file’s last modification date, in seconds since the UNIX epoch.
+ */
+public record MediaMetadata(
+    long size,
+    @Nullable Integer width,
+    @Nullable Integer height,
+    @Nullable Double duration,
+    long lastModified
+) {
+  /**
+   * Read the metadata of the given file.
+   * <p>
+   * Images are not decoded, only their header is read.
+   * Videos are probed using FFmpeg, without decoding any frame.
+   *
+   * @param path The path to the file.
+   * @return The file’s metadata or an empty {@link Optional} if the file could not be read.
+   */
+  public static Optional<MediaMetadata> readFromFile(@NotNull Path path) {
+    final BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (final IOException | SecurityException e) {
+      return Optional.empty();
+    }
+
+    Integer width = null, height = null;
+    Double duration = null;
+    if (App.VALID_VIDEO_EXTENSIONS.contains(FileUtils.getExtension(path).toLowerCase())) {
+      try (final var frameGrabber = new FFmpegFrameGrabber(path.toFile())) {
+        frameGrabber.start();
+        width = frameGrabber.getImageWidth();
+        height = frameGrabber.getImageHeight();
+        duration = frameGrabber.getLengthInTime() / 1e6; // Microseconds to seconds
+        frameGrabber.stop();
+      } catch (final IOException e) {
+        App.logger().error("Unable to probe video file {}", path, e);
+      }
+    } else {
+      try (final var input = ImageIO.createImageInputStream(path.toFile())) {
+        final var readers = input != null ? ImageIO.getImageReaders(input) : Collections.<ImageReader>emptyIterator();
+        if (readers.hasNext()) {
+          final ImageReader reader = readers.next();
+          try {
+            reader.setInput(input, true, true);
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+          } finally {
+            reader.dispose();
+          }
+        }
+      } catch (final IOException e) {
+        App.logger().error("Unable to read header of image file {}", path, e);
+      }
+    }
+
+    return Optional.of(new MediaMetadata(
+        attributes.size(),
+        width,
+        height,
+        duration,
+        attributes.lastModifiedTime().to(TimeUnit.SECONDS)
+    ));
+  }
+
+  /**
+   * Indicate whether this metadata is still up to date with the given file,
+   * based on its size and last modification date. The file’s contents are not read.
+   *
+   * @param path The path to the file.
+   * @return False if the file has been modified or could not be read, true otherwise.
+   */
+  public boolean matchesFile(@NotNull Path path) {
+    final BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (final IOException | SecurityException e) {
+      return false;
+    }
+    return attributes.size() == this.size && attributes.lastModifiedTime().to(TimeUnit.SECONDS) == this.lastModified;
+  }
+}
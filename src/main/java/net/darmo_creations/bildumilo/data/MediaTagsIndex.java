@@ -0,0 +1,372 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A compact in-memory index of the tags associated to each media.
+ * <p>
+ * Associations are stored in a compressed sparse row layout:
+ * {@link #mediaIds} holds the sorted IDs of all medias that have at least one tag,
+ * and the sorted IDs of the tags of the media at index {@code i} are
+ * {@code tagIds[offsets[i]]} to {@code tagIds[offsets[i + 1] - 1]}.
+ * <p>
+ * Updates are recorded in a map of overriding entries, that is merged into the arrays once it grows too large.
+ * Bulk updates go through {@link #update(Map, Map)}, which updates each media once and merges at most once.
+ * <p>
+ * All methods are thread-safe.
+ */
+final class MediaTagsIndex {
+  private static final int[] EMPTY = new int[0];
+  /**
+   * The minimum number of overriding entries before they are merged into the arrays.
+   */
+  private static final int MIN_COMPACTION_THRESHOLD = 1024;
+
+  private int[] mediaIds = EMPTY;
+  private int[] offsets = {0};
+  private int[] tagIds = EMPTY;
+  /**
+   * Tags of medias that were updated since the last compaction. Removed medias are mapped to an empty array.
+   */
+  private final Map<Integer, int[]> overrides = new HashMap<>();
+
+  /**
+   * Replace the contents of this index by the rows of the given result set.
+   *
+   * @param resultSet A result set whose first two columns are a media ID and a tag ID,
+   *                  sorted by media ID then tag ID.
+   * @throws SQLException If any database error occurs.
+   */
+  public synchronized void load(@NotNull ResultSet resultSet) throws SQLException {
+    int[] mediaIds = new int[1024];
+    int[] offsets = new int[1025];
+    int[] tagIds = new int[4096];
+    int mediasCount = 0;
+    int tagsCount = 0;
+    int currentMediaId = -1;
+    while (resultSet.next()) {
+      final int mediaId = resultSet.getInt(1);
+      final int tagId = resultSet.getInt(2);
+      if (mediasCount == 0 || mediaId != currentMediaId) {
+        if (mediasCount == mediaIds.length) {
+          mediaIds = Arrays.copyOf(mediaIds, mediasCount * 2);
+          offsets = Arrays.copyOf(offsets, mediasCount * 2 + 1);
+        }
+        mediaIds[mediasCount++] = mediaId;
+        currentMediaId = mediaId;
+      }
+      if (tagsCount == tagIds.length)
+        tagIds = Arrays.copyOf(tagIds, tagsCount * 2);
+      tagIds[tagsCount++] = tagId;
+      offsets[mediasCount] = tagsCount;
+    }
+    this.mediaIds = Arrays.copyOf(mediaIds, mediasCount);
+    this.offsets = Arrays.copyOf(offsets, mediasCount + 1);
+    this.tagIds = Arrays.copyOf(tagIds, tagsCount);
+    this.overrides.clear();
+  }
+
+  /**
+   * Return the IDs of the tags of the given media.
+   *
+   * @param mediaId The ID of a media.
+   * @return A new sorted array. It is empty if the media has no tags or does not exist.
+   */
+  @Contract(pure = true, value = "_ -> new")
+  public synchronized int[] get(int mediaId) {
+    final int[] tags = this.overrides.get(mediaId);
+    if (tags != null)
+      return tags.clone();
+    final int i = Arrays.binarySearch(this.mediaIds, mediaId);
+    if (i < 0)
+      return new int[0];
+    return Arrays.copyOfRange(this.tagIds, this.offsets[i], this.offsets[i + 1]);
+  }
+
+  /**
+   * Associate the given tags to the given media.
+   *
+   * @param mediaId The ID of the media.
+   * @param tagIds  The IDs of the tags to add. Tags that are already associated to the media are ignored.
+   */
+  public synchronized void add(int mediaId, final @NotNull Collection<Integer> tagIds) {
+    if (tagIds.isEmpty())
+      return;
+    this.put(mediaId, union(this.tags(mediaId), toSortedArray(tagIds)));
+    this.compactIfNeeded();
+  }
+
+  /**
+   * Dissociate the given tags from the given media.
+   *
+   * @param mediaId The ID of the media.
+   * @param tagIds  The IDs of the tags to remove.
+   */
+  public synchronized void remove(int mediaId, final @NotNull Collection<Integer> tagIds) {
+    if (tagIds.isEmpty())
+      return;
+    this.put(mediaId, difference(this.tags(mediaId), toSortedArray(tagIds)));
+    this.compactIfNeeded();
+  }
+
+  /**
+   * Apply the changes of a bulk update: tags added to and removed from many medias at once.
+   * Each affected media is updated once, and the index is compacted at most once.
+   * If a tag is both added to and removed from a media, it ends up removed.
+   *
+   * @param addedTags   The IDs of the medias each tag was added to, mapped by tag ID.
+   * @param removedTags The IDs of the medias each tag was removed from, mapped by tag ID.
+   */
+  public synchronized void update(
+      final @NotNull Map<Integer, ? extends Collection<Integer>> addedTags,
+      final @NotNull Map<Integer, ? extends Collection<Integer>> removedTags
+  ) {
+    final long[] added = toSortedPairs(addedTags);
+    final long[] removed = toSortedPairs(removedTags);
+    int i = 0, j = 0;
+    while (i < added.length || j < removed.length) {
+      final int mediaId = i == added.length || j < removed.length && removed[j] < added[i]
+          ? (int) (removed[j] >>> 32)
+          : (int) (added[i] >>> 32);
+      final int addedEnd = groupEnd(added, i, mediaId);
+      final int removedEnd = groupEnd(removed, j, mediaId);
+      int[] tags = this.tags(mediaId);
+      if (addedEnd != i)
+        tags = union(tags, lowHalves(added, i, addedEnd));
+      if (removedEnd != j)
+        tags = difference(tags, lowHalves(removed, j, removedEnd));
+      this.put(mediaId, tags);
+      i = addedEnd;
+      j = removedEnd;
+    }
+    this.compactIfNeeded();
+  }
+
+  /**
+   * Remove all associations of the given media.
+   *
+   * @param mediaId The ID of the media.
+   */
+  public synchronized void removeMedia(int mediaId) {
+    this.put(mediaId, EMPTY);
+    this.compactIfNeeded();
+  }
+
+  /**
+   * Remove all associations of the given tags. This rebuilds the whole index.
+   *
+   * @param tagIds The IDs of the tags.
+   */
+  public synchronized void removeTags(final @NotNull Set<Integer> tagIds) {
+    if (!tagIds.isEmpty())
+      this.compact(tagIds);
+  }
+
+  /**
+   * The number of medias that have at least one tag.
+   */
+  @Contract(pure = true)
+  public synchronized int mediasCount() {
+    int count = this.mediaIds.length;
+    for (final var entry : this.overrides.entrySet()) {
+      final boolean inArrays = Arrays.binarySearch(this.mediaIds, entry.getKey()) >= 0;
+      final boolean hasTags = entry.getValue().length != 0;
+      if (inArrays && !hasTags)
+        count--;
+      else if (!inArrays && hasTags)
+        count++;
+    }
+    return count;
+  }
+
+  /**
+   * The total number of media/tag associations.
+   */
+  @Contract(pure = true)
+  public synchronized int associationsCount() {
+    int count = this.tagIds.length;
+    for (final var entry : this.overrides.entrySet()) {
+      final int i = Arrays.binarySearch(this.mediaIds, entry.getKey());
+      if (i >= 0)
+        count -= this.offsets[i + 1] - this.offsets[i];
+      count += entry.getValue().length;
+    }
+    return count;
+  }
+
+  /**
+   * Return a rough estimate of the memory used by this index, in bytes.
+   */
+  @Contract(pure = true)
+  public synchronized long estimatedMemoryBytes() {
+    // 16 bytes per array header, 4 bytes per int
+    long size = 3 * 16L + 4L * (this.mediaIds.length + this.offsets.length + this.tagIds.length);
+    // Each map entry costs roughly a node, a boxed key and an array header
+    for (final int[] tags : this.overrides.values())
+      size += 64 + 4L * tags.length;
+    return size;
+  }
+
+  /**
+   * Return the sorted IDs of the tags of the given media. The returned array must not be modified.
+   */
+  private int[] tags(int mediaId) {
+    final int[] tags = this.overrides.get(mediaId);
+    if (tags != null)
+      return tags;
+    final int i = Arrays.binarySearch(this.mediaIds, mediaId);
+    if (i < 0)
+      return EMPTY;
+    return Arrays.copyOfRange(this.tagIds, this.offsets[i], this.offsets[i + 1]);
+  }
+
+  private void put(int mediaId, final int @NotNull [] tags) {
+    this.overrides.put(mediaId, tags.length == 0 ? EMPTY : tags);
+  }
+
+  private static int[] toSortedArray(final @NotNull Collection<Integer> ids) {
+    return ids.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+  }
+
+  /**
+   * Flatten a map of media IDs by tag ID into media/tag pairs, each encoded as a {@code long}
+   * with the media ID in the high half, sorted by media ID then tag ID.
+   */
+  private static long[] toSortedPairs(final @NotNull Map<Integer, ? extends Collection<Integer>> mediaIdsByTag) {
+    int size = 0;
+    for (final var mediaIds : mediaIdsByTag.values())
+      size += mediaIds.size();
+    final long[] pairs = new long[size];
+    int i = 0;
+    for (final var entry : mediaIdsByTag.entrySet()) {
+      final long tagId = entry.getKey() & 0xffffffffL;
+      for (final int mediaId : entry.getValue())
+        pairs[i++] = (long) mediaId << 32 | tagId;
+    }
+    Arrays.sort(pairs);
+    return pairs;
+  }
+
+  /**
+   * Return the index of the first pair after {@code from} whose media ID is not the given one.
+   */
+  private static int groupEnd(final long @NotNull [] pairs, int from, int mediaId) {
+    int end = from;
+    while (end < pairs.length && (int) (pairs[end] >>> 32) == mediaId)
+      end++;
+    return end;
+  }
+
+  /**
+   * Return the tag IDs of the given range of sorted pairs, without duplicates.
+   */
+  private static int[] lowHalves(final long @NotNull [] pairs, int from, int to) {
+    final int[] tags = new int[to - from];
+    int n = 0;
+    for (int k = from; k < to; k++)
+      if (k == from || pairs[k] != pairs[k - 1])
+        tags[n++] = (int) pairs[k];
+    return n == tags.length ? tags : Arrays.copyOf(tags, n);
+  }
+
+  /**
+   * Merge two sorted arrays without duplicates.
+   */
+  private static int[] union(final int @NotNull [] a, final int @NotNull [] b) {
+    final int[] result = new int[a.length + b.length];
+    int i = 0, j = 0, n = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j])
+        result[n++] = a[i++];
+      else if (a[i] > b[j])
+        result[n++] = b[j++];
+      else {
+        result[n++] = a[i++];
+        j++;
+      }
+    }
+    while (i < a.length)
+      result[n++] = a[i++];
+    while (j < b.length)
+      result[n++] = b[j++];
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  /**
+   * Return the values of the sorted array {@code a} that are not in the sorted array {@code b}.
+   */
+  private static int[] difference(final int @NotNull [] a, final int @NotNull [] b) {
+    final int[] result = new int[a.length];
+    int i = 0, j = 0, n = 0;
+    while (i < a.length) {
+      if (j == b.length || a[i] < b[j])
+        result[n++] = a[i++];
+      else if (a[i] > b[j])
+        j++;
+      else
+        i++;
+    }
+    return n == result.length ? result : Arrays.copyOf(result, n);
+  }
+
+  private void compactIfNeeded() {
+    if (this.overrides.size() > Math.max(MIN_COMPACTION_THRESHOLD, this.mediaIds.length / 8))
+      this.compact(Set.of());
+  }
+
+  /**
+   * Merge the overriding entries into the arrays.
+   *
+   * @param excludedTagIds The IDs of tags to drop from the index.
+   */
+  private void compact(final @NotNull Set<Integer> excludedTagIds) {
+    if (this.overrides.isEmpty() && excludedTagIds.isEmpty())
+      return;
+    final int[] overriddenIds = this.overrides.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+    int tagsCapacity = this.tagIds.length;
+    for (final int[] tags : this.overrides.values())
+      tagsCapacity += tags.length;
+    final int mediasCapacity = this.mediaIds.length + overriddenIds.length;
+    final int[] mediaIds = new int[mediasCapacity];
+    final int[] offsets = new int[mediasCapacity + 1];
+    final int[] tagIds = new int[tagsCapacity];
+    int mediasCount = 0;
+    int tagsCount = 0;
+    int i = 0, j = 0;
+    while (i < this.mediaIds.length || j < overriddenIds.length) {
+      final int mediaId;
+      final int[] source;
+      final int from, to;
+      if (j == overriddenIds.length || i < this.mediaIds.length && this.mediaIds[i] < overriddenIds[j]) {
+        mediaId = this.mediaIds[i];
+        source = this.tagIds;
+        from = this.offsets[i];
+        to = this.offsets[i + 1];
+        i++;
+      } else {
+        mediaId = overriddenIds[j];
+        source = this.overrides.get(mediaId);
+        from = 0;
+        to = source.length;
+        if (i < this.mediaIds.length && this.mediaIds[i] == mediaId)
+          i++; // Skip the overridden entry
+        j++;
+      }
+      final int start = tagsCount;
+      for (int k = from; k < to; k++)
+        if (!excludedTagIds.contains(source[k]))
+          tagIds[tagsCount++] = source[k];
+      if (tagsCount != start) {
+        mediaIds[mediasCount++] = mediaId;
+        offsets[mediasCount] = tagsCount;
+      }
+    }
+    this.mediaIds = Arrays.copyOf(mediaIds, mediasCount);
+    this.offsets = Arrays.copyOf(offsets, mediasCount + 1);
+    this.tagIds = Arrays.copyOf(tagIds, tagsCount);
+    this.overrides.clear();
+  }
+}
@@ -1,14 +1,39 @@
 package net.darmo_creations.bildumilo.data;
 
+import javafx.beans.value.*;
+import net.darmo_creations.bildumilo.config.*;
+import net.darmo_creations.bildumilo.query_parser.*;
+import net.darmo_creations.bildumilo.query_parser.ex.*;
 import org.jetbrains.annotations.*;
+import org.slf4j.*;
 
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class manages the tag queries saved by users.
+ * <p>
+ * Saved queries are compiled into {@link TagQuery} objects as soon as they are loaded or saved,
+ * and compiled again whenever tags or the default case sensitivity change.
+ * Their results are kept up-to-date on a background thread as the IDs of the matching medias.
+ * They are computed right after queries are compiled, then the medias listed in the changes committed
+ * to the database are checked against each query with its {@link TagQueryPredicate}, without running it again.
+ * Queries are only compiled and run again {@link #REFRESH_DELAY} after changes to tags or tag types,
+ * or changes that require a full reload. Results are then discarded, whereas counts are kept until they are
+ * computed again.
  */
-public class SavedQueriesManager {
+public class SavedQueriesManager implements AutoCloseable {
+  /**
+   * How long to wait after the last changes to tags committed to the database before computing the results again,
+   * so that series of writes only trigger a single refresh.
+   */
+  public static final Duration REFRESH_DELAY = Duration.ofMillis(500);
+
+  private final Logger logger = LoggerFactory.getLogger("Saved Queries");
   private final DatabaseConnection db;
+  @Nullable
+  private final Config config;
   private final Map<String, String> queries = new HashMap<>();
   private final List<String> order = new ArrayList<>();
   private final List<QueriesUpdateListener> queriesUpdateListeners = new LinkedList<>();
@@ -19,29 +44,88 @@ public class SavedQueriesManager {
   private final Map<String, String> queriesSave = new HashMap<>();
   private final List<String> orderSave = new ArrayList<>();
 
+  // Fields used to keep the results of saved queries up-to-date.
+  private final long refreshDelayMillis;
+  private final ScheduledExecutorService refreshExecutor;
+  private final List<ResultsUpdateListener> resultsUpdateListeners = new CopyOnWriteArrayList<>();
+  private final DatabaseConnection.ChangesListener changesListener = this::onDatabaseChanges;
+  private final ChangeListener<Boolean> caseSensitivityListener =
+      (observable, oldValue, newValue) -> this.invalidateResults(0, true);
+  /**
+   * The committed saved queries, in order.
+   */
+  private volatile List<SavedQuery> savedEntries;
+  /**
+   * The compiled saved queries, mapped to their query strings. Invalid queries are absent.
+   */
+  private volatile Map<String, TagQuery> compiledQueries = Map.of();
+  /**
+   * The IDs of the medias that match the compiled queries, mapped to their query strings. Guarded by itself.
+   */
+  private final Map<String, Set<Integer>> results = new HashMap<>();
+  /**
+   * The last known results counts of the compiled queries, mapped to their query strings.
+   */
+  private final Map<String, Integer> counts = new ConcurrentHashMap<>();
+  /**
+   * Incremented each time the results are discarded, used to discard outdated results. Guarded by {@link #results}.
+   */
+  private long resultsGeneration = 0;
+  /**
+   * The next scheduled refresh. Guarded by this.
+   */
+  private ScheduledFuture<?> scheduledRefresh;
+  /**
+   * Whether the next refresh should compile the queries again. Guarded by this.
+   */
+  private boolean recompilePending;
+
   /**
    * Create a new manager from the current database.
    *
+   * @param db     The database to load the queries from and run them against.
+   * @param config The app’s config.
    * @return A new object.
    */
-  @Contract("_ -> new")
-  public static SavedQueriesManager load(@NotNull DatabaseConnection db) {
+  @Contract("_, _ -> new")
+  public static SavedQueriesManager load(@NotNull DatabaseConnection db, @NotNull Config config) {
+    return load(db, config, REFRESH_DELAY);
+  }
+
+  @Contract("_, _, _ -> new")
+  static SavedQueriesManager load(@NotNull DatabaseConnection db, Config config, @NotNull Duration refreshDelay) {
     List<SavedQuery> savedQueries;
     try {
       savedQueries = db.getSavedQueries();
     } catch (final DatabaseOperationException e) {
       savedQueries = List.of();
     }
-    return new SavedQueriesManager(db, savedQueries);
+    return new SavedQueriesManager(db, config, refreshDelay, savedQueries);
   }
 
-  private SavedQueriesManager(@NotNull DatabaseConnection db, final @NotNull List<SavedQuery> entries) {
+  private SavedQueriesManager(
+      @NotNull DatabaseConnection db,
+      Config config,
+      @NotNull Duration refreshDelay,
+      final @NotNull List<SavedQuery> entries
+  ) {
     this.db = db;
+    this.config = config;
+    this.refreshDelayMillis = refreshDelay.toMillis();
     entries.forEach(pair -> {
       final String name = pair.name();
       this.queries.put(name, pair.query());
       this.order.add(name);
     });
+    this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "Saved Queries Refresh Thread");
+      thread.setDaemon(true);
+      return thread;
+    });
+    db.addChangesListener(this.changesListener);
+    if (config != null)
+      config.caseSensitiveQueriesByDefaultProperty().addListener(this.caseSensitivityListener);
+    this.onSavedQueriesChange();
   }
 
   /**
@@ -165,10 +249,279 @@ public class SavedQueriesManager {
         .toList();
   }
 
+  /**
+   * Reload the saved queries from the database, e.g. after some have been added by
+   * {@link DatabaseConnection#importLibrary}, then notify all listeners.
+   * Changes that were not committed are discarded.
+   *
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public void reload() throws DatabaseOperationException {
+    final List<SavedQuery> savedQueries = this.db.getSavedQueries();
+    this.queries.clear();
+    this.order.clear();
+    savedQueries.forEach(pair -> {
+      this.queries.put(pair.name(), pair.query());
+      this.order.add(pair.name());
+    });
+    this.pendingChanges = false;
+    this.onSavedQueriesChange();
+    this.queriesUpdateListeners.forEach(QueriesUpdateListener::onQueriesUpdate);
+  }
+
   public void addQueriesUpdateListener(@NotNull QueriesUpdateListener listener) {
     this.queriesUpdateListeners.add(Objects.requireNonNull(listener));
   }
 
+  /**
+   * Get the compiled version of the query with the given name.
+   *
+   * @param name The query’s name.
+   * @return The compiled query, or an empty {@link Optional} if the query is invalid
+   * or its changes have not been committed yet.
+   * @throws NoSuchElementException If no query matches the given name.
+   */
+  public Optional<TagQuery> getCompiledQuery(@NotNull String name) {
+    return Optional.ofNullable(this.compiledQueries.get(this.getQuery(name)));
+  }
+
+  /**
+   * Get the IDs of the medias that match the query with the given name.
+   *
+   * @param name The query’s name.
+   * @return An unmodifiable set, or an empty {@link Optional} if the results are not up-to-date.
+   * @throws NoSuchElementException If no query matches the given name.
+   */
+  public Optional<Set<Integer>> getResults(@NotNull String name) {
+    final String query = this.getQuery(name);
+    synchronized (this.results) {
+      final Set<Integer> mediaIds = this.results.get(query);
+      return mediaIds != null ? Optional.of(Set.copyOf(mediaIds)) : Optional.empty();
+    }
+  }
+
+  /**
+   * Get the number of medias that matched the query with the given name when its results were last computed.
+   * The count may be outdated if changes to tags were committed since.
+   *
+   * @param name The query’s name.
+   * @return The number of matching medias, or an empty {@link OptionalInt} if it was never computed.
+   * @throws NoSuchElementException If no query matches the given name.
+   */
+  public OptionalInt getResultsCount(@NotNull String name) {
+    final Integer count = this.counts.get(this.getQuery(name));
+    return count != null ? OptionalInt.of(count) : OptionalInt.empty();
+  }
+
+  /**
+   * Add a listener that will be notified each time the results of saved queries have been computed or updated.
+   * Listeners are called from a background thread.
+   *
+   * @param listener The listener to add.
+   */
+  public void addResultsUpdateListener(@NotNull ResultsUpdateListener listener) {
+    this.resultsUpdateListeners.add(Objects.requireNonNull(listener));
+  }
+
+  /**
+   * Stop keeping the results of saved queries up-to-date.
+   */
+  @Override
+  public void close() {
+    this.db.removeChangesListener(this.changesListener);
+    if (this.config != null)
+      this.config.caseSensitiveQueriesByDefaultProperty().removeListener(this.caseSensitivityListener);
+    this.refreshExecutor.shutdownNow();
+  }
+
+  /**
+   * Compile the committed queries and compute the results of the new ones.
+   * Must be called each time the committed queries change.
+   */
+  private void onSavedQueriesChange() {
+    this.savedEntries = this.entries();
+    this.compileQueries();
+    this.scheduleRefresh(0, false);
+  }
+
+  private void onDatabaseChanges(final @NotNull DatabaseChanges changes) {
+    // Compound tags are expanded and tag labels resolved when queries are compiled
+    if (changes.reloadRequired() || changes.tagsChanged()) {
+      this.invalidateResults(this.refreshDelayMillis, true);
+      return;
+    }
+    final Set<Integer> mediaIds = changes.changedMedias();
+    mediaIds.addAll(changes.insertedMedias());
+    mediaIds.addAll(changes.deletedMedias());
+    try {
+      this.refreshExecutor.execute(() -> this.updateResults(mediaIds));
+    } catch (final RejectedExecutionException e) {
+      // Closed
+    }
+  }
+
+  /**
+   * Discard the results of all queries and schedule their computation.
+   *
+   * @param delayMillis The delay before computing the results.
+   * @param recompile   Whether the queries should be compiled again beforehand.
+   */
+  private void invalidateResults(long delayMillis, boolean recompile) {
+    synchronized (this.results) {
+      this.resultsGeneration++;
+      this.results.clear();
+    }
+    this.scheduleRefresh(delayMillis, recompile);
+  }
+
+  /**
+   * Schedule the computation of the missing results, replacing the one that is already scheduled if any.
+   *
+   * @param delayMillis The delay before computing the results.
+   * @param recompile   Whether the queries should be compiled again beforehand.
+   */
+  private synchronized void scheduleRefresh(long delayMillis, boolean recompile) {
+    this.recompilePending |= recompile;
+    if (this.scheduledRefresh != null)
+      this.scheduledRefresh.cancel(false);
+    try {
+      this.scheduledRefresh = this.refreshExecutor.schedule(this::refreshResults, delayMillis, TimeUnit.MILLISECONDS);
+    } catch (final RejectedExecutionException e) {
+      // Closed
+    }
+  }
+
+  /**
+   * Compile all committed queries. Results and counts of queries that are not saved anymore are discarded.
+   */
+  private synchronized void compileQueries() {
+    final Map<String, String> tagDefinitions = this.db.getTagDefinitions();
+    final Map<String, TagQuery> compiledQueries = new HashMap<>();
+    for (final SavedQuery savedQuery : this.savedEntries) {
+      final String query = savedQuery.query();
+      try {
+        compiledQueries.put(query, TagQueryParser.parse(query, tagDefinitions, DatabaseConnection.PSEUDO_TAGS, this.config));
+      } catch (final TagQueryTooLargeException | TagQuerySyntaxErrorException | InvalidPseudoTagException e) {
+        // Invalid queries are parsed again when run, so that the error is reported to the user
+      }
+    }
+    this.compiledQueries = Collections.unmodifiableMap(compiledQueries);
+    synchronized (this.results) {
+      this.results.keySet().retainAll(compiledQueries.keySet());
+    }
+    this.counts.keySet().retainAll(compiledQueries.keySet());
+  }
+
+  /**
+   * Compute the results of all compiled queries whose results are missing, then notify all listeners.
+   * Stops as soon as results are discarded, as another refresh is then scheduled.
+   */
+  private void refreshResults() {
+    final boolean recompile;
+    synchronized (this) {
+      recompile = this.recompilePending;
+      this.recompilePending = false;
+    }
+    if (recompile)
+      this.compileQueries();
+
+    final long generation;
+    synchronized (this.results) {
+      generation = this.resultsGeneration;
+    }
+    boolean updated = false;
+    for (final var entry : this.compiledQueries.entrySet()) {
+      final String query = entry.getKey();
+      synchronized (this.results) {
+        if (generation != this.resultsGeneration)
+          return;
+        if (this.results.containsKey(query))
+          continue;
+      }
+      final Set<Integer> mediaIds;
+      try {
+        mediaIds = this.db.queryMediaIds(entry.getValue());
+      } catch (final DatabaseOperationException e) {
+        this.logger.error("Unable to compute the results of query {}", query, e);
+        continue;
+      }
+      synchronized (this.results) {
+        if (generation != this.resultsGeneration)
+          return;
+        this.results.put(query, mediaIds);
+      }
+      this.counts.put(query, mediaIds.size());
+      updated = true;
+    }
+    if (updated)
+      this.notifyResultsListeners();
+  }
+
+  /**
+   * Check the given medias against all compiled queries whose results are known, then update these results
+   * and notify all listeners. Missing medias are removed from all results.
+   * <p>
+   * As the current state of the medias is fetched, applying the same changes again is harmless.
+   * Results that are discarded in the meantime are left untouched, as they are computed again afterwards.
+   *
+   * @param mediaIds The IDs of the medias to check.
+   */
+  private void updateResults(final @NotNull Set<Integer> mediaIds) {
+    final long generation;
+    final Map<String, TagQuery> queries = new HashMap<>();
+    synchronized (this.results) {
+      generation = this.resultsGeneration;
+      this.compiledQueries.forEach((query, tagQuery) -> {
+        if (this.results.containsKey(query))
+          queries.put(query, tagQuery);
+      });
+    }
+    if (queries.isEmpty())
+      return;
+
+    final Map<String, Set<Integer>> matches = new HashMap<>();
+    try {
+      final Map<Integer, MediaFile> mediaFiles = this.db.getMedias(mediaIds);
+      final Map<Integer, int[]> mediasTags = this.db.getMediasTags(mediaFiles.values());
+      for (final MediaFile mediaFile : mediaFiles.values()) {
+        final Set<Tag> tags = this.db.getTags(mediasTags.getOrDefault(mediaFile.id(), new int[0]));
+        for (final var entry : queries.entrySet())
+          if (this.db.mediaMatchesQuery(mediaFile, tags, entry.getValue()))
+            matches.computeIfAbsent(entry.getKey(), k -> new HashSet<>()).add(mediaFile.id());
+      }
+    } catch (final DatabaseOperationException e) {
+      this.logger.error("Unable to update the results of saved queries", e);
+      this.invalidateResults(0, false);
+      return;
+    }
+
+    boolean updated = false;
+    synchronized (this.results) {
+      if (generation != this.resultsGeneration)
+        return;
+      for (final String query : queries.keySet()) {
+        final Set<Integer> results = this.results.get(query);
+        if (results == null)
+          continue;
+        final Set<Integer> matchingIds = matches.getOrDefault(query, Set.of());
+        for (final int mediaId : mediaIds)
+          updated |= matchingIds.contains(mediaId) ? results.add(mediaId) : results.remove(mediaId);
+        this.counts.put(query, results.size());
+      }
+    }
+    if (updated)
+      this.notifyResultsListeners();
+  }
+
+  private void notifyResultsListeners() {
+    for (final ResultsUpdateListener listener : this.resultsUpdateListeners)
+      try {
+        listener.onResultsUpdate();
+      } catch (final RuntimeException e) {
+        this.logger.error("Error in results update listener", e);
+      }
+  }
+
   private void saveState() {
     this.queriesSave.clear();
     this.queriesSave.putAll(this.queries);
@@ -203,6 +556,7 @@ public class SavedQueriesManager {
         this.restoreState();
       throw e;
     }
+    this.onSavedQueriesChange();
     this.queriesUpdateListeners.forEach(QueriesUpdateListener::onQueriesUpdate);
     this.pendingChanges = false;
   }
@@ -210,4 +564,8 @@ public class SavedQueriesManager {
   public interface QueriesUpdateListener {
     void onQueriesUpdate();
   }
+
+  public interface ResultsUpdateListener {
+    void onResultsUpdate();
+  }
 }
@@ -0,0 +1,118 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.jetbrains.annotations.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A least-recently-used cache of the prepared statements of a single connection, keyed by their SQL text.
+ * <p>
+ * Statements returned by {@link #prepare(String)} are owned by the cache: callers must close their result sets
+ * but must <em>not</em> close the statements themselves. Only constant queries should go through a cache,
+ * dynamically built queries would evict useful statements.
+ * <p>
+ * Statements are not leased: the same object is returned to every caller for a given query.
+ * A cache must thus only be used by the thread that currently owns its connection,
+ * which {@link ConnectionManager#prepareCached(Connection, String)} enforces.
+ */
+final class StatementCache implements AutoCloseable {
+  /**
+   * The maximum number of statements kept open per connection.
+   */
+  public static final int CAPACITY = 64;
+
+  private final Connection connection;
+  private final Counters counters;
+  private final LinkedHashMap<String, Entry> statements = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (this.size() <= CAPACITY)
+        return false;
+      StatementCache.this.counters.evictions.increment();
+      closeQuietly(eldest.getValue().statement());
+      return true;
+    }
+  };
+
+  /**
+   * Create a cache for the given connection.
+   *
+   * @param connection The connection to prepare statements with.
+   * @param counters   The counters to update. They may be shared between several caches.
+   */
+  StatementCache(@NotNull Connection connection, @NotNull Counters counters) {
+    this.connection = Objects.requireNonNull(connection);
+    this.counters = Objects.requireNonNull(counters);
+  }
+
+  /**
+   * Return the cached statement for the given query, preparing it if necessary.
+   * The parameters and pending batch of a cached statement are cleared before it is returned.
+   *
+   * @param sql The query to prepare.
+   * @return The prepared statement.
+   * @throws SQLException If any database error occurs.
+   */
+  public synchronized PreparedStatement prepare(@SQLite @NotNull String sql) throws SQLException {
+    final Entry entry = this.statements.get(sql);
+    if (entry != null && !entry.statement().isClosed()) {
+      entry.statement().clearParameters();
+      entry.statement().clearBatch();
+      this.counters.hits.increment();
+      this.counters.savedNanos.add(entry.preparationNanos());
+      return entry.statement();
+    }
+    final long start = System.nanoTime();
+    final PreparedStatement statement = this.connection.prepareStatement(sql);
+    final long duration = System.nanoTime() - start;
+    this.counters.misses.increment();
+    this.counters.preparationNanos.add(duration);
+    this.statements.put(sql, new Entry(statement, duration));
+    return statement;
+  }
+
+  /**
+   * Close all cached statements.
+   */
+  @Override
+  public synchronized void close() {
+    this.statements.values().forEach(entry -> closeQuietly(entry.statement()));
+    this.statements.clear();
+  }
+
+  private static void closeQuietly(@NotNull Statement statement) {
+    try {
+      statement.close();
+    } catch (final SQLException ignored) {
+    }
+  }
+
+  private record Entry(@NotNull PreparedStatement statement, long preparationNanos) {
+  }
+
+  /**
+   * Usage counters of one or more caches.
+   */
+  static final class Counters {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder preparationNanos = new LongAdder();
+    private final LongAdder savedNanos = new LongAdder();
+
+    /**
+     * Return a snapshot of these counters.
+     */
+    public StatementCacheStats snapshot() {
+      return new StatementCacheStats(
+          this.hits.sum(),
+          this.misses.sum(),
+          this.evictions.sum(),
+          this.preparationNanos.sum(),
+          this.savedNanos.sum()
+      );
+    }
+  }
+}
@@ -0,0 +1,21 @@
+package net.darmo_creations.bildumilo.data;
+
+/**
+ * Statistics about the prepared statements caches of a {@link DatabaseConnection}.
+ *
+ * @param hits             The number of times a statement was found in a cache.
+ * @param misses           The number of times a statement had to be prepared.
+ * @param evictions        The number of statements that were closed to make room for other ones.
+ * @param preparationNanos The total time spent preparing statements, in nanoseconds.
+ * @param savedNanos       An estimate of the preparation time saved by cache hits, in nanoseconds.
+ *                         Each hit counts for the time it took to prepare the corresponding statement.
+ */
+public record StatementCacheStats(long hits, long misses, long evictions, long preparationNanos, long savedNanos) {
+  /**
+   * The ratio of cache hits over all lookups, between 0 and 1.
+   */
+  public double hitRatio() {
+    final long total = this.hits + this.misses;
+    return total == 0 ? 0 : (double) this.hits / total;
+  }
+}
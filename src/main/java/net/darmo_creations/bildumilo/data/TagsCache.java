@@ -0,0 +1,323 @@
+package net.darmo_creations.bildumilo.data;
+
+import net.darmo_creations.bildumilo.utils.*;
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Thread-safe cache of the tag types and tags of a {@link DatabaseConnection}, along with their use counts.
+ * <p>
+ * All data is held in an immutable {@link State} that is replaced as a whole on every update
+ * and published through a volatile field. Readers never lock and always see a consistent state:
+ * counts always match the cached tags, and iterating over a view never throws
+ * a {@link ConcurrentModificationException}, even while another thread updates the cache.
+ * <p>
+ * Updates are serialized. The maps are {@link PersistentIntMap}s: changing an entry only copies
+ * the few trie nodes on the path to its key, so updates cost the same whatever the number of cached tags,
+ * and unmodified maps are shared with the previous state.
+ */
+final class TagsCache {
+  private volatile State state = new State(
+      PersistentIntMap.empty(),
+      PersistentIntMap.empty(),
+      PersistentIntMap.empty(),
+      PersistentIntMap.empty(),
+      0
+  );
+
+  private final Set<TagType> tagTypesView = new ValuesView<>(() -> this.state.tagTypes());
+  private final Map<Integer, Integer> tagTypesCountsView = new CountsView(() -> this.state.tagTypesCounts());
+  private final Set<Tag> tagsView = new ValuesView<>(() -> this.state.tags());
+  private final Map<Integer, Integer> tagsCountsView = new CountsView(() -> this.state.tagsCounts());
+
+  /**
+   * The current state of this cache.
+   */
+  @Contract(pure = true)
+  public State state() {
+    return this.state;
+  }
+
+  /**
+   * Return the cached tag type with the given ID.
+   *
+   * @param id A tag type ID.
+   * @return The tag type, or null if there is none with this ID.
+   */
+  @Contract(pure = true)
+  public TagType getTagType(int id) {
+    return this.state.tagTypes().get(id);
+  }
+
+  /**
+   * Return the cached tag with the given ID.
+   *
+   * @param id A tag ID.
+   * @return The tag, or null if there is none with this ID.
+   */
+  @Contract(pure = true)
+  public Tag getTag(int id) {
+    return this.state.tags().get(id);
+  }
+
+  /**
+   * A live view of the cached tag types. Each method call reads the latest state.
+   */
+  @Contract(pure = true)
+  @UnmodifiableView
+  public Set<TagType> tagTypesView() {
+    return this.tagTypesView;
+  }
+
+  /**
+   * A live view of the use counts of the cached tag types. Each method call reads the latest state.
+   */
+  @Contract(pure = true)
+  @UnmodifiableView
+  public Map<Integer, Integer> tagTypesCountsView() {
+    return this.tagTypesCountsView;
+  }
+
+  /**
+   * A live view of the cached tags. Each method call reads the latest state.
+   */
+  @Contract(pure = true)
+  @UnmodifiableView
+  public Set<Tag> tagsView() {
+    return this.tagsView;
+  }
+
+  /**
+   * A live view of the use counts of the cached tags. Each method call reads the latest state.
+   */
+  @Contract(pure = true)
+  @UnmodifiableView
+  public Map<Integer, Integer> tagsCountsView() {
+    return this.tagsCountsView;
+  }
+
+  /**
+   * Apply the given changes to this cache then publish the new state, whose version is incremented.
+   * Concurrent updates are applied one after the other.
+   *
+   * @param changes A function that performs the changes on the given editor.
+   */
+  public synchronized void update(@NotNull Consumer<Editor> changes) {
+    final Editor editor = new Editor(this.state);
+    changes.accept(editor);
+    this.state = editor.build();
+  }
+
+  /**
+   * An immutable state of a {@link TagsCache}.
+   *
+   * @param tagTypes       All tag types, mapped by ID.
+   * @param tagTypesCounts The number of tags of each tag type.
+   * @param tags           All tags, mapped by ID.
+   * @param tagsCounts     The number of medias each tag is associated to.
+   * @param version        A number incremented on every update.
+   */
+  public record State(
+      @NotNull @Unmodifiable PersistentIntMap<TagType> tagTypes,
+      @NotNull @Unmodifiable PersistentIntMap<Integer> tagTypesCounts,
+      @NotNull @Unmodifiable PersistentIntMap<Tag> tags,
+      @NotNull @Unmodifiable PersistentIntMap<Integer> tagsCounts,
+      int version
+  ) {
+  }
+
+  /**
+   * Builds the next state of a {@link TagsCache} from the current one.
+   */
+  public static final class Editor {
+    private final int baseVersion;
+    private PersistentIntMap<TagType> tagTypes;
+    private PersistentIntMap<Integer> tagTypesCounts;
+    private PersistentIntMap<Tag> tags;
+    private PersistentIntMap<Integer> tagsCounts;
+
+    private Editor(@NotNull State base) {
+      this.baseVersion = base.version();
+      this.tagTypes = base.tagTypes();
+      this.tagTypesCounts = base.tagTypesCounts();
+      this.tags = base.tags();
+      this.tagsCounts = base.tagsCounts();
+    }
+
+    /**
+     * The tag types, including the changes made through this editor.
+     */
+    @Unmodifiable
+    public Map<Integer, TagType> tagTypes() {
+      return this.tagTypes;
+    }
+
+    /**
+     * The tags, including the changes made through this editor.
+     */
+    @Unmodifiable
+    public Map<Integer, Tag> tags() {
+      return this.tags;
+    }
+
+    /**
+     * Remove all tag types, tags and counts.
+     */
+    public void clear() {
+      this.tagTypes = PersistentIntMap.empty();
+      this.tagTypesCounts = PersistentIntMap.empty();
+      this.tags = PersistentIntMap.empty();
+      this.tagsCounts = PersistentIntMap.empty();
+    }
+
+    /**
+     * Add a tag type with a count of 0.
+     *
+     * @param tagType The tag type to add.
+     */
+    public void addTagType(@NotNull TagType tagType) {
+      this.tagTypes = this.tagTypes.with(tagType.id(), tagType);
+      this.tagTypesCounts = this.tagTypesCounts.with(tagType.id(), 0);
+    }
+
+    /**
+     * Remove the tag type with the given ID. Tags with this type are not modified.
+     *
+     * @param id The ID of the tag type to remove.
+     */
+    public void removeTagType(int id) {
+      this.tagTypes = this.tagTypes.without(id);
+      this.tagTypesCounts = this.tagTypesCounts.without(id);
+    }
+
+    /**
+     * Add a tag with a count of 0 and increment the count of its type.
+     *
+     * @param tag The tag to add.
+     */
+    public void addTag(@NotNull Tag tag) {
+      this.tags = this.tags.with(tag.id(), tag);
+      this.tagsCounts = this.tagsCounts.with(tag.id(), 0);
+      tag.type().ifPresent(tagType -> this.addToTagTypeCount(tagType.id(), 1));
+    }
+
+    /**
+     * Remove a tag and decrement the count of its type.
+     *
+     * @param tag The tag to remove.
+     */
+    public void removeTag(@NotNull Tag tag) {
+      this.tags = this.tags.without(tag.id());
+      this.tagsCounts = this.tagsCounts.without(tag.id());
+      tag.type().ifPresent(tagType -> this.addToTagTypeCount(tagType.id(), -1));
+    }
+
+    /**
+     * Add a value to the count of a tag type.
+     *
+     * @param id    The ID of the tag type.
+     * @param delta The value to add.
+     */
+    public void addToTagTypeCount(int id, int delta) {
+      this.tagTypesCounts = this.tagTypesCounts.with(id, this.tagTypesCounts.getOrDefault(id, 0) + delta);
+    }
+
+    /**
+     * Add a value to the count of a tag.
+     *
+     * @param id    The ID of the tag.
+     * @param delta The value to add.
+     */
+    public void addToTagCount(int id, int delta) {
+      this.tagsCounts = this.tagsCounts.with(id, this.tagsCounts.getOrDefault(id, 0) + delta);
+    }
+
+    /**
+     * Set the count of a tag.
+     *
+     * @param id    The ID of the tag.
+     * @param count The new count.
+     */
+    public void setTagCount(int id, int count) {
+      this.tagsCounts = this.tagsCounts.with(id, count);
+    }
+
+    private State build() {
+      return new State(this.tagTypes, this.tagTypesCounts, this.tags, this.tagsCounts, this.baseVersion + 1);
+    }
+  }
+
+  /**
+   * A set view of the values of the latest version of a map of {@link DatabaseObject}s, indexed by ID.
+   */
+  private static final class ValuesView<T extends DatabaseObject> extends AbstractSet<T> {
+    private final Supplier<Map<Integer, T>> map;
+
+    private ValuesView(@NotNull Supplier<Map<Integer, T>> map) {
+      this.map = map;
+    }
+
+    @Override
+    public int size() {
+      return this.map.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return this.map.get().isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return o instanceof DatabaseObject object && o.equals(this.map.get().get(object.id()));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return this.map.get().values().iterator();
+    }
+  }
+
+  /**
+   * A map view of the latest version of a map of counts.
+   */
+  private static final class CountsView extends AbstractMap<Integer, Integer> {
+    private final Supplier<Map<Integer, Integer>> map;
+
+    private CountsView(@NotNull Supplier<Map<Integer, Integer>> map) {
+      this.map = map;
+    }
+
+    @Override
+    public int size() {
+      return this.map.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return this.map.get().isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return this.map.get().containsKey(key);
+    }
+
+    @Override
+    public Integer get(Object key) {
+      return this.map.get().get(key);
+    }
+
+    @Override
+    public Integer getOrDefault(Object key, Integer defaultValue) {
+      return this.map.get().getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public Set<Entry<Integer, Integer>> entrySet() {
+      return this.map.get().entrySet();
+    }
+  }
+}
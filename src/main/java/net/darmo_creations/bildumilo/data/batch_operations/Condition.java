@@ -4,6 +4,8 @@ import net.darmo_creations.bildumilo.config.*;
 import net.darmo_creations.bildumilo.data.*;
 import org.jetbrains.annotations.*;
 
+import java.util.*;
+
 /**
  * A {@link Condition} checks whether a given {@link MediaFile} matches some predicate.
  */
@@ -21,6 +23,30 @@ public sealed interface Condition extends StringSerializable
   boolean test(@NotNull MediaFile mediaFile, @NotNull DatabaseConnection db, @NotNull Config config)
       throws DatabaseOperationException;
 
+  /**
+   * Return the medias among the given ones that fulfill this condition.
+   * <p>
+   * The default implementation calls {@link #test(MediaFile, DatabaseConnection, Config)} on each media.
+   * Implementations may override it to fetch the data they need for all medias at once.
+   *
+   * @param mediaFiles The medias to check.
+   * @param db         The database to pull additional data from.
+   * @param config     The app’s config.
+   * @return The medias that fulfill this condition, in the iteration order of the collection.
+   * @throws DatabaseOperationException If any database or file error occurs.
+   */
+  default List<MediaFile> filter(
+      final @NotNull Collection<MediaFile> mediaFiles,
+      @NotNull DatabaseConnection db,
+      @NotNull Config config
+  ) throws DatabaseOperationException {
+    final List<MediaFile> result = new ArrayList<>();
+    for (final MediaFile mediaFile : mediaFiles)
+      if (this.test(mediaFile, db, config))
+        result.add(mediaFile);
+    return result;
+  }
+
   /**
    * Purge all internal caches.
    */
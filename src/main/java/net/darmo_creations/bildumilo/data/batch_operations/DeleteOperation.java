@@ -5,6 +5,10 @@ import net.darmo_creations.bildumilo.data.*;
 import net.darmo_creations.bildumilo.utils.*;
 import org.jetbrains.annotations.*;
 
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
  * An operation that deletes a {@link MediaFile} and optionally its associated file.
  */
@@ -36,6 +40,36 @@ public final class DeleteOperation extends Operation {
     return new Pair<>(true, mediaFile);
   }
 
+  /**
+   * Delete all the given medias at once, in a single database transaction.
+   * Files are deleted from the disk in the background, see {@link DatabaseConnection#deleteMedias(Collection, boolean)}.
+   * <p>
+   * This operation’s condition is not checked.
+   *
+   * @param mediaFiles The medias to delete.
+   * @param db         A database to apply changes to.
+   * @return A future that completes once all files have been deleted from the disk and empty source directories
+   * have been deleted, with the errors that occurred for the medias whose file could not be deleted.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public CompletableFuture<Map<MediaFile, DatabaseOperationException>> executeAll(
+      final @NotNull Collection<MediaFile> mediaFiles,
+      @NotNull DatabaseConnection db
+  ) throws DatabaseOperationException {
+    final var deletions = db.deleteMedias(mediaFiles, this.fromDisk);
+    if (!this.fromDisk || !this.deleteEmptySourceDirectory)
+      return deletions;
+    return deletions.thenApply(errors -> {
+      // Only check each directory once, as it may be deleted by the first check
+      final Map<Path, MediaFile> directories = new HashMap<>();
+      for (final MediaFile mediaFile : mediaFiles)
+        if (!errors.containsKey(mediaFile))
+          directories.putIfAbsent(mediaFile.path().getParent(), mediaFile);
+      directories.values().forEach(FileUtils::deleteDirectoryIfEmpty);
+      return errors;
+    });
+  }
+
   public boolean deleteFromDisk() {
     return this.fromDisk;
   }
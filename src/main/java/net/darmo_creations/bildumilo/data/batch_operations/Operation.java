@@ -40,7 +40,7 @@ public abstract sealed class Operation implements StringSerializable
    */
   public final Pair<Boolean, MediaFile> apply(@NotNull MediaFile mediaFile, @NotNull DatabaseConnection db, @NotNull Config config)
       throws DatabaseOperationException {
-    boolean apply = this.condition == null || this.condition.test(mediaFile, db, config);
+    boolean apply = this.appliesTo(mediaFile, db, config);
     if (apply) {
       final var result = this.execute(mediaFile, db);
       apply = result.getKey();
@@ -49,6 +49,20 @@ public abstract sealed class Operation implements StringSerializable
     return new Pair<>(apply, mediaFile);
   }
 
+  /**
+   * Check whether this operation’s condition, if any, evaluates to true on the given media.
+   *
+   * @param mediaFile The media to check.
+   * @param db        The database the media belongs to.
+   * @param config    The app’s config.
+   * @return True if this operation has no condition or if it is fulfilled by the media, false otherwise.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public final boolean appliesTo(@NotNull MediaFile mediaFile, @NotNull DatabaseConnection db, @NotNull Config config)
+      throws DatabaseOperationException {
+    return this.condition == null || this.condition.test(mediaFile, db, config);
+  }
+
   /**
    * Apply this operation to the given media.
    *
@@ -32,6 +32,30 @@ public final class TagQueryCondition implements Condition {
   @Override
   public boolean test(@NotNull MediaFile mediaFile, @NotNull DatabaseConnection db, @NotNull Config config)
       throws DatabaseOperationException {
+    return db.mediaMatchesQuery(mediaFile, this.getTagQuery(db, config));
+  }
+
+  /**
+   * Return the medias among the given ones that match this condition’s query.
+   * The tags of all medias are fetched with a single query.
+   */
+  @Override
+  public List<MediaFile> filter(
+      final @NotNull Collection<MediaFile> mediaFiles,
+      @NotNull DatabaseConnection db,
+      @NotNull Config config
+  ) throws DatabaseOperationException {
+    final TagQuery tagQuery = this.getTagQuery(db, config);
+    final Map<Integer, int[]> mediasTags = db.getMediasTags(mediaFiles);
+    final List<MediaFile> result = new ArrayList<>();
+    for (final MediaFile mediaFile : mediaFiles)
+      if (db.mediaMatchesQuery(mediaFile, db.getTags(mediasTags.get(mediaFile.id())), tagQuery))
+        result.add(mediaFile);
+    return result;
+  }
+
+  private TagQuery getTagQuery(@NotNull DatabaseConnection db, @NotNull Config config)
+      throws DatabaseOperationException {
     if (this.tagQueryCache == null)
       try {
         this.tagQueryCache = TagQueryParser.parse(
@@ -43,7 +67,7 @@ public final class TagQueryCondition implements Condition {
       } catch (final InvalidPseudoTagException | TagQuerySyntaxErrorException | TagQueryTooLargeException e) {
         throw new DatabaseOperationException(DatabaseErrorCode.UNKNOWN_ERROR, e);
       }
-    return db.mediaMatchesQuery(mediaFile, this.tagQueryCache);
+    return this.tagQueryCache;
   }
 
   public String tagQuery() {
@@ -1,6 +1,7 @@
 package net.darmo_creations.bildumilo.data.batch_operations;
 
 import javafx.util.*;
+import net.darmo_creations.bildumilo.config.*;
 import net.darmo_creations.bildumilo.data.*;
 import net.darmo_creations.bildumilo.ui.*;
 import org.jetbrains.annotations.*;
@@ -39,6 +40,29 @@ public final class UpdateTagsOperation extends Operation {
     return new Pair<>(!oldTags.equals(newTags), mediaFile);
   }
 
+  /**
+   * Apply this operation to all the given medias at once, in a single database transaction.
+   * <p>
+   * If this operation has a condition, only the medias that fulfill it are updated.
+   *
+   * @param mediaFiles The medias to apply this operation to.
+   * @param db         A database to apply changes to.
+   * @param config     The app’s config.
+   * @return The IDs of the medias whose tags changed.
+   * @throws DatabaseOperationException If any database error occurs.
+   */
+  public Set<Integer> applyToAll(
+      final @NotNull Collection<MediaFile> mediaFiles,
+      @NotNull DatabaseConnection db,
+      @NotNull Config config
+  ) throws DatabaseOperationException {
+    final Optional<Condition> condition = this.condition();
+    final Collection<MediaFile> targets = condition.isPresent()
+        ? condition.get().filter(mediaFiles, db, config)
+        : mediaFiles;
+    return db.updateMediasTags(this.tagsToAdd, this.tagsToRemove, targets.stream().map(MediaFile::id).toList());
+  }
+
   @UnmodifiableView
   public Set<ParsedTag> tagsToAdd() {
     return Collections.unmodifiableSet(this.tagsToAdd);
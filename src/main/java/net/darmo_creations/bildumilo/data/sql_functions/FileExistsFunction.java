@@ -7,9 +7,9 @@ import java.sql.*;
  * This function returns 1 if the file represented by the given path exists, 0 otherwise.
  */
 @SqlFunction(name = "FILE_EXISTS", nArgs = 1)
-public class FileExistsFunction extends org.sqlite.Function {
+public class FileExistsFunction extends InstrumentedFunction {
   @Override
-  protected void xFunc() throws SQLException {
+  protected void apply() throws SQLException {
     final String s = this.value_text(0);
     if (s == null)
       this.result(0);
@@ -10,9 +10,9 @@ import java.sql.*;
  * @see Hash#computeSimilarity(Hash)
  */
 @SqlFunction(name = "SIMILARITY_CONFIDENCE", nArgs = 2, flags = org.sqlite.Function.FLAG_DETERMINISTIC)
-public class HashesSimilarityFunction extends org.sqlite.Function {
+public class HashesSimilarityFunction extends InstrumentedFunction {
   @Override
-  protected void xFunc() throws SQLException {
+  protected void apply() throws SQLException {
     final Hash hash1 = new Hash(this.value_long(0));
     final Hash hash2 = new Hash(this.value_long(1));
     final var similarity = hash1.computeSimilarity(hash2);
@@ -0,0 +1,45 @@
+package net.darmo_creations.bildumilo.data.sql_functions;
+
+import net.darmo_creations.bildumilo.data.*;
+
+import java.sql.*;
+
+/**
+ * Base class for custom SQL functions whose calls may be timed.
+ * Subclasses implement {@link #apply()} instead of {@link #xFunc()}.
+ */
+public abstract class InstrumentedFunction extends org.sqlite.Function {
+  private volatile LatencyHistogram latency;
+
+  /**
+   * Set the histogram to record the duration of each call of this function into.
+   *
+   * @param latency The histogram. If null, calls are not timed.
+   */
+  public void setLatencyHistogram(LatencyHistogram latency) {
+    this.latency = latency;
+  }
+
+  @Override
+  protected final void xFunc() throws SQLException {
+    final LatencyHistogram latency = this.latency;
+    if (latency == null) {
+      this.apply();
+      return;
+    }
+    final long start = System.nanoTime();
+    try {
+      this.apply();
+    } finally {
+      latency.record(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Compute this function’s result for the current arguments.
+   *
+   * @throws SQLException If any database error occurs.
+   * @see #xFunc()
+   */
+  protected abstract void apply() throws SQLException;
+}
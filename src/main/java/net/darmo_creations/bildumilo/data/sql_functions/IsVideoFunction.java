@@ -11,9 +11,9 @@ import java.sql.*;
  * false otherwise.
  */
 @SqlFunction(name = "IS_VIDEO", nArgs = 1, flags = org.sqlite.Function.FLAG_DETERMINISTIC)
-public class IsVideoFunction extends org.sqlite.Function {
+public class IsVideoFunction extends InstrumentedFunction {
   @Override
-  protected void xFunc() throws SQLException {
+  protected void apply() throws SQLException {
     final String path = this.value_text(0);
     if (path == null) {
       this.result(0);
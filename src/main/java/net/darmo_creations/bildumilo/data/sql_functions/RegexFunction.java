@@ -8,9 +8,9 @@ import java.sql.*;
  * This function returns 1 if the given string matches the given Java-compatible regex, 0 otherwise.
  */
 @SqlFunction(name = "REGEX", nArgs = 3, flags = org.sqlite.Function.FLAG_DETERMINISTIC)
-public class RegexFunction extends org.sqlite.Function {
+public class RegexFunction extends InstrumentedFunction {
   @Override
-  protected void xFunc() throws SQLException {
+  protected void apply() throws SQLException {
     final String string = this.value_text(0);
     final String pattern = this.value_text(1);
     final String flags = this.value_text(2);
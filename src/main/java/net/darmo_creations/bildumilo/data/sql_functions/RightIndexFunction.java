@@ -7,9 +7,9 @@ import java.sql.*;
  * If either argument is null, this function returns null.
  */
 @SqlFunction(name = "RINSTR", nArgs = 2, flags = org.sqlite.Function.FLAG_DETERMINISTIC)
-public class RightIndexFunction extends org.sqlite.Function {
+public class RightIndexFunction extends InstrumentedFunction {
   @Override
-  protected void xFunc() throws SQLException {
+  protected void apply() throws SQLException {
     final String string = this.value_text(0);
     final String substring = this.value_text(1);
     if (string == null || substring == null)
@@ -10,9 +10,9 @@ import java.sql.*;
  * @see Hash#computeSimilarity(Hash)
  */
 @SqlFunction(name = "SIMILAR_HASHES", nArgs = 2, flags = org.sqlite.Function.FLAG_DETERMINISTIC)
-public class SimilarHashesFunction extends org.sqlite.Function {
+public class SimilarHashesFunction extends InstrumentedFunction {
   @Override
-  protected void xFunc() throws SQLException {
+  protected void apply() throws SQLException {
     if (this.value_text(0) == null || this.value_text(1) == null) {
       this.result(0);
       return;
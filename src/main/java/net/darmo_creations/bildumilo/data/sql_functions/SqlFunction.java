@@ -6,7 +6,7 @@ import java.lang.annotation.*;
 
 /**
  * This annotation is used to declare SQL functions.
- * Annotated classes must extend the {@link Function} class.
+ * Annotated classes must extend the {@link Function} class, preferably through {@link InstrumentedFunction}.
  */
 @Documented
 @Target(ElementType.TYPE)
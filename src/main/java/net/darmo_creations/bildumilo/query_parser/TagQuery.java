@@ -100,6 +100,10 @@ public final class TagQuery {
         final var parts = text.split(":", 4);
         if (parts.length == 2)
           return getBooleanFlag(pseudoTags, parts[0]).sqlTemplate();
+        if (pseudoTags.get(parts[0]) instanceof ComparisonPseudoTag tag) {
+          final var comparison = parseComparison(tag, parts[0], parts[2], parts[3], parts[1]);
+          return tag.sqlTemplate().formatted(comparison.operator().symbol(), comparison.sqlValue());
+        }
         final var parseResult = this.parsePseudoTag(pseudoTags, parts[0], parts[2], parts[3], parts[1], true);
         return parseResult.tag().acceptsRegex()
             ? parseResult.tag().sqlTemplate().formatted(parseResult.pattern(), parseResult.flags())
@@ -196,6 +200,8 @@ public final class TagQuery {
         final var parts = text.split(":", 4);
         if (parts.length == 2)
           return getBooleanFlag(pseudoTags, parts[0]).predicate();
+        if (pseudoTags.get(parts[0]) instanceof ComparisonPseudoTag tag)
+          return tag.predicate(parseComparison(tag, parts[0], parts[2], parts[3], parts[1]));
         final var parseResult = this.parsePseudoTag(pseudoTags, parts[0], parts[2], parts[3], parts[1], false);
         return parseResult.tag().acceptsRegex()
             ? parseResult.tag().predicateFactory().apply(parseResult.pattern(), parseResult.flags())
@@ -265,6 +271,21 @@ public final class TagQuery {
     return new ParseResult(tag, tagFlags, pattern);
   }
 
+  private static ComparisonPseudoTag.Comparison parseComparison(
+      final @NotNull ComparisonPseudoTag tag,
+      @NotNull String tagName,
+      @NotNull String tagFlags,
+      @NotNull String tagArgument,
+      @NotNull String tagType
+  ) throws InvalidPseudoTagException {
+    if (!tagFlags.isEmpty())
+      throw new InvalidPseudoTagException("Pseudo-tag %s does not accept flags".formatted(tagName), tagName);
+    if (!tagType.equals("string"))
+      throw new InvalidPseudoTagException("Pseudo-tag '%s' does not accept RegExs".formatted(tagName), tagName);
+    return tag.parseArgument(tagArgument).orElseThrow(() ->
+        new InvalidPseudoTagException("Invalid value for pseudo-tag '%s': %s".formatted(tagName, tagArgument), tagName));
+  }
+
   private record ParseResult(@NotNull PatternPseudoTag tag, @NotNull String flags, @NotNull String pattern) {
     private ParseResult {
       Objects.requireNonNull(tag);
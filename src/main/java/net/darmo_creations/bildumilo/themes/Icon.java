@@ -37,6 +37,7 @@ public enum Icon {
   CONVERT_PYTHON_DB("database_to_database"),
   ABOUT("information"),
   HELP("help"),
+  DIAGNOSTICS("clock_history_frame"),
 
   SAVE_QUERY("diskette"),
   SEARCH_HISTORY("clock_history_frame"),
@@ -50,6 +51,7 @@ public enum Icon {
   EDIT_TAGS("pencil"),
 
   COMPOUND_TAG("three_tags"),
+  SHOW_RESULTS_TAGS_COUNTS("three_tags"),
 
   COPY_TO_CLIPBOARD("clipboard_invoice"),
 
@@ -1,5 +1,6 @@
 package net.darmo_creations.bildumilo.ui;
 
+import javafx.application.*;
 import javafx.beans.property.*;
 import javafx.beans.value.*;
 import javafx.collections.*;
@@ -13,11 +14,13 @@ import javafx.scene.layout.*;
 import net.darmo_creations.bildumilo.config.*;
 import net.darmo_creations.bildumilo.data.*;
 import net.darmo_creations.bildumilo.ui.syntax_highlighting.*;
+import net.darmo_creations.bildumilo.utils.*;
 import org.fxmisc.richtext.*;
 import org.jetbrains.annotations.*;
 import org.reactfx.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.regex.*;
 
@@ -27,6 +30,13 @@ import java.util.regex.*;
  * <p>
  * It may also perform syntax highlighting if given a {@link SyntaxHighlighter} object.
  * <p>
+ * Suggestions are looked up in a {@link PrefixIndex} that is updated whenever the entries change.
+ * Both the update and the lookup are performed in a background thread, results that arrive
+ * after the text has changed again are dropped.
+ * <p>
+ * Syntax highlighting is also computed in the background. After an edit, only the styles of the region
+ * whose spans changed are updated, see {@link HighlightingPatch}.
+ * <p>
  * Original caret-following popup code from:
  * https://github.com/FXMisc/RichTextFX/blob/master/richtextfx-demos/src/main/java/org/fxmisc/richtext/demo/PopupDemo.java
  *
@@ -40,6 +50,16 @@ public class AutoCompleteField<T, S> extends AnchorPane {
   private static final int CARET_X_OFFSET = -20;
   private static final int CARET_Y_OFFSET = 0;
   private static final int MAX_SHOWN_SUGGESTIONS = 10;
+  private static final ExecutorService HIGHLIGHTING_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "Syntax Highlighting Thread");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final ExecutorService SUGGESTIONS_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "Suggestions Thread");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   private final Config config;
   private final SuggestionsMenu suggestionsPopup = new SuggestionsMenu();
@@ -47,10 +67,36 @@ public class AutoCompleteField<T, S> extends AnchorPane {
   private final Predicate<T> entriesFilter;
   private final Function<T, String> stringConverter;
   private final Function<String, S> cssConverter;
+  private final ToIntFunction<T> entriesId;
+  private final Supplier<? extends Map<Integer, Integer>> entriesWeights;
+  private final PrefixIndex<T> suggestionsIndex;
+  @Nullable
+  private final IntSupplier entriesVersion;
+  // The following fields are only accessed from SUGGESTIONS_EXECUTOR
+  private int indexedEntriesVersion;
+  private boolean indexInitialized = false;
+  private Map<Integer, Integer> indexedWeights = Map.of();
+  /**
+   * Incremented each time suggestions are requested or hidden.
+   * Only accessed from the FX thread.
+   */
+  private int suggestionsGeneration;
   @Nullable
   private SyntaxHighlighter syntaxHighlighter;
   @Nullable
   private String previousHighlightClass;
+  /**
+   * The text that the currently applied styles correspond to.
+   * If null, styles have to be recomputed for the whole text.
+   */
+  @Nullable
+  private String highlightedText;
+  private Collection<Span> highlightedSpans = List.of();
+  /**
+   * Incremented each time highlighting is requested.
+   * Only accessed from the FX thread.
+   */
+  private int highlightingGeneration;
   private boolean hidePopupTemporarily = false;
   private boolean canShowSuggestions = false;
 
@@ -66,17 +112,30 @@ public class AutoCompleteField<T, S> extends AnchorPane {
    * @param entries           The set of entries.
    * @param entriesFilter     An optional filter to apply to entries when showing suggestions.
    * @param stringConverter   A function to convert each suggestion into a string.
+   * @param entriesId         A function that returns the ID of each entry in the weights map.
+   * @param entriesWeights    A function that returns the weight of each entry, mapped by ID.
+   *                          Suggestions with the highest weights are shown first. If it returns
+   *                          {@link PersistentIntMap}s, only the weights that changed since the previous map
+   *                          are updated in the suggestions index.
+   * @param entriesVersion    An optional function that returns a value that changes whenever
+   *                          the entries or their weights change. If null, the suggestions index
+   *                          is checked against the entries every time suggestions are shown.
    * @param syntaxHighlighter An optional syntax highlighter that will color the text.
    * @param cssConverter      If the {@code syntaxHighlighter} argument is specified,
    *                          a function that converts a string returned by {@link Span} objects
    *                          into the appropriate type accepted by the {@code styledArea} object.
    * @param config            The app’s config.
+   *                          <p>
+   *                          The entries, their filter, IDs, weights and version are read from a background thread.
    */
   public AutoCompleteField(
       @NotNull StyledTextArea<S, S> styledArea,
       final @NotNull Set<T> entries,
       Predicate<T> entriesFilter,
       @NotNull Function<T, String> stringConverter,
+      @NotNull ToIntFunction<T> entriesId,
+      @NotNull Supplier<? extends Map<Integer, Integer>> entriesWeights,
+      IntSupplier entriesVersion,
       SyntaxHighlighter syntaxHighlighter,
       Function<String, S> cssConverter,
       @NotNull Config config
@@ -84,6 +143,13 @@ public class AutoCompleteField<T, S> extends AnchorPane {
     this.entries = Objects.requireNonNull(entries);
     this.entriesFilter = entriesFilter;
     this.stringConverter = Objects.requireNonNull(stringConverter);
+    this.entriesId = Objects.requireNonNull(entriesId);
+    this.entriesWeights = Objects.requireNonNull(entriesWeights);
+    this.suggestionsIndex = new PrefixIndex<>(
+        stringConverter,
+        t -> this.indexedWeights.getOrDefault(this.entriesId.applyAsInt(t), 0)
+    );
+    this.entriesVersion = entriesVersion;
     this.cssConverter = cssConverter;
     this.config = config;
     if (!styledArea.getStyleClass().contains("text-input"))
@@ -110,11 +176,11 @@ public class AutoCompleteField<T, S> extends AnchorPane {
     });
     styledArea.selectedTextProperty().addListener((observable, oldValue, newValue) -> {
       this.hideSuggestions();
-      this.refreshHighlighting();
+      this.updateHighlighting();
     });
     styledArea.textProperty().addListener((observableValue, oldValue, newValue) -> {
       this.canShowSuggestions = true;
-      this.refreshHighlighting();
+      this.updateHighlighting();
       if (!this.internalUpdate) {
         if (this.historyIndex >= 0) // Clear history after current index
           this.history.subList(this.historyIndex + 1, this.history.size()).clear();
@@ -214,8 +280,7 @@ public class AutoCompleteField<T, S> extends AnchorPane {
   /**
    * Set the text of the wrapped {@link StyledTextArea}.
    * <p>
-   * The undo history will be reset.
-   * Text highlighting will be updated only if the new text differs from the current one.
+   * The undo history will be reset and highlighting will be recomputed for the whole text.
    *
    * @param text The new text.
    */
@@ -227,6 +292,7 @@ public class AutoCompleteField<T, S> extends AnchorPane {
       this.historyIndex = 0;
     } else
       this.historyIndex = -1;
+    this.highlightedText = null;
     this.styledArea.replaceText(text);
     if (forceRefresh)
       this.refreshHighlighting();
@@ -241,11 +307,59 @@ public class AutoCompleteField<T, S> extends AnchorPane {
     this.styledArea.requestFocus();
   }
 
+  /**
+   * Recompute the highlighting of the whole text.
+   */
   public void refreshHighlighting() {
-    this.styledArea.clearStyle(0);
-    if (this.syntaxHighlighter != null)
-      this.syntaxHighlighter.highlight(this.getText())
-          .forEach(span -> this.styledArea.setStyle(span.start(), span.end() + 1, this.cssConverter.apply(span.css())));
+    this.highlightedText = null;
+    this.updateHighlighting();
+  }
+
+  /**
+   * Update the highlighting of the text in a background thread.
+   * If the text changes before the computation is done, the result is dropped.
+   */
+  private void updateHighlighting() {
+    final int generation = ++this.highlightingGeneration;
+    final String text = this.getText();
+    final SyntaxHighlighter highlighter = this.syntaxHighlighter;
+    if (highlighter == null) {
+      this.styledArea.clearStyle(0, text.length());
+      this.highlightedText = null;
+      return;
+    }
+    final String previousText = this.highlightedText;
+    final Collection<Span> previousSpans = this.highlightedSpans;
+    HIGHLIGHTING_EXECUTOR.execute(() -> {
+      final Collection<Span> spans;
+      final HighlightingPatch patch;
+      if (previousText == null) {
+        spans = highlighter.highlight(text);
+        patch = new HighlightingPatch(0, text.length(), List.copyOf(spans));
+      } else {
+        spans = highlighter.highlight(text, previousText, previousSpans);
+        patch = HighlightingPatch.compute(previousSpans, TextEdit.between(previousText, text), spans);
+      }
+      Platform.runLater(() -> {
+        if (generation != this.highlightingGeneration)
+          return; // Text changed in the meantime
+        this.applyPatch(patch);
+        this.highlightedText = text;
+        this.highlightedSpans = spans;
+      });
+    });
+  }
+
+  private void applyPatch(@NotNull HighlightingPatch patch) {
+    if (patch.isEmpty())
+      return;
+    this.styledArea.clearStyle(patch.from(), patch.to());
+    for (final Span span : patch.spans())
+      this.styledArea.setStyle(
+          Math.max(span.start(), patch.from()),
+          Math.min(span.end() + 1, patch.to()),
+          this.cssConverter.apply(span.css())
+      );
   }
 
   public void setSyntaxHighlighter(SyntaxHighlighter syntaxHighlighter) {
@@ -265,6 +379,7 @@ public class AutoCompleteField<T, S> extends AnchorPane {
   }
 
   private void hideSuggestions() {
+    this.suggestionsGeneration++; // Drop any pending lookup
     this.suggestionsPopup.hide();
   }
 
@@ -273,35 +388,66 @@ public class AutoCompleteField<T, S> extends AnchorPane {
     final String beforeCaret = text.substring(0, caretIndex);
     final Matcher matcher = WORD_START_PATTERN.matcher(beforeCaret);
     final String wordBegining = matcher.find() ? matcher.group(1) : "";
-    final List<String> suggestions;
-    if (wordBegining.isEmpty())
-      suggestions = List.of();
-    else
-      suggestions = this.entries.stream()
-          .filter(t -> this.entriesFilter != null && this.entriesFilter.test(t))
-          .map(this.stringConverter)
-          .filter(s -> s.startsWith(wordBegining) && !s.equals(wordBegining))
-          .sorted()
-          .toList();
-    if (!suggestions.isEmpty()) {
-      this.populatePopup(suggestions);
-      if (!this.suggestionsPopup.isShowing())
-        this.showSuggestions();
-    } else {
+    if (wordBegining.isEmpty()) {
       this.hideSuggestions();
+      return;
+    }
+    final int generation = ++this.suggestionsGeneration;
+    SUGGESTIONS_EXECUTOR.execute(() -> {
+      this.updateSuggestionsIndex();
+      final List<String> suggestions = this.suggestionsIndex.completions(wordBegining, MAX_SHOWN_SUGGESTIONS);
+      Platform.runLater(() -> {
+        if (generation != this.suggestionsGeneration)
+          return; // Text or caret changed in the meantime
+        if (!suggestions.isEmpty()) {
+          this.populatePopup(suggestions);
+          if (!this.suggestionsPopup.isShowing())
+            this.showSuggestions();
+        } else {
+          this.suggestionsPopup.hide();
+        }
+      });
+    });
+  }
+
+  /**
+   * Update the suggestions index if the entries changed since the last update.
+   * Must be called from {@link #SUGGESTIONS_EXECUTOR}, so that the index is only updated from a single thread.
+   */
+  private void updateSuggestionsIndex() {
+    if (this.entriesVersion != null) {
+      final int version = this.entriesVersion.getAsInt();
+      if (this.indexInitialized && version == this.indexedEntriesVersion)
+        return;
+      this.indexedEntriesVersion = version;
+      this.indexInitialized = true;
     }
+    final Map<Integer, Integer> weights = this.entriesWeights.get();
+    final Predicate<T> weightChanged;
+    if (this.indexedWeights instanceof PersistentIntMap<Integer> previous
+        && weights instanceof PersistentIntMap<Integer> current) {
+      final Set<Integer> changedIds = new HashSet<>();
+      current.forEachChangedKey(previous, changedIds::add);
+      weightChanged = t -> changedIds.contains(this.entriesId.applyAsInt(t));
+    } else
+      weightChanged = t -> true;
+    this.indexedWeights = weights;
+    this.suggestionsIndex.update(
+        this.entries.stream()
+            .filter(t -> this.entriesFilter == null || this.entriesFilter.test(t))
+            .toList(),
+        weightChanged
+    );
   }
 
   /**
    * Populate the entry set with the given suggestions.
-   * Display is limited to {@link #MAX_SHOWN_SUGGESTIONS} entries, for performance.
    *
-   * @param suggestions The set of suggestions.
+   * @param suggestions The list of suggestions, at most {@link #MAX_SHOWN_SUGGESTIONS}.
    */
   private void populatePopup(final @NotNull List<String> suggestions) {
     this.suggestionsPopup.getItems().clear();
     suggestions.stream()
-        .limit(MAX_SHOWN_SUGGESTIONS)
         .map(this::newMenuItem)
         .forEach(menuItem -> this.suggestionsPopup.getItems().add(menuItem));
   }
@@ -1,11 +1,14 @@
 package net.darmo_creations.bildumilo.ui;
 
+import javafx.animation.*;
 import javafx.application.*;
 import javafx.geometry.*;
 import javafx.scene.control.*;
+import javafx.scene.control.skin.*;
 import javafx.scene.input.*;
 import javafx.scene.layout.*;
 import javafx.scene.text.*;
+import javafx.util.*;
 import net.darmo_creations.bildumilo.*;
 import net.darmo_creations.bildumilo.config.*;
 import net.darmo_creations.bildumilo.data.*;
@@ -22,9 +25,24 @@ import org.jetbrains.annotations.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class ResultsView extends VBox implements ClickableListCellFactory.ClickListener<ResultsView.MediaEntry> {
   private static final int MAX_HISTORY_SIZE = 20;
+  /**
+   * Delay after the last keystroke before counting the medias that match the query being typed.
+   */
+  private static final Duration LIVE_COUNT_DELAY = Duration.millis(300);
+  /**
+   * Evaluates the medias changed in the database against the queries of all views.
+   * Changes are evaluated one batch at a time, in the order they were committed.
+   */
+  private static final ExecutorService CHANGES_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "Results Update Thread");
+    thread.setDaemon(true);
+    return thread;
+  });
   private static int globalId = 0;
 
   private final Set<MediaItemClickListener> mediaItemClickListeners = new HashSet<>();
@@ -45,6 +63,27 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
   private final ListView<MediaEntry> mediasList = new ListView<>();
   private final MediaPreviewPane mediaPreviewPane;
   private final TextPopOver popup;
+  private final PauseTransition liveCountDelay = new PauseTransition(LIVE_COUNT_DELAY);
+  /**
+   * Incremented each time the query changes, used to discard outdated live counts.
+   */
+  private int liveCountGeneration = 0;
+  /**
+   * The query of the last successful search.
+   */
+  @Nullable
+  private TagQuery currentQuery;
+  private final DatabaseConnection.ChangesListener changesListener =
+      changes -> Platform.runLater(() -> this.onDatabaseChanges(changes));
+  /**
+   * The number of searches that are running. Changes committed in the meantime are applied once they end,
+   * as their results may or may not include them.
+   */
+  private int runningSearches = 0;
+  /**
+   * The IDs of the medias changed while a search was running.
+   */
+  private final Set<Integer> deferredMediaIds = new HashSet<>();
 
   public ResultsView(
       @NotNull Config config,
@@ -56,6 +95,7 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
     this.db = db;
     this.queriesManager = queriesManager;
     queriesManager.addQueriesUpdateListener(this::updateSearchButtons);
+    db.addChangesListener(this.changesListener);
 
     final Language language = config.language();
     final Theme theme = config.theme();
@@ -81,6 +121,9 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
         db.getAllTags(),
         t -> true,
         Tag::label,
+        Tag::id,
+        db::getTagsCountsSnapshot,
+        db::tagsCacheVersion,
         config.isQuerySyntaxHighlightingEnabled() ? new TagQuerySyntaxHighlighter() : null,
         List::of,
         config
@@ -92,7 +135,10 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
       if (this.popup.isShowing())
         this.popup.hide();
       this.updateSearchButtons();
+      this.liveCountGeneration++;
+      this.liveCountDelay.playFromStart();
     });
+    this.liveCountDelay.setOnFinished(e -> this.updateLiveCount());
 
     final Button searchButton = new Button();
     searchButton.setOnAction(e -> this.search(null));
@@ -201,6 +247,13 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
         .toList();
   }
 
+  /**
+   * The query of the last successful search made in this view.
+   */
+  public Optional<TagQuery> currentQuery() {
+    return Optional.ofNullable(this.currentQuery);
+  }
+
   /**
    * Focus the search bar.
    */
@@ -269,6 +322,28 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
     this.search(null);
   }
 
+  /**
+   * Set the search bar’s query string to the given saved query and search for it.
+   * The query is not parsed again, and its results are reused if they are up-to-date.
+   *
+   * @param name The name of a saved query.
+   */
+  public void searchSavedQuery(@NotNull String name) {
+    final String query = this.queriesManager.getQuery(name);
+    final Optional<TagQuery> tagQuery = this.queriesManager.getCompiledQuery(name);
+    if (tagQuery.isEmpty()) { // Let the parser report the error
+      this.searchQuery(query);
+      return;
+    }
+    this.searchField.setText(query);
+    this.searchField.requestFocus();
+    this.addToHistory(query);
+    final Optional<Set<Integer>> results = this.queriesManager.getResults(name);
+    this.performSearch(query, tagQuery.get(), () -> results.isPresent()
+        ? new HashSet<>(this.db.getMedias(results.get()).values())
+        : this.db.queryMedias(tagQuery.get()), null);
+  }
+
   /**
    * Refresh this view by re-running the current tag query.
    */
@@ -294,35 +369,227 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
     });
   }
 
+  /**
+   * Stop following the changes of the database. This view must not be used afterwards.
+   */
+  public void dispose() {
+    this.db.removeChangesListener(this.changesListener);
+  }
+
   /**
    * Show the given medias in the list view.
    *
    * @param mediaFiles The medias to show.
    */
   public void listMedias(final @NotNull Collection<MediaFile> mediaFiles) {
-    final Language language = this.config.language();
-    final int count = mediaFiles.size();
+    this.updateResultsLabel(mediaFiles.size());
 
-    if (mediaFiles.isEmpty())
+    Map<Integer, int[]> mediasTags;
+    try {
+      mediasTags = this.db.getMediasTags(mediaFiles);
+    } catch (final DatabaseOperationException e) {
+      App.logger().error("Error getting tags for media files", e);
+      mediasTags = Map.of();
+    }
+    final Map<Integer, int[]> tags = mediasTags;
+    this.mediasList.getItems().setAll(mediaFiles.stream()
+        .sorted()
+        .map(media -> new MediaEntry(media, this.db.getTags(tags.getOrDefault(media.id(), new int[0])), this.config, this.id))
+        .toList());
+  }
+
+  private void updateResultsLabel(int count) {
+    final Language language = this.config.language();
+    if (count == 0)
       this.resultsLabel.setText(language.translate("images_view.no_results"));
     else
       this.resultsLabel.setText(language.translate("images_view.results", count,
           new FormatArg("count", language.formatNumber(count))));
+  }
 
-    final var listViewItems = this.mediasList.getItems();
-    listViewItems.clear();
-    mediaFiles.stream()
-        .sorted()
-        .forEach(media -> {
-          Set<Tag> mediaTags;
-          try {
-            mediaTags = this.db.getMediaTags(media);
-          } catch (final DatabaseOperationException e) {
-            App.logger().error("Error getting tags for media file {}", media, e);
-            mediaTags = Set.of();
-          }
-          listViewItems.add(new MediaEntry(media, mediaTags, this.config, this.id));
-        });
+  /**
+   * Apply the given changes to the listed medias.
+   * <p>
+   * If a query is shown, inserted and changed medias are checked against it with its {@link TagQueryPredicate}
+   * and inserted into, updated in or removed from the list accordingly, without running the query again.
+   * Otherwise, only the listed medias are updated or removed.
+   * The query is only run again if changes to tags or tag types may affect the results of any media.
+   */
+  private void onDatabaseChanges(@NotNull DatabaseChanges changes) {
+    final boolean hasQuery = this.currentQuery != null;
+    if (hasQuery && requiresRefresh(changes)) {
+      this.refresh();
+      return;
+    }
+    final Set<Integer> mediaIds = changes.changedMedias();
+    if (hasQuery)
+      mediaIds.addAll(changes.insertedMedias());
+    else
+      mediaIds.retainAll(this.listedMediaIds());
+    if (this.runningSearches != 0) {
+      this.deferredMediaIds.addAll(changes.deletedMedias());
+      this.deferredMediaIds.addAll(mediaIds);
+      return;
+    }
+    if (!changes.deletedMedias().isEmpty())
+      this.applyMediaUpdates(changes.deletedMedias(), Map.of(), hasQuery);
+    this.updateMedias(mediaIds);
+  }
+
+  /**
+   * Indicate whether the given changes may affect the results of the current query
+   * for medias other than those listed in them.
+   */
+  private static boolean requiresRefresh(@NotNull DatabaseChanges changes) {
+    // Queries refer to tags by label and embed the definitions of compound tags
+    return changes.reloadRequired()
+           || !changes.updatedTags().isEmpty() || !changes.deletedTags().isEmpty()
+           || !changes.updatedTagTypes().isEmpty() || !changes.deletedTagTypes().isEmpty();
+  }
+
+  private Set<Integer> listedMediaIds() {
+    return this.mediasList.getItems().stream()
+        .map(entry -> entry.mediaFile().id())
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Fetch the given medias and check them against the current query in a background thread,
+   * then update the list accordingly.
+   *
+   * @param mediaIds The IDs of the medias to update.
+   */
+  private void updateMedias(final @NotNull Set<Integer> mediaIds) {
+    if (mediaIds.isEmpty())
+      return;
+    final TagQuery query = this.currentQuery;
+    CHANGES_EXECUTOR.execute(() -> {
+      final Map<Integer, Pair<MediaFile, Set<Tag>>> matches = new HashMap<>();
+      try {
+        final Map<Integer, MediaFile> mediaFiles = this.db.getMedias(mediaIds);
+        final Map<Integer, int[]> mediasTags = this.db.getMediasTags(mediaFiles.values());
+        for (final MediaFile mediaFile : mediaFiles.values()) {
+          final Set<Tag> tags = this.db.getTags(mediasTags.get(mediaFile.id()));
+          if (query == null || this.db.mediaMatchesQuery(mediaFile, tags, query))
+            matches.put(mediaFile.id(), new Pair<>(mediaFile, tags));
+        }
+      } catch (final DatabaseOperationException e) {
+        App.logger().error("Unable to update the medias of a results view", e);
+        return;
+      }
+      Platform.runLater(() -> {
+        if (this.runningSearches != 0 || this.currentQuery != query) {
+          // The results have been replaced in the meantime, check the medias again against them
+          if (this.runningSearches != 0)
+            this.deferredMediaIds.addAll(mediaIds);
+          else
+            this.updateMedias(mediaIds);
+          return;
+        }
+        this.applyMediaUpdates(mediaIds, matches, query != null);
+      });
+    });
+  }
+
+  /**
+   * Update the listed entries of the given medias, keeping the list sorted,
+   * and restore the selection and the scroll position.
+   *
+   * @param mediaIds  The IDs of the medias to update.
+   * @param matches   The medias that should be listed, with their tags.
+   *                  Listed medias that are absent from this map are removed.
+   * @param canInsert Whether medias that are not listed yet may be inserted.
+   */
+  private void applyMediaUpdates(
+      final @NotNull Set<Integer> mediaIds,
+      final @NotNull Map<Integer, Pair<MediaFile, Set<Tag>>> matches,
+      boolean canInsert
+  ) {
+    final var items = this.mediasList.getItems();
+    final var selectionModel = this.mediasList.getSelectionModel();
+    final Set<Integer> selectedIds = selectionModel.getSelectedItems().stream()
+        .filter(Objects::nonNull)
+        .map(entry -> entry.mediaFile().id())
+        .collect(Collectors.toSet());
+    final MediaEntry focusedEntry = this.mediasList.getFocusModel().getFocusedItem();
+    final int firstVisibleIndex = this.getFirstVisibleIndex();
+    final MediaEntry firstVisibleEntry = firstVisibleIndex >= 0 ? items.get(firstVisibleIndex) : null;
+
+    // Build the new contents once and apply them with a single change
+    final List<MediaEntry> kept = new ArrayList<>(items.size());
+    final Set<Integer> listedIds = new HashSet<>();
+    boolean selectionUpdated = false;
+    for (final MediaEntry entry : items) {
+      final int mediaId = entry.mediaFile().id();
+      if (mediaIds.contains(mediaId)) {
+        listedIds.add(mediaId);
+        selectionUpdated |= selectedIds.contains(mediaId);
+      } else
+        kept.add(entry);
+    }
+    final List<MediaEntry> inserted = new ArrayList<>();
+    for (final var match : matches.entrySet()) {
+      if (!canInsert && !listedIds.contains(match.getKey()))
+        continue;
+      final var media = match.getValue();
+      inserted.add(new MediaEntry(media.getKey(), media.getValue(), this.config, this.id));
+    }
+    inserted.sort(null);
+    final List<MediaEntry> newItems = mergeSorted(kept, inserted);
+
+    final int[] selectedIndices = new int[selectedIds.size()];
+    int selectedCount = 0;
+    int focusedIndex = -1;
+    int newFirstVisibleIndex = -1;
+    for (int i = 0; i < newItems.size(); i++) {
+      final int mediaId = newItems.get(i).mediaFile().id();
+      if (selectedIds.contains(mediaId))
+        selectedIndices[selectedCount++] = i;
+      if (focusedEntry != null && focusedEntry.mediaFile().id() == mediaId)
+        focusedIndex = i;
+      if (firstVisibleEntry != null && firstVisibleEntry.mediaFile().id() == mediaId)
+        newFirstVisibleIndex = i;
+    }
+
+    items.setAll(newItems);
+    selectionModel.clearSelection();
+    if (selectedCount != 0)
+      selectionModel.selectIndices(selectedIndices[0], Arrays.copyOfRange(selectedIndices, 1, selectedCount));
+    if (focusedIndex >= 0)
+      this.mediasList.getFocusModel().focus(focusedIndex);
+    if (newFirstVisibleIndex >= 0 && newFirstVisibleIndex != firstVisibleIndex)
+      this.mediasList.scrollTo(newFirstVisibleIndex);
+    this.updateResultsLabel(items.size());
+    if (selectionUpdated)
+      this.onSelectionChange();
+  }
+
+  /**
+   * Merge two sorted lists into a new sorted list.
+   */
+  private static <T extends Comparable<? super T>> List<T> mergeSorted(
+      final @NotNull List<T> list1,
+      final @NotNull List<T> list2
+  ) {
+    final List<T> merged = new ArrayList<>(list1.size() + list2.size());
+    int i = 0, j = 0;
+    while (i < list1.size() && j < list2.size())
+      merged.add(list1.get(i).compareTo(list2.get(j)) <= 0 ? list1.get(i++) : list2.get(j++));
+    merged.addAll(list1.subList(i, list1.size()));
+    merged.addAll(list2.subList(j, list2.size()));
+    return merged;
+  }
+
+  /**
+   * Return the index of the entry at the top of the visible part of the list, or -1 if there is none.
+   */
+  private int getFirstVisibleIndex() {
+    if (this.mediasList.lookup(".virtual-flow") instanceof VirtualFlow<?> flow) {
+      final IndexedCell<?> cell = flow.getFirstVisibleCell();
+      if (cell != null && cell.getIndex() >= 0 && cell.getIndex() < this.mediasList.getItems().size())
+        return cell.getIndex();
+    }
+    return -1;
   }
 
   /**
@@ -351,6 +618,16 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
       return;
     }
 
+    this.addToHistory(query);
+    this.performSearch(query, tagQuery, () -> this.db.queryMedias(tagQuery), onSuccess);
+  }
+
+  /**
+   * Put the given query on top of the search history.
+   *
+   * @param query A query string.
+   */
+  private void addToHistory(@NotNull String query) {
     final var history = this.historyButton.getItems();
     final var matchingItem = history.stream().filter(t -> t.getText().equals(query)).findFirst();
     if (matchingItem.isEmpty()) {
@@ -370,12 +647,58 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
       history.remove(item);
       history.add(0, item);
     }
+  }
+
+  /**
+   * Count the medias that match the query currently being typed in a background thread
+   * and show the result in the results label. Invalid queries are silently ignored.
+   */
+  private void updateLiveCount() {
+    final var queryString = StringUtils.stripNullable(this.searchField.getText());
+    if (queryString.isEmpty())
+      return;
+
+    final TagQuery tagQuery;
+    try {
+      tagQuery = TagQueryParser.parse(
+          queryString.get(), this.db.getTagDefinitions(), DatabaseConnection.PSEUDO_TAGS, this.config);
+    } catch (final TagQueryTooLargeException | TagQuerySyntaxErrorException | InvalidPseudoTagException e) {
+      return;
+    }
 
-    this.performSearch(query, () -> this.db.queryMedias(tagQuery), onSuccess);
+    final int generation = this.liveCountGeneration;
+    new Thread(() -> {
+      final int count;
+      try {
+        count = this.db.countMedias(tagQuery);
+      } catch (final DatabaseOperationException e) {
+        App.logger().error("Unable to count medias for query {}", queryString.get(), e);
+        return;
+      }
+      Platform.runLater(() -> {
+        if (generation != this.liveCountGeneration)
+          return; // The query changed in the meantime
+        final Language language = this.config.language();
+        if (count == 0)
+          this.resultsLabel.setText(language.translate("images_view.live_count.none"));
+        else
+          this.resultsLabel.setText(language.translate("images_view.live_count", count,
+              new FormatArg("count", language.formatNumber(count))));
+      });
+    }, "Live Count Thread").start();
   }
 
-  private void performSearch(@NotNull String query, @NotNull Search search, Runnable onSuccess) {
+  private void performSearch(
+      @NotNull String query,
+      @NotNull TagQuery tagQuery,
+      @NotNull Search search,
+      Runnable onSuccess
+  ) {
+    // Discard any pending live count, the actual results will be shown instead
+    this.liveCountDelay.stop();
+    this.liveCountGeneration++;
     this.searchListeners.forEach(l -> l.onSearchStart(query, this));
+    this.runningSearches++;
     new Thread(() -> {
       final Set<MediaFile> mediaFiles;
       try {
@@ -388,7 +711,7 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
         return;
       }
       Platform.runLater(() -> {
-        this.onSearchEnd(mediaFiles);
+        this.onSearchEnd(tagQuery, mediaFiles);
         if (onSuccess != null)
           onSuccess.run();
       });
@@ -436,17 +759,31 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
     this.popup.show(this.searchField);
   }
 
-  private void onSearchEnd(final @NotNull Set<MediaFile> mediaFiles) {
+  private void onSearchEnd(@NotNull TagQuery tagQuery, final @NotNull Set<MediaFile> mediaFiles) {
+    this.currentQuery = tagQuery;
     this.listMedias(mediaFiles);
+    this.onSearchDone();
     this.searchListeners.forEach(listener -> listener.onSearchEnd(mediaFiles.size()));
     this.searchField.requestFocus();
   }
 
   private void onSearchError() {
+    this.onSearchDone();
     this.searchListeners.forEach(SearchListener::onSearchFail);
     this.searchField.requestFocus();
   }
 
+  /**
+   * Check the medias changed during the search against its results.
+   */
+  private void onSearchDone() {
+    if (--this.runningSearches != 0)
+      return;
+    final Set<Integer> mediaIds = new HashSet<>(this.deferredMediaIds);
+    this.deferredMediaIds.clear();
+    this.updateMedias(mediaIds);
+  }
+
   private void updateSearchButtons() {
     final Optional<String> query = StringUtils.stripNullable(this.searchField.getText());
     final boolean noQuery = query.isEmpty();
@@ -495,7 +832,7 @@ public class ResultsView extends VBox implements ClickableListCellFactory.ClickL
   private boolean hasSimilarImages(@NotNull MediaFile mediaFile) {
     if (mediaFile.hash().isPresent()) {
       try {
-        return !this.db.getSimilarImages(mediaFile.hash().get(), mediaFile).isEmpty();
+        return this.db.hasSimilarImages(mediaFile.hash().get(), mediaFile);
       } catch (final DatabaseOperationException e) {
         App.logger().error("Failed to get similar images of {}", mediaFile.path(), e);
       }
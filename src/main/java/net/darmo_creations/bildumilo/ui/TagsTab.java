@@ -126,6 +126,18 @@ public final class TagsTab extends Tab implements ClickableListCellFactory.Click
     this.updateTitle();
   }
 
+  /**
+   * Set the number of uses of each tag among the results of a query.
+   *
+   * @param resultsCounts A map associating tag IDs to their number of uses among the results of a query.
+   *                      Tags absent from the map are considered to have no uses.
+   *                      If null, the results counts are hidden.
+   */
+  public void setResultsCounts(final Map<Integer, Integer> resultsCounts) {
+    this.tagEntries.forEach(entry ->
+        entry.setResultsCount(resultsCounts != null ? resultsCounts.getOrDefault(entry.tag().id(), 0) : null));
+  }
+
   /**
    * Set the filter for this list: only tags whose label is matching the filter will be displayed.
    *
@@ -198,23 +210,40 @@ public final class TagsTab extends Tab implements ClickableListCellFactory.Click
 
   public static final class TagEntry extends HBox implements Comparable<TagEntry> {
     private final Tag tag;
+    private final int useCount;
+    private final Label label = new Label();
 
     public TagEntry(@NotNull Tag tag, int useCount, final @NotNull Config config) {
       this.tag = tag;
-      final Label label = new Label();
+      this.useCount = useCount;
       if (this.tag.definition().isPresent()) {
-        label.setGraphic(config.theme().getIcon(Icon.COMPOUND_TAG, Icon.Size.SMALL));
-        label.setTooltip(new Tooltip(this.tag.definition().get()));
-        label.setText(this.tag.label());
+        this.label.setGraphic(config.theme().getIcon(Icon.COMPOUND_TAG, Icon.Size.SMALL));
+        this.label.setTooltip(new Tooltip(this.tag.definition().get()));
+        this.label.setText(this.tag.label());
       } else
-        label.setText("%s (%d)".formatted(this.tag.label(), useCount));
-      this.getChildren().add(label);
+        this.setResultsCount(null);
+      this.getChildren().add(this.label);
     }
 
     public Tag tag() {
       return this.tag;
     }
 
+    /**
+     * Set the number of uses of this entry’s tag among the results of a query.
+     * Compound tags are not affected.
+     *
+     * @param resultsCount The number of uses. If null, only the total use count is shown.
+     */
+    public void setResultsCount(Integer resultsCount) {
+      if (this.tag.definition().isPresent())
+        return;
+      if (resultsCount != null)
+        this.label.setText("%s (%d/%d)".formatted(this.tag.label(), resultsCount, this.useCount));
+      else
+        this.label.setText("%s (%d)".formatted(this.tag.label(), this.useCount));
+    }
+
     @Override
     public int compareTo(@NotNull TagEntry o) {
       return this.tag().compareTo(o.tag());
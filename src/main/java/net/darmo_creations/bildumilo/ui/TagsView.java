@@ -1,11 +1,14 @@
 package net.darmo_creations.bildumilo.ui;
 
+import javafx.application.*;
 import javafx.geometry.*;
 import javafx.scene.control.*;
 import javafx.scene.input.*;
 import javafx.scene.layout.*;
+import net.darmo_creations.bildumilo.*;
 import net.darmo_creations.bildumilo.config.*;
 import net.darmo_creations.bildumilo.data.*;
+import net.darmo_creations.bildumilo.query_parser.*;
 import net.darmo_creations.bildumilo.themes.*;
 import net.darmo_creations.bildumilo.utils.*;
 import org.jetbrains.annotations.*;
@@ -28,6 +31,17 @@ public class TagsView extends VBox {
   private final TabPane tabPane = new TabPane();
   private final TextField searchField = new TextField();
   private final Button clearSearchButton = new Button();
+  private final ToggleButton resultsCountsButton = new ToggleButton();
+
+  /**
+   * The query whose results are used to compute the tags’ results counts.
+   */
+  @Nullable
+  private TagQuery resultsQuery;
+  /**
+   * Incremented each time the results counts have to be recomputed, used to discard outdated counts.
+   */
+  private int resultsCountsGeneration = 0;
 
   /**
    * Create a new tag tree view.
@@ -49,7 +63,8 @@ public class TagsView extends VBox {
     final HBox searchBox = new HBox(
         5,
         this.searchField,
-        this.clearSearchButton
+        this.clearSearchButton,
+        this.resultsCountsButton
     );
     searchBox.setPadding(new Insets(2));
     this.getChildren().addAll(searchBox, this.tabPane);
@@ -80,6 +95,10 @@ public class TagsView extends VBox {
     this.clearSearchButton.setTooltip(new Tooltip(language.translate("search_field.erase_search")));
     this.clearSearchButton.setDisable(true);
 
+    this.resultsCountsButton.setOnAction(e -> this.updateResultsCounts());
+    this.resultsCountsButton.setGraphic(theme.getIcon(Icon.SHOW_RESULTS_TAGS_COUNTS, Icon.Size.BIG));
+    this.resultsCountsButton.setTooltip(new Tooltip(language.translate("tag_search_field.show_results_counts")));
+
     this.refresh();
   }
 
@@ -126,6 +145,51 @@ public class TagsView extends VBox {
     tabTags.forEach(TagsTab::setTags);
     this.hookDragAndDrop();
     this.onSearchFilterChange(this.searchField.getText());
+    this.updateResultsCounts();
+  }
+
+  /**
+   * Set the query whose results should be used to compute the number of uses of each tag among them.
+   * The counts are only computed and shown if the corresponding toggle button is selected.
+   *
+   * @param query A tag query. May be null.
+   */
+  public void setResultsQuery(TagQuery query) {
+    if (query == this.resultsQuery)
+      return;
+    this.resultsQuery = query;
+    this.updateResultsCounts();
+  }
+
+  /**
+   * Compute, in a background thread, the number of uses of each tag among the results of the current query,
+   * then update each tab independently. If the toggle button is not selected or there is no query,
+   * the results counts are hidden.
+   */
+  private void updateResultsCounts() {
+    final int generation = ++this.resultsCountsGeneration;
+    final TagQuery query = this.resultsQuery;
+    if (!this.resultsCountsButton.isSelected() || query == null) {
+      this.tabPane.getTabs().forEach(tab -> ((TagsTab) tab).setResultsCounts(null));
+      return;
+    }
+
+    final List<Tab> tabs = List.copyOf(this.tabPane.getTabs());
+    new Thread(() -> {
+      final Map<Integer, Integer> counts;
+      try {
+        counts = this.db.getTagsCountsForQuery(query);
+      } catch (final DatabaseOperationException e) {
+        App.logger().error("Unable to compute tags counts for current results", e);
+        return;
+      }
+      // Update tabs one at a time to avoid blocking the UI thread on large tag sets
+      for (final Tab tab : tabs)
+        Platform.runLater(() -> {
+          if (generation == this.resultsCountsGeneration) // Discard outdated counts
+            ((TagsTab) tab).setResultsCounts(counts);
+        });
+    }, "Tags Counts Thread").start();
   }
 
   /**
@@ -502,6 +502,10 @@ public class BatchOperationsDialog extends DialogBase<Boolean>
     @Override
     public void run() {
       final var dialog = this.dialog();
+      final List<? extends Operation> operations = dialog.operationBatchList.getItems()
+          .stream()
+          .map(OperationView::getOperation)
+          .toList();
       final int total;
       final Stream<MediaFile> stream;
       if (dialog.applyToSelectedRadio.isSelected()) {
@@ -520,28 +524,39 @@ public class BatchOperationsDialog extends DialogBase<Boolean>
         }
       }
 
+      if (operations.stream().allMatch(operation -> operation instanceof UpdateTagsOperation)) {
+        this.runTagsUpdates(operations.stream().map(operation -> (UpdateTagsOperation) operation).toList(), stream);
+        return;
+      }
+
       int count = 0;
       dialog.anyMediaUpdate = true;
-      try {
+      // Medias to delete are collected and deleted all at once after the other operations have been applied
+      final Map<DeleteOperation, List<MediaFile>> deletions = new LinkedHashMap<>();
+      boolean cancelled = false;
+      // The stream may hold a read connection, it must be closed whatever happens
+      try (stream) {
         final Iterator<MediaFile> iterator = stream.iterator();
         this.notifyProgress(total, count);
         while (iterator.hasNext()) {
           if (dialog.progressDialog.isCancelled()) {
             App.logger().info("Batch operation cancelled.");
-            stream.close();
-            this.onCancel(count);
-            return;
+            cancelled = true;
+            break;
           }
           MediaFile mediaFile = iterator.next();
 
-          final List<? extends Operation> operations = dialog.operationBatchList.getItems()
-              .stream()
-              .map(OperationView::getOperation)
-              .toList();
-
           boolean anyApplied = false;
           for (final Operation operation : operations)
             try {
+              if (operation instanceof DeleteOperation deleteOperation) {
+                if (deleteOperation.appliesTo(mediaFile, dialog.db, dialog.config)) {
+                  deletions.computeIfAbsent(deleteOperation, k -> new ArrayList<>()).add(mediaFile);
+                  anyApplied = true;
+                  break; // No operation can be applied to a deleted media
+                }
+                continue;
+              }
               final var result = operation.apply(mediaFile, dialog.db, dialog.config);
               anyApplied |= result.getKey();
               mediaFile = result.getValue();
@@ -554,11 +569,68 @@ public class BatchOperationsDialog extends DialogBase<Boolean>
           this.notifyProgress(total, count);
         }
       } catch (final DatabaseOperationRuntimeException e) {
-        stream.close();
+        this.runDeletions(deletions);
         this.onAbort(count, e.errorCode());
         return;
       }
-      this.onSuccess(count);
+      this.runDeletions(deletions);
+      if (cancelled)
+        this.onCancel(count);
+      else
+        this.onSuccess(count);
+    }
+
+    /**
+     * Delete the given medias with a single transaction per operation
+     * and wait for their files to be deleted from the disk.
+     *
+     * @param deletions The medias to delete for each delete operation.
+     */
+    private void runDeletions(final @NotNull Map<DeleteOperation, List<MediaFile>> deletions) {
+      for (final var entry : deletions.entrySet())
+        try {
+          entry.getKey().executeAll(entry.getValue(), this.dialog().db).join()
+              .forEach((mediaFile, e) -> App.logger().error("Unable to delete file {}", mediaFile.path(), e));
+        } catch (final DatabaseOperationException | DatabaseOperationRuntimeException e) {
+          App.logger().error("Batch operation failed.", e);
+        }
+    }
+
+    /**
+     * Apply each tags update to all medias at once rather than one media at a time.
+     * As these operations only affect the tags of each media, the result is the same.
+     *
+     * @param operations The operations to apply.
+     * @param stream     The medias to apply the operations to.
+     */
+    private void runTagsUpdates(final @NotNull List<UpdateTagsOperation> operations, @NotNull Stream<MediaFile> stream) {
+      final var dialog = this.dialog();
+      final List<MediaFile> mediaFiles;
+      try (stream) {
+        mediaFiles = stream.toList();
+      } catch (final DatabaseOperationRuntimeException e) {
+        this.onAbort(0, e.errorCode());
+        return;
+      }
+
+      final Set<Integer> updatedMediaIds = new HashSet<>();
+      dialog.anyMediaUpdate = true;
+      int done = 0;
+      this.notifyProgress(operations.size(), done);
+      for (final UpdateTagsOperation operation : operations) {
+        if (dialog.progressDialog.isCancelled()) {
+          App.logger().info("Batch operation cancelled.");
+          this.onCancel(updatedMediaIds.size());
+          return;
+        }
+        try {
+          updatedMediaIds.addAll(operation.applyToAll(mediaFiles, dialog.db, dialog.config));
+        } catch (final DatabaseOperationException | DatabaseOperationRuntimeException e) {
+          App.logger().error("Batch operation failed.", e);
+        }
+        this.notifyProgress(operations.size(), ++done);
+      }
+      this.onSuccess(updatedMediaIds.size());
     }
 
     private void notifyProgress(int total, int counter) {
@@ -0,0 +1,144 @@
+package net.darmo_creations.bildumilo.ui.dialogs;
+
+import javafx.beans.property.*;
+import javafx.scene.control.*;
+import javafx.scene.layout.*;
+import javafx.stage.*;
+import net.darmo_creations.bildumilo.config.*;
+import net.darmo_creations.bildumilo.data.*;
+import net.darmo_creations.bildumilo.ui.*;
+import net.darmo_creations.bildumilo.utils.*;
+import org.jetbrains.annotations.*;
+
+import java.time.*;
+import java.time.format.*;
+import java.util.function.*;
+
+/**
+ * Dialog that displays the latency statistics of the database:
+ * the time spent by each database operation and custom SQL function, and the slowest recent statements.
+ *
+ * @see DatabaseConnection#metricsSnapshot()
+ */
+public class DiagnosticsDialog extends DialogBase<Void> {
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+  private final DatabaseConnection db;
+  private final TableView<DatabaseMetricsSnapshot.OperationStats> operationsTable = new TableView<>();
+  private final TableView<DatabaseMetricsSnapshot.OperationStats> functionsTable = new TableView<>();
+  private final TableView<DatabaseMetricsSnapshot.SlowStatement> slowStatementsTable = new TableView<>();
+
+  /**
+   * Create a diagnostics dialog.
+   *
+   * @param config The app’s configuration.
+   * @param db     The database to show the statistics of.
+   */
+  public DiagnosticsDialog(final @NotNull Config config, @NotNull DatabaseConnection db) {
+    super(config, "diagnostics", true, ButtonTypes.CLOSE);
+    this.db = db;
+    final Language language = config.language();
+
+    final Button refreshButton = new Button(language.translate("dialog.diagnostics.refresh"));
+    refreshButton.setOnAction(event -> this.refresh());
+
+    final CheckBox enabledCheckBox = new CheckBox(language.translate("dialog.diagnostics.enabled"));
+    enabledCheckBox.setSelected(db.isMetricsEnabled());
+    enabledCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> db.setMetricsEnabled(newValue));
+
+    this.setupOperationsTable(this.operationsTable, "operation", true);
+    this.setupOperationsTable(this.functionsTable, "function", false);
+    this.setupSlowStatementsTable();
+
+    VBox.setVgrow(this.operationsTable, Priority.ALWAYS);
+    VBox.setVgrow(this.functionsTable, Priority.SOMETIMES);
+    VBox.setVgrow(this.slowStatementsTable, Priority.ALWAYS);
+    final VBox content = new VBox(
+        5,
+        new HBox(5, enabledCheckBox, new HorizontalSpacer(), refreshButton),
+        new Label(language.translate("dialog.diagnostics.operations")),
+        this.operationsTable,
+        new Label(language.translate("dialog.diagnostics.functions")),
+        this.functionsTable,
+        new Label(language.translate("dialog.diagnostics.slow_statements")),
+        this.slowStatementsTable
+    );
+    content.setPrefWidth(900);
+    content.setPrefHeight(700);
+    this.getDialogPane().setContent(content);
+
+    final Stage stage = this.stage();
+    stage.setMinWidth(600);
+    stage.setMinHeight(500);
+
+    this.setOnShowing(event -> this.refresh());
+    this.setResultConverter(buttonType -> null);
+  }
+
+  private void setupOperationsTable(
+      @NotNull TableView<DatabaseMetricsSnapshot.OperationStats> table,
+      @NotNull String nameKey,
+      boolean showRows
+  ) {
+    final Language language = this.config.language();
+    final var columns = table.getColumns();
+    columns.add(this.column(nameKey, DatabaseMetricsSnapshot.OperationStats::name));
+    columns.add(this.column("calls", s -> s.latency().count()));
+    if (showRows)
+      columns.add(this.column("rows", DatabaseMetricsSnapshot.OperationStats::rows));
+    columns.add(this.durationColumn("total", s -> s.latency().totalNanos()));
+    columns.add(this.durationColumn("mean", s -> s.latency().meanNanos()));
+    columns.add(this.durationColumn("p50", s -> s.latency().p50Nanos()));
+    columns.add(this.durationColumn("p90", s -> s.latency().p90Nanos()));
+    columns.add(this.durationColumn("p99", s -> s.latency().p99Nanos()));
+    columns.add(this.durationColumn("max", s -> s.latency().maxNanos()));
+    table.setPlaceholder(new Label(language.translate("dialog.diagnostics.no_data")));
+    table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+  }
+
+  private void setupSlowStatementsTable() {
+    final Language language = this.config.language();
+    final var columns = this.slowStatementsTable.getColumns();
+    columns.add(this.column("time",
+        s -> TIME_FORMATTER.format(LocalTime.ofInstant(s.time(), ZoneId.systemDefault()))));
+    columns.add(this.durationColumn("duration", DatabaseMetricsSnapshot.SlowStatement::durationNanos));
+    columns.add(this.column("rows", DatabaseMetricsSnapshot.SlowStatement::rows));
+    columns.add(this.column("operation", DatabaseMetricsSnapshot.SlowStatement::operation));
+    final TableColumn<DatabaseMetricsSnapshot.SlowStatement, Object> sqlColumn =
+        this.column("sql", s -> s.sql().strip().replaceAll("\\s+", " "));
+    sqlColumn.setPrefWidth(400);
+    columns.add(sqlColumn);
+    this.slowStatementsTable.setPlaceholder(new Label(language.translate("dialog.diagnostics.no_data")));
+  }
+
+  private <S> TableColumn<S, Object> column(@NotNull String key, @NotNull Function<S, Object> getter) {
+    final TableColumn<S, Object> column = new TableColumn<>(
+        this.config.language().translate("dialog.diagnostics.column." + key));
+    column.setCellValueFactory(param -> new ReadOnlyObjectWrapper<>(getter.apply(param.getValue())));
+    return column;
+  }
+
+  private <S> TableColumn<S, Long> durationColumn(@NotNull String key, @NotNull ToLongFunction<S> getter) {
+    final TableColumn<S, Long> column = new TableColumn<>(
+        this.config.language().translate("dialog.diagnostics.column." + key));
+    column.setCellValueFactory(param -> new ReadOnlyObjectWrapper<>(getter.applyAsLong(param.getValue())));
+    column.setCellFactory(param -> new TableCell<>() {
+      @Override
+      protected void updateItem(Long item, boolean empty) {
+        super.updateItem(item, empty);
+        this.setText(empty || item == null ? null : "%.3f ms".formatted(item / 1e6));
+      }
+    });
+    return column;
+  }
+
+  /**
+   * Reload the statistics from the database.
+   */
+  private void refresh() {
+    final DatabaseMetricsSnapshot snapshot = this.db.metricsSnapshot();
+    this.operationsTable.getItems().setAll(snapshot.operations());
+    this.functionsTable.getItems().setAll(snapshot.functions());
+    this.slowStatementsTable.getItems().setAll(snapshot.slowestStatements());
+  }
+}
@@ -1,5 +1,6 @@
 package net.darmo_creations.bildumilo.ui.dialogs;
 
+import javafx.application.*;
 import javafx.event.*;
 import javafx.geometry.*;
 import javafx.scene.control.*;
@@ -20,6 +21,7 @@ import org.jetbrains.annotations.*;
 
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -35,6 +37,7 @@ public class EditMediasDialog extends DialogBase<Boolean> {
   private final Button showInExplorerButton = new Button();
   private final Button clearPathButton = new Button();
   private final CheckBox overwriteTargetCheckBox = new CheckBox();
+  private final CheckBox applyToAllCheckBox = new CheckBox();
   private final Label targetPathLabel = new Label();
   private final HBox pathBox = new HBox(5);
   private final TextPopOver tagsErrorPopup;
@@ -44,10 +47,12 @@ public class EditMediasDialog extends DialogBase<Boolean> {
   private final Button finishButton;
 
   private final SimilarImagesDialog similarImagesDialog;
+  private final ProgressDialog progressDialog;
 
   private boolean areTagsValid = false;
 
   private final DatabaseConnection db;
+  private final AsyncDatabaseConnection asyncDb;
 
   private int totalMedias;
   private final Queue<MediaFile> mediaFiles = new LinkedList<>();
@@ -58,17 +63,29 @@ public class EditMediasDialog extends DialogBase<Boolean> {
   private MediaFile currentMediaFile;
   private boolean insert;
   private boolean anyUpdate;
-  private boolean preventClosing;
 
-  public EditMediasDialog(@NotNull Config config, @NotNull DatabaseConnection db) {
+  /**
+   * Create a new dialog.
+   *
+   * @param config  The app’s config.
+   * @param db      The database, used for reads.
+   * @param asyncDb The asynchronous facade of {@code db}, used for writes.
+   */
+  public EditMediasDialog(
+      @NotNull Config config,
+      @NotNull DatabaseConnection db,
+      @NotNull AsyncDatabaseConnection asyncDb
+  ) {
     super(config, "edit_images", true, ButtonTypes.FINISH, ButtonTypes.SKIP, ButtonTypes.NEXT, ButtonTypes.CANCEL);
     this.db = Objects.requireNonNull(db);
+    this.asyncDb = Objects.requireNonNull(asyncDb);
 
     this.mediaViewer = new MediaViewer(config);
     this.mediaViewer.setOnLoadedCallback(ignored -> this.updateMediaViewerSize());
 
     this.similarImagesDialog = new SimilarImagesDialog(config, db);
     this.similarImagesDialog.addTagCopyListener(this::onCopyTags);
+    this.progressDialog = new ProgressDialog(config, "inserting_files");
 
     this.tagsErrorPopup = new TextPopOver(PopOver.ArrowLocation.LEFT_CENTER, config);
     this.tagsField = new AutoCompleteField<>(
@@ -76,6 +93,9 @@ public class EditMediasDialog extends DialogBase<Boolean> {
         this.db.getAllTags(),
         t -> t.definition().isEmpty(),
         Tag::label,
+        Tag::id,
+        this.db::getTagsCountsSnapshot,
+        this.db::tagsCacheVersion,
         new TagListSyntaxHighlighter(db.getAllTags(), db.getAllTagTypes()),
         Function.identity(),
         config
@@ -83,8 +103,7 @@ public class EditMediasDialog extends DialogBase<Boolean> {
 
     this.nextButton = (Button) this.getDialogPane().lookupButton(ButtonTypes.NEXT);
     this.nextButton.addEventFilter(ActionEvent.ACTION, event -> {
-      if (this.applyChanges())
-        this.nextMedia();
+      this.applyChanges(this::nextMedia);
       event.consume();
     });
     this.skipButton = (Button) this.getDialogPane().lookupButton(ButtonTypes.SKIP);
@@ -93,6 +112,16 @@ public class EditMediasDialog extends DialogBase<Boolean> {
       event.consume();
     });
     this.finishButton = (Button) this.getDialogPane().lookupButton(ButtonTypes.FINISH);
+    this.finishButton.addEventFilter(ActionEvent.ACTION, event -> {
+      if (this.applyToAllCheckBox.isSelected())
+        this.insertAllMedias();
+      else // The dialog is closed once the changes have been applied
+        this.applyChanges(() -> {
+          this.setResult(this.anyUpdate);
+          this.close();
+        });
+      event.consume();
+    });
 
     this.mediaViewerBox = new HBox(this.mediaViewer);
     this.getDialogPane().setContent(this.createContent());
@@ -101,17 +130,15 @@ public class EditMediasDialog extends DialogBase<Boolean> {
     stage.setMinWidth(800);
     stage.setMinHeight(600);
 
-    this.setResultConverter(buttonType -> {
-      if (!buttonType.getButtonData().isCancelButton())
-        this.preventClosing = !this.applyChanges();
-      return this.anyUpdate;
-    });
+    this.setResultConverter(buttonType -> this.anyUpdate);
 
     this.setOnCloseRequest(event -> {
-      if (this.preventClosing) {
+      JavaFxUtils.checkNoOngoingTask(config, event, this.progressDialog);
+      if (event.isConsumed())
+        return;
+      if (this.getDialogPane().isDisable()) // Changes are being applied
         event.consume();
-        this.preventClosing = false;
-      } else {
+      else {
         // Hide the similar images dialog when this one closes
         this.similarImagesDialog.hide();
         this.mediaViewer.setMedia(null); // Dispose of any loaded MediaPlayer
@@ -212,9 +239,17 @@ public class EditMediasDialog extends DialogBase<Boolean> {
     });
     VBox.setVgrow(this.tagsField, Priority.ALWAYS);
 
+    this.applyToAllCheckBox.setText(language.translate("dialog.edit_images.apply_to_all"));
+    this.applyToAllCheckBox.managedProperty().bind(this.applyToAllCheckBox.visibleProperty());
+    this.applyToAllCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      if (newValue)
+        this.clearTargetPath();
+      this.updateState();
+    });
+
     final SplitPane splitPane = new SplitPane(
         this.mediaViewerBox,
-        new VBox(5, buttonsBox, this.pathBox, fileNameBox, this.tagsField)
+        new VBox(5, buttonsBox, this.pathBox, fileNameBox, this.tagsField, this.applyToAllCheckBox)
     );
     splitPane.setOrientation(Orientation.VERTICAL);
     splitPane.setDividerPositions(0.75);
@@ -265,6 +300,8 @@ public class EditMediasDialog extends DialogBase<Boolean> {
     this.tagsField.setText("");
     this.anyUpdate = false;
     this.clearTargetPath();
+    this.applyToAllCheckBox.setSelected(false);
+    this.applyToAllCheckBox.setVisible(insert && mediaFiles.size() > 1);
     this.nextMedia();
   }
 
@@ -321,44 +358,63 @@ public class EditMediasDialog extends DialogBase<Boolean> {
     this.refreshTitle();
   }
 
-  private boolean applyChanges() {
+  /**
+   * Apply the changes made to the current media in the background.
+   * Interactions are disabled until all changes have been applied.
+   *
+   * @param onSuccess A callback to run on the FX thread if all changes were successfully applied.
+   */
+  private void applyChanges(@NotNull Runnable onSuccess) {
     final Optional<MediaFileUpdate> update = this.getMediaFileUpdate(true);
-    if (update.isPresent()) {
-      if (this.insert)
-        try {
-          this.currentMediaFile = this.db.insertMedia(update.get());
-          this.anyUpdate = true;
-        } catch (final DatabaseOperationException e) {
-          Alerts.databaseError(this.config, e.errorCode());
-          return false;
-        }
-      else
-        try {
-          this.db.updateMedia(update.get());
-          this.anyUpdate = true;
-        } catch (final DatabaseOperationException e) {
-          Alerts.databaseError(this.config, e.errorCode());
-          return false;
-        }
-    }
+    final MediaFile mediaFile = this.currentMediaFile;
 
     //noinspection OptionalGetWithoutIsPresent
     final String name = Objects.requireNonNull(StringUtils.stripNullable(this.fileNameField.getText()).get());
-    Path targetPath = this.targetPath;
-    if (targetPath == null)
-      targetPath = this.currentMediaFile.path().getParent();
-    targetPath = targetPath.resolve(name);
-
-    if (!targetPath.equals(this.currentMediaFile.path()))
-      try {
-        this.db.moveOrRenameMedia(this.currentMediaFile, targetPath, this.overwriteTargetCheckBox.isSelected());
+    final Path targetPath = (this.targetPath != null ? this.targetPath : mediaFile.path().getParent()).resolve(name);
+    final boolean overwriteTarget = this.overwriteTargetCheckBox.isSelected();
+
+    final CompletableFuture<MediaFile> updated;
+    if (update.isEmpty())
+      updated = CompletableFuture.completedFuture(mediaFile);
+    else if (this.insert)
+      updated = this.asyncDb.insertMedia(update.get());
+    else
+      updated = this.asyncDb.updateMedia(update.get()).thenApply(ignored -> mediaFile);
+
+    this.getDialogPane().setDisable(true);
+    updated.whenCompleteAsync((updatedMediaFile, error) -> {
+      if (error != null) {
+        this.onApplyChangesDone(error, onSuccess);
+        return;
+      }
+      if (update.isPresent()) {
+        this.currentMediaFile = updatedMediaFile;
         this.anyUpdate = true;
-      } catch (final DatabaseOperationException e) {
-        Alerts.databaseError(this.config, e.errorCode());
-        return false;
       }
+      if (targetPath.equals(updatedMediaFile.path()))
+        this.onApplyChangesDone(null, onSuccess);
+      else
+        this.asyncDb.moveOrRenameMedia(updatedMediaFile, targetPath, overwriteTarget)
+            .whenCompleteAsync((moved, e) -> {
+              if (e == null)
+                this.anyUpdate = true;
+              this.onApplyChangesDone(e, onSuccess);
+            }, Platform::runLater);
+    }, Platform::runLater);
+  }
 
-    return true;
+  /**
+   * Called once the changes to the current media have been applied or have failed.
+   *
+   * @param error     The error that prevented the changes from being applied, if any.
+   * @param onSuccess The callback to run if there was no error.
+   */
+  private void onApplyChangesDone(Throwable error, @NotNull Runnable onSuccess) {
+    this.getDialogPane().setDisable(false);
+    if (error != null)
+      Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+    else
+      onSuccess.run();
   }
 
   private Optional<MediaFileUpdate> getMediaFileUpdate(boolean recomputeHash) {
@@ -398,6 +454,75 @@ public class EditMediasDialog extends DialogBase<Boolean> {
     ));
   }
 
+  /**
+   * Insert the current media and all remaining ones with the current tags, in a background thread.
+   * Files are neither renamed nor moved. This dialog is closed once all medias are inserted.
+   */
+  private void insertAllMedias() {
+    final Optional<MediaFileUpdate> update = this.getMediaFileUpdate(false);
+    if (update.isEmpty())
+      return;
+    final Set<ParsedTag> tags = update.get().tagsToAdd();
+    final List<MediaFile> mediaFiles = new LinkedList<>();
+    mediaFiles.add(this.currentMediaFile);
+    mediaFiles.addAll(this.mediaFiles);
+    final MediaFile currentMediaFile = this.currentMediaFile;
+    final Hash currentHash = this.computedHash;
+
+    this.progressDialog.show();
+    this.getDialogPane().setDisable(true);
+    new Thread(() -> {
+      final List<MediaFileUpdate> updates = new ArrayList<>(mediaFiles.size());
+      // Read files here rather than while the database is locked
+      final List<MediaMetadata> metadata = new ArrayList<>(mediaFiles.size());
+      final int total = mediaFiles.size();
+      this.notifyProgress("progress.inserting_files.hashing", total, 0);
+      for (final MediaFile mediaFile : mediaFiles) {
+        if (this.progressDialog.isCancelled()) {
+          App.logger().info("Medias insertion cancelled.");
+          Platform.runLater(() -> this.onInsertAllDone(false, null));
+          return;
+        }
+        Optional<Hash> hash = mediaFile.hash();
+        if (hash.isEmpty() && mediaFile == currentMediaFile)
+          hash = Optional.ofNullable(currentHash);
+        if (hash.isEmpty())
+          hash = Hash.computeForFile(mediaFile.path());
+        updates.add(new MediaFileUpdate(0, mediaFile.path(), hash, tags, Set.of()));
+        metadata.add(MediaMetadata.readFromFile(mediaFile.path()).orElse(null));
+        this.notifyProgress("progress.inserting_files.hashing", total, updates.size());
+      }
+
+      // Chunks are committed one by one, do not mix them with other writes
+      this.asyncDb.writeAlone(db -> db.insertMedias(updates, metadata, DatabaseConnection.INSERT_MEDIAS_CHUNK_SIZE, this.progressDialog))
+          .whenCompleteAsync((ignored, error) -> this.onInsertAllDone(true, error), Platform::runLater);
+    }, "Medias Hasher Thread").start();
+  }
+
+  private void notifyProgress(@NotNull String messageKey, int total, int counter) {
+    Platform.runLater(() -> this.progressDialog.notifyProgress(messageKey, total, counter));
+  }
+
+  /**
+   * Called once the background insertion of all medias has stopped.
+   *
+   * @param started Whether the insertion in the database was started.
+   * @param error   The error that interrupted the insertion, if any.
+   */
+  private void onInsertAllDone(boolean started, Throwable error) {
+    this.progressDialog.hide();
+    this.getDialogPane().setDisable(false);
+    if (!started)
+      return;
+    // Some chunks may have been committed even if an error occurred
+    this.anyUpdate = true;
+    if (error != null)
+      Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+    this.mediaFiles.clear();
+    this.setResult(true);
+    this.close();
+  }
+
   private void onViewSimilarAction() {
     if (!this.similarImagesDialog.isShowing())
       this.similarImagesDialog.show();
@@ -431,10 +556,13 @@ public class EditMediasDialog extends DialogBase<Boolean> {
    * Update the state of this dialog’s buttons.
    */
   private void updateState() {
+    final boolean applyToAll = this.applyToAllCheckBox.isSelected();
     final boolean noneRemaining = this.mediaFiles.isEmpty();
     final boolean invalid = this.getMediaFileUpdate(false).isEmpty();
-    this.nextButton.setDisable(noneRemaining || invalid);
-    this.skipButton.setDisable(noneRemaining);
-    this.finishButton.setDisable(!noneRemaining || invalid);
+    this.nextButton.setDisable(applyToAll || noneRemaining || invalid);
+    this.skipButton.setDisable(applyToAll || noneRemaining);
+    this.finishButton.setDisable(!(applyToAll || noneRemaining) || invalid);
+    this.fileNameField.setDisable(applyToAll);
+    this.moveButton.setDisable(applyToAll);
   }
 }
@@ -42,6 +42,9 @@ public abstract class EditTagDialogBase extends DialogBase<Tag> {
         this.db.getAllTags(),
         t -> true,
         Tag::label,
+        Tag::id,
+        this.db::getTagsCountsSnapshot,
+        this.db::tagsCacheVersion,
         new TagQuerySyntaxHighlighter(),
         List::of,
         config
@@ -34,6 +34,45 @@ public final class FileChoosers {
     );
   }
 
+  /**
+   * Open a dialog to choose a library file to import.
+   *
+   * @param config The app’s config.
+   * @param stage  The parent stage object.
+   * @return The selected file.
+   */
+  public static Optional<Path> showLibraryFileChooser(
+      final @NotNull Config config,
+      final @NotNull Window stage
+  ) {
+    return openFileChooser(
+        config,
+        stage,
+        "library_file_chooser",
+        List.of(DatabaseConnection.LIBRARY_FILE_EXT)
+    );
+  }
+
+  /**
+   * Open a dialog to choose the file to export the library to.
+   *
+   * @param config The app’s config.
+   * @param stage  The parent stage object.
+   * @return The selected file.
+   */
+  public static Optional<Path> showLibraryFileSaver(
+      final @NotNull Config config,
+      final @NotNull Window stage
+  ) {
+    return openSaveFileChooser(
+        config,
+        stage,
+        "library_file_saver",
+        "library",
+        List.of(DatabaseConnection.LIBRARY_FILE_EXT)
+    );
+  }
+
   /**
    * Open a dialog to choose media files.
    *
@@ -143,8 +182,10 @@ public final class FileChoosers {
     if (file == null)
       return Optional.empty();
     Path path = file.toPath().toAbsolutePath();
-    if (!extensions.contains(FileUtils.getExtension(file.toPath())))
-      path = path.getParent().resolve(path.getFileName() + extensions.get(0));
+    final String fileName = file.getName();
+    // Extensions may contain several dots
+    if (extensions.stream().noneMatch(ext -> fileName.endsWith("." + ext)))
+      path = path.getParent().resolve(fileName + "." + extensions.get(0));
     return Optional.of(path);
   }
 
@@ -163,8 +204,8 @@ public final class FileChoosers {
     );
     fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(desc, exts));
     if (defaultName != null) {
-      if (!defaultName.endsWith(extensions.get(0))) {
-        defaultName += extensions.get(0);
+      if (!defaultName.endsWith("." + extensions.get(0))) {
+        defaultName += "." + extensions.get(0);
       }
       fileChooser.setInitialFileName(defaultName);
     }
@@ -1,5 +1,7 @@
 package net.darmo_creations.bildumilo.ui.dialogs;
 
+import javafx.application.*;
+import javafx.beans.binding.*;
 import javafx.beans.property.*;
 import javafx.event.*;
 import javafx.scene.control.*;
@@ -27,6 +29,10 @@ public class ManageSavedQueriesDialog extends DialogBase<Void> {
   private final Button applyButton;
 
   private final SavedQueriesManager queriesManager;
+  /**
+   * Incremented each time the saved queries or their results are updated, to refresh the counts.
+   */
+  private final IntegerProperty resultsVersion = new SimpleIntegerProperty();
   private boolean changes;
 
   public ManageSavedQueriesDialog(final @NotNull Config config, @NotNull SavedQueriesManager queriesManager) {
@@ -66,6 +72,22 @@ public class ManageSavedQueriesDialog extends DialogBase<Void> {
     queryCol.setCellValueFactory(param -> param.getValue().queryProperty());
     this.tableView.getColumns().add(queryCol);
 
+    final TableColumn<QueryEntry, String> countCol = new NonSortableTableColumn<>(
+        language.translate("dialog.manage_saved_queries.results_count"));
+    countCol.setEditable(false);
+    countCol.setCellValueFactory(param -> {
+      final QueryEntry entry = param.getValue();
+      return Bindings.createStringBinding(
+          () -> this.getResultsCount(entry),
+          entry.nameProperty(),
+          entry.queryProperty(),
+          this.resultsVersion
+      );
+    });
+    this.tableView.getColumns().add(countCol);
+    queriesManager.addQueriesUpdateListener(this::onResultsUpdate);
+    queriesManager.addResultsUpdateListener(() -> Platform.runLater(this::onResultsUpdate));
+
     this.tableView.getSelectionModel().selectedItemProperty().addListener(
         (observable, oldValue, newValue) -> this.updateButtons());
 
@@ -105,6 +127,27 @@ public class ManageSavedQueriesDialog extends DialogBase<Void> {
     this.updateButtons();
   }
 
+  private void onResultsUpdate() {
+    this.resultsVersion.set(this.resultsVersion.get() + 1);
+  }
+
+  /**
+   * Get the last known results count of the given entry, as long as it matches a saved query.
+   *
+   * @param entry An entry.
+   * @return The formatted count, or an empty string if it is unknown.
+   */
+  private String getResultsCount(@NotNull QueryEntry entry) {
+    final var name = entry.getName();
+    final var query = entry.getQuery();
+    if (name.isEmpty() || query.isEmpty()
+        || !this.queriesManager.isNameSaved(name.get())
+        || !this.queriesManager.getQuery(name.get()).equals(query.get()))
+      return "";
+    final OptionalInt count = this.queriesManager.getResultsCount(name.get());
+    return count.isPresent() ? this.config.language().formatNumber(count.getAsInt()) : "";
+  }
+
   private void moveUpSelectedItem() {
     this.changes = true;
     final QueryEntry selectedItem = this.tableView.getSelectionModel().getSelectedItem();
@@ -1,6 +1,8 @@
 package net.darmo_creations.bildumilo.ui.dialogs;
 
+import javafx.application.*;
 import javafx.beans.property.*;
+import javafx.event.*;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.control.*;
@@ -28,12 +30,11 @@ public class MergeMediaTagsDialog extends DialogBase<Boolean> {
   private final Button swapButton = new Button();
   private final CheckBox deleteFromDiskCheckBox = new CheckBox();
 
-  private final DatabaseConnection db;
+  private final AsyncDatabaseConnection db;
   private MediaFile mediaFile1, mediaFile2;
   private final BooleanProperty leftToRight = new SimpleBooleanProperty(this, "leftToRight", true);
-  private boolean preventClosing;
 
-  public MergeMediaTagsDialog(@NotNull Config config, @NotNull DatabaseConnection db) {
+  public MergeMediaTagsDialog(@NotNull Config config, @NotNull AsyncDatabaseConnection db) {
     super(config, "merge_images_tags", true, ButtonTypes.CANCEL, ButtonTypes.OK);
     this.db = Objects.requireNonNull(db);
 
@@ -54,17 +55,16 @@ public class MergeMediaTagsDialog extends DialogBase<Boolean> {
     stage.setMinWidth(800);
     stage.setMinHeight(600);
 
-    this.setResultConverter(buttonType -> {
-      final boolean apply = !buttonType.getButtonData().isCancelButton();
-      if (apply)
-        this.preventClosing = !this.applyChanges();
-      return apply;
+    this.getDialogPane().lookupButton(ButtonTypes.OK).addEventFilter(ActionEvent.ACTION, event -> {
+      // The dialog is closed once the merge has been applied
+      event.consume();
+      this.applyChanges();
     });
+    this.setResultConverter(buttonType -> !buttonType.getButtonData().isCancelButton());
     this.setOnCloseRequest(event -> {
-      if (this.preventClosing) {
+      if (this.getDialogPane().isDisable()) // Merge is ongoing
         event.consume();
-        this.preventClosing = false;
-      } else {
+      else {
         // Dispose of any loaded MediaPlayer
         this.mediaViewer1.setMedia(null);
         this.mediaViewer2.setMedia(null);
@@ -168,7 +168,7 @@ public class MergeMediaTagsDialog extends DialogBase<Boolean> {
     this.swapButton.setGraphic(this.config.theme().getIcon(icon, Icon.Size.BIG));
   }
 
-  private boolean applyChanges() {
+  private void applyChanges() {
     final MediaFile source, dest;
     if (this.leftToRight.get()) {
       source = this.mediaFile1;
@@ -178,13 +178,17 @@ public class MergeMediaTagsDialog extends DialogBase<Boolean> {
       dest = this.mediaFile1;
     }
 
-    try {
-      this.db.mergeMedias(source, dest, this.deleteFromDiskCheckBox.isSelected());
-    } catch (final DatabaseOperationException e) {
-      Alerts.databaseError(this.config, e.errorCode());
-      return false;
-    }
-    return true;
+    this.getDialogPane().setDisable(true);
+    this.db.mergeMedias(source, dest, this.deleteFromDiskCheckBox.isSelected())
+        .whenCompleteAsync((ignored, error) -> {
+          this.getDialogPane().setDisable(false);
+          if (error != null)
+            Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+          else {
+            this.setResult(true);
+            this.close();
+          }
+        }, Platform::runLater);
   }
 
   private class MediaMetadataView extends VBox {
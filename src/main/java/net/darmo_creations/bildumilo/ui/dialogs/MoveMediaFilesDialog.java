@@ -17,6 +17,8 @@ import org.jetbrains.annotations.*;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * This dialog allows moving several media files at once.
@@ -31,7 +33,7 @@ public class MoveMediaFilesDialog extends DialogBase<Boolean> {
 
   private final ProgressDialog progressDialog;
 
-  private final DatabaseConnection db;
+  private final AsyncDatabaseConnection db;
   private final List<MediaFile> mediaFiles = new LinkedList<>();
   private final ObjectProperty<Path> destDir = new SimpleObjectProperty<>();
   private boolean anyUpdate;
@@ -42,7 +44,7 @@ public class MoveMediaFilesDialog extends DialogBase<Boolean> {
    * @param config The app’s config.
    * @param db     The database.
    */
-  public MoveMediaFilesDialog(final @NotNull Config config, @NotNull DatabaseConnection db) {
+  public MoveMediaFilesDialog(final @NotNull Config config, @NotNull AsyncDatabaseConnection db) {
     super(config, "move_pictures", true, ButtonTypes.CLOSE, ButtonTypes.APPLY);
     this.db = Objects.requireNonNull(db);
 
@@ -134,29 +136,40 @@ public class MoveMediaFilesDialog extends DialogBase<Boolean> {
     this.progressDialog.show();
     this.disableInteractions();
     final boolean overwriteTarget = this.overwriteTargetFilesCheckBox.isSelected();
-    new Thread(() -> {
-      final List<MediaFile> errors = new LinkedList<>();
-      final int total = this.mediaFiles.size();
-      int counter = 0;
-      this.notifyProgress(total, counter);
-      for (final MediaFile mediaFile : this.mediaFiles) {
-        if (this.progressDialog.isCancelled()) {
-          App.logger().info("File moving cancelled.");
-          Platform.runLater(this::restoreInteractions);
-          return;
-        }
-        final Path newPath = this.destDir.get().resolve(mediaFile.path().getFileName());
+    final Path destDir = this.destDir.get();
+    final int total = this.mediaFiles.size();
+    final AtomicInteger counter = new AtomicInteger();
+    this.notifyProgress(total, 0);
+    // Moves are run by the database writer thread, each in its own transaction as files cannot be moved back
+    // if a shared transaction is rolled back
+    final Map<MediaFile, CompletableFuture<Boolean>> moves = new LinkedHashMap<>();
+    for (final MediaFile mediaFile : this.mediaFiles) {
+      final Path newPath = destDir.resolve(mediaFile.path().getFileName());
+      moves.put(mediaFile, this.db.writeAlone(db -> {
+        if (this.progressDialog.isCancelled())
+          throw new CancellationException();
         try {
-          this.db.moveOrRenameMedia(mediaFile, newPath, overwriteTarget);
-        } catch (final DatabaseOperationException e) {
-          errors.add(mediaFile);
+          return db.moveOrRenameMedia(mediaFile, newPath, overwriteTarget);
+        } finally {
+          this.notifyProgress(total, counter.incrementAndGet());
         }
-        counter++;
-        this.notifyProgress(total, counter);
-      }
+      }));
+    }
 
-      Platform.runLater(() -> this.onMoveDone(errors));
-    }, "Media Files Mover Thread").start();
+    CompletableFuture.allOf(moves.values().toArray(CompletableFuture[]::new))
+        .whenCompleteAsync((ignored, error) -> {
+          if (this.progressDialog.isCancelled()) {
+            App.logger().info("File moving cancelled.");
+            this.restoreInteractions();
+            return;
+          }
+          final List<MediaFile> errors = new LinkedList<>();
+          moves.forEach((mediaFile, move) -> {
+            if (move.isCompletedExceptionally())
+              errors.add(mediaFile);
+          });
+          this.onMoveDone(errors);
+        }, Platform::runLater);
   }
 
   private void notifyProgress(int total, int counter) {
@@ -1,11 +1,13 @@
 package net.darmo_creations.bildumilo.ui.dialogs;
 
+import javafx.application.*;
 import javafx.geometry.*;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.util.*;
 import net.darmo_creations.bildumilo.*;
 import net.darmo_creations.bildumilo.config.*;
+import net.darmo_creations.bildumilo.data.*;
 import net.darmo_creations.bildumilo.themes.*;
 import net.darmo_creations.bildumilo.ui.*;
 import net.darmo_creations.bildumilo.utils.*;
@@ -13,6 +15,7 @@ import org.jetbrains.annotations.*;
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.*;
 
 /**
  * Dialog to update the app’s settings. It is not resizable.
@@ -21,8 +24,18 @@ public class SettingsDialog extends DialogBase<Void> {
   private final ComboBox<Language> languageCombo = new ComboBox<>();
   private final ComboBox<Theme> themeCombo = new ComboBox<>();
   private final TextField dbFileField = new TextField();
+  private final CheckBox cacheMediasTagsCheckBox = new CheckBox();
   private final CheckBox shuffleSlideshowsCheckBox = new CheckBox();
   private final Spinner<Integer> slideshowDelayField = new Spinner<>();
+  private final Label storageStatsLabel = new Label();
+  private final Button compactButton = new Button();
+  private final CheckBox backupsCheckBox = new CheckBox();
+  private final TextField backupsDirField = new TextField();
+  private final Button selectBackupsDirButton = new Button();
+  private final Spinner<Integer> backupsIntervalField = new Spinner<>();
+  private final Spinner<Integer> keptBackupsField = new Spinner<>();
+
+  private final AsyncDatabaseConnection db;
 
   private Config initialConfig;
   private Config localConfig;
@@ -31,16 +44,20 @@ public class SettingsDialog extends DialogBase<Void> {
    * Create a settings dialog.
    *
    * @param config The app’s configuration.
+   * @param db     The database, used to show and reclaim unused storage.
    */
-  public SettingsDialog(@NotNull Config config) {
+  public SettingsDialog(@NotNull Config config, @NotNull AsyncDatabaseConnection db) {
     super(config, "settings", false, ButtonTypes.OK, ButtonTypes.CANCEL);
+    this.db = Objects.requireNonNull(db);
 
     final VBox content = new VBox(
         this.createInterfaceForm(),
         new Separator(),
         this.createSlideshowsForm(),
         new Separator(),
-        this.createDatabaseForm()
+        this.createDatabaseForm(),
+        new Separator(),
+        this.createBackupsForm()
     );
     content.setPrefWidth(450);
     this.getDialogPane().setContent(content);
@@ -125,15 +142,120 @@ public class SettingsDialog extends DialogBase<Void> {
     goToDbFileButton.setTooltip(new Tooltip(
         language.translate("dialog.settings.database_box.db_file.open_containing_directory_button.tooltip")));
 
+    this.cacheMediasTagsCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      if (this.localConfig != null) {
+        this.localConfig = this.localConfig.withCacheMediasTags(newValue);
+        this.updateState();
+      }
+    });
+    this.cacheMediasTagsCheckBox.setTooltip(new Tooltip(
+        language.translate("dialog.settings.database_box.cache_medias_tags.tooltip")));
+
+    this.compactButton.setText(language.translate("dialog.settings.database_box.storage.compact_button"));
+    this.compactButton.setTooltip(new Tooltip(
+        language.translate("dialog.settings.database_box.storage.compact_button.tooltip")));
+    this.compactButton.setOnAction(e -> this.onCompactDatabase());
+    final HBox storageBox = new HBox(5, this.storageStatsLabel, this.compactButton);
+    storageBox.setAlignment(Pos.CENTER_LEFT);
+
     //noinspection unchecked
     return JavaFxUtils.newBorderPane(
         this.config,
         "dialog.settings.database_box.title",
         new Pair<>("dialog.settings.database_box.db_file.label",
-            new HBox(5, this.dbFileField, selectDbFileButton, goToDbFileButton))
+            new HBox(5, this.dbFileField, selectDbFileButton, goToDbFileButton)),
+        new Pair<>("dialog.settings.database_box.cache_medias_tags.label", this.cacheMediasTagsCheckBox),
+        new Pair<>("dialog.settings.database_box.storage.label", storageBox)
     );
   }
 
+  private Pane createBackupsForm() {
+    final Language language = this.config.language();
+    final Theme theme = this.config.theme();
+
+    this.backupsCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+      if (this.localConfig != null)
+        this.onBackupsChange();
+    });
+
+    HBox.setHgrow(this.backupsDirField, Priority.ALWAYS);
+    this.backupsDirField.setEditable(false);
+    this.selectBackupsDirButton.setGraphic(theme.getIcon(Icon.SELECT_DIRECTORY, Icon.Size.SMALL));
+    this.selectBackupsDirButton.setOnAction(e -> this.onSelectBackupsDirectory());
+    this.selectBackupsDirButton.setTooltip(new Tooltip(
+        language.translate("dialog.settings.backups_box.directory.select_button.tooltip")));
+
+    this.backupsIntervalField.setValueFactory(
+        new SpinnerValueFactory.IntegerSpinnerValueFactory(BackupsConfig.MIN_INTERVAL, BackupsConfig.MAX_INTERVAL));
+    this.backupsIntervalField.valueProperty().addListener((observable, oldValue, newValue) -> {
+      if (this.localConfig != null)
+        this.onBackupsChange();
+    });
+    final Label unitLabel = new Label(language.translate("dialog.settings.backups_box.interval.hours"));
+    final HBox intervalBox = new HBox(5, this.backupsIntervalField, unitLabel);
+    intervalBox.setAlignment(Pos.CENTER_LEFT);
+
+    this.keptBackupsField.setValueFactory(
+        new SpinnerValueFactory.IntegerSpinnerValueFactory(BackupsConfig.MIN_KEPT_BACKUPS, BackupsConfig.MAX_KEPT_BACKUPS));
+    this.keptBackupsField.valueProperty().addListener((observable, oldValue, newValue) -> {
+      if (this.localConfig != null)
+        this.onBackupsChange();
+    });
+
+    //noinspection unchecked
+    return JavaFxUtils.newBorderPane(
+        this.config,
+        "dialog.settings.backups_box.title",
+        new Pair<>("dialog.settings.backups_box.enabled.label", this.backupsCheckBox),
+        new Pair<>("dialog.settings.backups_box.directory.label",
+            new HBox(5, this.backupsDirField, this.selectBackupsDirButton)),
+        new Pair<>("dialog.settings.backups_box.interval.label", intervalBox),
+        new Pair<>("dialog.settings.backups_box.kept_backups.label", this.keptBackupsField)
+    );
+  }
+
+  /**
+   * Fetch the storage statistics of the database in the background and show them once available.
+   */
+  private void refreshStorageStats() {
+    this.storageStatsLabel.setText(this.config.language().translate("dialog.settings.database_box.storage.loading"));
+    this.db.read(DatabaseConnection::getStorageStats).whenCompleteAsync((stats, error) -> {
+      final Language language = this.config.language();
+      if (error != null) {
+        App.logger().error("Could not get database storage stats", error);
+        this.storageStatsLabel.setText(language.translate("dialog.settings.database_box.storage.error"));
+        return;
+      }
+      this.storageStatsLabel.setText(language.translate(
+          "dialog.settings.database_box.storage.stats",
+          new FormatArg("size", toMebibytes(stats.fileSize())),
+          new FormatArg("free", toMebibytes(stats.freeSize())),
+          new FormatArg("ratio", "%.1f".formatted(stats.freeRatio() * 100))
+      ));
+    }, Platform::runLater);
+  }
+
+  private static String toMebibytes(long bytes) {
+    return "%.1f".formatted(bytes / (1024.0 * 1024.0));
+  }
+
+  /**
+   * Rebuild the database file in the background to reclaim all unused space.
+   */
+  private void onCompactDatabase() {
+    this.compactButton.setDisable(true);
+    this.storageStatsLabel.setText(this.config.language().translate("dialog.settings.database_box.storage.compacting"));
+    this.db.writeAlone(db -> {
+      db.vacuum();
+      return null;
+    }).whenCompleteAsync((ignored, error) -> {
+      this.compactButton.setDisable(false);
+      if (error != null)
+        Alerts.databaseError(this.config, AsyncDatabaseConnection.getErrorCode(error));
+      this.refreshStorageStats();
+    }, Platform::runLater);
+  }
+
   private void onSelectDatabaseFile() {
     final var path = FileChoosers.showDatabaseFileChooser(this.config, this.stage());
     if (path.isPresent()) {
@@ -147,6 +269,14 @@ public class SettingsDialog extends DialogBase<Void> {
     FileUtils.openInFileExplorer(this.dbFileField.getText());
   }
 
+  private void onSelectBackupsDirectory() {
+    final var path = FileChoosers.showDirectoryChooser(this.config, this.stage());
+    if (path.isPresent()) {
+      this.backupsDirField.setText(path.get().toString());
+      this.onBackupsChange();
+    }
+  }
+
   /**
    * Reset the local {@link Config} object of this dialog.
    */
@@ -157,8 +287,18 @@ public class SettingsDialog extends DialogBase<Void> {
     this.languageCombo.getSelectionModel().select(this.localConfig.language());
     this.themeCombo.getSelectionModel().select(this.localConfig.theme());
     this.dbFileField.setText(this.localConfig.databaseFile().toString());
+    this.cacheMediasTagsCheckBox.setSelected(this.localConfig.cacheMediasTags());
     this.shuffleSlideshowsCheckBox.setSelected(this.localConfig.isShuffleSlideshowsEnabled());
     this.slideshowDelayField.getValueFactory().setValue(this.localConfig.slideshowDelay());
+    final BackupsConfig backups = this.localConfig.backups();
+    this.backupsCheckBox.setSelected(backups.enabled());
+    this.backupsDirField.setText(backups.directory().toString());
+    this.backupsIntervalField.getValueFactory().setValue(backups.interval());
+    this.keptBackupsField.getValueFactory().setValue(backups.keptBackups());
+    // Listeners may have seen partially updated fields
+    this.localConfig = this.localConfig.withBackups(backups);
+    if (!this.compactButton.isDisable()) // Keep the progress message while compacting
+      this.refreshStorageStats();
 
     this.updateState();
   }
@@ -167,6 +307,11 @@ public class SettingsDialog extends DialogBase<Void> {
    * Update the state of this dialog’s buttons.
    */
   private void updateState() {
+    final boolean backupsDisabled = !this.backupsCheckBox.isSelected();
+    this.backupsDirField.setDisable(backupsDisabled);
+    this.selectBackupsDirButton.setDisable(backupsDisabled);
+    this.backupsIntervalField.setDisable(backupsDisabled);
+    this.keptBackupsField.setDisable(backupsDisabled);
     final boolean configChanged = this.configChanged().changed();
     this.getDialogPane().lookupButton(ButtonTypes.OK).setDisable(!configChanged);
   }
@@ -179,7 +324,9 @@ public class SettingsDialog extends DialogBase<Void> {
   private ChangeType configChanged() {
     if (!this.localConfig.language().equals(this.initialConfig.language())
         || !this.localConfig.theme().equals(this.initialConfig.theme())
-        || !this.localConfig.databaseFile().equals(this.initialConfig.databaseFile()))
+        || !this.localConfig.databaseFile().equals(this.initialConfig.databaseFile())
+        || this.localConfig.cacheMediasTags() != this.initialConfig.cacheMediasTags()
+        || !this.localConfig.backups().equals(this.initialConfig.backups()))
       return ChangeType.NEEDS_RESTART;
     return !this.localConfig.equals(this.initialConfig) ? ChangeType.NO_RESTART_NEEDED : ChangeType.NONE;
   }
@@ -199,6 +346,16 @@ public class SettingsDialog extends DialogBase<Void> {
     this.updateState();
   }
 
+  private void onBackupsChange() {
+    this.localConfig = this.localConfig.withBackups(new BackupsConfig(
+        this.backupsCheckBox.isSelected(),
+        Path.of(this.backupsDirField.getText()),
+        this.backupsIntervalField.getValue(),
+        this.keptBackupsField.getValue()
+    ));
+    this.updateState();
+  }
+
   /**
    * Enumeration of the differente types of config changes.
    */
@@ -44,6 +44,9 @@ public class ConditionView extends VBox {
         db.getAllTags(),
         t -> true,
         Tag::label,
+        Tag::id,
+        db::getTagsCountsSnapshot,
+        db::tagsCacheVersion,
         new TagQuerySyntaxHighlighter(),
         List::of,
         config
@@ -70,6 +70,9 @@ public class UpdateTagsOperationView extends OperationView<UpdateTagsOperation>
         this.db.getAllTags(),
         t -> t.definition().isEmpty(),
         Tag::label,
+        Tag::id,
+        this.db::getTagsCountsSnapshot,
+        this.db::tagsCacheVersion,
         new TagListSyntaxHighlighter(this.db.getAllTags(), this.db.getAllTagTypes()),
         Function.identity(),
         config);
@@ -84,6 +87,9 @@ public class UpdateTagsOperationView extends OperationView<UpdateTagsOperation>
         this.db.getAllTags(),
         t -> t.definition().isEmpty(),
         Tag::label,
+        Tag::id,
+        this.db::getTagsCountsSnapshot,
+        this.db::tagsCacheVersion,
         new TagListSyntaxHighlighter(this.db.getAllTags(), this.db.getAllTagTypes()),
         Function.identity(),
         config);
@@ -0,0 +1,83 @@
+package net.darmo_creations.bildumilo.ui.syntax_highlighting;
+
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+
+/**
+ * This class represents the minimal update to apply to an already highlighted text after it was edited:
+ * the styles in the region between {@code from} and {@code to} have to be cleared,
+ * then the given spans have to be applied, clipped to that region.
+ * Styles outside of this region are left untouched.
+ *
+ * @param from  The start position of the region to restyle.
+ * @param to    The end position (excluded) of the region to restyle.
+ * @param spans The spans that intersect the region.
+ */
+public record HighlightingPatch(int from, int to, @NotNull List<Span> spans) {
+  public HighlightingPatch {
+    Objects.requireNonNull(spans);
+  }
+
+  /**
+   * Indicate whether this patch changes nothing.
+   */
+  public boolean isEmpty() {
+    return this.from >= this.to;
+  }
+
+  /**
+   * Compute the patch to apply to a text whose styles correspond to the given old spans
+   * and that was modified by the given edit.
+   *
+   * @param oldSpans The spans of the old text.
+   * @param edit     The edit that was applied to the old text.
+   * @param newSpans The spans of the new text.
+   * @return The patch to apply.
+   */
+  public static HighlightingPatch compute(
+      final @NotNull Collection<Span> oldSpans,
+      @NotNull TextEdit edit,
+      final @NotNull Collection<Span> newSpans
+  ) {
+    // Inserted text may have inherited the style of neighboring characters
+    int from = edit.start() < edit.newEnd() ? edit.start() : Integer.MAX_VALUE;
+    int to = edit.start() < edit.newEnd() ? edit.newEnd() : Integer.MIN_VALUE;
+
+    final Set<Span> mappedOldSpans = new HashSet<>();
+    for (final Span span : oldSpans) {
+      final Optional<Span> mapped = edit.map(span);
+      if (mapped.isPresent())
+        mappedOldSpans.add(mapped.get());
+      else {
+        // Only the parts outside of the replaced region still exist in the new text
+        if (span.start() < edit.start()) {
+          from = Math.min(from, span.start());
+          to = Math.max(to, edit.start());
+        }
+        if (span.end() >= edit.oldEnd()) {
+          from = Math.min(from, edit.newEnd());
+          to = Math.max(to, span.end() + 1 + edit.delta());
+        }
+      }
+    }
+    final Set<Span> newSpansSet = new HashSet<>(newSpans);
+    for (final Span span : newSpans)
+      if (!mappedOldSpans.contains(span)) {
+        from = Math.min(from, span.start());
+        to = Math.max(to, span.end() + 1);
+      }
+    for (final Span span : mappedOldSpans)
+      if (!newSpansSet.contains(span)) {
+        from = Math.min(from, span.start());
+        to = Math.max(to, span.end() + 1);
+      }
+
+    if (from >= to)
+      return new HighlightingPatch(0, 0, List.of());
+    final int start = from, end = to;
+    return new HighlightingPatch(start, end, newSpans.stream()
+        .filter(span -> span.start() < end && span.end() >= start)
+        .toList());
+  }
+}
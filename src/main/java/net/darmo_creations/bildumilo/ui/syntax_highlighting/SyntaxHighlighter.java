@@ -21,4 +21,21 @@ public interface SyntaxHighlighter {
    * @return A list of {@link Span} objects.
    */
   Collection<Span> highlight(@NotNull String text);
+
+  /**
+   * Parse the given text, reusing the result of a previous call on an older version of the text.
+   * The default implementation parses the whole text again.
+   *
+   * @param text          The text to parse.
+   * @param previousText  The previously parsed text.
+   * @param previousSpans The spans returned for the previous text.
+   * @return A list of {@link Span} objects.
+   */
+  default Collection<Span> highlight(
+      @NotNull String text,
+      @NotNull String previousText,
+      final @NotNull Collection<Span> previousSpans
+  ) {
+    return this.highlight(text);
+  }
 }
@@ -107,6 +107,43 @@ public class TagListSyntaxHighlighter implements SyntaxHighlighter {
     return spans;
   }
 
+  /**
+   * Re-lex only the words that were touched by the edit between both texts.
+   * Whitespace characters reset the lexer’s state and no span ever contains one,
+   * they are thus used as checkpoints from which lexing can safely restart.
+   */
+  @Override
+  public Collection<Span> highlight(
+      @NotNull String text,
+      @NotNull String previousText,
+      final @NotNull Collection<Span> previousSpans
+  ) {
+    final TextEdit edit = TextEdit.between(previousText, text);
+    if (edit.isEmpty())
+      return previousSpans;
+    int start = edit.start();
+    while (start > 0 && !Character.isWhitespace(text.charAt(start - 1)))
+      start--;
+    int end = edit.newEnd();
+    while (end < text.length() && !Character.isWhitespace(text.charAt(end)))
+      end++;
+    final int oldStart = start;
+    final int oldEnd = end - edit.delta();
+
+    final List<Span> spans = new ArrayList<>(previousSpans.size() + 1);
+    final List<Span> shiftedSpans = new LinkedList<>();
+    for (final Span span : previousSpans) {
+      if (span.end() < oldStart)
+        spans.add(span);
+      else if (span.start() >= oldEnd)
+        shiftedSpans.add(new Span(span.css(), span.start() + edit.delta(), span.end() + edit.delta()));
+    }
+    for (final Span span : this.highlight(text.substring(start, end)))
+      spans.add(new Span(span.css(), span.start() + start, span.end() + start));
+    spans.addAll(shiftedSpans);
+    return spans;
+  }
+
   private String getTagStyle(@NotNull String tagName) {
     return this.allTags.stream()
         .filter(tag -> tag.label().equals(tagName))
@@ -0,0 +1,63 @@
+package net.darmo_creations.bildumilo.ui.syntax_highlighting;
+
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+
+/**
+ * This class represents the region of a text that was replaced between two versions of that text.
+ * Characters before {@code start} and after {@code oldEnd} (resp. {@code newEnd}) are identical in both versions.
+ *
+ * @param start  The start position of the replaced region.
+ * @param oldEnd The end position (excluded) of the replaced region in the old text.
+ * @param newEnd The end position (excluded) of the replacement region in the new text.
+ */
+public record TextEdit(int start, int oldEnd, int newEnd) {
+  /**
+   * Compute the smallest edit that turns a text into another.
+   *
+   * @param oldText The old text.
+   * @param newText The new text.
+   * @return The corresponding edit.
+   */
+  public static TextEdit between(@NotNull String oldText, @NotNull String newText) {
+    final int maxLength = Math.min(oldText.length(), newText.length());
+    int prefix = 0;
+    while (prefix < maxLength && oldText.charAt(prefix) == newText.charAt(prefix))
+      prefix++;
+    int suffix = 0;
+    while (suffix < maxLength - prefix
+           && oldText.charAt(oldText.length() - 1 - suffix) == newText.charAt(newText.length() - 1 - suffix))
+      suffix++;
+    return new TextEdit(prefix, oldText.length() - suffix, newText.length() - suffix);
+  }
+
+  /**
+   * The difference between the new text’s length and the old one’s.
+   */
+  public int delta() {
+    return this.newEnd - this.oldEnd;
+  }
+
+  /**
+   * Indicate whether this edit changes nothing.
+   */
+  public boolean isEmpty() {
+    return this.start == this.oldEnd && this.start == this.newEnd;
+  }
+
+  /**
+   * Map a span of the old text to the new text.
+   *
+   * @param span A span of the old text.
+   * @return The span shifted to its position in the new text,
+   * or an empty {@link Optional} if it overlaps the replaced region.
+   */
+  public Optional<Span> map(@NotNull Span span) {
+    if (span.end() < this.start)
+      return Optional.of(span);
+    if (span.start() >= this.oldEnd)
+      return Optional.of(new Span(span.css(), span.start() + this.delta(), span.end() + this.delta()));
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,380 @@
+package net.darmo_creations.bildumilo.utils;
+
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * An immutable map with {@code int} keys whose updates return a new map
+ * that shares most of its structure with the original one.
+ * <p>
+ * Entries are stored in a bitmapped trie that consumes 5 bits of the key per level.
+ * {@link #with(int, Object)} and {@link #without(int)} thus only copy the few nodes on the path to the key,
+ * instead of the whole map, and the previous map stays valid and unchanged.
+ * <p>
+ * Null values are not supported. Instances are immutable and may be shared between threads freely.
+ *
+ * @param <V> The type of the values.
+ */
+public final class PersistentIntMap<V> extends AbstractMap<Integer, V> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(null, 0);
+
+  /**
+   * The root of the trie: null if this map is empty, a {@link Leaf} if it contains a single entry,
+   * a {@link Node} otherwise.
+   */
+  private final Object root;
+  private final int size;
+  private Set<Entry<Integer, V>> entrySet;
+
+  private PersistentIntMap(Object root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Return an empty map.
+   */
+  @SuppressWarnings("unchecked")
+  @Contract(pure = true)
+  public static <V> PersistentIntMap<V> empty() {
+    return (PersistentIntMap<V>) EMPTY;
+  }
+
+  /**
+   * Return a map containing the entries of the given one.
+   *
+   * @param map The map to copy. It must not contain any null value.
+   * @return The given map if it already is a {@link PersistentIntMap}, a new map otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  public static <V> PersistentIntMap<V> copyOf(final @NotNull Map<Integer, ? extends V> map) {
+    if (map instanceof PersistentIntMap<?> m)
+      return (PersistentIntMap<V>) m;
+    PersistentIntMap<V> result = empty();
+    for (final var entry : map.entrySet())
+      result = result.with(entry.getKey(), entry.getValue());
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return this.size == 0;
+  }
+
+  /**
+   * Return the value associated to the given key.
+   *
+   * @param key A key.
+   * @return The value, or null if this map does not contain the key.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    Object tree = this.root;
+    int shift = 0;
+    while (tree instanceof Node node) {
+      final int bit = 1 << ((key >>> shift) & MASK);
+      if ((node.bitmap & bit) == 0)
+        return null;
+      tree = node.children[node.index(bit)];
+      shift += BITS;
+    }
+    return tree instanceof Leaf<?> leaf && leaf.key == key ? (V) leaf.value : null;
+  }
+
+  @Override
+  public V get(Object key) {
+    return key instanceof Integer i ? this.get(i.intValue()) : null;
+  }
+
+  @Override
+  public V getOrDefault(Object key, V defaultValue) {
+    final V value = this.get(key);
+    return value != null ? value : defaultValue;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return this.get(key) != null;
+  }
+
+  /**
+   * Return a map with the entries of this one, where the given key is associated to the given value.
+   *
+   * @param key   The key.
+   * @param value The value to associate to the key.
+   * @return The new map, or this map if it already associates this value to the key.
+   */
+  public PersistentIntMap<V> with(int key, @NotNull V value) {
+    Objects.requireNonNull(value);
+    final boolean present = this.get(key) != null;
+    final Object root = insert(this.root, 0, new Leaf<>(key, value));
+    if (root == this.root)
+      return this;
+    return new PersistentIntMap<>(root, present ? this.size : this.size + 1);
+  }
+
+  /**
+   * Return a map with the entries of this one, except for the given key.
+   *
+   * @param key The key to remove.
+   * @return The new map, or this map if it does not contain the key.
+   */
+  public PersistentIntMap<V> without(int key) {
+    if (this.get(key) == null)
+      return this;
+    return new PersistentIntMap<>(remove(this.root, 0, key), this.size - 1);
+  }
+
+  /**
+   * Call the given action with each key that is associated to different values in this map and the given one,
+   * including the keys that are in only one of them.
+   * Subtrees that both maps share are skipped: if one map was derived from the other,
+   * the cost depends on the number of changes between them rather than on their size.
+   *
+   * @param other  The map to compare this one to.
+   * @param action The action to call with each key whose value differs.
+   */
+  public void forEachChangedKey(final @NotNull PersistentIntMap<V> other, @NotNull IntConsumer action) {
+    forEachChangedKey(this.root, other.root, action);
+  }
+
+  @Override
+  public Set<Entry<Integer, V>> entrySet() {
+    if (this.entrySet == null)
+      this.entrySet = new AbstractSet<>() {
+        @Override
+        public int size() {
+          return PersistentIntMap.this.size;
+        }
+
+        @Override
+        public Iterator<Entry<Integer, V>> iterator() {
+          return new EntryIterator<>(PersistentIntMap.this.root);
+        }
+      };
+    return this.entrySet;
+  }
+
+  private static void forEachChangedKey(Object tree1, Object tree2, @NotNull IntConsumer action) {
+    if (tree1 == tree2)
+      return;
+    if (tree1 instanceof Node node1 && tree2 instanceof Node node2) {
+      for (int bits = node1.bitmap | node2.bitmap; bits != 0; bits &= bits - 1) {
+        final int bit = Integer.lowestOneBit(bits);
+        forEachChangedKey(
+            (node1.bitmap & bit) != 0 ? node1.children[node1.index(bit)] : null,
+            (node2.bitmap & bit) != 0 ? node2.children[node2.index(bit)] : null,
+            action
+        );
+      }
+      return;
+    }
+    // One side is empty or a single leaf, whose key may be stored deeper in the other side
+    final Map<Integer, Object> values = new HashMap<>();
+    new EntryIterator<>(tree1).forEachRemaining(entry -> values.put(entry.getKey(), entry.getValue()));
+    new EntryIterator<>(tree2).forEachRemaining(entry -> {
+      if (!entry.getValue().equals(values.remove(entry.getKey())))
+        action.accept(entry.getKey());
+    });
+    values.keySet().forEach(action::accept);
+  }
+
+  private static Object insert(Object tree, int shift, @NotNull Leaf<?> leaf) {
+    if (tree == null)
+      return leaf;
+    if (tree instanceof Leaf<?> l) {
+      if (l.key != leaf.key)
+        return merge(l, leaf, shift);
+      return l.value == leaf.value ? l : leaf;
+    }
+    final Node node = (Node) tree;
+    final int bit = 1 << ((leaf.key >>> shift) & MASK);
+    final int index = node.index(bit);
+    if ((node.bitmap & bit) == 0) {
+      final Object[] children = new Object[node.children.length + 1];
+      System.arraycopy(node.children, 0, children, 0, index);
+      children[index] = leaf;
+      System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+      return new Node(node.bitmap | bit, children);
+    }
+    final Object child = node.children[index];
+    final Object newChild = insert(child, shift + BITS, leaf);
+    if (newChild == child)
+      return node;
+    final Object[] children = node.children.clone();
+    children[index] = newChild;
+    return new Node(node.bitmap, children);
+  }
+
+  /**
+   * Create the subtree that holds two leaves with different keys.
+   */
+  private static Node merge(@NotNull Leaf<?> leaf1, @NotNull Leaf<?> leaf2, int shift) {
+    final int index1 = (leaf1.key >>> shift) & MASK;
+    final int index2 = (leaf2.key >>> shift) & MASK;
+    if (index1 == index2)
+      return new Node(1 << index1, new Object[] {merge(leaf1, leaf2, shift + BITS)});
+    return new Node(
+        (1 << index1) | (1 << index2),
+        index1 < index2 ? new Object[] {leaf1, leaf2} : new Object[] {leaf2, leaf1}
+    );
+  }
+
+  /**
+   * Remove a key that is present in the given subtree.
+   * Nodes left with a single leaf are replaced by that leaf.
+   */
+  private static Object remove(@NotNull Object tree, int shift, int key) {
+    if (tree instanceof Leaf<?>)
+      return null;
+    final Node node = (Node) tree;
+    final int bit = 1 << ((key >>> shift) & MASK);
+    final int index = node.index(bit);
+    final Object newChild = remove(node.children[index], shift + BITS, key);
+    if (newChild == null) {
+      if (node.children.length == 1)
+        return null;
+      if (node.children.length == 2 && node.children[1 - index] instanceof Leaf<?> leaf)
+        return leaf;
+      final Object[] children = new Object[node.children.length - 1];
+      System.arraycopy(node.children, 0, children, 0, index);
+      System.arraycopy(node.children, index + 1, children, index, children.length - index);
+      return new Node(node.bitmap & ~bit, children);
+    }
+    if (node.children.length == 1 && newChild instanceof Leaf<?>)
+      return newChild;
+    final Object[] children = node.children.clone();
+    children[index] = newChild;
+    return new Node(node.bitmap, children);
+  }
+
+  /**
+   * An inner node of the trie.
+   *
+   * @param bitmap   The bit {@code i} is set if the node has a child for the 5-bit key chunk {@code i}.
+   * @param children The children, ordered by key chunk. Each one is either a {@link Node} or a {@link Leaf}.
+   */
+  private record Node(int bitmap, Object @NotNull [] children) {
+    /**
+     * The position of the child for the given chunk bit in {@link #children}.
+     */
+    int index(int bit) {
+      return Integer.bitCount(this.bitmap & (bit - 1));
+    }
+  }
+
+  /**
+   * An entry of the map.
+   */
+  private static final class Leaf<V> implements Entry<Integer, V> {
+    private final int key;
+    private final V value;
+
+    private Leaf(int key, @NotNull V value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public Integer getKey() {
+      return this.key;
+    }
+
+    @Override
+    public V getValue() {
+      return this.value;
+    }
+
+    @Override
+    public V setValue(V value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Entry<?, ?> e && Objects.equals(this.getKey(), e.getKey()) && this.value.equals(e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return Integer.hashCode(this.key) ^ this.value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return this.key + "=" + this.value;
+    }
+  }
+
+  /**
+   * Iterates over the leaves of a trie, depth-first.
+   */
+  private static final class EntryIterator<V> implements Iterator<Entry<Integer, V>> {
+    /**
+     * The maximum depth of a trie: one level per 5-bit chunk of a 32-bit key.
+     */
+    private static final int MAX_DEPTH = (Integer.SIZE + BITS - 1) / BITS;
+
+    private final Node[] nodes = new Node[MAX_DEPTH];
+    /**
+     * The position of the next child to visit in each node of {@link #nodes}.
+     */
+    private final int[] positions = new int[MAX_DEPTH];
+    private int depth;
+    private Leaf<V> next;
+
+    private EntryIterator(Object root) {
+      this.push(root);
+      this.advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void push(Object tree) {
+      if (tree instanceof Node node) {
+        this.nodes[this.depth] = node;
+        this.positions[this.depth] = 0;
+        this.depth++;
+      } else
+        this.next = (Leaf<V>) tree;
+    }
+
+    /**
+     * Move to the next leaf, unless one is already pending.
+     */
+    private void advance() {
+      while (this.next == null && this.depth != 0) {
+        final int top = this.depth - 1;
+        final Node node = this.nodes[top];
+        if (this.positions[top] == node.children.length) {
+          this.nodes[top] = null;
+          this.depth--;
+        } else
+          this.push(node.children[this.positions[top]++]);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.next != null;
+    }
+
+    @Override
+    public Entry<Integer, V> next() {
+      if (this.next == null)
+        throw new NoSuchElementException();
+      final Leaf<V> leaf = this.next;
+      this.next = null;
+      this.advance();
+      return leaf;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package net.darmo_creations.bildumilo.utils;
+
+import org.jetbrains.annotations.*;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * This class indexes a collection of objects by a string key to quickly find
+ * the keys that start with a given prefix.
+ * <p>
+ * Keys are stored in a sorted array, matching keys are thus found using binary search.
+ * Each key is associated to a weight, used to rank the results.
+ * <p>
+ * The index is updated incrementally through the {@link #update(Collection, Predicate)} method:
+ * only the objects whose key changed since the last update are re-inserted,
+ * and only the weights of new objects and of those whose weight changed are recomputed.
+ * Queries work on an immutable snapshot of the index and may be performed from any thread,
+ * updates must all be performed from the same thread.
+ *
+ * @param <T> The type of the indexed objects.
+ */
+public class PrefixIndex<T> {
+  private final Function<T, String> keyFunction;
+  private final ToIntFunction<T> weightFunction;
+  private final Map<T, String> indexedKeys = new IdentityHashMap<>();
+  private volatile Snapshot snapshot = new Snapshot(new String[0], new Object[0], new int[0]);
+
+  /**
+   * Create a new empty index.
+   *
+   * @param keyFunction    A function that returns the key of each object.
+   * @param weightFunction A function that returns the weight of each object.
+   *                       Objects with the highest weights are returned first by queries.
+   */
+  public PrefixIndex(@NotNull Function<T, String> keyFunction, @NotNull ToIntFunction<T> weightFunction) {
+    this.keyFunction = Objects.requireNonNull(keyFunction);
+    this.weightFunction = Objects.requireNonNull(weightFunction);
+  }
+
+  /**
+   * The number of indexed objects.
+   */
+  public int size() {
+    return this.snapshot.keys.length;
+  }
+
+  /**
+   * Update this index so that it contains exactly the given objects.
+   * Objects are compared by identity. Objects that were already indexed under the same key are kept in place,
+   * others are removed or merged into the sorted keys. The weights of all objects are refreshed.
+   *
+   * @param objects The objects to index.
+   */
+  public void update(final @NotNull Collection<T> objects) {
+    this.update(objects, object -> true);
+  }
+
+  /**
+   * Update this index so that it contains exactly the given objects.
+   * Objects are compared by identity. Objects that were already indexed under the same key are kept in place,
+   * others are removed or merged into the sorted keys. Objects that are kept also keep their weight,
+   * unless the given predicate tells that it changed.
+   *
+   * @param objects       The objects to index.
+   * @param weightChanged A predicate that tells whether the weight of an already indexed object changed.
+   */
+  @SuppressWarnings("unchecked")
+  public void update(final @NotNull Collection<T> objects, @NotNull Predicate<? super T> weightChanged) {
+    final Snapshot current = this.snapshot;
+    final Map<T, String> newKeys = new IdentityHashMap<>(objects.size());
+    final List<T> added = new ArrayList<>();
+    for (final T object : objects) {
+      final String key = this.keyFunction.apply(object);
+      newKeys.put(object, key);
+      if (!key.equals(this.indexedKeys.get(object)))
+        added.add(object);
+    }
+
+    final int keptCount = objects.size() - added.size();
+    final List<T> kept = new ArrayList<>(keptCount);
+    final List<String> keptKeys = new ArrayList<>(keptCount);
+    final int[] keptWeights = new int[keptCount];
+    if (keptCount != 0)
+      for (int i = 0; i < current.keys.length; i++) {
+        final T object = (T) current.objects[i];
+        final String key = current.keys[i];
+        if (key.equals(newKeys.get(object))) {
+          keptWeights[kept.size()] = weightChanged.test(object)
+              ? this.weightFunction.applyAsInt(object)
+              : current.weights[i];
+          kept.add(object);
+          keptKeys.add(key);
+        }
+      }
+
+    added.sort(Comparator.comparing(newKeys::get));
+    // Merge both sorted lists
+    final int size = kept.size() + added.size();
+    final String[] keys = new String[size];
+    final Object[] sortedObjects = new Object[size];
+    final int[] weights = new int[size];
+    int i = 0, j = 0;
+    for (int k = 0; k < size; k++) {
+      final T object;
+      if (j == added.size() || i < kept.size() && keptKeys.get(i).compareTo(newKeys.get(added.get(j))) <= 0) {
+        weights[k] = keptWeights[i];
+        object = kept.get(i++);
+      } else {
+        object = added.get(j++);
+        weights[k] = this.weightFunction.applyAsInt(object);
+      }
+      keys[k] = newKeys.get(object);
+      sortedObjects[k] = object;
+    }
+
+    this.indexedKeys.clear();
+    this.indexedKeys.putAll(newKeys);
+    this.snapshot = new Snapshot(keys, sortedObjects, weights);
+  }
+
+  /**
+   * Return the keys that start with the given prefix but are not equal to it.
+   * Keys are sorted by decreasing weight, then alphabetically.
+   *
+   * @param prefix The prefix to look for.
+   * @param limit  The maximum number of keys to return.
+   * @return A new list containing at most {@code limit} keys.
+   */
+  @Contract(pure = true, value = "_, _ -> new")
+  public List<String> completions(@NotNull String prefix, int limit) {
+    final Snapshot snapshot = this.snapshot;
+    final String[] keys = snapshot.keys;
+    int start = lowerBound(keys, prefix);
+    while (start < keys.length && keys[start].equals(prefix))
+      start++;
+    final int end = prefixEnd(keys, start, prefix);
+    if (limit <= 0 || start >= end)
+      return new ArrayList<>();
+
+    // Bounded heap whose head is the worst of the best candidates found so far
+    final Comparator<Integer> ranking = Comparator.<Integer>comparingInt(k -> snapshot.weights[k])
+        .thenComparing(k -> keys[k], Comparator.reverseOrder());
+    final PriorityQueue<Integer> heap = new PriorityQueue<>(Math.min(limit, end - start) + 1, ranking);
+    for (int k = start; k < end; k++) {
+      if (heap.size() < limit)
+        heap.add(k);
+      else if (ranking.compare(k, heap.peek()) > 0) {
+        heap.poll();
+        heap.add(k);
+      }
+    }
+
+    final List<String> results = new ArrayList<>(heap.size());
+    while (!heap.isEmpty())
+      results.add(keys[heap.poll()]);
+    Collections.reverse(results);
+    return results;
+  }
+
+  /**
+   * Return the index of the first key that is greater than or equal to the given string.
+   */
+  private static int lowerBound(final @NotNull String[] keys, @NotNull String s) {
+    int low = 0, high = keys.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (keys[middle].compareTo(s) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * Return the index of the first key after {@code start} that does not start with the given prefix.
+   * All keys from {@code start} must be greater than or equal to the prefix.
+   */
+  private static int prefixEnd(final @NotNull String[] keys, int start, @NotNull String prefix) {
+    int low = start, high = keys.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (keys[middle].startsWith(prefix))
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * An immutable state of the index.
+   *
+   * @param keys    The sorted keys.
+   * @param objects The objects associated to each key.
+   * @param weights The weights of each object.
+   */
+  private record Snapshot(@NotNull String[] keys, @NotNull Object[] objects, @NotNull int[] weights) {
+  }
+}
@@ -0,0 +1,15 @@
+-- Add media metadata columns.
+-- Values of already registered medias are filled in the next time they are updated.
+ALTER TABLE images ADD COLUMN size INTEGER DEFAULT NULL;
+ALTER TABLE images ADD COLUMN width INTEGER DEFAULT NULL;
+ALTER TABLE images ADD COLUMN height INTEGER DEFAULT NULL;
+ALTER TABLE images ADD COLUMN duration REAL DEFAULT NULL;
+ALTER TABLE images ADD COLUMN mtime INTEGER DEFAULT NULL;
+
+CREATE INDEX idx_images_size ON images (size);
+CREATE INDEX idx_images_width ON images (width);
+CREATE INDEX idx_images_height ON images (height);
+CREATE INDEX idx_images_duration ON images (duration);
+CREATE INDEX idx_images_mtime ON images (mtime);
+
+PRAGMA USER_VERSION = 1;
@@ -0,0 +1,38 @@
+-- Add a counter of the changes made to the tag types and tags, which are mirrored by the application’s caches,
+-- and a table to store a snapshot of those caches.
+-- The counter is only incremented while it matches the snapshot’s: one increment is enough to invalidate it,
+-- and bulk changes then do not rewrite the counter for every row.
+CREATE TABLE cache_changes
+(
+    id      INTEGER PRIMARY KEY CHECK (id = 0),
+    counter INTEGER NOT NULL DEFAULT 0
+) STRICT;
+INSERT INTO cache_changes (id) VALUES (0);
+
+CREATE TABLE cache_snapshot
+(
+    id      INTEGER PRIMARY KEY CHECK (id = 0),
+    counter INTEGER NOT NULL,
+    data    BLOB    NOT NULL
+) STRICT;
+
+CREATE TRIGGER trg_tag_types_insert_changes AFTER INSERT ON tag_types
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tag_types_update_changes AFTER UPDATE ON tag_types
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tag_types_delete_changes AFTER DELETE ON tag_types
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tags_insert_changes AFTER INSERT ON tags
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tags_update_changes AFTER UPDATE ON tags
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tags_delete_changes AFTER DELETE ON tags
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+
+PRAGMA USER_VERSION = 2;
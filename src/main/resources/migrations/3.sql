@@ -0,0 +1,9 @@
+-- Add the secondary indexes needed to look up the medias of a tag and the tags of a tag type.
+-- Without them, tag subqueries, tag deletions and tag type deletions scan the whole tables.
+CREATE INDEX idx_image_tag_tag_id ON image_tag (tag_id, image_id);
+CREATE INDEX idx_tags_type_id ON tags (type_id);
+
+-- Give the query planner statistics for the new indexes
+ANALYZE;
+
+PRAGMA USER_VERSION = 3;
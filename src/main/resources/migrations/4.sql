@@ -0,0 +1,28 @@
+-- Add a table holding the number of medias each tag is associated to, maintained by triggers,
+-- so that tag counts no longer have to be computed from the whole image_tag table on startup.
+CREATE TABLE tag_counts
+(
+    tag_id INTEGER PRIMARY KEY,
+    count  INTEGER NOT NULL DEFAULT 0,
+    FOREIGN KEY (tag_id) REFERENCES tags (id) ON DELETE CASCADE
+) STRICT;
+
+INSERT INTO tag_counts (tag_id, count)
+SELECT t.id, COUNT(it.tag_id)
+FROM tags AS t
+LEFT JOIN image_tag AS it ON it.tag_id = t.id
+GROUP BY t.id;
+
+CREATE TRIGGER trg_tags_insert_counts AFTER INSERT ON tags
+BEGIN INSERT INTO tag_counts (tag_id) VALUES (NEW.id); END;
+CREATE TRIGGER trg_image_tag_insert_counts AFTER INSERT ON image_tag
+BEGIN UPDATE tag_counts SET count = count + 1 WHERE tag_id = NEW.tag_id; END;
+CREATE TRIGGER trg_image_tag_update_counts AFTER UPDATE OF tag_id ON image_tag
+BEGIN
+    UPDATE tag_counts SET count = count - 1 WHERE tag_id = OLD.tag_id;
+    UPDATE tag_counts SET count = count + 1 WHERE tag_id = NEW.tag_id;
+END;
+CREATE TRIGGER trg_image_tag_delete_counts AFTER DELETE ON image_tag
+BEGIN UPDATE tag_counts SET count = count - 1 WHERE tag_id = OLD.tag_id; END;
+
+PRAGMA USER_VERSION = 4;
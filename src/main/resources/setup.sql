@@ -1,15 +1,28 @@
 -- Current schema version, should match the value of DatabaseConnection.CURRENT_SCHEMA_VERSION
-PRAGMA USER_VERSION = 0;
+PRAGMA USER_VERSION = 4;
 
+-- The `size`, `width`, `height`, `duration` and `mtime` columns hold the file’s metadata, read when it is registered.
+-- `duration` is in seconds, `mtime` in seconds since the UNIX epoch.
 CREATE TABLE images
 (
-    id   INTEGER PRIMARY KEY AUTOINCREMENT,
-    path TEXT UNIQUE NOT NULL,
-    hash INTEGER DEFAULT NULL
+    id       INTEGER PRIMARY KEY AUTOINCREMENT,
+    path     TEXT UNIQUE NOT NULL,
+    hash     INTEGER DEFAULT NULL,
+    size     INTEGER DEFAULT NULL,
+    width    INTEGER DEFAULT NULL,
+    height   INTEGER DEFAULT NULL,
+    duration REAL    DEFAULT NULL,
+    mtime    INTEGER DEFAULT NULL
 ) STRICT;
 
 -- Speed up hash querying
 CREATE INDEX idx_images_hash ON images (hash);
+-- Speed up metadata pseudo-tags querying
+CREATE INDEX idx_images_size ON images (size);
+CREATE INDEX idx_images_width ON images (width);
+CREATE INDEX idx_images_height ON images (height);
+CREATE INDEX idx_images_duration ON images (duration);
+CREATE INDEX idx_images_mtime ON images (mtime);
 
 -- The `updating` column allows swapping the labels and/or symbols of several tag types in the same transaction.
 CREATE TABLE tag_types
@@ -35,6 +48,9 @@ CREATE TABLE tags
     FOREIGN KEY (type_id) REFERENCES tag_types (id) ON DELETE SET NULL
 ) STRICT;
 
+-- Speed up tag type deletions
+CREATE INDEX idx_tags_type_id ON tags (type_id);
+
 CREATE TABLE image_tag
 (
     image_id INTEGER NOT NULL,
@@ -44,6 +60,29 @@ CREATE TABLE image_tag
     FOREIGN KEY (tag_id) REFERENCES tags (id) ON DELETE CASCADE
 ) STRICT;
 
+-- Speed up looking up the medias of a tag, the primary key only covers the tags of a media
+CREATE INDEX idx_image_tag_tag_id ON image_tag (tag_id, image_id);
+
+-- The number of medias each tag is associated to, maintained by the triggers below
+CREATE TABLE tag_counts
+(
+    tag_id INTEGER PRIMARY KEY,
+    count  INTEGER NOT NULL DEFAULT 0,
+    FOREIGN KEY (tag_id) REFERENCES tags (id) ON DELETE CASCADE
+) STRICT;
+
+CREATE TRIGGER trg_tags_insert_counts AFTER INSERT ON tags
+BEGIN INSERT INTO tag_counts (tag_id) VALUES (NEW.id); END;
+CREATE TRIGGER trg_image_tag_insert_counts AFTER INSERT ON image_tag
+BEGIN UPDATE tag_counts SET count = count + 1 WHERE tag_id = NEW.tag_id; END;
+CREATE TRIGGER trg_image_tag_update_counts AFTER UPDATE OF tag_id ON image_tag
+BEGIN
+    UPDATE tag_counts SET count = count - 1 WHERE tag_id = OLD.tag_id;
+    UPDATE tag_counts SET count = count + 1 WHERE tag_id = NEW.tag_id;
+END;
+CREATE TRIGGER trg_image_tag_delete_counts AFTER DELETE ON image_tag
+BEGIN UPDATE tag_counts SET count = count - 1 WHERE tag_id = OLD.tag_id; END;
+
 CREATE TABLE saved_queries
 (
     name    TEXT PRIMARY KEY,
@@ -67,3 +106,41 @@ CREATE TABLE image_operation
     UNIQUE (batch_name, `order`),
     FOREIGN KEY (batch_name) REFERENCES batch_operations (name) ON DELETE CASCADE
 ) STRICT;
+
+-- Counts the changes made to the tag types and tags, which are mirrored by the application’s caches,
+-- so that a snapshot of those caches can be checked against the current state of the database.
+-- Tag use counts are not part of the snapshot, they are read from tag_counts.
+-- The counter is only incremented while it matches the snapshot’s: one increment is enough to invalidate it,
+-- and bulk changes then do not rewrite the counter for every row.
+CREATE TABLE cache_changes
+(
+    id      INTEGER PRIMARY KEY CHECK (id = 0),
+    counter INTEGER NOT NULL DEFAULT 0
+) STRICT;
+INSERT INTO cache_changes (id) VALUES (0);
+
+CREATE TABLE cache_snapshot
+(
+    id      INTEGER PRIMARY KEY CHECK (id = 0),
+    counter INTEGER NOT NULL,
+    data    BLOB    NOT NULL
+) STRICT;
+
+CREATE TRIGGER trg_tag_types_insert_changes AFTER INSERT ON tag_types
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tag_types_update_changes AFTER UPDATE ON tag_types
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tag_types_delete_changes AFTER DELETE ON tag_types
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tags_insert_changes AFTER INSERT ON tags
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tags_update_changes AFTER UPDATE ON tags
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
+CREATE TRIGGER trg_tags_delete_changes AFTER DELETE ON tags
+WHEN EXISTS (SELECT 1 FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter)
+BEGIN UPDATE cache_changes SET counter = counter + 1; END;
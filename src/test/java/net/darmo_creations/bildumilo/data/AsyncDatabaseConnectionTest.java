@@ -0,0 +1,133 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncDatabaseConnectionTest {
+  private DatabaseConnection db;
+  private AsyncDatabaseConnection asyncDb;
+
+  @BeforeEach
+  void setUp() throws DatabaseOperationException {
+    this.db = new DatabaseConnection(null);
+    this.asyncDb = new AsyncDatabaseConnection(this.db);
+  }
+
+  @AfterEach
+  void tearDown() throws DatabaseOperationException {
+    this.asyncDb.close();
+    this.db.close();
+  }
+
+  private static MediaFileUpdate newMedia(String path) {
+    return new MediaFileUpdate(0, Path.of(path), Optional.of(new Hash(0)), Set.of(), Set.of());
+  }
+
+  /**
+   * Submit a write that blocks the writer thread until the returned latch is released,
+   * so that the writes submitted in the meantime are coalesced.
+   */
+  private CountDownLatch blockWriter() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    this.asyncDb.writeAlone(db -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    });
+    started.await();
+    return release;
+  }
+
+  @Test
+  void write_runsInSubmissionOrder() throws InterruptedException {
+    final CountDownLatch release = this.blockWriter();
+    final List<CompletableFuture<MediaFile>> inserts = new ArrayList<>();
+    for (int i = 0; i < 100; i++)
+      inserts.add(this.asyncDb.insertMedia(newMedia("test_file_%d.png".formatted(i))));
+    release.countDown();
+    for (int i = 0; i < inserts.size(); i++)
+      assertEquals(i + 1, inserts.get(i).join().id());
+  }
+
+  @Test
+  void write_failureDoesNotAffectAdjacentWrites() throws InterruptedException, DatabaseOperationException {
+    final CountDownLatch release = this.blockWriter();
+    final var insert1 = this.asyncDb.insertMedia(newMedia("a.png"));
+    final var duplicate = this.asyncDb.insertMedia(newMedia("a.png"));
+    final var insert2 = this.asyncDb.insertMedia(newMedia("b.png"));
+    release.countDown();
+    assertEquals(Path.of("a.png"), insert1.join().path().getFileName());
+    assertEquals(Path.of("b.png"), insert2.join().path().getFileName());
+    final var e = assertThrows(CompletionException.class, duplicate::join);
+    assertInstanceOf(DatabaseOperationException.class, e.getCause());
+    assertTrue(this.db.mediaExists(1));
+    assertTrue(this.db.mediaExists(2));
+    assertFalse(this.db.mediaExists(3));
+  }
+
+  @Test
+  void write_cancelledWriteDoesNotRun() throws InterruptedException, DatabaseOperationException {
+    final CountDownLatch release = this.blockWriter();
+    final var insert = this.asyncDb.insertMedia(newMedia("a.png"));
+    insert.cancel(false);
+    final var insert2 = this.asyncDb.insertMedia(newMedia("b.png"));
+    release.countDown();
+    assertEquals(1, insert2.join().id());
+    assertFalse(this.db.mediaExists(2));
+  }
+
+  @Test
+  void writeAlone_failureCompletesFuture() {
+    final var future = this.asyncDb.writeAlone(db -> db.insertMedias(List.of(newMedia("a.png"), newMedia("a.png"))));
+    final var e = assertThrows(CompletionException.class, future::join);
+    assertInstanceOf(DatabaseOperationException.class, e.getCause());
+    assertNotEquals(DatabaseErrorCode.UNKNOWN_ERROR, AsyncDatabaseConnection.getErrorCode(e));
+  }
+
+  @Test
+  void write_fileOperationsAreRejected() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.asyncDb.insertMedia(newMedia("a.png")).join();
+    final var future = this.asyncDb.write(db -> {
+      db.deleteMedia(mediaFile, false);
+      return null;
+    });
+    final var e = assertThrows(CompletionException.class, future::join);
+    assertInstanceOf(IllegalStateException.class, e.getCause());
+    assertTrue(this.db.mediaExists(mediaFile.id()));
+  }
+
+  @Test
+  void deleteMedia_runsAlone() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.asyncDb.insertMedia(newMedia("a.png")).join();
+    this.asyncDb.deleteMedia(mediaFile, false).join();
+    assertFalse(this.db.mediaExists(mediaFile.id()));
+  }
+
+  @Test
+  void read_seesCommittedWrites() {
+    final MediaFile mediaFile = this.asyncDb.insertMedia(newMedia("a.png")).join();
+    assertTrue(this.asyncDb.read(db -> db.mediaExists(mediaFile.id())).join());
+  }
+
+  @Test
+  void close_waitsForPendingWrites() throws DatabaseOperationException {
+    final List<CompletableFuture<MediaFile>> inserts = new ArrayList<>();
+    for (int i = 0; i < 10; i++)
+      inserts.add(this.asyncDb.insertMedia(newMedia("test_file_%d.png".formatted(i))));
+    this.asyncDb.close();
+    assertTrue(inserts.stream().allMatch(CompletableFuture::isDone));
+    assertTrue(this.db.mediaExists(10));
+    final var rejected = this.asyncDb.insertMedia(newMedia("a.png"));
+    assertThrows(CompletionException.class, rejected::join);
+  }
+}
@@ -0,0 +1,46 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSnapshotTest {
+  @Test
+  void serialize_roundTrip() throws IOException {
+    final TagType tagType = new TagType(1, "type", '/', 0xff00ff);
+    final List<Tag> tags = List.of(
+        new Tag(1, "test1", tagType, null),
+        new Tag(2, "test2", null, "test1 " + "a".repeat(70_000))
+    );
+    final CacheSnapshot snapshot = CacheSnapshot.deserialize(
+        new CacheSnapshot(List.of(tagType), tags).serialize());
+    final TagType restoredType = snapshot.tagTypes().iterator().next();
+    assertEquals(tagType, restoredType);
+    assertEquals(tagType.label(), restoredType.label());
+    assertEquals(tagType.symbol(), restoredType.symbol());
+    assertEquals(tagType.color(), restoredType.color());
+    assertEquals(Set.copyOf(tags), Set.copyOf(snapshot.tags()));
+  }
+
+  @Test
+  void deserialize_tagsShareTypeInstances() throws IOException {
+    final TagType tagType = new TagType(1, "type", '/', 0);
+    final CacheSnapshot snapshot = CacheSnapshot.deserialize(new CacheSnapshot(
+        List.of(tagType),
+        List.of(new Tag(1, "test1", tagType, null), new Tag(2, "test2", tagType, null))
+    ).serialize());
+    final TagType restoredType = snapshot.tagTypes().iterator().next();
+    for (final Tag tag : snapshot.tags())
+      assertSame(restoredType, tag.type().orElseThrow());
+  }
+
+  @Test
+  void deserialize_corruptedDataError() {
+    final byte[] data = new CacheSnapshot(List.of(), List.of(new Tag(1, "test1", null, null))).serialize();
+    assertThrows(IOException.class, () -> CacheSnapshot.deserialize(Arrays.copyOf(data, data.length / 2)));
+    assertThrows(IOException.class, () -> CacheSnapshot.deserialize(new byte[] {1, 2, 3}));
+  }
+}
@@ -0,0 +1,116 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComparisonPseudoTagTest {
+  private final ComparisonPseudoTag tag = new ComparisonPseudoTag("", ComparisonPseudoTag::parseInteger, MediaMetadata::width);
+
+  static Stream<Arguments> provideArguments() {
+    return Stream.of(
+        Arguments.of(">1920", ComparisonPseudoTag.Operator.GT),
+        Arguments.of(">=1920", ComparisonPseudoTag.Operator.GE),
+        Arguments.of("<1920", ComparisonPseudoTag.Operator.LT),
+        Arguments.of("<=1920", ComparisonPseudoTag.Operator.LE),
+        Arguments.of("=1920", ComparisonPseudoTag.Operator.EQ),
+        Arguments.of("!=1920", ComparisonPseudoTag.Operator.NE),
+        Arguments.of("1920", ComparisonPseudoTag.Operator.EQ),
+        Arguments.of(" > 1920 ", ComparisonPseudoTag.Operator.GT)
+    );
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideArguments")
+  void parseArgument(String argument, ComparisonPseudoTag.Operator operator) {
+    assertEquals(Optional.of(new ComparisonPseudoTag.Comparison(operator, 1920)), this.tag.parseArgument(argument));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", ">", "<>1", "=>1", "a", ">-1", ">1.5"})
+  void parseArgument_invalid(String argument) {
+    assertTrue(this.tag.parseArgument(argument).isEmpty());
+  }
+
+  @Test
+  void comparison_sqlValue_integer() {
+    assertEquals("1048576", new ComparisonPseudoTag.Comparison(ComparisonPseudoTag.Operator.LT, 1048576).sqlValue());
+  }
+
+  @Test
+  void comparison_sqlValue_decimal() {
+    assertEquals("1.5", new ComparisonPseudoTag.Comparison(ComparisonPseudoTag.Operator.LT, 1.5).sqlValue());
+  }
+
+  static Stream<Arguments> provideSizes() {
+    return Stream.of(
+        Arguments.of("100", 100.0),
+        Arguments.of("100B", 100.0),
+        Arguments.of("1k", 1000.0),
+        Arguments.of("1KB", 1000.0),
+        Arguments.of("1KiB", 1024.0),
+        Arguments.of("1.5MiB", 1.5 * 1024 * 1024),
+        Arguments.of("2 GB", 2e9),
+        Arguments.of("1tib", Math.pow(1024, 4))
+    );
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideSizes")
+  void parseBytesSize(String s, double expected) {
+    assertEquals(Optional.of(expected), ComparisonPseudoTag.parseBytesSize(s));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "MiB", "1PiB", "-1", "1 MiB B"})
+  void parseBytesSize_invalid(String s) {
+    assertTrue(ComparisonPseudoTag.parseBytesSize(s).isEmpty());
+  }
+
+  static Stream<Arguments> provideDurations() {
+    return Stream.of(
+        Arguments.of("60", 60.0),
+        Arguments.of("1.5", 1.5),
+        Arguments.of("1:30", 90.0),
+        Arguments.of("1:00:00", 3600.0),
+        Arguments.of("2:01:30.5", 7290.5)
+    );
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideDurations")
+  void parseDuration(String s, double expected) {
+    assertEquals(Optional.of(expected), ComparisonPseudoTag.parseDuration(s));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "1:", ":30", "1:2:3:4", "a"})
+  void parseDuration_invalid(String s) {
+    assertTrue(ComparisonPseudoTag.parseDuration(s).isEmpty());
+  }
+
+  @Test
+  void parseDateTime_date() {
+    final double date = ComparisonPseudoTag.parseDateTime("2024-01-31").orElseThrow();
+    final double dateTime = ComparisonPseudoTag.parseDateTime("2024-01-31T00:00").orElseThrow();
+    assertEquals(dateTime, date);
+  }
+
+  @Test
+  void parseDateTime_dateTime() {
+    final double t1 = ComparisonPseudoTag.parseDateTime("2024-01-31T12:00").orElseThrow();
+    final double t2 = ComparisonPseudoTag.parseDateTime("2024-01-31T12:00:30").orElseThrow();
+    assertEquals(30, t2 - t1);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "2024", "2024-13-01", "31/01/2024"})
+  void parseDateTime_invalid(String s) {
+    assertTrue(ComparisonPseudoTag.parseDateTime(s).isEmpty());
+  }
+}
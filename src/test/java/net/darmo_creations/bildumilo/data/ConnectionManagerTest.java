@@ -0,0 +1,88 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionManagerTest {
+  private ConnectionManager connections;
+
+  @BeforeEach
+  void setUp(@TempDir Path dir) throws SQLException {
+    this.connections = new ConnectionManager(dir.resolve("db.sqlite3"), connection -> {
+    });
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    this.connections.close();
+  }
+
+  @Test
+  void prepareCached_writerRequiresLock() throws SQLException {
+    final Connection writer = this.connections.writer();
+    assertThrows(IllegalStateException.class, () -> this.connections.prepareCached(writer, "SELECT 1"));
+    this.connections.lockWriter();
+    try {
+      assertNotNull(this.connections.prepareCached(writer, "SELECT 1"));
+    } finally {
+      this.connections.unlockWriter();
+    }
+  }
+
+  @Test
+  void prepareCached_readerRequiresOwnership() throws SQLException, InterruptedException, ExecutionException {
+    final Connection reader = this.connections.acquireReader();
+    assertNotNull(this.connections.prepareCached(reader, "SELECT 1"));
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<?> future = executor.submit(() -> this.connections.prepareCached(reader, "SELECT 1"));
+      final ExecutionException e = assertThrows(ExecutionException.class, future::get);
+      assertInstanceOf(IllegalStateException.class, e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+    this.connections.releaseReader(reader);
+    assertThrows(IllegalStateException.class, () -> this.connections.prepareCached(reader, "SELECT 1"));
+  }
+
+  @Test
+  void openDedicatedReader_isNotPooled() throws SQLException {
+    try (final Connection dedicated = this.connections.openDedicatedReader()) {
+      final List<Connection> readers = new ArrayList<>();
+      for (int i = 0; i < ConnectionManager.MAX_READERS; i++)
+        readers.add(this.connections.acquireReader());
+      assertFalse(readers.contains(dedicated));
+      readers.forEach(this.connections::releaseReader);
+      try (final var statement = dedicated.createStatement()) {
+        assertThrows(SQLException.class, () -> statement.execute("CREATE TABLE t (id INTEGER)"));
+      }
+    }
+  }
+
+  @Test
+  void openDedicatedReader_inMemoryError() throws SQLException {
+    try (final var connections = new ConnectionManager(null, connection -> {
+    })) {
+      assertThrows(IllegalStateException.class, connections::openDedicatedReader);
+    }
+  }
+
+  @Test
+  void tryLockWriter_failsIfAlreadyHeld() {
+    this.connections.lockWriter();
+    try {
+      assertFalse(this.connections.tryLockWriter());
+    } finally {
+      this.connections.unlockWriter();
+    }
+    assertTrue(this.connections.tryLockWriter());
+    this.connections.unlockWriter();
+  }
+}
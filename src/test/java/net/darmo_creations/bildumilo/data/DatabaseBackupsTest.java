@@ -0,0 +1,73 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseBackupsTest {
+  private DatabaseConnection db;
+  private Path backupsDir;
+
+  @BeforeEach
+  void setUp(@TempDir Path dir) throws DatabaseOperationException {
+    this.db = new DatabaseConnection(dir.resolve("db.sqlite3"));
+    this.backupsDir = dir.resolve("backups");
+  }
+
+  @AfterEach
+  void tearDown() throws DatabaseOperationException {
+    this.db.close();
+  }
+
+  private void insertMedia(int id) throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(
+        0, Path.of("test_file_%d.png".formatted(id)), Optional.of(new Hash(id)), Set.of(), Set.of()));
+  }
+
+  @Test
+  void backup_createsVerifiedCopy() throws DatabaseOperationException, IOException {
+    this.insertMedia(1);
+    final Path file;
+    try (final var backups = new DatabaseBackups(this.db, this.backupsDir, Duration.ofDays(1), 5)) {
+      file = backups.backup();
+      assertEquals(List.of(file), backups.listBackups());
+    }
+    assertEquals(this.backupsDir, file.getParent());
+    try (final var copy = new DatabaseConnection(file)) {
+      assertTrue(copy.mediaExists(1));
+    }
+  }
+
+  @Test
+  void backup_deletesOldestBackups() throws DatabaseOperationException, IOException, InterruptedException {
+    try (final var backups = new DatabaseBackups(this.db, this.backupsDir, Duration.ofDays(1), 2)) {
+      final List<Path> files = new ArrayList<>();
+      for (int i = 0; i < 3; i++) {
+        this.insertMedia(i);
+        files.add(backups.backup());
+        //noinspection BusyWait
+        Thread.sleep(5); // Ensure distinct file names
+      }
+      assertEquals(files.subList(1, 3), backups.listBackups());
+      assertFalse(Files.exists(files.get(0)));
+    }
+  }
+
+  @Test
+  void backup_ignoresOtherFiles() throws DatabaseOperationException, IOException {
+    Files.createDirectories(this.backupsDir);
+    final Path otherFile = Files.createFile(this.backupsDir.resolve("db.sqlite3"));
+    try (final var backups = new DatabaseBackups(this.db, this.backupsDir, Duration.ofDays(1), 1)) {
+      backups.backup();
+      backups.backup();
+      assertEquals(1, backups.listBackups().size());
+    }
+    assertTrue(Files.exists(otherFile));
+  }
+}
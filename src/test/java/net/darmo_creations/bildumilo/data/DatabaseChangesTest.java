@@ -0,0 +1,119 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseChangesTest {
+  private DatabaseChanges.Builder builder;
+
+  @BeforeEach
+  void setUp() {
+    this.builder = new DatabaseChanges.Builder();
+  }
+
+  @Test
+  void isEmpty() {
+    assertTrue(this.builder.isEmpty());
+    assertTrue(this.builder.build().isEmpty());
+  }
+
+  @Test
+  void reloadRequired_notEmpty() {
+    this.builder.reloadRequired();
+    assertFalse(this.builder.isEmpty());
+    assertTrue(this.builder.build().reloadRequired());
+  }
+
+  @Test
+  void mediaInsertedThenUpdated_onlyInserted() {
+    this.builder.mediaInserted(1);
+    this.builder.mediaUpdated(1);
+    final DatabaseChanges changes = this.builder.build();
+    assertEquals(Set.of(1), changes.insertedMedias());
+    assertTrue(changes.updatedMedias().isEmpty());
+  }
+
+  @Test
+  void mediaInsertedThenDeleted_nothing() {
+    this.builder.mediaInserted(1);
+    this.builder.tagsAdded(1, List.of(2, 3));
+    this.builder.mediaDeleted(1);
+    assertTrue(this.builder.isEmpty());
+  }
+
+  @Test
+  void mediaUpdatedThenDeleted_onlyDeleted() {
+    this.builder.mediaUpdated(1);
+    this.builder.tagsRemoved(1, List.of(2));
+    this.builder.mediaDeleted(1);
+    final DatabaseChanges changes = this.builder.build();
+    assertEquals(Set.of(1), changes.deletedMedias());
+    assertTrue(changes.updatedMedias().isEmpty());
+    assertTrue(changes.removedMediaTags().isEmpty());
+  }
+
+  @Test
+  void tagsAddedThenRemoved_cancelOut() {
+    this.builder.tagsAdded(1, List.of(2, 3));
+    this.builder.tagsRemoved(1, List.of(2));
+    final DatabaseChanges changes = this.builder.build();
+    assertEquals(Map.of(1, Set.of(3)), changes.addedMediaTags());
+    assertTrue(changes.removedMediaTags().isEmpty());
+  }
+
+  @Test
+  void tagsRemovedThenAdded_cancelOut() {
+    this.builder.tagsRemoved(1, List.of(2));
+    this.builder.tagsAdded(1, List.of(2));
+    assertTrue(this.builder.isEmpty());
+  }
+
+  @Test
+  void tagDeleted_removedFromMediasTags() {
+    this.builder.tagsAdded(1, List.of(2, 3));
+    this.builder.tagsRemoved(4, List.of(2));
+    this.builder.tagDeleted(2);
+    final DatabaseChanges changes = this.builder.build();
+    assertEquals(Set.of(2), changes.deletedTags());
+    assertEquals(Map.of(1, Set.of(3)), changes.addedMediaTags());
+    assertTrue(changes.removedMediaTags().isEmpty());
+  }
+
+  @Test
+  void tagInsertedThenDeleted_nothing() {
+    this.builder.tagInserted(1);
+    this.builder.tagUpdated(1);
+    this.builder.tagDeleted(1);
+    assertTrue(this.builder.isEmpty());
+  }
+
+  @Test
+  void tagTypeUpdatedThenDeleted_onlyDeleted() {
+    this.builder.tagTypeUpdated(1);
+    this.builder.tagTypeDeleted(1);
+    final DatabaseChanges changes = this.builder.build();
+    assertEquals(Set.of(1), changes.deletedTagTypes());
+    assertTrue(changes.updatedTagTypes().isEmpty());
+    assertTrue(changes.tagsChanged());
+  }
+
+  @Test
+  void changedMedias_excludesInserted() {
+    this.builder.mediaInserted(1);
+    this.builder.tagsAdded(1, List.of(5));
+    this.builder.mediaUpdated(2);
+    this.builder.tagsRemoved(3, List.of(5));
+    assertEquals(Set.of(2, 3), this.builder.build().changedMedias());
+  }
+
+  @Test
+  void build_isImmutable() {
+    this.builder.tagsAdded(1, List.of(2));
+    final DatabaseChanges changes = this.builder.build();
+    this.builder.tagsAdded(1, List.of(3));
+    assertEquals(Map.of(1, Set.of(2)), changes.addedMediaTags());
+  }
+}
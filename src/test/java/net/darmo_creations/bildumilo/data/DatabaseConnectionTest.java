@@ -1,14 +1,22 @@
 package net.darmo_creations.bildumilo.data;
 
+import net.darmo_creations.bildumilo.data.batch_operations.*;
 import net.darmo_creations.bildumilo.query_parser.*;
 import net.darmo_creations.bildumilo.query_parser.ex.*;
 import net.darmo_creations.bildumilo.ui.*;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
 import org.logicng.formulas.*;
 
 import java.io.*;
 import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+import java.util.zip.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -302,9 +310,30 @@ class DatabaseConnectionTest {
     assertTrue(this.db.getAllTagsCounts().isEmpty());
   }
 
+  @Test
+  void insertTags_changesTagsCacheVersion() throws DatabaseOperationException {
+    final int version = this.db.tagsCacheVersion();
+    this.db.insertTags(Set.of(
+        new TagUpdate(0, "test1", null, null)
+    ));
+    assertNotEquals(version, this.db.tagsCacheVersion());
+  }
+
   // endregion
   // region updateTags
 
+  @Test
+  void updateTags_changesTagsCacheVersion() throws DatabaseOperationException {
+    this.db.insertTags(Set.of(
+        new TagUpdate(0, "test1", null, null)
+    ));
+    final int version = this.db.tagsCacheVersion();
+    this.db.updateTags(Set.of(
+        new TagUpdate(1, "test2", null, null)
+    ));
+    assertNotEquals(version, this.db.tagsCacheVersion());
+  }
+
   @Test
   void updateTags_labels() throws DatabaseOperationException {
     this.db.insertTags(Set.of(
@@ -669,55 +698,1158 @@ class DatabaseConnectionTest {
   }
 
   @Test
-  void queryMedias_pseudoTag_pathTemplateString() throws DatabaseOperationException, InvalidPseudoTagException {
-    final var ff = this.initQueryMediasTest();
-    final var medias = this.db.queryMedias(
-        new TagQuery(ff.variable("path:string::*/test_file*.jp?g"), DatabaseConnection.PSEUDO_TAGS, null));
-    assertEquals(2, medias.size());
+  void queryMedias_pseudoTag_pathTemplateString() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("path:string::*/test_file*.jp?g"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(2, medias.size());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_pathRegex() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("path:regex::.*/test_file.*\\.jpe?g"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(2, medias.size());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_similar_toPlainString() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("similar_to:string::%s/test_file.jpeg".formatted(Path.of("").toAbsolutePath())), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(2, medias.size());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_similar_toTemplateStringNoError() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("similar_to:string::%s/test_file.jp?g".formatted(Path.of("").toAbsolutePath())), DatabaseConnection.PSEUDO_TAGS, null));
+    assertTrue(medias.isEmpty());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_similar_toRegexError() throws DatabaseOperationException {
+    final var ff = this.initQueryMediasTest();
+    assertThrows(InvalidPseudoTagException.class,
+        () -> this.db.queryMedias(new TagQuery(ff.variable("similar_to:regex::%s/test_file\\.jpeg".formatted(Path.of("").toAbsolutePath())), DatabaseConnection.PSEUDO_TAGS, null)));
+  }
+
+  @Test
+  void queryMedias_nonExistentTagNoError() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var medias = this.db.queryMedias(new TagQuery(ff.variable("yo"), Map.of(), null));
+    assertTrue(medias.isEmpty());
+  }
+
+  @Test
+  void queryMedias_nonExistentPseudoTagError() throws DatabaseOperationException {
+    final var ff = this.initQueryMediasTest();
+    assertThrows(InvalidPseudoTagException.class, () -> this.db.queryMedias(new TagQuery(ff.variable("invalid:string::a"), Map.of(), null)));
+  }
+
+  // endregion
+  // region queryMediaIds
+
+  @Test
+  void queryMediaIds_sameAsQueryMedias() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var query = new TagQuery(ff.or(ff.variable("test2"), ff.not(ff.variable("test1"))), Map.of(), null);
+    final Set<Integer> expected = this.db.queryMedias(query).stream().map(MediaFile::id).collect(Collectors.toSet());
+    assertEquals(expected, this.db.queryMediaIds(query));
+  }
+
+  @Test
+  void queryMediaIds_falseReturnsNone() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertTrue(this.db.queryMediaIds(new TagQuery(ff.falsum(), Map.of(), null)).isEmpty());
+  }
+
+  // endregion
+  // region countMedias
+
+  @Test
+  void countMedias_trueCountsAll() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertEquals(3, this.db.countMedias(new TagQuery(ff.verum(), Map.of(), null)));
+  }
+
+  @Test
+  void countMedias_falseCountsNone() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertEquals(0, this.db.countMedias(new TagQuery(ff.falsum(), Map.of(), null)));
+  }
+
+  @Test
+  void countMedias_sameAsQueryMedias() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var query = new TagQuery(ff.or(ff.variable("test2"), ff.not(ff.variable("test1"))), Map.of(), null);
+    assertEquals(this.db.queryMedias(query).size(), this.db.countMedias(query));
+  }
+
+  @Test
+  void countMedias_pseudoTag() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertEquals(2, this.db.countMedias(
+        new TagQuery(ff.variable("ext:string::jp?g"), DatabaseConnection.PSEUDO_TAGS, null)));
+  }
+
+  // endregion
+  // region anyMedia
+
+  @Test
+  void anyMedia_true() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertTrue(this.db.anyMedia(new TagQuery(ff.and(ff.variable("test1"), ff.variable("test3")), Map.of(), null)));
+  }
+
+  @Test
+  void anyMedia_false() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertFalse(this.db.anyMedia(new TagQuery(ff.and(ff.variable("test2"), ff.variable("test3")), Map.of(), null)));
+  }
+
+  @Test
+  void anyMedia_falsum() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertFalse(this.db.anyMedia(new TagQuery(ff.falsum(), Map.of(), null)));
+  }
+
+  // endregion
+  // region getTagsCountsForQuery
+
+  @Test
+  void getTagsCountsForQuery_true() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var counts = this.db.getTagsCountsForQuery(new TagQuery(ff.verum(), Map.of(), null));
+    assertEquals(this.db.getAllTagsCounts(), counts);
+  }
+
+  @Test
+  void getTagsCountsForQuery_false() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    assertTrue(this.db.getTagsCountsForQuery(new TagQuery(ff.falsum(), Map.of(), null)).isEmpty());
+  }
+
+  @Test
+  void getTagsCountsForQuery_onlyCountsResults() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initQueryMediasTest();
+    final var counts = this.db.getTagsCountsForQuery(new TagQuery(ff.variable("test2"), Map.of(), null));
+    final Map<String, Integer> labelCounts = new HashMap<>();
+    this.db.getAllTags().forEach(tag -> {
+      if (counts.containsKey(tag.id()))
+        labelCounts.put(tag.label(), counts.get(tag.id()));
+    });
+    assertEquals(Map.of("test1", 1, "test2", 1), labelCounts);
+  }
+
+  // endregion
+  // region mediaExists
+
+  @Test
+  void mediaExists() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    assertTrue(this.db.mediaExists(1));
+  }
+
+  @Test
+  void mediaExists_not() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    assertFalse(this.db.mediaExists(2));
+  }
+
+  // endregion
+  // region getMedias
+
+  @Test
+  void getMedias() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(), Set.of()));
+    assertEquals(Map.of(
+        1, new MediaFile(1, Path.of("test_file.png"), new Hash(0)),
+        2, new MediaFile(2, Path.of("test_file_2.png"), null)
+    ), this.db.getMedias(List.of(1, 2)));
+  }
+
+  @Test
+  void getMedias_ignoresUnknownIds() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    assertEquals(Set.of(1), this.db.getMedias(List.of(1, 2)).keySet());
+  }
+
+  @Test
+  void getMedias_emptyCollection() throws DatabaseOperationException {
+    assertTrue(this.db.getMedias(List.of()).isEmpty());
+  }
+
+  // endregion
+  // region metadata
+
+  @Test
+  void insertMedia_readsMetadata() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.db.insertMedia(
+        new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final MediaMetadata metadata = this.db.getMediaMetadata(mediaFile).orElseThrow();
+    assertEquals(4102, metadata.size());
+    assertEquals(64, metadata.width());
+    assertEquals(64, metadata.height());
+    assertNull(metadata.duration());
+  }
+
+  @Test
+  void insertMedia_missingFileHasNoMetadata() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.db.insertMedia(
+        new MediaFileUpdate(0, Path.of("test_file.jpeg"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    assertTrue(this.db.getMediaMetadata(mediaFile).isEmpty());
+  }
+
+  @Test
+  void insertMedias_usesGivenMetadata() throws DatabaseOperationException {
+    final MediaMetadata metadata = new MediaMetadata(1, 2, 3, null, 4);
+    final List<MediaMetadata> metadataList = new ArrayList<>();
+    metadataList.add(metadata);
+    metadataList.add(null);
+    final List<MediaFile> mediaFiles = this.db.insertMedias(List.of(
+        new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()),
+        new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(0)), Set.of(), Set.of())
+    ), metadataList, 10, null);
+    assertEquals(Optional.of(metadata), this.db.getMediaMetadata(mediaFiles.get(0)));
+    assertTrue(this.db.getMediaMetadata(mediaFiles.get(1)).isEmpty());
+  }
+
+  @Test
+  void refreshMediasMetadata_readsModifiedFiles(@TempDir Path dir) throws DatabaseOperationException, IOException {
+    final Path path = Files.copy(Path.of("test_file.png"), dir.resolve("a.png"));
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    Files.write(path, new byte[10], StandardOpenOption.APPEND);
+    final List<DatabaseChanges> changes = new ArrayList<>();
+    this.db.addChangesListener(changes::add);
+    assertEquals(1, this.db.refreshMediasMetadata(List.of(mediaFile)));
+    assertEquals(4112, this.db.getMediaMetadata(mediaFile).orElseThrow().size());
+    assertEquals(Set.of(1), changes.get(0).updatedMedias());
+  }
+
+  private FormulaFactory initMetadataQueryTest() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.jpeg"), Optional.of(new Hash(1)), Set.of(), Set.of()));
+    return new FormulaFactory();
+  }
+
+  @Test
+  void queryMedias_pseudoTag_width() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("width:string::>=64"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(Set.of(new MediaFile(1, Path.of("test_file.png"), new Hash(0))), medias);
+  }
+
+  @Test
+  void queryMedias_pseudoTag_height() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("height:string::>64"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertTrue(medias.isEmpty());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_size() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("size:string::<1KiB"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertTrue(medias.isEmpty());
+    final var medias2 = this.db.queryMedias(
+        new TagQuery(ff.variable("size:string::<1MiB"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(1, medias2.size());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_durationNeverMatchesImages() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("duration:string::>=0"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertTrue(medias.isEmpty());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_mtime() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.variable("mtime:string::>1970-01-02"), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(1, medias.size());
+  }
+
+  @Test
+  void queryMedias_pseudoTag_negatedComparisonMatchesMediasWithoutMetadata()
+      throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var medias = this.db.queryMedias(
+        new TagQuery(ff.not(ff.variable("width:string::>=64")), DatabaseConnection.PSEUDO_TAGS, null));
+    assertEquals(Set.of(new MediaFile(2, Path.of("test_file.jpeg"), new Hash(1))), medias);
+  }
+
+  @Test
+  void queryMedias_pseudoTag_comparisonInvalidValueError() throws DatabaseOperationException {
+    final var ff = this.initMetadataQueryTest();
+    assertThrows(InvalidPseudoTagException.class,
+        () -> this.db.queryMedias(new TagQuery(ff.variable("width:string::>a"), DatabaseConnection.PSEUDO_TAGS, null)));
+  }
+
+  @Test
+  void queryMedias_pseudoTag_comparisonRegexError() throws DatabaseOperationException {
+    final var ff = this.initMetadataQueryTest();
+    assertThrows(InvalidPseudoTagException.class,
+        () -> this.db.queryMedias(new TagQuery(ff.variable("width:regex::>1"), DatabaseConnection.PSEUDO_TAGS, null)));
+  }
+
+  @Test
+  void queryMedias_pseudoTag_comparisonFlagsError() throws DatabaseOperationException {
+    final var ff = this.initMetadataQueryTest();
+    assertThrows(InvalidPseudoTagException.class,
+        () -> this.db.queryMedias(new TagQuery(ff.variable("width:string:i:>1"), DatabaseConnection.PSEUDO_TAGS, null)));
+  }
+
+  @Test
+  void mediaMatchesQuery_pseudoTag_comparison() throws DatabaseOperationException, InvalidPseudoTagException {
+    final var ff = this.initMetadataQueryTest();
+    final var query = new TagQuery(ff.variable("width:string::64"), DatabaseConnection.PSEUDO_TAGS, null);
+    assertTrue(this.db.mediaMatchesQuery(new MediaFile(1, Path.of("test_file.png"), new Hash(0)), query));
+    assertFalse(this.db.mediaMatchesQuery(new MediaFile(2, Path.of("test_file.jpeg"), new Hash(1)), query));
+  }
+
+  @Test
+  void mediaMatchesQuery_pseudoTag_similar_toReleasesReadConnections(@TempDir Path dir)
+      throws DatabaseOperationException, InvalidPseudoTagException {
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      final MediaFile mediaFile1 = db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.jpeg"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+      final MediaFile mediaFile2 = db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.jpg"), Optional.of(new Hash(-1)), Set.of(), Set.of()));
+      final var query = new TagQuery(new FormulaFactory().variable("similar_to:string::%s".formatted(mediaFile1.path())),
+          DatabaseConnection.PSEUDO_TAGS, null);
+      assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+        // More evaluations than there are pooled read connections
+        for (int i = 0; i < 2 * ConnectionManager.MAX_READERS; i++) {
+          assertTrue(db.mediaMatchesQuery(mediaFile1, Set.of(), query));
+          assertFalse(db.mediaMatchesQuery(mediaFile2, Set.of(), query));
+        }
+      });
+    }
+  }
+
+  @Test
+  void migrateSchema_fromVersion0(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          PRAGMA USER_VERSION = 0;
+          CREATE TABLE images (id INTEGER PRIMARY KEY AUTOINCREMENT, path TEXT UNIQUE NOT NULL, hash INTEGER DEFAULT NULL);
+          CREATE TABLE tag_types (id INTEGER PRIMARY KEY AUTOINCREMENT, label TEXT, symbol TEXT, color INTEGER);
+          CREATE TABLE tags (id INTEGER PRIMARY KEY AUTOINCREMENT, label TEXT, type_id INTEGER, definition TEXT);
+          CREATE TABLE image_tag (image_id INTEGER, tag_id INTEGER, PRIMARY KEY (image_id, tag_id));
+          INSERT INTO images (path) VALUES ('/test_file.png');
+          """);
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertTrue(db.getMediaMetadata(new MediaFile(1, Path.of("/test_file.png"), null)).isEmpty());
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery("PRAGMA USER_VERSION")) {
+      resultSet.next();
+      assertEquals(4, resultSet.getInt(1));
+    }
+  }
+
+  @Test
+  void migrateSchema_fromVersion2_addsIndexes(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var ignored = new DatabaseConnection(file)) {
+      // Create the database with the latest schema
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          DROP INDEX idx_image_tag_tag_id;
+          DROP INDEX idx_tags_type_id;
+          DROP TRIGGER trg_tags_insert_counts;
+          DROP TRIGGER trg_image_tag_insert_counts;
+          DROP TRIGGER trg_image_tag_update_counts;
+          DROP TRIGGER trg_image_tag_delete_counts;
+          DROP TABLE tag_counts;
+          PRAGMA USER_VERSION = 2;
+          """);
+    }
+    try (final var ignored = new DatabaseConnection(file)) {
+      // Migrate
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery("""
+             SELECT name FROM sqlite_master
+             WHERE type = 'index' AND name IN ('idx_image_tag_tag_id', 'idx_tags_type_id')
+             """)) {
+      final Set<String> names = new HashSet<>();
+      while (resultSet.next())
+        names.add(resultSet.getString(1));
+      assertEquals(Set.of("idx_image_tag_tag_id", "idx_tags_type_id"), names);
+    }
+  }
+
+  @Test
+  void migrateSchema_fromVersion3_fillsTagCounts(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+          new ParsedTag(Optional.empty(), "test1")
+      ), Set.of()));
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(
+          new ParsedTag(Optional.empty(), "test1"),
+          new ParsedTag(Optional.empty(), "test2")
+      ), Set.of()));
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          DROP TRIGGER trg_tags_insert_counts;
+          DROP TRIGGER trg_image_tag_insert_counts;
+          DROP TRIGGER trg_image_tag_update_counts;
+          DROP TRIGGER trg_image_tag_delete_counts;
+          DROP TABLE tag_counts;
+          DELETE FROM cache_snapshot;
+          PRAGMA USER_VERSION = 3;
+          """);
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertEquals(Map.of(1, 2, 2, 1), db.getAllTagsCounts());
+    }
+  }
+
+  @Test
+  void tagCounts_maintainedOnDirectChanges(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+          new ParsedTag(Optional.empty(), "test1")
+      ), Set.of()));
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(
+          new ParsedTag(Optional.empty(), "test1"),
+          new ParsedTag(Optional.empty(), "test2")
+      ), Set.of()));
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          PRAGMA FOREIGN_KEYS = ON;
+          INSERT INTO tags (label) VALUES ('test3');
+          INSERT INTO image_tag (image_id, tag_id) VALUES (1, 3);
+          UPDATE image_tag SET tag_id = 3 WHERE image_id = 2 AND tag_id = 2;
+          DELETE FROM images WHERE id = 1;
+          """);
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertEquals(Map.of(1, 1, 2, 0, 3, 1), db.getAllTagsCounts());
+    }
+  }
+
+  @Test
+  void tagMediasLookupUsesIndex(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var ignored = new DatabaseConnection(file);
+         final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery("EXPLAIN QUERY PLAN SELECT image_id FROM image_tag WHERE tag_id = 1")) {
+      final var plan = new StringBuilder();
+      while (resultSet.next())
+        plan.append(resultSet.getString("detail")).append('\n');
+      assertTrue(plan.toString().contains("idx_image_tag_tag_id"), plan.toString());
+    }
+  }
+
+  // endregion
+  // region maintenance
+
+  @Test
+  void newDatabase_incrementalVacuumEnabled(@TempDir Path dir) throws DatabaseOperationException {
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      final DatabaseStorageStats stats = db.getStorageStats();
+      assertTrue(stats.incrementalVacuum());
+      assertTrue(stats.pageCount() > 0);
+      assertEquals(stats.pageSize() * stats.pageCount(), stats.fileSize());
+    }
+  }
+
+  @Test
+  void incrementalVacuum_freesPagesWithinBudget(@TempDir Path dir) throws DatabaseOperationException {
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      this.fillAndEmptyDatabase(db);
+      final long freePages = db.getStorageStats().freePages();
+      assertTrue(freePages > 4);
+      assertEquals(4, db.incrementalVacuum(4));
+      assertEquals(freePages - 4, db.getStorageStats().freePages());
+      db.incrementalVacuum((int) freePages);
+      assertEquals(0, db.getStorageStats().freePages());
+    }
+  }
+
+  @Test
+  void vacuum_enablesIncrementalVacuum(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var ignored = new DatabaseConnection(file)) {
+      // Create the database
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.execute("PRAGMA auto_vacuum = NONE");
+      statement.execute("VACUUM");
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      this.fillAndEmptyDatabase(db);
+      assertFalse(db.getStorageStats().incrementalVacuum());
+      assertEquals(0, db.incrementalVacuum(1000));
+      db.vacuum();
+      final DatabaseStorageStats stats = db.getStorageStats();
+      assertTrue(stats.incrementalVacuum());
+      assertEquals(0, stats.freePages());
+      // The connection is still usable
+      db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+      assertTrue(db.mediaExists(1001));
+    }
+  }
+
+  @Test
+  void backup_copiesCommittedState(@TempDir Path dir) throws DatabaseOperationException {
+    final Path file = dir.resolve("backup.sqlite3");
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(
+          new ParsedTag(Optional.empty(), "t")
+      ), Set.of()));
+      db.backup(file);
+    }
+    try (final var copy = new DatabaseConnection(file)) {
+      assertTrue(copy.mediaExists(1));
+      assertEquals(1, copy.getAllTags().size());
+    }
+  }
+
+  @Test
+  void backup_completesDespiteConcurrentWrites(@TempDir Path dir) throws Exception {
+    final Path file = dir.resolve("backup.sqlite3");
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      // Long paths make the database span several backup steps
+      final String padding = "a".repeat(2000);
+      final List<MediaFileUpdate> updates = new ArrayList<>();
+      for (int i = 0; i < 2000; i++)
+        updates.add(new MediaFileUpdate(0, Path.of("%s_%d.png".formatted(padding, i)), Optional.of(new Hash(i)), Set.of(), Set.of()));
+      db.insertMedias(updates);
+      final AtomicBoolean done = new AtomicBoolean();
+      final Thread writer = new Thread(() -> {
+        try {
+          for (int i = 0; !done.get(); i++) {
+            db.insertMedia(new MediaFileUpdate(0, Path.of("w_%d.png".formatted(i)), Optional.of(new Hash(i)), Set.of(), Set.of()));
+            Thread.sleep(1);
+          }
+        } catch (final DatabaseOperationException | InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      });
+      writer.start();
+      try {
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> db.backup(file));
+      } finally {
+        done.set(true);
+        writer.join();
+      }
+    }
+    try (final var copy = new DatabaseConnection(file)) {
+      assertTrue(copy.mediaExists(2000));
+    }
+  }
+
+  @Test
+  void analyze_resetsBatchChanges() throws DatabaseOperationException {
+    this.db.insertMedias(List.of(
+        new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of()),
+        new MediaFileUpdate(0, Path.of("b.png"), Optional.of(new Hash(0)), Set.of(), Set.of())
+    ));
+    assertEquals(2, this.db.batchChangesSinceAnalyze());
+    this.db.analyze();
+    assertEquals(0, this.db.batchChangesSinceAnalyze());
+  }
+
+  @Test
+  void maintenance_doesNotCountAsWrite() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final long lastWrite = this.db.lastWriteNanos();
+    this.db.analyze();
+    this.db.optimize();
+    this.db.incrementalVacuum(10);
+    assertEquals(lastWrite, this.db.lastWriteNanos());
+  }
+
+  /**
+   * Insert then delete 1000 medias, leaving unused pages in the database file.
+   */
+  private void fillAndEmptyDatabase(DatabaseConnection db) throws DatabaseOperationException {
+    final List<MediaFileUpdate> updates = new ArrayList<>();
+    for (int i = 0; i < 1000; i++)
+      updates.add(new MediaFileUpdate(0, Path.of("%s_%d.png".formatted("x".repeat(200), i)), Optional.of(new Hash(i)), Set.of(
+          new ParsedTag(Optional.empty(), "tag" + i % 10)
+      ), Set.of()));
+    for (final MediaFile mediaFile : db.insertMedias(updates))
+      db.deleteMedia(mediaFile, false);
+  }
+
+  // endregion
+  // region exportLibrary/importLibrary
+
+  @Test
+  void exportLibrary_importLibrary_roundTrip(@TempDir Path dir) throws DatabaseOperationException {
+    final Path file = dir.resolve("library." + DatabaseConnection.LIBRARY_FILE_EXT);
+    final MediaMetadata metadata;
+    try (final var source = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      this.fillLibrary(source);
+      metadata = source.getMediaMetadata(new MediaFile(1, Path.of("test_file.png"), null)).orElseThrow();
+      assertTrue(source.exportLibrary(file, null));
+    }
+
+    assertEquals(2, this.db.importLibrary(file, null));
+    final TagType type = this.db.getAllTagTypes().iterator().next();
+    assertEquals("type", type.label());
+    assertEquals('/', type.symbol());
+    assertEquals(0xff0000, type.color());
+    final Map<String, Tag> tags = this.db.getAllTags().stream()
+        .collect(Collectors.toMap(Tag::label, t -> t));
+    assertEquals(Set.of("t1", "t2", "t3"), tags.keySet());
+    assertEquals(Optional.of(type), tags.get("t1").type());
+    assertEquals(Optional.of("t1 + t2"), tags.get("t3").definition());
+    final Map<Path, MediaFile> medias = getAllMedias(this.db).stream()
+        .collect(Collectors.toMap(MediaFile::path, m -> m));
+    assertEquals(Set.of(Path.of("test_file.png").toAbsolutePath(), Path.of("b.png").toAbsolutePath()), medias.keySet());
+    final MediaFile a = medias.get(Path.of("test_file.png").toAbsolutePath());
+    assertEquals(Optional.of(new Hash(1)), a.hash());
+    assertEquals(Set.of(tags.get("t1"), tags.get("t2")), this.db.getMediaTags(a));
+    assertEquals(Optional.of(metadata), this.db.getMediaMetadata(a));
+    final MediaFile b = medias.get(Path.of("b.png").toAbsolutePath());
+    assertTrue(b.hash().isEmpty());
+    assertTrue(this.db.getMediaTags(b).isEmpty());
+    final Map<Integer, Integer> counts = this.db.getAllTagsCounts();
+    assertEquals(1, counts.get(tags.get("t1").id()));
+    assertEquals(1, counts.get(tags.get("t2").id()));
+    assertEquals(List.of(new SavedQuery("q", "t1 + t2")), this.db.getSavedQueries());
+    final Map<String, List<Operation>> batches = this.db.getSavedBatchOperations();
+    assertEquals(Set.of("batch", "empty"), batches.keySet());
+    assertEquals(2, batches.get("batch").size());
+    assertInstanceOf(RecomputeHashOperation.class, batches.get("batch").get(0));
+    assertInstanceOf(DeleteOperation.class, batches.get("batch").get(1));
+    assertTrue(batches.get("empty").isEmpty());
+  }
+
+  @Test
+  void importLibrary_mergesWithExistingData(@TempDir Path dir) throws DatabaseOperationException {
+    final Path file = dir.resolve("library." + DatabaseConnection.LIBRARY_FILE_EXT);
+    try (final var source = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      this.fillLibrary(source);
+      assertTrue(source.exportLibrary(file, null));
+    }
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(1)), Set.of(
+        new ParsedTag(Optional.empty(), "t2"),
+        new ParsedTag(Optional.empty(), "other")
+    ), Set.of()));
+    this.db.setSavedQueries(List.of(new SavedQuery("q", "other")));
+
+    assertEquals(2, this.db.importLibrary(file, null));
+    assertEquals(Set.of("t1", "t2", "t3", "other"), this.db.getAllTags().stream()
+        .map(Tag::label)
+        .collect(Collectors.toSet()));
+    final Set<MediaFile> medias = getAllMedias(this.db);
+    assertEquals(2, medias.size());
+    final MediaFile a = medias.stream().filter(m -> m.id() == 1).findFirst().orElseThrow();
+    assertEquals(Set.of("t1", "t2", "other"), this.db.getMediaTags(a).stream()
+        .map(Tag::label)
+        .collect(Collectors.toSet()));
+    // Name conflict
+    assertEquals(List.of(new SavedQuery("q", "other")), this.db.getSavedQueries());
+  }
+
+  @Test
+  void importLibrary_invalidFileError(@TempDir Path dir) throws IOException {
+    final Path file = dir.resolve("library." + DatabaseConnection.LIBRARY_FILE_EXT);
+    try (final var out = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)))) {
+      out.write("{\"kind\": \"media\", \"path\": \"a.png\"}\n");
+    }
+    final var e = assertThrows(DatabaseOperationException.class, () -> this.db.importLibrary(file, null));
+    assertEquals(DatabaseErrorCode.INVALID_LIBRARY_FILE, e.errorCode());
+    assertTrue(getAllMedias(this.db).isEmpty());
+  }
+
+  @Test
+  void importLibrary_notGzipError(@TempDir Path dir) throws IOException {
+    final Path file = dir.resolve("library." + DatabaseConnection.LIBRARY_FILE_EXT);
+    Files.writeString(file, "not a library");
+    assertThrows(DatabaseOperationException.class, () -> this.db.importLibrary(file, null));
+  }
+
+  private void fillLibrary(DatabaseConnection db) throws DatabaseOperationException {
+    db.insertTagTypes(Set.of(new TagTypeUpdate(0, "type", '/', 0xff0000)));
+    final TagType type = db.getAllTagTypes().iterator().next();
+    db.insertTags(Set.of(
+        new TagUpdate(0, "t1", type, null),
+        new TagUpdate(0, "t3", null, "t1 + t2")
+    ));
+    db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(1)), Set.of(
+        new ParsedTag(Optional.of(type), "t1"),
+        new ParsedTag(Optional.empty(), "t2")
+    ), Set.of()));
+    db.insertMedia(new MediaFileUpdate(0, Path.of("b.png"), Optional.empty(), Set.of(), Set.of()));
+    db.setSavedQueries(List.of(new SavedQuery("q", "t1 + t2")));
+    db.setSavedBatchOperations(Map.of(
+        "batch", List.of(new RecomputeHashOperation(null), new DeleteOperation(false, false, null)),
+        "empty", List.of()
+    ));
+  }
+
+  // endregion
+  // region convertPythonDb
+
+  @Test
+  void convertPythonDb_reusesOldHashes(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = this.createPythonDatabase(dir, true, 1000);
+    final Path converted = DatabaseConnection.convertPythonDb(file, false, null).orElseThrow();
+    try (final var db = new DatabaseConnection(converted)) {
+      final Map<Path, MediaFile> medias = getAllMedias(db).stream()
+          .collect(Collectors.toMap(MediaFile::path, m -> m));
+      // More than one chunk
+      assertEquals(1002, medias.size());
+      final MediaFile a = medias.get(Path.of("test_file.png").toAbsolutePath());
+      assertEquals(Optional.of(new Hash(42)), a.hash());
+      assertEquals(4102, db.getMediaMetadata(a).orElseThrow().size());
+      assertEquals(Set.of("t1", "t2"), db.getMediaTags(a).stream().map(Tag::label).collect(Collectors.toSet()));
+      final Tag t1 = db.getAllTags().stream().filter(t -> t.label().equals("t1")).findFirst().orElseThrow();
+      assertEquals("type", t1.type().orElseThrow().label());
+      final MediaFile b = medias.get(Path.of("test_file_2.png").toAbsolutePath());
+      // No hash in the original database
+      assertEquals(Hash.computeForFile(b.path()), b.hash());
+      assertTrue(db.getMediaTags(b).isEmpty());
+      assertEquals(1001, db.getAllTagsCounts().get(t1.id()));
+    }
+  }
+
+  @Test
+  void convertPythonDb_recomputesHashes(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = this.createPythonDatabase(dir, true, 0);
+    final Path converted = DatabaseConnection.convertPythonDb(file, true, null).orElseThrow();
+    try (final var db = new DatabaseConnection(converted)) {
+      final MediaFile a = getAllMedias(db).stream()
+          .filter(m -> m.path().equals(Path.of("test_file.png").toAbsolutePath()))
+          .findFirst()
+          .orElseThrow();
+      assertEquals(Hash.computeForFile(a.path()), a.hash());
+    }
+  }
+
+  @Test
+  void convertPythonDb_noHashColumn(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = this.createPythonDatabase(dir, false, 0);
+    final Path converted = DatabaseConnection.convertPythonDb(file, false, null).orElseThrow();
+    try (final var db = new DatabaseConnection(converted)) {
+      final MediaFile a = getAllMedias(db).stream()
+          .filter(m -> m.path().equals(Path.of("test_file.png").toAbsolutePath()))
+          .findFirst()
+          .orElseThrow();
+      assertEquals(Hash.computeForFile(a.path()), a.hash());
+    }
+  }
+
+  /**
+   * Create a database with the schema of the Python app, containing two existing image files
+   * and the given number of missing ones, tagged with t1. Missing ones must not be hashed.
+   */
+  private Path createPythonDatabase(Path dir, boolean withHashes, int missingFiles) throws SQLException {
+    final Path file = dir.resolve("python.sqlite3");
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE tag_types (id INTEGER PRIMARY KEY, label TEXT, symbol TEXT, color INTEGER)");
+      statement.executeUpdate("CREATE TABLE tags (id INTEGER PRIMARY KEY, label TEXT, type_id INTEGER, definition TEXT)");
+      statement.executeUpdate("CREATE TABLE images (id INTEGER PRIMARY KEY, path TEXT%s)".formatted(withHashes ? ", hash INTEGER" : ""));
+      statement.executeUpdate("CREATE TABLE image_tag (image_id INTEGER, tag_id INTEGER)");
+      statement.executeUpdate("INSERT INTO tag_types VALUES (1, 'type', '/', 0)");
+      statement.executeUpdate("INSERT INTO tags VALUES (3, 't1', 1, NULL), (5, 't2', NULL, NULL)");
+      final String a = Path.of("test_file.png").toAbsolutePath().toString().replace("'", "''");
+      final String b = Path.of("test_file_2.png").toAbsolutePath().toString().replace("'", "''");
+      if (withHashes)
+        statement.executeUpdate("INSERT INTO images VALUES (1, '%s', 42), (2, '%s', NULL)".formatted(a, b));
+      else
+        statement.executeUpdate("INSERT INTO images VALUES (1, '%s'), (2, '%s')".formatted(a, b));
+      statement.executeUpdate("INSERT INTO image_tag VALUES (1, 3), (1, 5)");
+      for (int i = 0; i < missingFiles; i++) {
+        final String path = dir.resolve("missing_%d.png".formatted(i)).toString().replace("'", "''");
+        statement.executeUpdate("INSERT INTO images VALUES (%d, '%s'%s)".formatted(i + 3, path, withHashes ? ", " + i : ""));
+        statement.executeUpdate("INSERT INTO image_tag VALUES (%d, 3)".formatted(i + 3));
+      }
+    }
+    return file;
+  }
+
+  // endregion
+  // region read connections
+
+  @Test
+  void fileDatabase_walJournal(@TempDir Path dir) throws SQLException, DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var ignored = new DatabaseConnection(file);
+         final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery("PRAGMA JOURNAL_MODE")) {
+      resultSet.next();
+      assertEquals("wal", resultSet.getString(1));
+    }
+  }
+
+  @Test
+  void fileDatabase_readsSeeCommittedWrites(@TempDir Path dir)
+      throws DatabaseOperationException, InvalidPseudoTagException {
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      final MediaFile mediaFile = db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(
+          new ParsedTag(Optional.empty(), "test1")
+      ), Set.of()));
+      assertEquals(Set.of(new Tag(1, "test1", null, null)), db.getMediaTags(mediaFile));
+      assertEquals(Set.of(mediaFile), db.queryMedias(new TagQuery(new FormulaFactory().variable("test1"), Map.of(), null)));
+      assertTrue(db.mediaExists(mediaFile.id()));
+    }
+  }
+
+  @Test
+  void fileDatabase_concurrentReads(@TempDir Path dir)
+      throws DatabaseOperationException, InvalidPseudoTagException, InterruptedException {
+    try (final var db = new DatabaseConnection(dir.resolve("db.sqlite3"))) {
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(
+          new ParsedTag(Optional.empty(), "test1")
+      ), Set.of()));
+      final var query = new TagQuery(new FormulaFactory().variable("test1"), Map.of(), null);
+      final List<Integer> counts = Collections.synchronizedList(new ArrayList<>());
+      final List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < ConnectionManager.MAX_READERS * 2; i++) {
+        final Thread thread = new Thread(() -> {
+          try {
+            counts.add(db.countMedias(query));
+          } catch (final DatabaseOperationException e) {
+            counts.add(-1);
+          }
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      for (final Thread thread : threads)
+        thread.join();
+      assertEquals(Collections.nCopies(ConnectionManager.MAX_READERS * 2, 1), counts);
+    }
+  }
+
+  @Test
+  void statementCacheStats_repeatedQueriesHitCache() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.mediaExists(mediaFile.id());
+    final long hits = this.db.statementCacheStats().hits();
+    this.db.mediaExists(mediaFile.id());
+    assertEquals(hits + 1, this.db.statementCacheStats().hits());
+  }
+
+  // endregion
+  // region changes listeners
+
+  private List<DatabaseChanges> listenChanges() {
+    final List<DatabaseChanges> changes = new ArrayList<>();
+    this.db.addChangesListener(changes::add);
+    return changes;
+  }
+
+  @Test
+  void changesListener_insertMedia() throws DatabaseOperationException {
+    final var changes = this.listenChanges();
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(
+        new ParsedTag(Optional.empty(), "t1")
+    ), Set.of()));
+    assertEquals(1, changes.size());
+    final int tagId = this.db.getAllTags().iterator().next().id();
+    assertEquals(Set.of(mediaFile.id()), changes.get(0).insertedMedias());
+    assertEquals(Set.of(tagId), changes.get(0).insertedTags());
+    assertEquals(Map.of(mediaFile.id(), Set.of(tagId)), changes.get(0).addedMediaTags());
+  }
+
+  @Test
+  void changesListener_updateMedia() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(
+        new ParsedTag(Optional.empty(), "t1")
+    ), Set.of()));
+    final Tag tag = this.db.getAllTags().iterator().next();
+    final var changes = this.listenChanges();
+    this.db.updateMedia(new MediaFileUpdate(mediaFile.id(), mediaFile.path(), Optional.of(new Hash(1)), Set.of(), Set.of(tag)));
+    assertEquals(1, changes.size());
+    assertEquals(Set.of(mediaFile.id()), changes.get(0).updatedMedias());
+    assertEquals(Map.of(mediaFile.id(), Set.of(tag.id())), changes.get(0).removedMediaTags());
+  }
+
+  @Test
+  void changesListener_deleteMedia() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final var changes = this.listenChanges();
+    this.db.deleteMedia(mediaFile, false);
+    assertEquals(1, changes.size());
+    assertEquals(Set.of(mediaFile.id()), changes.get(0).deletedMedias());
+  }
+
+  @Test
+  void changesListener_addTagsToMedias() throws DatabaseOperationException {
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final var changes = this.listenChanges();
+    this.db.addTagsToMedias(Set.of(new ParsedTag(Optional.empty(), "t1")), List.of(mediaFile.id()));
+    final int tagId = this.db.getAllTags().iterator().next().id();
+    assertEquals(1, changes.size());
+    assertEquals(Map.of(mediaFile.id(), Set.of(tagId)), changes.get(0).addedMediaTags());
+    assertEquals(Set.of(tagId), changes.get(0).insertedTags());
+  }
+
+  @Test
+  void changesListener_deleteTagTypeUpdatesTags() throws DatabaseOperationException {
+    this.db.insertTagTypes(Set.of(new TagTypeUpdate(0, "type", '/', 0)));
+    final TagType tagType = this.db.getAllTagTypes().iterator().next();
+    this.db.insertTags(Set.of(new TagUpdate(0, "t1", tagType, null)));
+    final Tag tag = this.db.getAllTags().iterator().next();
+    final var changes = this.listenChanges();
+    this.db.deleteTagTypes(Set.of(tagType));
+    assertEquals(1, changes.size());
+    assertEquals(Set.of(tagType.id()), changes.get(0).deletedTagTypes());
+    assertEquals(Set.of(tag.id()), changes.get(0).updatedTags());
+  }
+
+  @Test
+  void changesListener_notNotifiedOnError() {
+    final var changes = this.listenChanges();
+    assertThrows(DatabaseOperationException.class, () -> this.db.updateMedia(
+        new MediaFileUpdate(42, Path.of("test_file.png"), Optional.empty(), Set.of(), Set.of())));
+    assertTrue(changes.isEmpty());
+  }
+
+  @Test
+  void changesListener_coalescedWritesPublishedOnce() throws DatabaseOperationException {
+    final var changes = this.listenChanges();
+    final List<Exception> errors = this.db.runCoalesced(List.of(
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of())),
+        () -> {
+          throw new DatabaseOperationException(DatabaseErrorCode.UNKNOWN_ERROR);
+        },
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(1)), Set.of(), Set.of()))
+    ));
+    assertNull(errors.get(0));
+    assertNotNull(errors.get(1));
+    assertEquals(1, changes.size());
+    assertEquals(2, changes.get(0).insertedMedias().size());
+  }
+
+  @Test
+  void changesListener_removed() throws DatabaseOperationException {
+    final List<DatabaseChanges> changes = new ArrayList<>();
+    final DatabaseConnection.ChangesListener listener = changes::add;
+    this.db.addChangesListener(listener);
+    this.db.removeChangesListener(listener);
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    assertTrue(changes.isEmpty());
+  }
+
+  // endregion
+  // region metricsSnapshot
+
+  @Test
+  void metricsSnapshot_attributesStatementsToPublicMethod() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final var operation = this.db.metricsSnapshot().operations().stream()
+        .filter(s -> s.name().equals("insertMedia"))
+        .findFirst();
+    assertTrue(operation.isPresent());
+    assertEquals(1, operation.get().latency().count());
+    assertTrue(operation.get().rows() > 0);
+  }
+
+  @Test
+  void metricsSnapshot_timesCallsServedByCaches() {
+    this.db.getTagDefinitions();
+    this.db.getTagDefinitions();
+    final var operation = this.db.metricsSnapshot().operations().stream()
+        .filter(s -> s.name().equals("getTagDefinitions"))
+        .findFirst();
+    assertTrue(operation.isPresent());
+    assertEquals(2, operation.get().latency().count());
+  }
+
+  @Test
+  void metricsSnapshot_doesNotTimeTagsCacheGetters() {
+    this.db.getAllTags();
+    this.db.getAllTagsCounts();
+    this.db.getAllTagTypes();
+    this.db.getTags(new int[]{1});
+    final Set<String> names = Set.of("getAllTags", "getAllTagsCounts", "getAllTagTypes", "getTags");
+    assertTrue(this.db.metricsSnapshot().operations().stream().noneMatch(s -> names.contains(s.name())));
+  }
+
+  @Test
+  void setMetricsEnabled_false_stopsRecording() throws DatabaseOperationException {
+    this.db.setMetricsEnabled(false);
+    assertFalse(this.db.isMetricsEnabled());
+    final DatabaseMetricsSnapshot before = this.db.metricsSnapshot();
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.getSimilarImages(new Hash(0), null);
+    final DatabaseMetricsSnapshot after = this.db.metricsSnapshot();
+    assertEquals(before.operations(), after.operations());
+    assertEquals(before.functions(), after.functions());
+    this.db.setMetricsEnabled(true);
+    this.db.getSimilarImages(new Hash(0), null);
+    assertTrue(this.db.metricsSnapshot().functions().stream().anyMatch(s -> s.name().equals("SIMILAR_HASHES")));
+  }
+
+  @Test
+  void metricsSnapshot_timesCustomFunctions() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.getSimilarImages(new Hash(0), null);
+    final var function = this.db.metricsSnapshot().functions().stream()
+        .filter(s -> s.name().equals("SIMILAR_HASHES"))
+        .findFirst();
+    assertTrue(function.isPresent());
+    assertTrue(function.get().latency().count() > 0);
   }
 
   @Test
-  void queryMedias_pseudoTag_pathRegex() throws DatabaseOperationException, InvalidPseudoTagException {
-    final var ff = this.initQueryMediasTest();
-    final var medias = this.db.queryMedias(
-        new TagQuery(ff.variable("path:regex::.*/test_file.*\\.jpe?g"), DatabaseConnection.PSEUDO_TAGS, null));
-    assertEquals(2, medias.size());
+  void metricsSnapshot_keepsSlowestStatements() throws DatabaseOperationException {
+    this.db.getAllTagTypes();
+    final var statements = this.db.metricsSnapshot().slowestStatements();
+    assertFalse(statements.isEmpty());
+    for (int i = 1; i < statements.size(); i++)
+      assertTrue(statements.get(i - 1).durationNanos() >= statements.get(i).durationNanos());
+  }
+
+  // endregion
+  // region cache snapshot
+
+  @Test
+  void cacheSnapshot_restoresCaches(@TempDir Path dir) throws DatabaseOperationException {
+    final Path file = dir.resolve("db.sqlite3");
+    final Set<Tag> tags;
+    final Map<Integer, Integer> tagsCounts;
+    final Map<Integer, Integer> tagTypesCounts;
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertTagTypes(Set.of(new TagTypeUpdate(0, "type", '/', 0)));
+      //noinspection OptionalGetWithoutIsPresent
+      final TagType tagType = db.getAllTagTypes().stream().findFirst().get();
+      db.insertTags(Set.of(new TagUpdate(0, "test3", null, "test1 test2")));
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(
+          new ParsedTag(Optional.of(tagType), "test1"),
+          new ParsedTag(Optional.empty(), "test2")
+      ), Set.of()));
+      tags = Set.copyOf(db.getAllTags());
+      tagsCounts = Map.copyOf(db.getAllTagsCounts());
+      tagTypesCounts = Map.copyOf(db.getAllTagTypesCounts());
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertEquals(tags, db.getAllTags());
+      assertEquals(tagsCounts, db.getAllTagsCounts());
+      assertEquals(tagTypesCounts, db.getAllTagTypesCounts());
+    }
   }
 
   @Test
-  void queryMedias_pseudoTag_similar_toPlainString() throws DatabaseOperationException, InvalidPseudoTagException {
-    final var ff = this.initQueryMediasTest();
-    final var medias = this.db.queryMedias(
-        new TagQuery(ff.variable("similar_to:string::%s/test_file.jpeg".formatted(Path.of("").toAbsolutePath())), DatabaseConnection.PSEUDO_TAGS, null));
-    assertEquals(2, medias.size());
+  void cacheSnapshot_usedIfNoChanges(@TempDir Path dir) throws DatabaseOperationException, SQLException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertTags(Set.of(new TagUpdate(0, "test1", null, null)));
+    }
+    // Insert a tag without notifying the change counter
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          DROP TRIGGER trg_tags_insert_changes;
+          INSERT INTO tags (label) VALUES ('test2');
+          """);
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertEquals(Set.of(new Tag(1, "test1", null, null)), db.getAllTags());
+    }
   }
 
   @Test
-  void queryMedias_pseudoTag_similar_toTemplateStringNoError() throws DatabaseOperationException, InvalidPseudoTagException {
-    final var ff = this.initQueryMediasTest();
-    final var medias = this.db.queryMedias(
-        new TagQuery(ff.variable("similar_to:string::%s/test_file.jp?g".formatted(Path.of("").toAbsolutePath())), DatabaseConnection.PSEUDO_TAGS, null));
-    assertTrue(medias.isEmpty());
+  void cacheSnapshot_readsCountsFromTable(@TempDir Path dir) throws DatabaseOperationException, SQLException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)),
+          Set.of(new ParsedTag(Optional.empty(), "test1")), Set.of()));
+    }
+    // Associations do not invalidate the snapshot
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("DELETE FROM image_tag");
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertEquals(Map.of(1, 0), db.getAllTagsCounts());
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery("""
+             SELECT COUNT(*) FROM cache_snapshot AS s, cache_changes AS c WHERE s.counter = c.counter""")) {
+      resultSet.next();
+      assertEquals(1, resultSet.getInt(1));
+    }
   }
 
   @Test
-  void queryMedias_pseudoTag_similar_toRegexError() throws DatabaseOperationException {
-    final var ff = this.initQueryMediasTest();
-    assertThrows(InvalidPseudoTagException.class,
-        () -> this.db.queryMedias(new TagQuery(ff.variable("similar_to:regex::%s/test_file\\.jpeg".formatted(Path.of("").toAbsolutePath())), DatabaseConnection.PSEUDO_TAGS, null)));
+  void cacheSnapshot_ignoredIfOutdated(@TempDir Path dir) throws DatabaseOperationException, SQLException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertTags(Set.of(new TagUpdate(0, "test1", null, null)));
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("INSERT INTO tags (label) VALUES ('test2')");
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      assertEquals(Set.of(
+          new Tag(1, "test1", null, null),
+          new Tag(2, "test2", null, null)
+      ), db.getAllTags());
+      assertEquals(Map.of(1, 0, 2, 0), db.getAllTagsCounts());
+    }
   }
 
   @Test
-  void queryMedias_nonExistentTagNoError() throws DatabaseOperationException, InvalidPseudoTagException {
-    final var ff = this.initQueryMediasTest();
-    final var medias = this.db.queryMedias(new TagQuery(ff.variable("yo"), Map.of(), null));
-    assertTrue(medias.isEmpty());
+  void cacheSnapshot_counterIncrementedOncePerSnapshot(@TempDir Path dir)
+      throws DatabaseOperationException, SQLException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file)) {
+      db.insertTags(Set.of(new TagUpdate(0, "test1", null, null)));
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          INSERT INTO tags (label) VALUES ('test2'), ('test3');
+          UPDATE tags SET label = 'test4' WHERE label = 'test1';
+          """);
+      try (final var resultSet = statement.executeQuery("""
+          SELECT c.counter - s.counter FROM cache_snapshot AS s, cache_changes AS c""")) {
+        resultSet.next();
+        assertEquals(1, resultSet.getInt(1));
+      }
+    }
   }
 
   @Test
-  void queryMedias_nonExistentPseudoTagError() throws DatabaseOperationException {
-    final var ff = this.initQueryMediasTest();
-    assertThrows(InvalidPseudoTagException.class, () -> this.db.queryMedias(new TagQuery(ff.variable("invalid:string::a"), Map.of(), null)));
+  void cacheSnapshot_disabled(@TempDir Path dir) throws DatabaseOperationException, SQLException {
+    final Path file = dir.resolve("db.sqlite3");
+    try (final var db = new DatabaseConnection(file, false)) {
+      db.insertTags(Set.of(new TagUpdate(0, "test1", null, null)));
+    }
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement();
+         final var resultSet = statement.executeQuery("SELECT COUNT(*) FROM cache_snapshot")) {
+      resultSet.next();
+      assertEquals(0, resultSet.getInt(1));
+    }
   }
 
   // endregion
@@ -734,6 +1866,77 @@ class DatabaseConnectionTest {
     assertEquals(this.db.getAllTags(), mediaTags);
   }
 
+  // endregion
+  // region getMediasTags
+
+  @Test
+  void getMediasTags() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+        new ParsedTag(Optional.empty(), "test1"),
+        new ParsedTag(Optional.empty(), "test2")
+    ), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(), Set.of()));
+    final List<MediaFile> medias = List.of(
+        new MediaFile(1, Path.of("test_file.png"), null),
+        new MediaFile(2, Path.of("test_file_2.png"), null)
+    );
+    final Map<Integer, int[]> mediasTags = this.db.getMediasTags(medias);
+    assertEquals(2, mediasTags.size());
+    assertArrayEquals(new int[] {1, 2}, mediasTags.get(1));
+    assertArrayEquals(new int[0], mediasTags.get(2));
+  }
+
+  @Test
+  void getMediasTags_emptyCollection() throws DatabaseOperationException {
+    assertTrue(this.db.getMediasTags(List.of()).isEmpty());
+  }
+
+  @Test
+  void getMediasTags_withoutMediasTagsCache() throws DatabaseOperationException {
+    try (final var db = new DatabaseConnection(null, false, false)) {
+      db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+          new ParsedTag(Optional.empty(), "test1"),
+          new ParsedTag(Optional.empty(), "test2")
+      ), Set.of()));
+      final MediaFile media = new MediaFile(1, Path.of("test_file.png"), null);
+      assertArrayEquals(new int[] {1, 2}, db.getMediasTags(List.of(media)).get(1));
+      assertEquals(db.getAllTags(), db.getMediaTags(media));
+    }
+  }
+
+  @Test
+  void mediasTagsCache_sameAsDatabaseAfterUpdates(@TempDir Path tempDir) throws DatabaseOperationException {
+    final Path file = tempDir.resolve("db.sqlite3");
+    final List<MediaFile> medias;
+    final Map<Integer, int[]> cached;
+    try (final var db = new DatabaseConnection(file)) {
+      medias = db.insertMedias(List.of(
+          new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(new ParsedTag(Optional.empty(), "test1")), Set.of()),
+          new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(), Set.of())
+      ));
+      db.updateMediasTags(Set.of(new ParsedTag(Optional.empty(), "test2")), Set.of(), List.of(medias.get(0).id(), medias.get(1).id()));
+      final Tag test1 = db.getAllTags().stream().filter(t -> t.label().equals("test1")).findFirst().orElseThrow();
+      db.updateMedia(new MediaFileUpdate(medias.get(0).id(), medias.get(0).path(), Optional.empty(),
+          Set.of(new ParsedTag(Optional.empty(), "test3")), Set.of(test1)));
+      cached = db.getMediasTags(medias);
+    }
+    try (final var db = new DatabaseConnection(file, false, false)) {
+      final Map<Integer, int[]> fromDb = db.getMediasTags(medias);
+      for (final MediaFile media : medias)
+        assertArrayEquals(fromDb.get(media.id()), cached.get(media.id()));
+    }
+  }
+
+  @Test
+  void getTags_resolvesIdsAgainstCache() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+        new ParsedTag(Optional.empty(), "test1"),
+        new ParsedTag(Optional.empty(), "test2")
+    ), Set.of()));
+    final MediaFile media = new MediaFile(1, Path.of("test_file.png"), null);
+    assertEquals(this.db.getMediaTags(media), this.db.getTags(this.db.getMediasTags(List.of(media)).get(1)));
+  }
+
   // endregion
   // region isFileRegistered
 
@@ -773,6 +1976,24 @@ class DatabaseConnectionTest {
     );
   }
 
+  // endregion
+  // region hasSimilarImages
+
+  @Test
+  void hasSimilarImages() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(-1)), Set.of(), Set.of()));
+    assertTrue(this.db.hasSimilarImages(new Hash(-1), null));
+  }
+
+  @Test
+  void hasSimilarImages_excluded() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final MediaFile mediaFile = this.db.insertMedia(
+        new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(-1)), Set.of(), Set.of()));
+    assertFalse(this.db.hasSimilarImages(new Hash(-1), mediaFile));
+  }
+
   // endregion
   // region insertMedia
 
@@ -919,6 +2140,106 @@ class DatabaseConnectionTest {
     assertFalse(this.db.isFileRegistered(path));
   }
 
+  // endregion
+  // region insertMedias
+
+  @Test
+  void insertMedias() throws DatabaseOperationException {
+    final Path path1 = Path.of("test_file.png");
+    final Path path2 = Path.of("test_file_2.png");
+    final List<MediaFile> medias = this.db.insertMedias(List.of(
+        new MediaFileUpdate(0, path1, Optional.of(new Hash(0)), Set.of(), Set.of()),
+        new MediaFileUpdate(0, path2, Optional.empty(), Set.of(), Set.of())
+    ));
+    assertEquals(List.of(
+        new MediaFile(1, path1, new Hash(0)),
+        new MediaFile(2, path2, null)
+    ), medias);
+    assertTrue(this.db.isFileRegistered(path1));
+    assertTrue(this.db.isFileRegistered(path2));
+  }
+
+  @Test
+  void insertMedias_sharesCreatedTags() throws DatabaseOperationException {
+    this.db.insertTags(Set.of(new TagUpdate(0, "test1", null, null)));
+    final List<MediaFile> medias = this.db.insertMedias(List.of(
+        new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+            new ParsedTag(Optional.empty(), "test1"),
+            new ParsedTag(Optional.empty(), "test2")
+        ), Set.of()),
+        new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(
+            new ParsedTag(Optional.empty(), "test2")
+        ), Set.of())
+    ), 1, null);
+    assertEquals(Set.of(
+        new Tag(1, "test1", null, null),
+        new Tag(2, "test2", null, null)
+    ), this.db.getAllTags());
+    assertEquals(Set.of(new Tag(2, "test2", null, null)), this.db.getMediaTags(medias.get(1)));
+  }
+
+  @Test
+  void insertMedias_updatesTagCounts() throws DatabaseOperationException {
+    this.db.insertTagTypes(Set.of(new TagTypeUpdate(0, "type", '/', 0)));
+    //noinspection OptionalGetWithoutIsPresent
+    final TagType tagType = this.db.getAllTagTypes().stream().findFirst().get();
+    this.db.insertMedias(List.of(
+        new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(
+            new ParsedTag(Optional.of(tagType), "test1"),
+            new ParsedTag(Optional.empty(), "test2")
+        ), Set.of()),
+        new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(
+            new ParsedTag(Optional.of(tagType), "test1")
+        ), Set.of())
+    ));
+    final Map<String, Integer> counts = new HashMap<>();
+    this.db.getAllTags().forEach(tag -> counts.put(tag.label(), this.db.getAllTagsCounts().get(tag.id())));
+    assertEquals(Map.of("test1", 2, "test2", 1), counts);
+    assertEquals(Map.of(1, 1), this.db.getAllTagTypesCounts());
+  }
+
+  @Test
+  void insertMedias_tagsToRemoveNotEmptyError() {
+    assertThrows(IllegalArgumentException.class,
+        () -> this.db.insertMedias(List.of(
+            new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(),
+                Set.of(new Tag(1, "test", null, null))))));
+  }
+
+  @Test
+  void insertMedias_addTagsWithDefinitionsErrorInsertsNothing() throws DatabaseOperationException {
+    this.db.insertTags(Set.of(new TagUpdate(0, "test1", null, "a b")));
+    assertThrows(DatabaseOperationException.class,
+        () -> this.db.insertMedias(List.of(
+            new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), Set.of(), Set.of()),
+            new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(
+                new ParsedTag(Optional.empty(), "test1")
+            ), Set.of())
+        ), 1, null)
+    );
+    assertFalse(this.db.isFileRegistered(Path.of("test_file.png")));
+  }
+
+  @Test
+  void insertMedias_errorKeepsPreviousChunks() throws DatabaseOperationException {
+    final Path path = Path.of("test_file.png");
+    assertThrows(DatabaseOperationException.class,
+        () -> this.db.insertMedias(List.of(
+            new MediaFileUpdate(0, path, Optional.empty(), Set.of(
+                new ParsedTag(Optional.empty(), "test1")
+            ), Set.of()),
+            new MediaFileUpdate(0, path, Optional.empty(), Set.of(
+                new ParsedTag(Optional.empty(), "test2")
+            ), Set.of()),
+            new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), Set.of(), Set.of())
+        ), 1, null)
+    );
+    assertTrue(this.db.isFileRegistered(path));
+    assertFalse(this.db.isFileRegistered(Path.of("test_file_2.png")));
+    assertEquals(Set.of(new Tag(1, "test1", null, null)), this.db.getAllTags());
+    assertEquals(Map.of(1, 1), this.db.getAllTagsCounts());
+  }
+
   // endregion
   // region updateMedia
 
@@ -1104,6 +2425,100 @@ class DatabaseConnectionTest {
     );
   }
 
+  // endregion
+  // region bulk tags update
+
+  @Test
+  void addTagsToMedias() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of(new ParsedTag(Optional.empty(), "test1")));
+    final int changes = this.db.addTagsToMedias(Set.of(
+        new ParsedTag(Optional.empty(), "test1"),
+        new ParsedTag(Optional.empty(), "test2")
+    ), List.of(medias.get(0).id(), medias.get(1).id()));
+    assertEquals(2, changes);
+    assertEquals(Set.of(
+        new Tag(1, "test1", null, null),
+        new Tag(2, "test2", null, null)
+    ), this.db.getMediaTags(medias.get(0)));
+    assertEquals(Map.of(1, 2, 2, 2), this.db.getAllTagsCounts());
+  }
+
+  @Test
+  void addTagsToMedias_ignoresUnknownMedias() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of());
+    final int changes = this.db.addTagsToMedias(
+        Set.of(new ParsedTag(Optional.empty(), "test1")),
+        List.of(medias.get(0).id(), 42)
+    );
+    assertEquals(1, changes);
+    assertEquals(Map.of(1, 1), this.db.getAllTagsCounts());
+  }
+
+  @Test
+  void addTagsToMedias_updatesTagTypeCounts() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of());
+    this.db.insertTagTypes(Set.of(new TagTypeUpdate(0, "type", '/', 0)));
+    //noinspection OptionalGetWithoutIsPresent
+    final TagType tagType = this.db.getAllTagTypes().stream().findFirst().get();
+    this.db.addTagsToMedias(Set.of(new ParsedTag(Optional.of(tagType), "test1")), List.of(medias.get(0).id()));
+    assertEquals(Set.of(new Tag(1, "test1", tagType, null)), this.db.getAllTags());
+    assertEquals(Map.of(1, 1), this.db.getAllTagTypesCounts());
+  }
+
+  @Test
+  void addTagsToMedias_addTagsWithDefinitionsError() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of());
+    this.db.insertTags(Set.of(new TagUpdate(0, "test1", null, "a b")));
+    assertThrows(DatabaseOperationException.class,
+        () -> this.db.addTagsToMedias(Set.of(
+            new ParsedTag(Optional.empty(), "test1"),
+            new ParsedTag(Optional.empty(), "test2")
+        ), List.of(medias.get(0).id()))
+    );
+    assertEquals(1, this.db.getAllTags().size());
+  }
+
+  @Test
+  void removeTagsFromMedias() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of(
+        new ParsedTag(Optional.empty(), "test1"),
+        new ParsedTag(Optional.empty(), "test2")
+    ));
+    //noinspection OptionalGetWithoutIsPresent
+    final Tag tag = this.db.getAllTags().stream().filter(t -> t.label().equals("test1")).findFirst().get();
+    final int changes = this.db.removeTagsFromMedias(Set.of(tag), List.of(medias.get(0).id()));
+    assertEquals(1, changes);
+    assertEquals(1, this.db.getAllTagsCounts().get(tag.id()));
+    assertEquals(0, this.db.removeTagsFromMedias(Set.of(tag), List.of(medias.get(0).id())));
+  }
+
+  @Test
+  void removeTagsFromMedias_notInDbError() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of());
+    assertThrows(DatabaseOperationException.class,
+        () -> this.db.removeTagsFromMedias(Set.of(new Tag(1, "test", null, null)), List.of(medias.get(0).id()))
+    );
+  }
+
+  @Test
+  void updateMediasTags_returnsUpdatedMedias() throws DatabaseOperationException {
+    final List<MediaFile> medias = this.insertTwoMedias(Set.of());
+    this.db.addTagsToMedias(Set.of(new ParsedTag(Optional.empty(), "test1")), List.of(medias.get(0).id()));
+    final Set<Integer> updated = this.db.updateMediasTags(
+        Set.of(new ParsedTag(Optional.empty(), "test1")),
+        Set.of(),
+        List.of(medias.get(0).id(), medias.get(1).id())
+    );
+    assertEquals(Set.of(medias.get(1).id()), updated);
+  }
+
+  private List<MediaFile> insertTwoMedias(final Set<ParsedTag> tags) throws DatabaseOperationException {
+    return this.db.insertMedias(List.of(
+        new MediaFileUpdate(0, Path.of("test_file.png"), Optional.empty(), tags, Set.of()),
+        new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.empty(), tags, Set.of())
+    ));
+  }
+
   // endregion
   // region moveOrRenameMedia rename only
 
@@ -1436,11 +2851,237 @@ class DatabaseConnectionTest {
         () -> this.db.deleteMedia(new MediaFile(1, Path.of("test_file_2.png"), new Hash(0)), false));
   }
 
+  // endregion
+  // region deleteMedias
+
+  @Test
+  void deleteMedias_deletesIfRequested() throws DatabaseOperationException {
+    final Path path = Path.of("test_file_2.png");
+    this.db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_3.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final var errors = this.db.deleteMedias(List.of(
+        new MediaFile(1, path, new Hash(0)),
+        new MediaFile(2, Path.of("test_file_3.png"), new Hash(0))
+    ), true).join();
+    assertTrue(errors.isEmpty());
+    assertFalse(this.db.isFileRegistered(path));
+    assertFalse(this.db.isFileRegistered(Path.of("test_file_3.png")));
+    assertFalse(Files.exists(path));
+  }
+
+  @Test
+  void deleteMedias_doesNotDeleteFilesIfNotRequested() throws DatabaseOperationException {
+    final Path path = Path.of("test_file_2.png");
+    this.db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final var deletion = this.db.deleteMedias(List.of(new MediaFile(1, path, new Hash(0))), false);
+    assertTrue(deletion.isDone());
+    assertTrue(deletion.join().isEmpty());
+    assertFalse(this.db.isFileRegistered(path));
+    assertTrue(Files.exists(path));
+  }
+
+  @Test
+  void deleteMedias_updatesTagCounts() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(
+        new ParsedTag(Optional.empty(), "test1")
+    ), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(0)), Set.of(
+        new ParsedTag(Optional.empty(), "test1"),
+        new ParsedTag(Optional.empty(), "test2")
+    ), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_3.png"), Optional.of(new Hash(0)), Set.of(
+        new ParsedTag(Optional.empty(), "test1")
+    ), Set.of()));
+    this.db.deleteMedias(List.of(
+        new MediaFile(1, Path.of("test_file.png"), new Hash(0)),
+        new MediaFile(2, Path.of("test_file_2.png"), new Hash(0))
+    ), false);
+    assertEquals(Map.of(1, 1, 2, 0), this.db.getAllTagsCounts());
+    final MediaFile remaining = new MediaFile(3, Path.of("test_file_3.png"), new Hash(0));
+    assertEquals(Map.of(3, remaining), this.db.getMedias(List.of(1, 2, 3)));
+    assertEquals(Set.of("test1"), this.db.getMediaTags(remaining).stream().map(Tag::label).collect(Collectors.toSet()));
+  }
+
+  @Test
+  void deleteMedias_ignoresMediasNotInDb() throws DatabaseOperationException {
+    final Path path = Path.of("test_file_2.png");
+    final var errors = this.db.deleteMedias(List.of(new MediaFile(1, path, new Hash(0))), true).join();
+    assertTrue(errors.isEmpty());
+    assertTrue(Files.exists(path));
+  }
+
+  @Test
+  void deleteMedias_reportsFileErrors(@TempDir Path dir) throws DatabaseOperationException, IOException {
+    // Non-empty directories cannot be deleted
+    final Path path = Files.createDirectory(dir.resolve("media.png"));
+    Files.createFile(path.resolve("file"));
+    this.db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final MediaFile mediaFile = new MediaFile(1, path, new Hash(0));
+    final var errors = this.db.deleteMedias(List.of(
+        mediaFile,
+        new MediaFile(2, Path.of("test_file_2.png"), new Hash(0))
+    ), true).join();
+    assertEquals(Set.of(mediaFile), errors.keySet());
+    assertFalse(this.db.isFileRegistered(path));
+    assertTrue(Files.exists(path));
+    assertFalse(Files.exists(Path.of("test_file_2.png")));
+  }
+
+  @Test
+  void deleteMedias_repeatedCallsDeleteFiles(@TempDir Path dir) throws DatabaseOperationException, IOException {
+    for (int i = 1; i <= 3; i++) {
+      final Path path = Files.createFile(dir.resolve("media%d.png".formatted(i)));
+      this.db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+      final var errors = this.db.deleteMedias(List.of(new MediaFile(i, path, new Hash(0))), true).join();
+      assertTrue(errors.isEmpty());
+      assertFalse(Files.exists(path));
+    }
+  }
+
+  @Test
+  void deleteMedias_publishesChanges() throws DatabaseOperationException {
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    this.db.insertMedia(new MediaFileUpdate(0, Path.of("test_file_2.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final List<DatabaseChanges> changes = new ArrayList<>();
+    this.db.addChangesListener(changes::add);
+    this.db.deleteMedias(List.of(
+        new MediaFile(1, Path.of("test_file.png"), new Hash(0)),
+        new MediaFile(2, Path.of("test_file_2.png"), new Hash(0))
+    ), false);
+    assertEquals(1, changes.size());
+    assertEquals(Set.of(1, 2), changes.get(0).deletedMedias());
+  }
+
+  @Test
+  void deleteMedias_coalesced_keepsFilesIfCommitFails(@TempDir Path dir)
+      throws DatabaseOperationException, IOException, SQLException {
+    final Path file = dir.resolve("db.sqlite3");
+    final Path path = Files.createFile(dir.resolve("a.png"));
+    final MediaFile mediaFile;
+    try (final var db = new DatabaseConnection(file)) {
+      mediaFile = db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    }
+    // Deferred foreign key violations are only detected when the outer transaction is committed
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("""
+          CREATE TABLE deleted_images (id INTEGER REFERENCES images (id) DEFERRABLE INITIALLY DEFERRED);
+          CREATE TRIGGER trg_images_deleted AFTER DELETE ON images
+          BEGIN
+            INSERT INTO deleted_images VALUES (OLD.id);
+          END;
+          """);
+    }
+    try (final var db = new DatabaseConnection(file)) {
+      final List<CompletableFuture<?>> deletions = new ArrayList<>();
+      assertThrows(DatabaseOperationException.class, () -> db.runCoalesced(List.of(
+          () -> deletions.add(db.deleteMedias(List.of(mediaFile), true))
+      )));
+      assertTrue(deletions.get(0).isCancelled());
+      assertTrue(db.isFileRegistered(path));
+      assertTrue(Files.exists(path));
+    }
+  }
+
+  @Test
+  void deleteMedias_coalesced_deletesFilesAfterCommit(@TempDir Path dir) throws DatabaseOperationException, IOException {
+    final Path path = Files.createFile(dir.resolve("a.png"));
+    final MediaFile mediaFile = this.db.insertMedia(new MediaFileUpdate(0, path, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final List<CompletableFuture<Map<MediaFile, DatabaseOperationException>>> deletions = new ArrayList<>();
+    final List<Boolean> existsBeforeCommit = new ArrayList<>();
+    this.db.runCoalesced(List.of(
+        () -> deletions.add(this.db.deleteMedias(List.of(mediaFile), true)),
+        () -> existsBeforeCommit.add(Files.exists(path))
+    ));
+    assertEquals(List.of(true), existsBeforeCommit);
+    assertTrue(deletions.get(0).join().isEmpty());
+    assertFalse(Files.exists(path));
+  }
+
+  // endregion
+  // region runCoalesced
+
+  @Test
+  void runCoalesced_failingOperationDoesNotAffectOthers() throws DatabaseOperationException {
+    final List<Exception> errors = this.db.runCoalesced(List.of(
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(
+            new ParsedTag(Optional.empty(), "test1")
+        ), Set.of())),
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(
+            new ParsedTag(Optional.empty(), "test2")
+        ), Set.of())),
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("b.png"), Optional.of(new Hash(0)), Set.of(
+            new ParsedTag(Optional.empty(), "test1")
+        ), Set.of()))
+    ));
+    assertNull(errors.get(0));
+    assertInstanceOf(DatabaseOperationException.class, errors.get(1));
+    assertNull(errors.get(2));
+    assertEquals(2, this.getAllMedias().size());
+    assertEquals(Set.of("test1"), this.db.getAllTags().stream().map(Tag::label).collect(Collectors.toSet()));
+    assertEquals(Map.of(1, 2), this.db.getAllTagsCounts());
+  }
+
+  @Test
+  void runCoalesced_operationsSeePreviousChanges() throws DatabaseOperationException {
+    final List<Boolean> exists = new ArrayList<>();
+    final List<Exception> errors = this.db.runCoalesced(List.of(
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of())),
+        () -> exists.add(this.db.mediaExists(1))
+    ));
+    assertEquals(Arrays.asList(null, null), errors);
+    assertEquals(List.of(true), exists);
+  }
+
+  @Test
+  void runCoalesced_changesCommitted() throws DatabaseOperationException {
+    this.db.runCoalesced(List.of(
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of()))
+    ));
+    // Rollbacks outside of a coalesced run must not discard committed changes
+    assertThrows(DatabaseOperationException.class, () -> this.db.insertMedia(
+        new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of())));
+    assertTrue(this.db.mediaExists(1));
+  }
+
+  @Test
+  void runCoalesced_directWritesWaitForTransaction() throws DatabaseOperationException, InterruptedException {
+    final List<Exception> threadErrors = Collections.synchronizedList(new ArrayList<>());
+    final Thread thread = new Thread(() -> {
+      try {
+        this.db.insertMedia(new MediaFileUpdate(0, Path.of("b.png"), Optional.of(new Hash(0)), Set.of(), Set.of()));
+      } catch (final DatabaseOperationException e) {
+        threadErrors.add(e);
+      }
+    });
+    final List<Boolean> threadBlocked = new ArrayList<>();
+    final List<Exception> errors = this.db.runCoalesced(List.of(
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("a.png"), Optional.of(new Hash(0)), Set.of(), Set.of())),
+        () -> {
+          thread.start();
+          thread.join(200);
+          threadBlocked.add(thread.isAlive());
+        },
+        () -> this.db.insertMedia(new MediaFileUpdate(0, Path.of("c.png"), Optional.of(new Hash(0)), Set.of(), Set.of()))
+    ));
+    thread.join();
+    assertEquals(List.of(true), threadBlocked);
+    assertEquals(Arrays.asList(null, null, null), errors);
+    assertEquals(List.of(), threadErrors);
+    assertEquals(Set.of("a.png", "b.png", "c.png"),
+        this.getAllMedias().stream().map(m -> m.path().getFileName().toString()).collect(Collectors.toSet()));
+  }
+
   // endregion
 
   private Set<MediaFile> getAllMedias() {
+    return getAllMedias(this.db);
+  }
+
+  private static Set<MediaFile> getAllMedias(DatabaseConnection db) {
     try {
-      return this.db.queryMedias(TagQueryParser.parse("a + -a", Map.of(), DatabaseConnection.PSEUDO_TAGS, null));
+      return db.queryMedias(TagQueryParser.parse("a + -a", Map.of(), DatabaseConnection.PSEUDO_TAGS, null));
     } catch (final InvalidPseudoTagException | DatabaseOperationException e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,121 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseMaintenanceTest {
+  private DatabaseConnection db;
+  private AsyncDatabaseConnection asyncDb;
+
+  @BeforeEach
+  void setUp(@TempDir Path dir) throws DatabaseOperationException {
+    this.db = new DatabaseConnection(dir.resolve("db.sqlite3"));
+    this.asyncDb = new AsyncDatabaseConnection(this.db);
+  }
+
+  @AfterEach
+  void tearDown() throws DatabaseOperationException {
+    this.asyncDb.close();
+    this.db.close();
+  }
+
+  private void insertAndDeleteMedias(int count) throws DatabaseOperationException {
+    final List<MediaFileUpdate> updates = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+      updates.add(new MediaFileUpdate(0, Path.of("%s_%d.png".formatted("x".repeat(200), i)), Optional.of(new Hash(i)), Set.of(), Set.of()));
+    for (final MediaFile mediaFile : this.db.insertMedias(updates))
+      this.db.deleteMedia(mediaFile, false);
+  }
+
+  @Test
+  void runIdleTasks_analyzesAfterLargeBatches() throws DatabaseOperationException {
+    this.insertAndDeleteMedias((int) DatabaseMaintenance.ANALYZE_THRESHOLD);
+    try (final var maintenance = new DatabaseMaintenance(this.db, this.asyncDb, Duration.ofDays(1), Duration.ofDays(1))) {
+      maintenance.runIdleTasks();
+    }
+    assertEquals(0, this.db.batchChangesSinceAnalyze());
+  }
+
+  @Test
+  void runIdleTasks_doesNotAnalyzeAfterSmallBatches() throws DatabaseOperationException {
+    this.insertAndDeleteMedias(10);
+    try (final var maintenance = new DatabaseMaintenance(this.db, this.asyncDb, Duration.ofDays(1), Duration.ofDays(1))) {
+      maintenance.runIdleTasks();
+    }
+    assertEquals(10, this.db.batchChangesSinceAnalyze());
+  }
+
+  @Test
+  void runIdleTasks_skippedDuringTransactions() throws DatabaseOperationException, InterruptedException {
+    this.insertAndDeleteMedias((int) DatabaseMaintenance.ANALYZE_THRESHOLD);
+    final CountDownLatch inTransaction = new CountDownLatch(1);
+    final CountDownLatch maintenanceDone = new CountDownLatch(1);
+    final Thread thread = new Thread(() -> {
+      try {
+        this.db.runCoalesced(List.of(() -> {
+          inTransaction.countDown();
+          maintenanceDone.await();
+        }));
+      } catch (final DatabaseOperationException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    thread.start();
+    inTransaction.await();
+    try (final var maintenance = new DatabaseMaintenance(this.db, this.asyncDb, Duration.ofDays(1), Duration.ofDays(1))) {
+      assertFalse(maintenance.runIdleTasks());
+    } finally {
+      maintenanceDone.countDown();
+      thread.join();
+    }
+    assertEquals(DatabaseMaintenance.ANALYZE_THRESHOLD, this.db.batchChangesSinceAnalyze());
+  }
+
+  @Test
+  void runIdleTasks_vacuumsOneStep() throws DatabaseOperationException {
+    this.insertAndDeleteMedias(2000);
+    // ANALYZE may reuse some free pages
+    this.db.analyze();
+    final long freePages = this.db.getStorageStats().freePages();
+    assertTrue(freePages > DatabaseMaintenance.VACUUM_PAGES_PER_STEP, String.valueOf(freePages));
+    try (final var maintenance = new DatabaseMaintenance(this.db, this.asyncDb, Duration.ofDays(1), Duration.ofDays(1))) {
+      assertTrue(maintenance.runIdleTasks());
+    }
+    assertEquals(freePages - DatabaseMaintenance.VACUUM_PAGES_PER_STEP, this.db.getStorageStats().freePages());
+  }
+
+  @Test
+  void scanMediasMetadata_fillsMissingAndStaleMetadata(@TempDir Path dir) throws DatabaseOperationException, IOException {
+    final Path missing = dir.resolve("a.png");
+    final Path modified = Files.copy(Path.of("test_file.png"), dir.resolve("b.png"));
+    final MediaFile missingMedia = this.db.insertMedia(new MediaFileUpdate(0, missing, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    final MediaFile modifiedMedia = this.db.insertMedia(new MediaFileUpdate(0, modified, Optional.of(new Hash(0)), Set.of(), Set.of()));
+    Files.copy(Path.of("test_file.png"), missing);
+    Files.write(modified, new byte[10], StandardOpenOption.APPEND);
+    try (final var maintenance = new DatabaseMaintenance(this.db, this.asyncDb, Duration.ofDays(1), Duration.ofDays(1))) {
+      assertTrue(maintenance.scanMediasMetadata());
+    }
+    assertEquals(4102, this.db.getMediaMetadata(missingMedia).orElseThrow().size());
+    assertEquals(4112, this.db.getMediaMetadata(modifiedMedia).orElseThrow().size());
+  }
+
+  @Test
+  void scheduler_vacuumsWhileIdle() throws DatabaseOperationException, InterruptedException {
+    this.insertAndDeleteMedias(2000);
+    try (final var ignored = new DatabaseMaintenance(this.db, this.asyncDb, Duration.ZERO, Duration.ofMillis(10))) {
+      final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+      while (this.db.getStorageStats().freePages() != 0 && System.nanoTime() < deadline)
+        //noinspection BusyWait
+        Thread.sleep(20);
+    }
+    assertEquals(0, this.db.getStorageStats().freePages());
+  }
+}
@@ -0,0 +1,176 @@
+package net.darmo_creations.bildumilo.data;
+
+import jdk.jfr.*;
+import jdk.jfr.consumer.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentedConnectionsTest {
+  private DatabaseMetrics metrics;
+  private Connection connection;
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    this.metrics = new DatabaseMetrics();
+    this.connection = InstrumentedConnections.wrap(DriverManager.getConnection("jdbc:sqlite::memory:"), this.metrics);
+    try (final var statement = this.connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE test (value INTEGER)");
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    this.connection.close();
+  }
+
+  private DatabaseMetricsSnapshot.OperationStats internalStats() {
+    return this.metrics.snapshot().operations().stream()
+        .filter(s -> s.name().equals(DatabaseMetrics.INTERNAL_OPERATION))
+        .findFirst()
+        .orElseThrow();
+  }
+
+  @Test
+  void executeUpdate_recordsChangedRows() throws SQLException {
+    try (final var statement = this.connection.prepareStatement("INSERT INTO test VALUES (1), (2), (3)")) {
+      statement.executeUpdate();
+    }
+    final var stats = this.internalStats();
+    assertEquals(2, stats.latency().count());
+    assertEquals(3, stats.rows());
+  }
+
+  @Test
+  void executeBatch_recordsChangedRows() throws SQLException {
+    try (final var statement = this.connection.prepareStatement("INSERT INTO test VALUES (?)")) {
+      for (int i = 0; i < 4; i++) {
+        statement.setInt(1, i);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    }
+    assertEquals(4, this.internalStats().rows());
+  }
+
+  @Test
+  void executeQuery_recordsReadRowsOnceFullyRead() throws SQLException {
+    try (final var statement = this.connection.createStatement()) {
+      statement.executeUpdate("INSERT INTO test VALUES (1), (2)");
+      try (final var resultSet = statement.executeQuery("SELECT value FROM test")) {
+        assertEquals(2, this.internalStats().latency().count());
+        //noinspection StatementWithEmptyBody
+        while (resultSet.next()) ;
+        assertEquals(3, this.internalStats().latency().count());
+      }
+    }
+    assertEquals(3, this.internalStats().latency().count());
+    assertEquals(4, this.internalStats().rows());
+  }
+
+  @Test
+  void executeQuery_recordedOnStatementClose() throws SQLException {
+    final PreparedStatement statement = this.connection.prepareStatement("SELECT 1");
+    statement.executeQuery().next();
+    final long count = this.internalStats().latency().count();
+    statement.close();
+    assertEquals(count + 1, this.internalStats().latency().count());
+  }
+
+  @Test
+  void statementsInOperation_onlyAddRows() throws SQLException {
+    try (final var operation = this.metrics.startOperation("test");
+         final var statement = this.connection.prepareStatement("INSERT INTO test VALUES (1), (2)")) {
+      statement.executeUpdate();
+      statement.executeUpdate();
+    }
+    final var stats = this.metrics.snapshot().operations().stream()
+        .filter(s -> s.name().equals("test"))
+        .findFirst()
+        .orElseThrow();
+    assertEquals(1, stats.latency().count());
+    assertEquals(4, stats.rows());
+  }
+
+  @Test
+  void disabled_recordsNothing() throws SQLException {
+    final var before = this.internalStats();
+    this.metrics.setEnabled(false);
+    try (final var statement = this.connection.prepareStatement("INSERT INTO test VALUES (1)")) {
+      statement.executeUpdate();
+    }
+    try (final var operation = this.metrics.startOperation("test")) {
+      assertEquals(DatabaseMetrics.INTERNAL_OPERATION, this.metrics.currentOperation());
+    }
+    assertEquals(before, this.internalStats());
+    assertEquals(1, this.metrics.snapshot().operations().size());
+  }
+
+  @Test
+  void resultSet_getStatementReturnsWrapper() throws SQLException {
+    try (final var statement = this.connection.prepareStatement("SELECT 1");
+         final var resultSet = statement.executeQuery()) {
+      assertSame(statement, resultSet.getStatement());
+      assertSame(this.connection, statement.getConnection());
+    }
+  }
+
+  @Test
+  void slowestStatements_includeSql() throws SQLException {
+    try (final var statement = this.connection.prepareStatement("INSERT INTO test VALUES (1)")) {
+      statement.executeUpdate();
+    }
+    assertTrue(this.metrics.snapshot().slowestStatements().stream()
+        .anyMatch(s -> s.sql().equals("INSERT INTO test VALUES (1)") && s.rows() == 1));
+  }
+
+  @Test
+  void commitAndRollback_recorded() throws SQLException {
+    this.connection.setAutoCommit(false);
+    try (final var statement = this.connection.createStatement()) {
+      statement.executeUpdate("INSERT INTO test VALUES (1)");
+    }
+    this.connection.commit();
+    this.connection.rollback();
+    final var sqls = this.metrics.snapshot().slowestStatements().stream()
+        .map(DatabaseMetricsSnapshot.SlowStatement::sql)
+        .toList();
+    assertTrue(sqls.contains("COMMIT"));
+    assertTrue(sqls.contains("ROLLBACK"));
+  }
+
+  @Test
+  void unwrap_returnsDriverConnection() throws SQLException {
+    assertNotNull(this.connection.unwrap(org.sqlite.SQLiteConnection.class));
+  }
+
+  @Test
+  void executeQuery_emitsFlightRecorderEvents(@TempDir Path dir) throws SQLException, IOException {
+    final Path file = dir.resolve("recording.jfr");
+    try (final var recording = new Recording()) {
+      recording.enable("net.darmo_creations.bildumilo.DatabaseStatement").withoutThreshold();
+      recording.enable("net.darmo_creations.bildumilo.DatabaseCommit").withoutThreshold();
+      recording.start();
+      this.connection.setAutoCommit(false);
+      try (final var statement = this.connection.prepareStatement("INSERT INTO test VALUES (1)")) {
+        statement.executeUpdate();
+      }
+      this.connection.commit();
+      recording.stop();
+      recording.dump(file);
+    }
+    final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    assertTrue(events.stream().anyMatch(e ->
+        e.getEventType().getName().equals("net.darmo_creations.bildumilo.DatabaseStatement")
+        && e.getString("sql").equals("INSERT INTO test VALUES (1)")
+        && e.getLong("rows") == 1));
+    assertTrue(events.stream().anyMatch(e ->
+        e.getEventType().getName().equals("net.darmo_creations.bildumilo.DatabaseCommit")));
+  }
+}
@@ -0,0 +1,77 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+  @Test
+  void bucketIndex_exactForSmallValues() {
+    for (int i = 0; i < LatencyHistogram.SUB_BUCKETS; i++) {
+      assertEquals(i, LatencyHistogram.bucketIndex(i));
+      assertEquals(i, LatencyHistogram.bucketUpperBound(i));
+    }
+  }
+
+  @Test
+  void bucketIndex_valueBelowUpperBound() {
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      final int index = LatencyHistogram.bucketIndex(value);
+      assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+      if (index > 0)
+        assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+    }
+  }
+
+  @Test
+  void bucketIndex_maxValue() {
+    assertEquals(Long.MAX_VALUE,
+        LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+  }
+
+  @Test
+  void bucketUpperBound_relativeErrorBelowBucketWidth() {
+    final long value = 123_456_789;
+    final long upperBound = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+    assertTrue((double) (upperBound - value) / value < 2.0 / LatencyHistogram.SUB_BUCKETS);
+  }
+
+  @Test
+  void snapshot_empty() {
+    assertEquals(new LatencyHistogram.Snapshot(0, 0, 0, 0, 0, 0), new LatencyHistogram().snapshot());
+  }
+
+  @Test
+  void snapshot_percentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++)
+      histogram.record(i < 100 ? 10 : 1_000_000);
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.count());
+    assertEquals(99 * 10 + 1_000_000, snapshot.totalNanos());
+    assertEquals(1_000_000, snapshot.maxNanos());
+    assertEquals(10, snapshot.p50Nanos());
+    assertEquals(10, snapshot.p90Nanos());
+    assertEquals(10, snapshot.p99Nanos());
+    assertEquals((99 * 10 + 1_000_000) / 100, snapshot.meanNanos());
+  }
+
+  @Test
+  void snapshot_percentilesApproximateLargeValues() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++)
+      histogram.record(i * 1000L);
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(500_000, snapshot.p50Nanos(), 500_000 * 2.0 / LatencyHistogram.SUB_BUCKETS);
+    assertEquals(990_000, snapshot.p99Nanos(), 990_000 * 2.0 / LatencyHistogram.SUB_BUCKETS);
+  }
+
+  @Test
+  void record_negativeCountedAsZero() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(1, snapshot.count());
+    assertEquals(0, snapshot.maxNanos());
+  }
+}
@@ -0,0 +1,128 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaTagsIndexTest {
+  private MediaTagsIndex index;
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    this.index = new MediaTagsIndex();
+    try (final var connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+         final var statement = connection.createStatement()) {
+      statement.executeUpdate("CREATE TABLE t (m INTEGER, t INTEGER)");
+      statement.executeUpdate("INSERT INTO t VALUES (1, 1), (1, 2), (3, 2), (5, 1), (5, 3)");
+      try (final var resultSet = statement.executeQuery("SELECT m, t FROM t ORDER BY m, t")) {
+        this.index.load(resultSet);
+      }
+    }
+  }
+
+  @Test
+  void load() {
+    assertArrayEquals(new int[] {1, 2}, this.index.get(1));
+    assertArrayEquals(new int[] {2}, this.index.get(3));
+    assertArrayEquals(new int[] {1, 3}, this.index.get(5));
+    assertEquals(3, this.index.mediasCount());
+    assertEquals(5, this.index.associationsCount());
+  }
+
+  @Test
+  void get_unknownMediaReturnsEmptyArray() {
+    assertArrayEquals(new int[0], this.index.get(2));
+  }
+
+  @Test
+  void get_returnsCopy() {
+    this.index.get(1)[0] = 42;
+    assertArrayEquals(new int[] {1, 2}, this.index.get(1));
+  }
+
+  @Test
+  void add() {
+    this.index.add(1, List.of(3, 1));
+    this.index.add(2, List.of(1));
+    assertArrayEquals(new int[] {1, 2, 3}, this.index.get(1));
+    assertArrayEquals(new int[] {1}, this.index.get(2));
+    assertEquals(4, this.index.mediasCount());
+    assertEquals(7, this.index.associationsCount());
+  }
+
+  @Test
+  void remove() {
+    this.index.remove(5, List.of(3));
+    this.index.remove(3, List.of(2));
+    assertArrayEquals(new int[] {1}, this.index.get(5));
+    assertArrayEquals(new int[0], this.index.get(3));
+    assertEquals(2, this.index.mediasCount());
+  }
+
+  @Test
+  void update_addsTagsToMedias() {
+    this.index.update(Map.of(4, List.of(1, 3, 7), 1, List.of(3)), Map.of());
+    assertArrayEquals(new int[] {1, 2, 4}, this.index.get(1));
+    assertArrayEquals(new int[] {1, 2, 4}, this.index.get(3));
+    assertArrayEquals(new int[] {4}, this.index.get(7));
+    assertEquals(4, this.index.mediasCount());
+    assertEquals(9, this.index.associationsCount());
+  }
+
+  @Test
+  void update_removesTagsFromMedias() {
+    this.index.update(Map.of(), Map.of(1, List.of(1, 5), 2, List.of(3)));
+    assertArrayEquals(new int[] {2}, this.index.get(1));
+    assertArrayEquals(new int[0], this.index.get(3));
+    assertArrayEquals(new int[] {3}, this.index.get(5));
+    assertEquals(2, this.index.mediasCount());
+    assertEquals(2, this.index.associationsCount());
+  }
+
+  @Test
+  void update_removalWinsOverAddition() {
+    this.index.update(Map.of(4, List.of(1)), Map.of(4, List.of(1), 2, List.of(1)));
+    assertArrayEquals(new int[] {1}, this.index.get(1));
+  }
+
+  @Test
+  void counts_includePendingUpdates() {
+    this.index.add(2, List.of(1));
+    this.index.removeMedia(1);
+    assertEquals(3, this.index.mediasCount());
+    assertEquals(4, this.index.associationsCount());
+    assertEquals(3, this.index.mediasCount());
+  }
+
+  @Test
+  void removeMedia() {
+    this.index.removeMedia(1);
+    assertArrayEquals(new int[0], this.index.get(1));
+    assertEquals(2, this.index.mediasCount());
+  }
+
+  @Test
+  void removeTags() {
+    this.index.add(7, List.of(2));
+    this.index.removeTags(Set.of(2));
+    assertArrayEquals(new int[] {1}, this.index.get(1));
+    assertArrayEquals(new int[0], this.index.get(3));
+    assertArrayEquals(new int[0], this.index.get(7));
+    assertEquals(2, this.index.mediasCount());
+    assertEquals(3, this.index.associationsCount());
+  }
+
+  @Test
+  void compaction_keepsAllEntries() {
+    // Enough updates to trigger several compactions
+    for (int i = 0; i < 5000; i++)
+      this.index.add(i, List.of(i % 7));
+    assertArrayEquals(new int[] {1, 2}, this.index.get(1));
+    assertArrayEquals(new int[] {2, 3}, this.index.get(3));
+    assertArrayEquals(new int[] {1}, this.index.get(4999));
+    assertEquals(5000, this.index.mediasCount());
+  }
+}
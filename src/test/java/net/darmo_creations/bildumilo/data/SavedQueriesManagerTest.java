@@ -0,0 +1,143 @@
+package net.darmo_creations.bildumilo.data;
+
+import net.darmo_creations.bildumilo.ui.*;
+import org.jetbrains.annotations.*;
+import org.junit.jupiter.api.*;
+
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.function.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SavedQueriesManagerTest {
+  private DatabaseConnection db;
+
+  @BeforeEach
+  void setUp() throws DatabaseOperationException {
+    this.db = new DatabaseConnection(null);
+    this.db.setSavedQueries(List.of(
+        new SavedQuery("q1", "a"),
+        new SavedQuery("q2", "a b"),
+        new SavedQuery("invalid", "a (")
+    ));
+  }
+
+  @AfterEach
+  void tearDown() throws DatabaseOperationException {
+    this.db.close();
+  }
+
+  private MediaFile insertMedia(int i, @NotNull String... tags) throws DatabaseOperationException {
+    final Set<ParsedTag> parsedTags = new HashSet<>();
+    for (final String tag : tags)
+      parsedTags.add(new ParsedTag(Optional.empty(), tag));
+    return this.db.insertMedia(new MediaFileUpdate(0, Path.of("file_%d.png".formatted(i)), Optional.of(new Hash(i)), parsedTags, Set.of()));
+  }
+
+  private static void waitFor(@NotNull BooleanSupplier condition) throws InterruptedException {
+    final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (!condition.getAsBoolean() && System.nanoTime() < deadline)
+      //noinspection BusyWait
+      Thread.sleep(10);
+    assertTrue(condition.getAsBoolean());
+  }
+
+  @Test
+  void load_compilesValidQueries() {
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofDays(1))) {
+      assertTrue(manager.getCompiledQuery("q1").isPresent());
+      assertTrue(manager.getCompiledQuery("q2").isPresent());
+      assertTrue(manager.getCompiledQuery("invalid").isEmpty());
+    }
+  }
+
+  @Test
+  void load_computesResults() throws DatabaseOperationException, InterruptedException {
+    final MediaFile mediaFile = this.insertMedia(1, "a");
+    this.insertMedia(2, "b");
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofDays(1))) {
+      waitFor(() -> manager.getResults("q1").isPresent() && manager.getResults("q2").isPresent());
+      assertEquals(Set.of(mediaFile.id()), manager.getResults("q1").get());
+      assertEquals(Set.of(), manager.getResults("q2").get());
+      assertEquals(OptionalInt.of(1), manager.getResultsCount("q1"));
+      assertEquals(OptionalInt.of(0), manager.getResultsCount("q2"));
+      assertTrue(manager.getResults("invalid").isEmpty());
+      assertTrue(manager.getResultsCount("invalid").isEmpty());
+    }
+  }
+
+  @Test
+  void saveQuery_compilesAndComputesResults() throws DatabaseOperationException, InterruptedException {
+    final MediaFile mediaFile = this.insertMedia(1, "b");
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofDays(1))) {
+      manager.saveQuery("q3", "b");
+      assertTrue(manager.getCompiledQuery("q3").isPresent());
+      waitFor(() -> manager.getResults("q3").isPresent());
+      assertEquals(Set.of(mediaFile.id()), manager.getResults("q3").get());
+    }
+  }
+
+  @Test
+  void changes_updateResultsWithoutDelay() throws DatabaseOperationException, InterruptedException {
+    this.db.insertTags(Set.of(new TagUpdate(0, "a", null, null), new TagUpdate(0, "b", null, null)));
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofDays(1))) {
+      waitFor(() -> manager.getResults("q1").isPresent() && manager.getResults("q2").isPresent());
+      final MediaFile mediaFile1 = this.insertMedia(1, "a");
+      final MediaFile mediaFile2 = this.insertMedia(2, "a", "b");
+      waitFor(() -> manager.getResultsCount("q1").equals(OptionalInt.of(2)));
+      assertEquals(Set.of(mediaFile1.id(), mediaFile2.id()), manager.getResults("q1").get());
+      assertEquals(Set.of(mediaFile2.id()), manager.getResults("q2").get());
+    }
+  }
+
+  @Test
+  void changes_removeMediasThatDoNotMatchAnymore() throws DatabaseOperationException, InterruptedException {
+    final MediaFile mediaFile1 = this.insertMedia(1, "a");
+    final MediaFile mediaFile2 = this.insertMedia(2, "a");
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofDays(1))) {
+      waitFor(() -> manager.getResults("q1").isPresent());
+      this.db.deleteMedias(Set.of(mediaFile1), false);
+      this.db.updateMedia(new MediaFileUpdate(
+          mediaFile2.id(), mediaFile2.path(), mediaFile2.hash(), Set.of(), this.db.getMediaTags(mediaFile2)));
+      waitFor(() -> manager.getResultsCount("q1").equals(OptionalInt.of(0)));
+      assertEquals(Set.of(), manager.getResults("q1").get());
+    }
+  }
+
+  @Test
+  void tagChanges_discardResultsButKeepCounts() throws DatabaseOperationException, InterruptedException {
+    this.insertMedia(1, "a");
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofDays(1))) {
+      waitFor(() -> manager.getResults("q1").isPresent());
+      this.db.insertTags(Set.of(new TagUpdate(0, "d", null, null)));
+      assertTrue(manager.getResults("q1").isEmpty());
+      assertEquals(OptionalInt.of(1), manager.getResultsCount("q1"));
+    }
+  }
+
+  @Test
+  void changes_notifyResultsListeners() throws DatabaseOperationException, InterruptedException {
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofMillis(10))) {
+      waitFor(() -> manager.getResults("q1").isPresent());
+      final List<OptionalInt> counts = Collections.synchronizedList(new ArrayList<>());
+      manager.addResultsUpdateListener(() -> counts.add(manager.getResultsCount("q1")));
+      this.insertMedia(1, "a");
+      waitFor(() -> counts.contains(OptionalInt.of(1)));
+    }
+  }
+
+  @Test
+  void tagChanges_recompileQueries() throws DatabaseOperationException, InterruptedException {
+    final MediaFile mediaFile = this.insertMedia(1, "c");
+    this.db.setSavedQueries(List.of(new SavedQuery("compound", "d")));
+    try (final var manager = SavedQueriesManager.load(this.db, null, Duration.ofMillis(10))) {
+      waitFor(() -> manager.getResults("compound").isPresent());
+      assertEquals(Set.of(), manager.getResults("compound").get());
+      this.db.insertTags(Set.of(new TagUpdate(0, "d", null, "c")));
+      waitFor(() -> manager.getResults("compound").isPresent());
+      assertEquals(Set.of(mediaFile.id()), manager.getResults("compound").get());
+    }
+  }
+}
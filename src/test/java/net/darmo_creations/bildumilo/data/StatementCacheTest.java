@@ -0,0 +1,78 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import java.sql.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatementCacheTest {
+  private Connection connection;
+  private StatementCache.Counters counters;
+  private StatementCache cache;
+
+  @BeforeEach
+  void setUp() throws SQLException {
+    this.connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+    this.counters = new StatementCache.Counters();
+    this.cache = new StatementCache(this.connection, this.counters);
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    this.cache.close();
+    this.connection.close();
+  }
+
+  @Test
+  void prepare_sameStatementForSameQuery() throws SQLException {
+    assertSame(this.cache.prepare("SELECT 1"), this.cache.prepare("SELECT 1"));
+  }
+
+  @Test
+  void prepare_differentStatementsForDifferentQueries() throws SQLException {
+    assertNotSame(this.cache.prepare("SELECT 1"), this.cache.prepare("SELECT 2"));
+  }
+
+  @Test
+  void prepare_countsHitsAndMisses() throws SQLException {
+    this.cache.prepare("SELECT 1");
+    this.cache.prepare("SELECT 1");
+    this.cache.prepare("SELECT 1");
+    this.cache.prepare("SELECT 2");
+    final StatementCacheStats stats = this.counters.snapshot();
+    assertEquals(2, stats.hits());
+    assertEquals(2, stats.misses());
+    assertEquals(0.5, stats.hitRatio());
+  }
+
+  @Test
+  void prepare_clearsParameters() throws SQLException {
+    final PreparedStatement statement = this.cache.prepare("SELECT ?1");
+    statement.setInt(1, 42);
+    try (final var resultSet = this.cache.prepare("SELECT ?1").executeQuery()) {
+      resultSet.next();
+      assertNull(resultSet.getObject(1));
+    }
+  }
+
+  @Test
+  void prepare_evictsLeastRecentlyUsed() throws SQLException {
+    final PreparedStatement first = this.cache.prepare("SELECT 0");
+    final PreparedStatement second = this.cache.prepare("SELECT 1");
+    for (int i = 2; i <= StatementCache.CAPACITY; i++) {
+      this.cache.prepare("SELECT 1"); // Keep it recently used
+      this.cache.prepare("SELECT %d".formatted(i));
+    }
+    assertTrue(first.isClosed());
+    assertFalse(second.isClosed());
+    assertEquals(1, this.counters.snapshot().evictions());
+  }
+
+  @Test
+  void close_closesStatements() throws SQLException {
+    final PreparedStatement statement = this.cache.prepare("SELECT 1");
+    this.cache.close();
+    assertTrue(statement.isClosed());
+  }
+}
@@ -0,0 +1,109 @@
+package net.darmo_creations.bildumilo.data;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TagsCacheTest {
+  private TagsCache cache;
+  private TagType tagType;
+
+  @BeforeEach
+  void setUp() {
+    this.cache = new TagsCache();
+    this.tagType = new TagType(1, "type", '/', 0);
+    this.cache.update(editor -> {
+      editor.addTagType(this.tagType);
+      editor.addTag(new Tag(1, "tag1", this.tagType, null));
+      editor.addTag(new Tag(2, "tag2", null, null));
+    });
+  }
+
+  @Test
+  void update_countsTagTypes() {
+    assertEquals(Map.of(1, 1), this.cache.tagTypesCountsView());
+    this.cache.update(editor -> editor.removeTag(this.cache.getTag(1)));
+    assertEquals(Map.of(1, 0), this.cache.tagTypesCountsView());
+  }
+
+  @Test
+  void update_incrementsVersion() {
+    final int version = this.cache.state().version();
+    this.cache.update(editor -> editor.addToTagCount(1, 1));
+    assertEquals(version + 1, this.cache.state().version());
+  }
+
+  @Test
+  void update_doesNotModifyPreviousState() {
+    final TagsCache.State state = this.cache.state();
+    this.cache.update(editor -> {
+      editor.addTag(new Tag(3, "tag3", null, null));
+      editor.addToTagCount(1, 2);
+    });
+    assertEquals(2, state.tags().size());
+    assertEquals(0, state.tagsCounts().get(1));
+    assertEquals(3, this.cache.state().tags().size());
+    assertEquals(2, this.cache.state().tagsCounts().get(1));
+  }
+
+  @Test
+  void update_sharesUnmodifiedMaps() {
+    final TagsCache.State state = this.cache.state();
+    this.cache.update(editor -> editor.addToTagCount(1, 1));
+    assertSame(state.tags(), this.cache.state().tags());
+    assertSame(state.tagTypes(), this.cache.state().tagTypes());
+  }
+
+  @Test
+  void views_reflectLatestState() {
+    final Set<Tag> tags = this.cache.tagsView();
+    final Map<Integer, Integer> counts = this.cache.tagsCountsView();
+    final Tag tag = new Tag(3, "tag3", null, null);
+    this.cache.update(editor -> editor.addTag(tag));
+    assertTrue(tags.contains(tag));
+    assertEquals(3, tags.size());
+    assertEquals(0, counts.get(3));
+  }
+
+  @Test
+  void views_areUnmodifiable() {
+    assertThrows(UnsupportedOperationException.class, () -> this.cache.tagsView().add(new Tag(3, "tag3", null, null)));
+    assertThrows(UnsupportedOperationException.class, () -> this.cache.tagsCountsView().put(1, 1));
+  }
+
+  @Test
+  void views_canBeIteratedDuringUpdates() throws InterruptedException {
+    final AtomicBoolean stop = new AtomicBoolean();
+    final Thread writer = new Thread(() -> {
+      for (int i = 3; !stop.get(); i++) {
+        final Tag tag = new Tag(i, "tag" + i, null, null);
+        this.cache.update(editor -> {
+          editor.addTag(tag);
+          editor.addToTagCount(1, 1);
+        });
+      }
+    });
+    final List<Throwable> errors = new CopyOnWriteArrayList<>();
+    writer.setUncaughtExceptionHandler((t, e) -> errors.add(e));
+    writer.start();
+    try {
+      for (int i = 0; i < 1000; i++) {
+        int count = 0;
+        for (final Tag ignored : this.cache.tagsView())
+          count++;
+        assertTrue(count >= 2);
+        final TagsCache.State state = this.cache.state();
+        // Each update adds one tag and increments the count of tag 1
+        assertEquals(state.tags().size() - 2, state.tagsCounts().get(1));
+      }
+    } finally {
+      stop.set(true);
+      writer.join();
+    }
+    assertTrue(errors.isEmpty());
+  }
+}
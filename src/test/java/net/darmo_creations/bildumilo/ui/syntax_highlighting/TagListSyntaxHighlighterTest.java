@@ -0,0 +1,85 @@
+package net.darmo_creations.bildumilo.ui.syntax_highlighting;
+
+import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TagListSyntaxHighlighterTest {
+  private final TagListSyntaxHighlighter highlighter = new TagListSyntaxHighlighter(Set.of(), Set.of());
+
+  static Stream<Arguments> provideEdits() {
+    return Stream.of(
+        Arguments.of("", "a"),
+        Arguments.of("a", ""),
+        Arguments.of("a b", "a bc"),
+        Arguments.of("a b c", "a bb c"),
+        Arguments.of("a b c", "a c"),
+        Arguments.of("ab cd", "abcd"),
+        Arguments.of("abcd", "ab cd"),
+        Arguments.of("a /b c", "a b c"),
+        Arguments.of("a b c", "a /b c"),
+        Arguments.of("a $$ c", "a $ c"),
+        Arguments.of("a b\nc d", "a b\nc /d"),
+        Arguments.of("a  b", "a /  b"),
+        Arguments.of("a b c", "x y z")
+    );
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideEdits")
+  void highlight_incrementalSameAsFull(String previousText, String text) {
+    final var previousSpans = this.highlighter.highlight(previousText);
+    assertEquals(
+        List.copyOf(this.highlighter.highlight(text)),
+        List.copyOf(this.highlighter.highlight(text, previousText, previousSpans))
+    );
+  }
+
+  @ParameterizedTest
+  @MethodSource("provideEdits")
+  void highlightingPatch_appliedToOldSpansGivesNewSpans(String previousText, String text) {
+    final var previousSpans = this.highlighter.highlight(previousText);
+    final var spans = this.highlighter.highlight(text, previousText, previousSpans);
+    final TextEdit edit = TextEdit.between(previousText, text);
+    final var patch = HighlightingPatch.compute(previousSpans, edit, spans);
+    assertArrayEquals(styles(text, spans), applyPatch(text, edit, previousSpans, patch));
+  }
+
+  /**
+   * Simulate the styles of a text area whose styles were set from the old spans,
+   * then whose text was edited, then to which the patch was applied.
+   * Inserted characters do not inherit any style, they are marked as unknown.
+   */
+  private static String[] applyPatch(String text, TextEdit edit, Collection<Span> oldSpans, HighlightingPatch patch) {
+    final String[] styles = new String[text.length()];
+    Arrays.fill(styles, "");
+    for (final Span span : oldSpans)
+      for (int i = span.start(); i <= span.end(); i++) {
+        if (i < edit.start())
+          styles[i] = span.css();
+        else if (i >= edit.oldEnd())
+          styles[i + edit.delta()] = span.css();
+      }
+    for (int i = edit.start(); i < edit.newEnd(); i++)
+      styles[i] = "?";
+    for (int i = patch.from(); i < patch.to(); i++)
+      styles[i] = "";
+    for (final Span span : patch.spans())
+      for (int i = Math.max(span.start(), patch.from()); i < Math.min(span.end() + 1, patch.to()); i++)
+        styles[i] = span.css();
+    return styles;
+  }
+
+  private static String[] styles(String text, Collection<Span> spans) {
+    final String[] styles = new String[text.length()];
+    Arrays.fill(styles, "");
+    for (final Span span : spans)
+      for (int i = span.start(); i <= span.end(); i++)
+        styles[i] = span.css();
+    return styles;
+  }
+}
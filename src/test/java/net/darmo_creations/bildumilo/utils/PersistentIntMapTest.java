@@ -0,0 +1,122 @@
+package net.darmo_creations.bildumilo.utils;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentIntMapTest {
+  @Test
+  void empty() {
+    final PersistentIntMap<String> map = PersistentIntMap.empty();
+    assertTrue(map.isEmpty());
+    assertNull(map.get(0));
+    assertFalse(map.entrySet().iterator().hasNext());
+  }
+
+  @Test
+  void with_addsAndReplaces() {
+    final PersistentIntMap<String> map = PersistentIntMap.<String>empty()
+        .with(1, "a")
+        .with(33, "b")
+        .with(-1, "c")
+        .with(1, "d");
+    assertEquals(Map.of(1, "d", 33, "b", -1, "c"), map);
+    assertEquals(3, map.size());
+  }
+
+  @Test
+  void with_sameValueReturnsSameMap() {
+    final String value = "a";
+    final PersistentIntMap<String> map = PersistentIntMap.<String>empty().with(1, value);
+    assertSame(map, map.with(1, value));
+  }
+
+  @Test
+  void with_doesNotModifyPreviousMap() {
+    final PersistentIntMap<String> map1 = PersistentIntMap.<String>empty().with(1, "a").with(2, "b");
+    final PersistentIntMap<String> map2 = map1.with(1, "c").with(3, "d").without(2);
+    assertEquals(Map.of(1, "a", 2, "b"), map1);
+    assertEquals(Map.of(1, "c", 3, "d"), map2);
+  }
+
+  @Test
+  void without_missingKeyReturnsSameMap() {
+    final PersistentIntMap<String> map = PersistentIntMap.<String>empty().with(1, "a");
+    assertSame(map, map.without(2));
+  }
+
+  @Test
+  void with_nullValueError() {
+    assertThrows(NullPointerException.class, () -> PersistentIntMap.empty().with(1, null));
+  }
+
+  @Test
+  void randomOperations_matchHashMap() {
+    final Random random = new Random(42);
+    final Map<Integer, Integer> expected = new HashMap<>();
+    PersistentIntMap<Integer> map = PersistentIntMap.empty();
+    for (int i = 0; i < 20_000; i++) {
+      // Mix dense and sparse keys to get both wide and deep nodes
+      final int key = random.nextBoolean() ? random.nextInt(2000) : random.nextInt();
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.without(key);
+      } else {
+        expected.put(key, i);
+        map = map.with(key, i);
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    assertEquals(expected, map);
+    assertEquals(expected.hashCode(), map.hashCode());
+    int iterated = 0;
+    for (final var entry : map.entrySet()) {
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+      iterated++;
+    }
+    assertEquals(expected.size(), iterated);
+    for (final int key : expected.keySet())
+      map = map.without(key);
+    assertTrue(map.isEmpty());
+    assertFalse(map.entrySet().iterator().hasNext());
+  }
+
+  @Test
+  void copyOf() {
+    final PersistentIntMap<String> map = PersistentIntMap.copyOf(Map.of(1, "a", 2, "b"));
+    assertEquals(Map.of(1, "a", 2, "b"), map);
+    assertSame(map, PersistentIntMap.copyOf(map));
+  }
+
+  @Test
+  void forEachChangedKey() {
+    PersistentIntMap<Integer> map1 = PersistentIntMap.empty();
+    for (int i = 0; i < 2000; i++)
+      map1 = map1.with(i, i);
+    final PersistentIntMap<Integer> map2 = map1.with(3, 4).with(1000, 1000).without(64).with(5000, 0).with(-1, 0);
+    final Set<Integer> changed = new HashSet<>();
+    map2.forEachChangedKey(map1, changed::add);
+    assertEquals(Set.of(3, 64, 5000, -1), changed);
+  }
+
+  @Test
+  void forEachChangedKey_leafAgainstNode() {
+    final PersistentIntMap<String> map1 = PersistentIntMap.<String>empty().with(1, "a");
+    final PersistentIntMap<String> map2 = map1.with(33, "b").with(65, "c");
+    final Set<Integer> changed = new HashSet<>();
+    map2.forEachChangedKey(map1, changed::add);
+    assertEquals(Set.of(33, 65), changed);
+    changed.clear();
+    map1.forEachChangedKey(map2.with(1, "d"), changed::add);
+    assertEquals(Set.of(1, 33, 65), changed);
+  }
+
+  @Test
+  void forEachChangedKey_sameMap() {
+    final PersistentIntMap<String> map = PersistentIntMap.<String>empty().with(1, "a").with(2, "b");
+    map.forEachChangedKey(map, key -> fail());
+    map.forEachChangedKey(PersistentIntMap.copyOf(Map.of(1, "a", 2, "b")), key -> fail());
+  }
+}
@@ -0,0 +1,118 @@
+package net.darmo_creations.bildumilo.utils;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrefixIndexTest {
+  private Map<String, Integer> weights;
+  private PrefixIndex<Item> index;
+
+  @BeforeEach
+  void setUp() {
+    this.weights = new HashMap<>();
+    this.index = new PrefixIndex<>(Item::getKey, item -> this.weights.getOrDefault(item.getKey(), 0));
+  }
+
+  @Test
+  void completions_empty() {
+    assertEquals(List.of(), this.index.completions("a", 10));
+  }
+
+  @Test
+  void completions_sortedAlphabeticallyWithSameWeights() {
+    this.index.update(items("cat", "car", "dog", "cart", "ca"));
+    assertEquals(List.of("car", "cart", "cat"), this.index.completions("ca", 10));
+  }
+
+  @Test
+  void completions_excludesExactMatch() {
+    this.index.update(items("ca", "cab"));
+    assertEquals(List.of("cab"), this.index.completions("ca", 10));
+  }
+
+  @Test
+  void completions_noMatch() {
+    this.index.update(items("cat", "dog"));
+    assertEquals(List.of(), this.index.completions("b", 10));
+    assertEquals(List.of(), this.index.completions("e", 10));
+  }
+
+  @Test
+  void completions_rankedByWeight() {
+    this.weights.put("cart", 5);
+    this.weights.put("cat", 2);
+    this.index.update(items("cat", "car", "cart"));
+    assertEquals(List.of("cart", "cat", "car"), this.index.completions("ca", 10));
+  }
+
+  @Test
+  void completions_limitKeepsHighestWeights() {
+    this.weights.put("a4", 4);
+    this.weights.put("a1", 1);
+    this.weights.put("a3", 3);
+    this.index.update(items("a0", "a1", "a2", "a3", "a4", "b5"));
+    assertEquals(List.of("a4", "a3"), this.index.completions("a", 2));
+  }
+
+  @Test
+  void update_addsAndRemoves() {
+    final Item cat = new Item("cat");
+    final Item car = new Item("car");
+    this.index.update(List.of(cat, car));
+    this.index.update(List.of(cat, new Item("cab")));
+    assertEquals(2, this.index.size());
+    assertEquals(List.of("cab", "cat"), this.index.completions("ca", 10));
+  }
+
+  @Test
+  void update_detectsKeyChanges() {
+    final Item item = new Item("cat");
+    this.index.update(List.of(item, new Item("dog")));
+    item.setKey("dot");
+    this.index.update(List.of(item, new Item("dog")));
+    assertEquals(List.of(), this.index.completions("c", 10));
+    assertEquals(List.of("dog", "dot"), this.index.completions("d", 10));
+  }
+
+  @Test
+  void update_refreshesWeights() {
+    this.index.update(items("cat", "car"));
+    this.weights.put("cat", 1);
+    assertEquals(List.of("car", "cat"), this.index.completions("ca", 10));
+    this.index.update(items("cat", "car"));
+    assertEquals(List.of("cat", "car"), this.index.completions("ca", 10));
+  }
+
+  @Test
+  void update_keepsWeightsUnlessChanged() {
+    final List<Item> items = items("cat", "car", "cab");
+    this.index.update(items);
+    this.weights.put("cat", 1);
+    this.weights.put("car", 2);
+    this.index.update(items, item -> item.getKey().equals("cat"));
+    assertEquals(List.of("cat", "cab", "car"), this.index.completions("ca", 10));
+  }
+
+  private static List<Item> items(final String... keys) {
+    return Arrays.stream(keys).map(Item::new).toList();
+  }
+
+  private static final class Item {
+    private String key;
+
+    Item(String key) {
+      this.key = key;
+    }
+
+    String getKey() {
+      return this.key;
+    }
+
+    void setKey(String key) {
+      this.key = key;
+    }
+  }
+}